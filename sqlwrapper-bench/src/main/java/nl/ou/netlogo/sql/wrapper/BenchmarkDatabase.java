@@ -0,0 +1,219 @@
+/*
+ * Copyright 2010, 2011 Open University of The Netherlands
+ * Contributors: Jan Blom, Rene Quakkelaar, Mark Rotteveel
+ *
+ * This file is part of NetLogo SQL Wrapper extension.
+ * 
+ * NetLogo SQL Wrapper extension is free software: you can redistribute it
+ * and/or modify it under the terms of the GNU Lesser General Public License 
+ * as published by the Free Software Foundation, either version 3 of the 
+ * License, or (at your option) any later version.
+ * 
+ * NetLogo SQL Wrapper is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with NetLogo SQL Wrapper extension.  If not, 
+ * see <http://www.gnu.org/licenses/>.
+ */
+package nl.ou.netlogo.sql.wrapper;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import org.nlogo.api.Agent;
+
+/**
+ * Embedded in-process H2 database the benchmarks run against, with a narrow
+ * and a wide table of {@link #ROWS} rows.
+ * <p>
+ * The benchmarks are in the package of the extension, so they can use the
+ * protected constructors of {@link SqlConnection} and {@link SqlStatement}.
+ * </p>
+ * 
+ * @author NetLogo project-team
+ */
+public class BenchmarkDatabase {
+
+    /**
+     * Number of rows of the narrow and the wide table.
+     */
+    public static final int ROWS = 1000;
+    /**
+     * Number of columns of the wide table (besides the id).
+     */
+    public static final int WIDE_COLUMNS = 24;
+
+    public static final String DRIVER = "org.h2.Driver";
+    public static final String USER = "sa";
+    public static final String PASSWORD = "";
+
+    private final String jdbcUrl;
+    /**
+     * Keeps the in-memory database alive while the benchmark runs
+     */
+    private final Connection keepAlive;
+
+    /**
+     * Creates the database and fills the tables.
+     * 
+     * @param name
+     *            Name of the in-memory database
+     * @throws SQLException
+     */
+    public BenchmarkDatabase(String name) throws SQLException {
+        try {
+            Class.forName(DRIVER);
+        } catch (ClassNotFoundException e) {
+            throw new SQLException("H2 driver not on the classpath", e);
+        }
+        jdbcUrl = "jdbc:h2:mem:" + name;
+        keepAlive = DriverManager.getConnection(jdbcUrl, USER, PASSWORD);
+        createTables();
+    }
+
+    /**
+     * @return JDBC URL of the database
+     */
+    public String getJdbcUrl() {
+        return jdbcUrl;
+    }
+
+    /**
+     * @return DatabaseInfo of the database, for the generic brand
+     */
+    public DatabaseInfo getDatabaseInfo() {
+        return new GenericDatabase("generic", jdbcUrl, DRIVER, USER, PASSWORD, false);
+    }
+
+    /**
+     * Opens an unpooled connection to the database, as created for an agent
+     * by the extension.
+     * 
+     * @return SqlConnection
+     * @throws SQLException
+     */
+    public SqlConnection connect() throws SQLException {
+        return new SqlConnection(DriverManager.getConnection(jdbcUrl, USER, PASSWORD), getDatabaseInfo());
+    }
+
+    /**
+     * Fills the settings of a (default or explicit) connection for the
+     * database.
+     * 
+     * @param settings
+     *            Connection settings
+     * @return The settings
+     */
+    public SqlSetting applyTo(SqlSetting settings) {
+        settings.put(SqlConfiguration.DEFAULTCONNECTION_OPT_BRAND, "generic");
+        settings.put(SqlConfiguration.DEFAULTCONNECTION_OPT_JDBC_URL, jdbcUrl);
+        settings.put(SqlConfiguration.DEFAULTCONNECTION_OPT_DRIVER_CLASSNAME, DRIVER);
+        settings.put(SqlConfiguration.DEFAULTCONNECTION_OPT_USER, USER);
+        settings.put(SqlConfiguration.DEFAULTCONNECTION_OPT_PASSWORD, PASSWORD);
+        return settings;
+    }
+
+    /**
+     * Drops the database.
+     * 
+     * @throws SQLException
+     */
+    public void close() throws SQLException {
+        try {
+            Statement stmt = keepAlive.createStatement();
+            try {
+                stmt.execute("DROP ALL OBJECTS");
+            } finally {
+                stmt.close();
+            }
+        } finally {
+            keepAlive.close();
+        }
+    }
+
+    /**
+     * Creates an agent for the benchmarks, outside of a NetLogo world.
+     * 
+     * @param id
+     *            Who number of the agent
+     * @return Agent
+     */
+    public static Agent createAgent(final long id) {
+        return (Agent) Proxy.newProxyInstance(Agent.class.getClassLoader(), new Class<?>[] { Agent.class },
+                new InvocationHandler() {
+                    public Object invoke(Object proxy, Method method, Object[] args) {
+                        String name = method.getName();
+                        if (name.equals("equals")) {
+                            return Boolean.valueOf(proxy == args[0]);
+                        } else if (name.equals("hashCode")) {
+                            return Integer.valueOf(System.identityHashCode(proxy));
+                        } else if (name.equals("toString")) {
+                            return "(turtle " + id + ")";
+                        } else if (name.equals("id")) {
+                            return Long.valueOf(id);
+                        }
+                        throw new UnsupportedOperationException("Agent." + name + " is not available in benchmarks");
+                    }
+                });
+    }
+
+    private void createTables() throws SQLException {
+        Statement stmt = keepAlive.createStatement();
+        try {
+            stmt.execute("CREATE TABLE narrow (id INTEGER PRIMARY KEY, val DOUBLE)");
+            StringBuilder wide = new StringBuilder("CREATE TABLE wide (id INTEGER PRIMARY KEY");
+            for (int col = 0; col < WIDE_COLUMNS; col++) {
+                wide.append(", c").append(col).append(col % 3 == 0 ? " VARCHAR(40)" : col % 3 == 1 ? " DOUBLE"
+                        : " BOOLEAN");
+            }
+            stmt.execute(wide.append(')').toString());
+        } finally {
+            stmt.close();
+        }
+
+        PreparedStatement narrow = keepAlive.prepareStatement("INSERT INTO narrow VALUES (?, ?)");
+        try {
+            for (int row = 0; row < ROWS; row++) {
+                narrow.setInt(1, row);
+                narrow.setDouble(2, row * 0.5);
+                narrow.addBatch();
+            }
+            narrow.executeBatch();
+        } finally {
+            narrow.close();
+        }
+
+        StringBuilder sql = new StringBuilder("INSERT INTO wide VALUES (?");
+        for (int col = 0; col < WIDE_COLUMNS; col++) {
+            sql.append(", ?");
+        }
+        PreparedStatement wide = keepAlive.prepareStatement(sql.append(')').toString());
+        try {
+            for (int row = 0; row < ROWS; row++) {
+                wide.setInt(1, row);
+                for (int col = 0; col < WIDE_COLUMNS; col++) {
+                    if (col % 3 == 0) {
+                        wide.setString(col + 2, "value " + row + "/" + col);
+                    } else if (col % 3 == 1) {
+                        wide.setDouble(col + 2, row * col);
+                    } else {
+                        wide.setBoolean(col + 2, (row + col) % 2 == 0);
+                    }
+                }
+                wide.addBatch();
+            }
+            wide.executeBatch();
+        } finally {
+            wide.close();
+        }
+    }
+}
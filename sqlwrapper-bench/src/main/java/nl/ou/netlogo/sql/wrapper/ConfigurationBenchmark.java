@@ -0,0 +1,108 @@
+/*
+ * Copyright 2010, 2011 Open University of The Netherlands
+ * Contributors: Jan Blom, Rene Quakkelaar, Mark Rotteveel
+ *
+ * This file is part of NetLogo SQL Wrapper extension.
+ * 
+ * NetLogo SQL Wrapper extension is free software: you can redistribute it
+ * and/or modify it under the terms of the GNU Lesser General Public License 
+ * as published by the Free Software Foundation, either version 3 of the 
+ * License, or (at your option) any later version.
+ * 
+ * NetLogo SQL Wrapper is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with NetLogo SQL Wrapper extension.  If not, 
+ * see <http://www.gnu.org/licenses/>.
+ */
+package nl.ou.netlogo.sql.wrapper;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.nlogo.api.LogoList;
+import org.nlogo.api.LogoListBuilder;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Handling of sql:configure by {@link SqlConfiguration} (parsing the setting
+ * list and storing the settings) and the lookups of settings in
+ * {@link SqlSetting}, as done when connections are created.
+ * 
+ * @author NetLogo project-team
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ConfigurationBenchmark {
+
+    private SqlConfiguration configuration;
+    private LogoList settingList;
+    private Map<String, String> settings;
+    private SqlSetting connectionSettings;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        configuration = new SqlConfiguration();
+        LogoListBuilder list = new LogoListBuilder();
+        list.add(pair(SqlConfiguration.DEFAULTCONNECTION_OPT_HOST, "localhost"));
+        list.add(pair(SqlConfiguration.DEFAULTCONNECTION_OPT_PORT, "3306"));
+        list.add(pair(SqlConfiguration.DEFAULTCONNECTION_OPT_USER, "user"));
+        list.add(pair(SqlConfiguration.DEFAULTCONNECTION_OPT_PASSWORD, "secret"));
+        list.add(pair(SqlConfiguration.DEFAULTCONNECTION_OPT_DATABASE, "simulation"));
+        list.add(pair(SqlConfiguration.DEFAULTCONNECTION_OPT_AUTODISCONNECT, "on"));
+        settingList = list.toLogoList();
+        settings = SqlConfiguration.parseSettingList(SqlConfiguration.DEFAULTCONNECTION, settingList);
+        configuration.setConfiguration(SqlConfiguration.DEFAULTCONNECTION, settings, null);
+        connectionSettings = configuration.getConfiguration(SqlConfiguration.DEFAULTCONNECTION);
+    }
+
+    @Benchmark
+    public Map<String, String> parseSettingList() throws Exception {
+        return SqlConfiguration.parseSettingList(SqlConfiguration.DEFAULTCONNECTION, settingList);
+    }
+
+    @Benchmark
+    public SqlConfiguration setConfiguration() throws Exception {
+        configuration.setConfiguration(SqlConfiguration.DEFAULTCONNECTION, settings, null);
+        return configuration;
+    }
+
+    @Benchmark
+    public SqlSetting getConfiguration_unconfigured() throws Exception {
+        return configuration.getConfiguration(SqlConfiguration.CONNECTIONPOOL);
+    }
+
+    @Benchmark
+    public void settingLookups(Blackhole blackhole) throws Exception {
+        blackhole.consume(connectionSettings.getString(SqlConfiguration.DEFAULTCONNECTION_OPT_HOST));
+        blackhole.consume(connectionSettings.getInt(SqlConfiguration.DEFAULTCONNECTION_OPT_PORT));
+        blackhole.consume(connectionSettings.getString(SqlConfiguration.DEFAULTCONNECTION_OPT_DATABASE));
+        blackhole.consume(SqlSetting.toggleValue(connectionSettings
+                .getString(SqlConfiguration.DEFAULTCONNECTION_OPT_AUTODISCONNECT)));
+    }
+
+    private static LogoList pair(String key, String value) {
+        LogoListBuilder pair = new LogoListBuilder();
+        pair.add(key);
+        pair.add(value);
+        return pair.toLogoList();
+    }
+}
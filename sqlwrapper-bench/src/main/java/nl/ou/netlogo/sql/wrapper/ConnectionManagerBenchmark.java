@@ -0,0 +1,108 @@
+/*
+ * Copyright 2010, 2011 Open University of The Netherlands
+ * Contributors: Jan Blom, Rene Quakkelaar, Mark Rotteveel
+ *
+ * This file is part of NetLogo SQL Wrapper extension.
+ * 
+ * NetLogo SQL Wrapper extension is free software: you can redistribute it
+ * and/or modify it under the terms of the GNU Lesser General Public License 
+ * as published by the Free Software Foundation, either version 3 of the 
+ * License, or (at your option) any later version.
+ * 
+ * NetLogo SQL Wrapper is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with NetLogo SQL Wrapper extension.  If not, 
+ * see <http://www.gnu.org/licenses/>.
+ */
+package nl.ou.netlogo.sql.wrapper;
+
+import java.util.concurrent.TimeUnit;
+
+import org.nlogo.api.Agent;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Obtaining and closing the connection of an agent through
+ * {@link SqlConnectionManager}, with and without the connection pool.
+ * <ul>
+ * <li>getConnection_pooled: the connection pool of the default connection (as
+ * in the first sql:exec-query of an agent, followed by sql:disconnect)</li>
+ * <li>createConnection_pooled: an explicit connection from a pool (as in
+ * sql:connect)</li>
+ * <li>createConnection_unpooled: an explicit connection with
+ * <code>pooled</code> off, which opens a physical connection every time</li>
+ * </ul>
+ * 
+ * @author NetLogo project-team
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ConnectionManagerBenchmark {
+
+    private BenchmarkDatabase database;
+    private SqlConnectionManager connectionManager;
+    private SqlSetting pooledSettings;
+    private SqlSetting unpooledSettings;
+    private Agent agent;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        database = new BenchmarkDatabase("connectionmanager");
+        connectionManager = new SqlConnectionManager();
+        SqlConfiguration configuration = new SqlConfiguration();
+        connectionManager.configure(configuration.getConfiguration(SqlConfiguration.CONNECTIONPOOL), null);
+        connectionManager.configure(database.applyTo(configuration
+                .getConfiguration(SqlConfiguration.DEFAULTCONNECTION)), null);
+        pooledSettings = database.applyTo(configuration.getConfiguration(SqlConfiguration.EXPLICITCONNECTION));
+        unpooledSettings = database.applyTo(configuration.getConfiguration(SqlConfiguration.EXPLICITCONNECTION));
+        unpooledSettings.put(SqlConfiguration.EXPLICITCONNECTION_OPT_POOLED, "off");
+        agent = BenchmarkDatabase.createAgent(0);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        connectionManager.closeAll();
+        connectionManager.releaseConnectionPool();
+        database.close();
+    }
+
+    @Benchmark
+    public SqlConnection getConnection_pooled() throws Exception {
+        SqlConnection connection = connectionManager.getConnection(agent, true);
+        connection.close();
+        return connection;
+    }
+
+    @Benchmark
+    public SqlConnection createConnection_pooled() throws Exception {
+        SqlConnection connection = connectionManager.createConnection(agent, pooledSettings);
+        connection.close();
+        return connection;
+    }
+
+    @Benchmark
+    public SqlConnection createConnection_unpooled() throws Exception {
+        SqlConnection connection = connectionManager.createConnection(agent, unpooledSettings);
+        connection.close();
+        return connection;
+    }
+}
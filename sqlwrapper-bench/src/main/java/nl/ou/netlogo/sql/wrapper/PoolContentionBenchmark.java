@@ -0,0 +1,137 @@
+/*
+ * Copyright 2010, 2011 Open University of The Netherlands
+ * Contributors: Jan Blom, Rene Quakkelaar, Mark Rotteveel
+ *
+ * This file is part of NetLogo SQL Wrapper extension.
+ * 
+ * NetLogo SQL Wrapper extension is free software: you can redistribute it
+ * and/or modify it under the terms of the GNU Lesser General Public License 
+ * as published by the Free Software Foundation, either version 3 of the 
+ * License, or (at your option) any later version.
+ * 
+ * NetLogo SQL Wrapper is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with NetLogo SQL Wrapper extension.  If not, 
+ * see <http://www.gnu.org/licenses/>.
+ */
+package nl.ou.netlogo.sql.wrapper;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import nl.ou.netlogo.sql.testsupport.FakeDatabase;
+import nl.ou.netlogo.sql.testsupport.FakeDriver;
+
+import org.nlogo.api.Agent;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Contention for the connection pool of the default connection: more threads
+ * (agents) than connections obtain a connection, execute a query and return
+ * the connection, as in a tick of a model with autodisconnect.
+ * <p>
+ * The benchmark runs against the {@link FakeDriver}, whose fixed connect and
+ * statement latencies replace the network and the database server, so the
+ * results only depend on the connection layer and are reproducible between
+ * machines. The sample time mode reports the percentiles of the wait for a
+ * connection.
+ * </p>
+ * 
+ * @author NetLogo project-team
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Threads(16)
+@Fork(1)
+public class PoolContentionBenchmark {
+
+    /**
+     * Time a connect takes in ms
+     */
+    @Param({ "20" })
+    public int connectLatency;
+
+    /**
+     * Time the execution of a statement takes in ms
+     */
+    @Param({ "1", "5" })
+    public int statementLatency;
+
+    /**
+     * Maximum number of connections in the pool
+     */
+    @Param({ "5", "10" })
+    public int maxConnections;
+
+    private SqlConnectionManager connectionManager;
+    private final AtomicLong agentIds = new AtomicLong();
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        FakeDatabase.clear();
+        connectionManager = new SqlConnectionManager();
+        SqlConfiguration configuration = new SqlConfiguration();
+        SqlSetting poolSettings = configuration.getConfiguration(SqlConfiguration.CONNECTIONPOOL);
+        poolSettings.put(SqlConfiguration.CONNECTIONPOOL_OPT_MAXCONNECTIONS, String.valueOf(maxConnections));
+        connectionManager.configure(poolSettings, null);
+        SqlSetting settings = configuration.getConfiguration(SqlConfiguration.DEFAULTCONNECTION);
+        settings.put(SqlConfiguration.DEFAULTCONNECTION_OPT_BRAND, "generic");
+        settings.put(SqlConfiguration.DEFAULTCONNECTION_OPT_JDBC_URL, FakeDriver.URL_PREFIX + "contention;connect-latency="
+                + connectLatency + ";statement-latency=" + statementLatency);
+        settings.put(SqlConfiguration.DEFAULTCONNECTION_OPT_DRIVER_CLASSNAME, FakeDriver.class.getName());
+        settings.put(SqlConfiguration.DEFAULTCONNECTION_OPT_USER, "sa");
+        settings.put(SqlConfiguration.DEFAULTCONNECTION_OPT_PASSWORD, "sa");
+        connectionManager.configure(settings, null);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        connectionManager.closeAll();
+        connectionManager.releaseConnectionPool();
+        FakeDatabase.clear();
+    }
+
+    /**
+     * Agent of a benchmark thread
+     */
+    @State(Scope.Thread)
+    public static class AgentState {
+
+        Agent agent;
+
+        @Setup(Level.Trial)
+        public void setUp(PoolContentionBenchmark benchmark) {
+            agent = BenchmarkDatabase.createAgent(benchmark.agentIds.incrementAndGet());
+        }
+    }
+
+    @Benchmark
+    public SqlConnection checkoutQueryRelease(AgentState state) throws Exception {
+        SqlConnection connection = connectionManager.getConnection(state.agent, true);
+        SqlStatement statement = connection.createStatement("SELECT 1");
+        statement.executeQuery();
+        statement.close();
+        connection.close();
+        return connection;
+    }
+}
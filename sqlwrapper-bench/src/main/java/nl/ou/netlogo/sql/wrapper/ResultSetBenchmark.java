@@ -0,0 +1,99 @@
+/*
+ * Copyright 2010, 2011 Open University of The Netherlands
+ * Contributors: Jan Blom, Rene Quakkelaar, Mark Rotteveel
+ *
+ * This file is part of NetLogo SQL Wrapper extension.
+ * 
+ * NetLogo SQL Wrapper extension is free software: you can redistribute it
+ * and/or modify it under the terms of the GNU Lesser General Public License 
+ * as published by the Free Software Foundation, either version 3 of the 
+ * License, or (at your option) any later version.
+ * 
+ * NetLogo SQL Wrapper is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with NetLogo SQL Wrapper extension.  If not, 
+ * see <http://www.gnu.org/licenses/>.
+ */
+package nl.ou.netlogo.sql.wrapper;
+
+import java.util.concurrent.TimeUnit;
+
+import org.nlogo.api.LogoList;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Conversion of rows to NetLogo lists by {@link SqlResultSet#fetchRow()} (as
+ * in sql:fetch-row) and {@link SqlResultSet#fetchResultSet()} (as in
+ * sql:fetch-resultset), over a narrow and a wide table.
+ * <p>
+ * Every invocation executes the query and fetches all {@link BenchmarkDatabase#ROWS}
+ * rows.
+ * </p>
+ * 
+ * @author NetLogo project-team
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ResultSetBenchmark {
+
+    @Param({ "narrow", "wide" })
+    public String table;
+
+    private BenchmarkDatabase database;
+    private SqlConnection connection;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        database = new BenchmarkDatabase("resultset");
+        connection = database.connect();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        connection.close();
+        database.close();
+    }
+
+    @Benchmark
+    public int fetchRow(Blackhole blackhole) throws Exception {
+        SqlResultSet resultSet = executeQuery();
+        int rows = 0;
+        while (resultSet.isRowAvailable()) {
+            blackhole.consume(resultSet.fetchRow());
+            rows++;
+        }
+        return rows;
+    }
+
+    @Benchmark
+    public LogoList fetchResultSet() throws Exception {
+        return executeQuery().fetchResultSet();
+    }
+
+    private SqlResultSet executeQuery() throws Exception {
+        SqlStatement statement = connection.createStatement("SELECT * FROM " + table + " ORDER BY id");
+        statement.executeQuery();
+        return statement.getResultSet();
+    }
+}
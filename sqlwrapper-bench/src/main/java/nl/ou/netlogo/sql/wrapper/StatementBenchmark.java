@@ -0,0 +1,104 @@
+/*
+ * Copyright 2010, 2011 Open University of The Netherlands
+ * Contributors: Jan Blom, Rene Quakkelaar, Mark Rotteveel
+ *
+ * This file is part of NetLogo SQL Wrapper extension.
+ * 
+ * NetLogo SQL Wrapper extension is free software: you can redistribute it
+ * and/or modify it under the terms of the GNU Lesser General Public License 
+ * as published by the Free Software Foundation, either version 3 of the 
+ * License, or (at your option) any later version.
+ * 
+ * NetLogo SQL Wrapper is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with NetLogo SQL Wrapper extension.  If not, 
+ * see <http://www.gnu.org/licenses/>.
+ */
+package nl.ou.netlogo.sql.wrapper;
+
+import java.sql.PreparedStatement;
+import java.util.concurrent.TimeUnit;
+
+import org.nlogo.api.LogoList;
+import org.nlogo.api.LogoListBuilder;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Binding of NetLogo values (numbers, strings and booleans) to the parameters
+ * of a prepared statement by {@link SqlStatement#prepareStatement()}, as done
+ * for every sql:exec-query and sql:exec-update with parameters.
+ * <p>
+ * The JDBC statement is prepared once, so only the check of the number of
+ * parameters and the binding are measured.
+ * </p>
+ * 
+ * @author NetLogo project-team
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StatementBenchmark {
+
+    @Param({ "1", "8", "25" })
+    public int parameterCount;
+
+    private BenchmarkDatabase database;
+    private SqlConnection connection;
+    private PreparedStatement statement;
+    private LogoList parameters;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        database = new BenchmarkDatabase("statement");
+        connection = database.connect();
+        // Parameters for the id and the columns of the wide table, in the same types
+        StringBuilder sql = new StringBuilder("SELECT id FROM wide WHERE id = ?");
+        LogoListBuilder values = new LogoListBuilder();
+        values.add(Double.valueOf(1));
+        for (int col = 0; col < parameterCount - 1; col++) {
+            sql.append(" AND c").append(col).append(" = ?");
+            if (col % 3 == 0) {
+                values.add("value 1/" + col);
+            } else if (col % 3 == 1) {
+                values.add(Double.valueOf(col));
+            } else {
+                values.add(Boolean.valueOf((1 + col) % 2 == 0));
+            }
+        }
+        statement = connection.getConnection().prepareStatement(sql.toString());
+        parameters = values.toLogoList();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        statement.close();
+        connection.close();
+        database.close();
+    }
+
+    @Benchmark
+    public SqlStatement prepareStatement() throws Exception {
+        SqlStatement sqlStatement = new SqlStatement(statement, parameters, connection.autodisconnectCoordinator);
+        sqlStatement.prepareStatement();
+        return sqlStatement;
+    }
+}
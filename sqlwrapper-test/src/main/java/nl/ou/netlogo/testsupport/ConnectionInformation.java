@@ -39,6 +39,7 @@ public class ConnectionInformation {
 	public static final String PASSWORD_PROPERTY = ".db.password";
 	public static final String MYSQL_PREFIX = "mysql";
 	public static final String POSTGRESQL_PREFIX = "postgresql";
+	public static final String EMBEDDED_PREFIX = "embedded";
 
 	private static Properties defaultConnectionProperties;
 	private final String dbPrefix;
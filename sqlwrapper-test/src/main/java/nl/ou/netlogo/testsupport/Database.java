@@ -30,6 +30,37 @@ public enum Database {
         public String getJdbcUrl() {
             return String.format("jdbc:postgresql://%s:%s/%s", getHost(), getPort(), getSchema());
         }
+    },
+    EMBEDDED(ConnectionInformation.EMBEDDED_PREFIX) {
+        @Override
+        public String getDriver() {
+            return "org.h2.Driver";
+        }
+        
+        @Override
+        public String getJdbcUrl() {
+            // Same url as the plugin uses for mode memory; H2 is loaded from the classpath of
+            // the tests, so the tests and the plugin share the in-memory database
+            return String.format("jdbc:h2:mem:%s;DB_CLOSE_DELAY=-1", getSchema());
+        }
+        
+        @Override
+        public String getConnectionSettings() {
+            return String.format("[\"brand\" \"%s\"] [\"mode\" \"memory\"] [\"user\" \"%s\"] [\"password\" \"%s\"] [\"database\" \"%s\"]",
+                    getBrand(), getUsername(), getPassword(), getSchema());
+        }
+        
+        @Override
+        public String getCurrentDatabase() {
+            // A connection starts in the default schema of the H2 database
+            return "PUBLIC";
+        }
+        
+        @Override
+        public String charValue(String value, int fieldLength) {
+            // H2 returns CHAR unpadded
+            return value;
+        }
     };
     
     private final String brand;
@@ -76,13 +107,29 @@ public enum Database {
         return brand;
     }
     
+    /**
+     * 
+     * @return the database sql:current-database reports directly after connecting
+     */
+    public String getCurrentDatabase() {
+        return getSchema();
+    }
+    
+    /**
+     * 
+     * @return the connection settings for this database, as the contents of a NetLogo list of settings
+     */
+    public String getConnectionSettings() {
+        return String.format("[\"brand\" \"%s\"] [\"host\" \"%s\"] [\"port\" \"%s\"] [\"user\" \"%s\"] [\"password\" \"%s\"] [\"database\" \"%s\"]",
+                getBrand(), getHost(), getPort(), getUsername(), getPassword(), getSchema());
+    }
+    
     /**
      * 
      * @return the full sql:connect command to connect to this database
      */
     public String getConnectCommand() {
-        return String.format("sql:connect [[\"brand\" \"%s\"] [\"host\" \"%s\"] [\"port\" \"%s\"] [\"user\" \"%s\"] [\"password\" \"%s\"] [\"database\" \"%s\"]]",
-                getBrand(), getHost(), getPort(), getUsername(), getPassword(), getSchema());
+        return String.format("sql:connect [%s]", getConnectionSettings());
     }
     
     /**
@@ -94,8 +141,7 @@ public enum Database {
      * @return the full sql:configure "defaultconnection" command 
      */
     public String getPoolConfigurationCommand() {
-        return String.format("sql:configure \"defaultconnection\" [[\"brand\" \"%s\"] [\"host\" \"%s\"] [\"port\" \"%s\"] [\"user\" \"%s\"] [\"password\" \"%s\"] [\"database\" \"%s\"]]",
-                getBrand(), getHost(), getPort(), getUsername(), getPassword(), getSchema());
+        return String.format("sql:configure \"defaultconnection\" [%s]", getConnectionSettings());
     }
     
     /**
@@ -105,8 +151,8 @@ public enum Database {
      * @return the full sql:configure "defaultconnection" command
      */
     public String getPoolConfigurationCommand(boolean autodisconnect) {
-        return String.format("sql:configure \"defaultconnection\" [[\"brand\" \"%s\"] [\"host\" \"%s\"] [\"port\" \"%s\"] [\"user\" \"%s\"] [\"password\" \"%s\"] [\"database\" \"%s\"] [\"autodisconnect\" \"%s\"]]",
-                        getBrand(), getHost(), getPort(), getUsername(), getPassword(), getSchema(), autodisconnect ? "on" : "off");
+        return String.format("sql:configure \"defaultconnection\" [%s [\"autodisconnect\" \"%s\"]]",
+                getConnectionSettings(), autodisconnect ? "on" : "off");
     }
     
     /**
@@ -26,9 +26,12 @@ import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 
+import org.junit.Assume;
+
 public class DatabaseHelper {
 
     static {
@@ -43,6 +46,46 @@ public class DatabaseHelper {
     
     public static final Database PLUGIN_DEFAULT_DATABASE = Database.MYSQL;
 
+    /**
+     * System property that selects the database the tests run against (eg
+     * <code>-Dtest.database=embedded</code>).
+     */
+    public static final String TEST_DATABASE_PROPERTY = "test.database";
+
+    /**
+     * Database the tests run against: the default brand of the plugin (MySQL),
+     * unless selected otherwise with {@link #TEST_DATABASE_PROPERTY}.
+     */
+    public static final Database TEST_DATABASE = Database.valueOf(System.getProperty(TEST_DATABASE_PROPERTY,
+            PLUGIN_DEFAULT_DATABASE.getBrand()).toUpperCase());
+
+    /**
+     * Returns the databases for tests that run against every database.
+     * <p>
+     * When the tests run against the embedded database, no database servers
+     * are available and only the embedded database is returned.
+     * </p>
+     * 
+     * @return Databases to test
+     */
+    public static List<Database> getTestDatabases() {
+        if (TEST_DATABASE == Database.EMBEDDED) {
+            return Collections.singletonList(Database.EMBEDDED);
+        }
+        return Arrays.asList(Database.values());
+    }
+
+    /**
+     * Skips the calling test if it needs a database that is not available,
+     * because the tests run against the embedded database.
+     * 
+     * @param db
+     *            Database the test needs
+     */
+    public static void assumeAvailable(Database db) {
+        Assume.assumeTrue(getTestDatabases().contains(db));
+    }
+
     /**
      * Creates a connection to the specified test database.
      * 
@@ -57,12 +100,16 @@ public class DatabaseHelper {
 
     /**
      * Creates the default sql:connect command for a valid connection using the
-     * default brand (MySQL).
+     * default brand (MySQL), or to the test database if it is another
+     * database.
      * 
      * @return sql:connect command
      */
     public static String getDefaultConnectCommand() {
-        Database db = PLUGIN_DEFAULT_DATABASE;
+        Database db = TEST_DATABASE;
+        if (db != PLUGIN_DEFAULT_DATABASE) {
+            return db.getConnectCommand();
+        }
         return String.format("sql:connect [[\"host\" \"%s\"] [\"port\" \"%s\"] [\"user\" \"%s\"] [\"password\" \"%s\"] [\"database\" \"%s\"]]",
                         db.getHost(), db.getPort(), db.getUsername(), db.getPassword(), db.getSchema());
     }
@@ -74,14 +121,15 @@ public class DatabaseHelper {
      * @return sql:connect command
      */
     public static String getGenericConnectCommand() {
-        Database db = PLUGIN_DEFAULT_DATABASE;
-        return String.format("sql:connect [[\"brand\" \"generic\"] [\"jdbc-url\" \"%s\"] [\"driver\" \"com.mysql.jdbc.Driver\"] [\"user\" \"%s\"] [\"password\" \"%s\"]]",
-                        db.getJdbcUrl(), db.getUsername(), db.getPassword());
+        Database db = TEST_DATABASE;
+        return String.format("sql:connect [[\"brand\" \"generic\"] [\"jdbc-url\" \"%s\"] [\"driver\" \"%s\"] [\"user\" \"%s\"] [\"password\" \"%s\"]]",
+                        db.getJdbcUrl(), db.getDriver(), db.getUsername(), db.getPassword());
     }
 
     /**
      * Creates the default sql:set-default command for a valid pool
-     * configuration using the default brand (MySQL). 
+     * configuration using the default brand (MySQL), or to the test database
+     * if it is another database.
      * <p>
      * Autodisconnect is not explicitly set for this command and uses the plugin default. Use
      * {@link #getDefaultPoolConfigurationCommand(boolean)} for explicit control.
@@ -90,7 +138,10 @@ public class DatabaseHelper {
      * @return sql:set-default "connect" command
      */
     public static String getDefaultPoolConfigurationCommand() {
-        Database db = PLUGIN_DEFAULT_DATABASE;
+        Database db = TEST_DATABASE;
+        if (db != PLUGIN_DEFAULT_DATABASE) {
+            return db.getPoolConfigurationCommand();
+        }
         return String.format("sql:configure \"defaultconnection\" [[\"host\" \"%s\"] [\"port\" \"%s\"] [\"user\" \"%s\"] [\"password\" \"%s\"] [\"database\" \"%s\"]]",
                         db.getHost(), db.getPort().toString(), db.getUsername(), db.getPassword(), db.getSchema());
     }
@@ -107,20 +158,24 @@ public class DatabaseHelper {
      * @return sql:set-default "connect" command
      */
     public static String getGenericPoolConfigurationCommand() {
-        Database db = PLUGIN_DEFAULT_DATABASE;
-        return String.format("sql:configure \"defaultconnection\" [[\"brand\" \"generic\"] [\"jdbc-url\" \"%s\"] [\"driver\" \"com.mysql.jdbc.Driver\"] [\"user\" \"%s\"] [\"password\" \"%s\"]]",
-                        db.getJdbcUrl(), db.getUsername(), db.getPassword());
+        Database db = TEST_DATABASE;
+        return String.format("sql:configure \"defaultconnection\" [[\"brand\" \"generic\"] [\"jdbc-url\" \"%s\"] [\"driver\" \"%s\"] [\"user\" \"%s\"] [\"password\" \"%s\"]]",
+                        db.getJdbcUrl(), db.getDriver(), db.getUsername(), db.getPassword());
     }
 
     /**
      * Creates the default sql:set-default command for a valid pool
-     * configuration using the default brand (MySQL), and allows for switching
-     * autodisconnect on/off.
+     * configuration using the default brand (MySQL), or to the test database
+     * if it is another database, and allows for switching autodisconnect
+     * on/off.
      * 
      * @return sql:set-default "connect" command
      */
     public static String getDefaultPoolConfigurationCommand(boolean autodisconnect) {
-        Database db = PLUGIN_DEFAULT_DATABASE;
+        Database db = TEST_DATABASE;
+        if (db != PLUGIN_DEFAULT_DATABASE) {
+            return db.getPoolConfigurationCommand(autodisconnect);
+        }
         return String.format("sql:configure \"defaultconnection\" [[\"host\" \"%s\"] [\"port\" \"%s\"] [\"user\" \"%s\"] [\"password\" \"%s\"] [\"database\" \"%s\"] [\"autodisconnect\" \"%s\"]]",
                         db.getHost(), db.getPort().toString(), db.getUsername(), db.getPassword(), db.getSchema(),
                         autodisconnect ? "on" : "off");
@@ -134,16 +189,17 @@ public class DatabaseHelper {
      * @return sql:set-default "connect" command
      */
     public static String getGenericPoolConfigurationCommand(boolean autodisconnect) {
-        Database db = PLUGIN_DEFAULT_DATABASE;
-        return String.format("sql:configure \"defaultconnection\" [[\"brand\" \"generic\"] [\"jdbc-url\" \"%s\"] [\"driver\" \"com.mysql.jdbc.Driver\"] [\"user\" \"%s\"] [\"password\" \"%s\"] [\"autodisconnect\" \"%s\"]]",
-                        db.getJdbcUrl(), db.getUsername(), db.getPassword(), autodisconnect ? "on" : "off");
+        Database db = TEST_DATABASE;
+        return String.format("sql:configure \"defaultconnection\" [[\"brand\" \"generic\"] [\"jdbc-url\" \"%s\"] [\"driver\" \"%s\"] [\"user\" \"%s\"] [\"password\" \"%s\"] [\"autodisconnect\" \"%s\"]]",
+                        db.getJdbcUrl(), db.getDriver(), db.getUsername(), db.getPassword(), autodisconnect ? "on" : "off");
     }
 
     /**
-     * Method to execute DDL or DML (but not SELECT) statements on the MySQL
-     * test database.
+     * Method to execute DDL or DML (but not SELECT) statements on the test
+     * database.
      * <p>
-     * These statements are executed against the default test database (MySQL).
+     * These statements are executed against the default test database (MySQL,
+     * see {@link #TEST_DATABASE}).
      * </p>
      * 
      * @param statements
@@ -152,7 +208,7 @@ public class DatabaseHelper {
      *             For any error executing the statements.
      */
     public static void executeUpdate(String... statements) throws SQLException {
-        executeUpdate(PLUGIN_DEFAULT_DATABASE, statements);
+        executeUpdate(TEST_DATABASE, statements);
     }
 
     /**
@@ -193,7 +249,8 @@ public class DatabaseHelper {
      * Method to execute a query that has a single row as result (for queries
      * with multiple rows as a result, only the first row is returned).
      * <p>
-     * This query is executed against the default test database (MySQL)
+     * This query is executed against the default test database (MySQL, see
+     * {@link #TEST_DATABASE})
      * </p>
      * 
      * @param query
@@ -202,7 +259,7 @@ public class DatabaseHelper {
      * @throws SQLException
      */
     public static List<String> executeSingletonQuery(String query) throws SQLException {
-        return executeSingletonQuery(PLUGIN_DEFAULT_DATABASE, query);
+        return executeSingletonQuery(TEST_DATABASE, query);
     }
 
     /**
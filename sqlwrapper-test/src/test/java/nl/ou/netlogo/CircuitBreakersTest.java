@@ -0,0 +1,99 @@
+/*
+ * Copyright 2010, 2011 Open University of The Netherlands
+ * Contributors: Jan Blom, Rene Quakkelaar, Mark Rotteveel
+ *
+ * This file is part of NetLogo SQL Wrapper extension.
+ * 
+ * NetLogo SQL Wrapper extension is free software: you can redistribute it
+ * and/or modify it under the terms of the GNU Lesser General Public License 
+ * as published by the Free Software Foundation, either version 3 of the 
+ * License, or (at your option) any later version.
+ * 
+ * NetLogo SQL Wrapper is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with NetLogo SQL Wrapper extension.  If not, 
+ * see <http://www.gnu.org/licenses/>.
+ */
+package nl.ou.netlogo;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import nl.ou.netlogo.testsupport.Database;
+import nl.ou.netlogo.testsupport.HeadlessTest;
+
+import org.junit.Test;
+import org.nlogo.api.LogoList;
+import org.nlogo.nvm.EngineException;
+
+/**
+ * Tests for the circuit breaker and sql:circuit-breakers.
+ * 
+ * @author NetLogo project-team
+ */
+public class CircuitBreakersTest extends HeadlessTest {
+
+    /**
+     * Test if connecting to an unreachable database fails fast once the
+     * failure threshold of the circuit breaker has been reached.
+     * <p>
+     * Expected: first attempt fails with the driver error, second attempt
+     * fails fast, circuit breaker is reported as open.
+     * </p>
+     * 
+     * @throws Exception
+     *             For any exceptions during testing
+     */
+    @Test
+    public void testCircuitBreaker_opensAfterFailures() throws Exception {
+        workspace.open("init-sql.nlogo");
+        workspace.command("sql:configure \"circuitbreaker\" [[\"failure-threshold\" 1] [\"cool-down\" 60]]");
+        Database db = Database.MYSQL;
+        // Port 1 (tcpmux) is not expected to run a database server
+        String command = String.format(
+                "sql:connect [[\"host\" \"%s\"] [\"port\" \"1\"] [\"user\" \"%s\"] [\"password\" \"%s\"] [\"database\" \"%s\"]]",
+                db.getHost(), db.getUsername(), db.getPassword(), db.getSchema());
+
+        try {
+            workspace.command(command);
+            fail("Expected connection failure");
+        } catch (EngineException e) {
+            assertTrue("Expected driver error, got: " + e.getMessage(), e.getMessage().indexOf("failing fast") == -1);
+        }
+        try {
+            workspace.command(command);
+            fail("Expected connection failure");
+        } catch (EngineException e) {
+            assertTrue("Expected fast-fail error, got: " + e.getMessage(), e.getMessage().indexOf("failing fast") != -1);
+        }
+
+        LogoList breakers = (LogoList) workspace.report("sql:circuit-breakers");
+        LogoList breaker = null;
+        for (int idx = 0; idx < breakers.size(); idx++) {
+            LogoList candidate = (LogoList) breakers.get(idx);
+            if (((String) getValue(candidate, "database")).indexOf(":1/") != -1) {
+                breaker = candidate;
+            }
+        }
+        assertNotNull("Expected circuit breaker for the unreachable database", breaker);
+        assertEquals("Unexpected circuit breaker state", "open", getValue(breaker, "state"));
+        assertEquals("Unexpected number of failures", 1.0, getValue(breaker, "failures"));
+    }
+
+    private static Object getValue(LogoList state, String name) {
+        for (int idx = 0; idx < state.size(); idx++) {
+            LogoList kvpair = (LogoList) state.get(idx);
+            if (name.equals(kvpair.get(0))) {
+                return kvpair.get(1);
+            }
+        }
+        fail("Value " + name + " not reported");
+        return null;
+    }
+}
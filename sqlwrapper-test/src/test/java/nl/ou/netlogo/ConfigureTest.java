@@ -57,6 +57,7 @@ public class ConfigureTest extends HeadlessTest {
      */
     @Test
     public void testConfigure_MySQL_defaultconnection_allParameters() throws Exception {
+        DatabaseHelper.assumeAvailable(Database.MYSQL);
         workspace.open("init-sql.nlogo");
 
         Database db = Database.MYSQL;
@@ -82,6 +83,7 @@ public class ConfigureTest extends HeadlessTest {
      */
     @Test
     public void testConfigure_MySQL_defaultconnection_minusPort() throws IOException, CompilerException, LogoException {
+        DatabaseHelper.assumeAvailable(Database.MYSQL);
         workspace.open("init-sql.nlogo");
 
         Database db = Database.MYSQL;
@@ -107,6 +109,7 @@ public class ConfigureTest extends HeadlessTest {
      */
     @Test
     public void testConfigure_MySQL_defaultconnection_minusHost() throws Exception {
+        DatabaseHelper.assumeAvailable(Database.MYSQL);
         workspace.open("init-sql.nlogo");
 
         Database db = Database.MYSQL;
@@ -128,6 +131,7 @@ public class ConfigureTest extends HeadlessTest {
      */
     @Test
     public void testConfigure_PostgreSQL_defaultconnection() throws Exception {
+        DatabaseHelper.assumeAvailable(Database.POSTGRESQL);
         workspace.open("init-sql.nlogo");
 
         Database db = Database.POSTGRESQL;
@@ -149,6 +153,7 @@ public class ConfigureTest extends HeadlessTest {
      */
     @Test
     public void testConfigure_Generic_defaultconnection() throws Exception {
+        DatabaseHelper.assumeAvailable(Database.MYSQL);
         workspace.open("init-sql.nlogo");
 
         Database db = Database.MYSQL;
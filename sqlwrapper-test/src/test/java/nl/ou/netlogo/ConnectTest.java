@@ -24,6 +24,7 @@ import nl.ou.netlogo.testsupport.Database;
 import nl.ou.netlogo.testsupport.HeadlessTest;
 import static nl.ou.netlogo.testsupport.DatabaseHelper.getGenericConnectCommand;
 import static nl.ou.netlogo.testsupport.DatabaseHelper.getDefaultConnectCommand;
+import static nl.ou.netlogo.testsupport.DatabaseHelper.assumeAvailable;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
@@ -75,6 +76,7 @@ public class ConnectTest extends HeadlessTest {
      */
     @Test
     public void testConnect_MySQL() throws Exception {
+        assumeAvailable(Database.MYSQL);
         connectCheck(Database.MYSQL.getConnectCommand());
     }
 
@@ -89,6 +91,7 @@ public class ConnectTest extends HeadlessTest {
      */
     @Test
     public void testConnect_PostgreSQL() throws Exception {
+        assumeAvailable(Database.POSTGRESQL);
         connectCheck(Database.POSTGRESQL.getConnectCommand());
     }
 
@@ -241,6 +244,7 @@ public class ConnectTest extends HeadlessTest {
      */
     @Test
     public void testConnect_defaultHost() throws Exception {
+        assumeAvailable(Database.MYSQL);
         workspace.open("init-sql.nlogo");
         Database db = Database.MYSQL;
         workspace.command(String.format(
@@ -263,6 +267,7 @@ public class ConnectTest extends HeadlessTest {
      */
     @Test
     public void testConnect_defaultPort() throws Exception {
+        assumeAvailable(Database.MYSQL);
         workspace.open("init-sql.nlogo");
         Database db = Database.MYSQL;
         workspace.command(String.format(
@@ -40,6 +40,9 @@ import nl.ou.netlogo.testsupport.Database;
 import nl.ou.netlogo.testsupport.HeadlessTest;
 import static nl.ou.netlogo.testsupport.DatabaseHelper.getGenericPoolConfigurationCommand;
 import static nl.ou.netlogo.testsupport.DatabaseHelper.getDefaultPoolConfigurationCommand;
+import static nl.ou.netlogo.testsupport.DatabaseHelper.executeUpdate;
+import static nl.ou.netlogo.testsupport.DatabaseHelper.TEST_DATABASE;
+import static nl.ou.netlogo.testsupport.DatabaseHelper.assumeAvailable;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertFalse;
@@ -75,6 +78,7 @@ public class ConnectionPoolTest extends HeadlessTest {
      */
     @Test
     public void testConnectionPool_distinctConnections() throws Exception {
+        assumeAvailable(Database.MYSQL);
         workspace.open("init-sql.nlogo");
         AgentSet breed = workspace.world.getBreed("TESTAGENT");
         assertNotNull("Breed TESTAGENT not defined in workspace", breed);
@@ -106,6 +110,7 @@ public class ConnectionPoolTest extends HeadlessTest {
      */
     @Test
     public void testConnectionPool_useConnectCommand() throws Exception {
+        assumeAvailable(Database.MYSQL);
         workspace.open("init-sql.nlogo");
 
         workspace.command(getDefaultPoolConfigurationCommand());
@@ -131,6 +136,7 @@ public class ConnectionPoolTest extends HeadlessTest {
      */
     @Test
     public void testConnectionPool_useConnectCommand_checkOtherConnections() throws Exception {
+        assumeAvailable(Database.MYSQL);
         workspace.open("init-sql.nlogo");
         AgentSet breed = workspace.world.getBreed("TESTAGENT");
         assertNotNull("Breed TESTAGENT not defined in workspace", breed);
@@ -224,7 +230,7 @@ public class ConnectionPoolTest extends HeadlessTest {
     private void allocateMaxConnections(AgentSet breed) throws Exception {
         workspace.command(getDefaultPoolConfigurationCommand(false));
         System.out.printf("Expecting to be able to allocate %d connections%n", DEFAULT_MAX_CONNECTIONS);
-        Database db = Database.MYSQL;
+        Database db = TEST_DATABASE;
         for (int i = 0; i < DEFAULT_MAX_CONNECTIONS; i++) {
             Future<Object> future = executor.submit(new Getter(i, breed));
             Object result = null;
@@ -240,7 +246,7 @@ public class ConnectionPoolTest extends HeadlessTest {
                         DEFAULT_MAX_CONNECTIONS - 1));
             }
             assertEquals("Expected result to be a string", String.class, result.getClass());
-            assertEquals("Schema should be default test schema", db.getSchema(), result);
+            assertEquals("Schema should be default test schema", db.getCurrentDatabase(), result);
         }
     }
 
@@ -500,6 +506,202 @@ public class ConnectionPoolTest extends HeadlessTest {
         }
     }
 
+    /**
+     * Test if the connection pool does not establish connections when it is
+     * configured without prefill.
+     * <p>
+     * Expected: no connections after configuring, one connection after first
+     * use.
+     * </p>
+     * 
+     * @throws Exception
+     *             For any exceptions during testing
+     */
+    @Test
+    public void testConnectionPool_lazyInit() throws Exception {
+        workspace.open("init-sql.nlogo");
+        workspace.command(getDefaultPoolConfigurationCommand(false));
+
+        assertEquals("Expected no connections after configuring pool", 0.0, getPoolStat("connections-created"));
+
+        workspace.command("sql:exec-direct \"SELECT 1\"");
+        assertTrue("Expected connection to be created on demand", (Double) getPoolStat("connections-created") >= 1.0);
+    }
+
+    /**
+     * Test for the connectionpool prefill setting. With prefill on, the pool
+     * should establish min-connections connections in the background.
+     * <p>
+     * Expected: at least min-connections connections established within 10
+     * seconds.
+     * </p>
+     * 
+     * @throws Exception
+     *             For any exceptions during testing
+     */
+    @Test
+    public void testConnectionPool_prefill() throws Exception {
+        workspace.open("init-sql.nlogo");
+        int testMin = 3;
+        workspace.command(String.format("sql:configure \"connectionpool\" [[\"min-connections\" %d] [\"prefill\" \"on\"]]", testMin));
+        workspace.command(getDefaultPoolConfigurationCommand(false));
+
+        long deadline = System.currentTimeMillis() + 10000;
+        while ((Double) getPoolStat("idle") < testMin && System.currentTimeMillis() < deadline) {
+            Thread.sleep(100);
+        }
+        assertTrue("Expected prefilled idle connections", (Double) getPoolStat("idle") >= testMin);
+    }
+
+    /**
+     * Test for the connectionpool min-connections setting. If configured
+     * higher than max-connections, should throw an error.
+     * <p>
+     * Expected: exception when configuring the pool.
+     * </p>
+     * 
+     * @throws Exception
+     *             For any exceptions during testing
+     */
+    @Test(expected = EngineException.class)
+    public void testConnectionPool_minConnections_higherThanMax() throws Exception {
+        workspace.open("init-sql.nlogo");
+        workspace.command("sql:configure \"connectionpool\" [[\"max-connections\" 10] [\"min-connections\" 11]]");
+        workspace.command(getDefaultPoolConfigurationCommand());
+    }
+
+    /**
+     * Test if configuring the default connection again with the same settings
+     * keeps the existing connection pool.
+     * <p>
+     * Expected: connection of the observer is not closed, no pool retired.
+     * </p>
+     * 
+     * @throws Exception
+     *             For any exceptions during testing
+     */
+    @Test
+    public void testConnectionPool_reconfigure_unchanged() throws Exception {
+        workspace.open("init-sql.nlogo");
+        workspace.command(getDefaultPoolConfigurationCommand(false));
+        workspace.command("sql:exec-direct \"SELECT 1\"");
+
+        workspace.command(getDefaultPoolConfigurationCommand(false));
+
+        assertTrue("Expected connection to remain open", (Boolean) workspace.report("sql:debug-is-connected?"));
+        assertEquals("Expected no retired pools", 0.0, getPoolStat("retired-pools"));
+    }
+
+    /**
+     * Test if changing the connectionpool settings while an agent holds a
+     * connection keeps that connection usable until it is returned.
+     * <p>
+     * Expected: the connection of the turtle remains usable, the replaced pool
+     * is shut down after the turtle disconnects.
+     * </p>
+     * 
+     * @throws Exception
+     *             For any exceptions during testing
+     */
+    @Test
+    public void testConnectionPool_reconfigure_inFlightConnection() throws Exception {
+        assumeAvailable(Database.MYSQL);
+        workspace.open("init-sql.nlogo");
+        AgentSet breed = workspace.world.getBreed("TESTAGENT");
+        assertNotNull("Breed TESTAGENT not defined in workspace", breed);
+        Turtle turtle = workspace.world.createTurtle(breed);
+        workspace.command(getDefaultPoolConfigurationCommand(false));
+        workspace.evaluateCommands(workspace.defaultOwner(), "sql:exec-direct \"SELECT CAST(connection_id() AS CHAR)\"", turtle, true);
+        LogoList beforeRow = (LogoList) workspace.evaluateReporter(workspace.defaultOwner(), "sql:fetch-row", turtle);
+
+        workspace.command(String.format(
+                "sql:configure \"connectionpool\" [[\"max-connections\" %d] [\"grace-period\" 0]]", DEFAULT_MAX_CONNECTIONS + 5));
+
+        assertEquals("Expected replaced pool to be retired", 1.0, getPoolStat("retired-pools"));
+        workspace.evaluateCommands(workspace.defaultOwner(), "sql:exec-direct \"SELECT CAST(connection_id() AS CHAR)\"", turtle, true);
+        LogoList afterRow = (LogoList) workspace.evaluateReporter(workspace.defaultOwner(), "sql:fetch-row", turtle);
+        assertEquals("Expected turtle to keep its connection", beforeRow.get(0), afterRow.get(0));
+
+        workspace.evaluateCommands(workspace.defaultOwner(), "sql:disconnect", turtle, true);
+        assertEquals("Expected retired pool to be shut down", 0.0, getPoolStat("retired-pools"));
+    }
+
+    /**
+     * Test if configuring settings of a pool that is still open within its
+     * grace period reuses that pool and its connections.
+     * <p>
+     * Expected: the reused pool still has the connection established before
+     * the reconfiguration.
+     * </p>
+     * 
+     * @throws Exception
+     *             For any exceptions during testing
+     */
+    @Test
+    public void testConnectionPool_reconfigure_reuseWithinGracePeriod() throws Exception {
+        workspace.open("init-sql.nlogo");
+        workspace.command(getDefaultPoolConfigurationCommand(false));
+        workspace.command("sql:exec-direct \"SELECT 1\"");
+        workspace.command("sql:disconnect");
+
+        workspace.command(String.format("sql:configure \"connectionpool\" [[\"max-connections\" %d]]", DEFAULT_MAX_CONNECTIONS + 5));
+        assertEquals("Expected no connections in new pool", 0.0, getPoolStat("total"));
+
+        workspace.command(String.format("sql:configure \"connectionpool\" [[\"max-connections\" %d]]", DEFAULT_MAX_CONNECTIONS));
+        assertEquals("Expected connection of reused pool", 1.0, getPoolStat("total"));
+    }
+
+    /**
+     * Test if a pooled connection that was killed by the database server while
+     * idle is replaced when it is checked out.
+     * <p>
+     * Expected: query succeeds on a new connection, validation failure
+     * reported by sql:pool-stats.
+     * </p>
+     * 
+     * @throws Exception
+     *             For any exceptions during testing
+     */
+    @Test
+    public void testConnectionPool_deadConnectionReplaced() throws Exception {
+        assumeAvailable(Database.MYSQL);
+        workspace.open("init-sql.nlogo");
+        workspace.command(getDefaultPoolConfigurationCommand(false));
+        workspace.command("sql:exec-direct \"SELECT CAST(connection_id() AS CHAR)\"");
+        String killedConnection = (String) ((LogoList) workspace.report("sql:fetch-row")).get(0);
+        workspace.command("sql:disconnect");
+
+        executeUpdate("KILL " + killedConnection);
+        // Connections are validated when they have been idle for 5 seconds
+        Thread.sleep(6000);
+
+        workspace.command("sql:exec-direct \"SELECT CAST(connection_id() AS CHAR)\"");
+        String newConnection = (String) ((LogoList) workspace.report("sql:fetch-row")).get(0);
+        assertFalse("Expected a new connection", killedConnection.equals(newConnection));
+        assertEquals("Expected one validation failure", 1.0, getPoolStat("validation-failures"));
+    }
+
+    /**
+     * Helper method to retrieve a value from sql:pool-stats.
+     * 
+     * @param name
+     *            Name of the statistic
+     * @return Value of the statistic
+     * @throws Exception
+     *             For any exceptions during testing
+     */
+    private Object getPoolStat(String name) throws Exception {
+        LogoList stats = (LogoList) workspace.report("sql:pool-stats");
+        for (int idx = 0; idx < stats.size(); idx++) {
+            LogoList kvpair = (LogoList) stats.get(idx);
+            if (name.equals(kvpair.get(0))) {
+                return kvpair.get(1);
+            }
+        }
+        fail("Statistic " + name + " not reported");
+        return null;
+    }
+
     /*
      * Be aware that the default MySQL connectionpool behavior is also partially
      * tested in tests like IsConnectedTest
@@ -528,6 +730,7 @@ public class ConnectionPoolTest extends HeadlessTest {
      */
     @Test
     public void testConnectionPool_PostgreSQL() throws Exception {
+        assumeAvailable(Database.POSTGRESQL);
         workspace.open("init-sql.nlogo");
         workspace.command(Database.POSTGRESQL.getPoolConfigurationCommand());
         workspace.command("sql:exec-direct \"SELECT 1\"");
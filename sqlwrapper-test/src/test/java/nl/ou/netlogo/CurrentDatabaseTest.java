@@ -23,6 +23,8 @@ package nl.ou.netlogo;
 import static nl.ou.netlogo.testsupport.DatabaseHelper.getGenericConnectCommand;
 import static nl.ou.netlogo.testsupport.DatabaseHelper.getDefaultPoolConfigurationCommand;
 import static nl.ou.netlogo.testsupport.DatabaseHelper.getDefaultConnectCommand;
+import static nl.ou.netlogo.testsupport.DatabaseHelper.TEST_DATABASE;
+import static nl.ou.netlogo.testsupport.DatabaseHelper.assumeAvailable;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
@@ -65,7 +67,7 @@ public class CurrentDatabaseTest extends HeadlessTest {
      */
     @Test
     public void testCurrentDatabase_afterConnect() throws Exception {
-        currentDatabaseCheck(getDefaultConnectCommand(), Database.MYSQL.getSchema());
+        currentDatabaseCheck(getDefaultConnectCommand(), TEST_DATABASE.getCurrentDatabase());
     }
 
     /**
@@ -84,6 +86,7 @@ public class CurrentDatabaseTest extends HeadlessTest {
      */
     @Test
     public void testCurrentDatabase_PostgreSQL() throws Exception {
+        assumeAvailable(Database.POSTGRESQL);
         currentDatabaseCheck(Database.POSTGRESQL.getConnectCommand(), Database.POSTGRESQL.getSchema());
     }
 
@@ -99,6 +102,7 @@ public class CurrentDatabaseTest extends HeadlessTest {
      */
     @Test
     public void testCurrentDatabase_generic() throws Exception {
+        assumeAvailable(Database.MYSQL);
         currentDatabaseCheck(getGenericConnectCommand(), Database.MYSQL.getSchema());
     }
 
@@ -163,7 +167,7 @@ public class CurrentDatabaseTest extends HeadlessTest {
 
         String currentDB = (String) workspace.report("sql:current-database");
 
-        assertEquals(Database.MYSQL.getSchema(), currentDB);
+        assertEquals(TEST_DATABASE.getCurrentDatabase(), currentDB);
     }
 
     /**
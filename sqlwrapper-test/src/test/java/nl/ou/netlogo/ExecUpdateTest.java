@@ -68,7 +68,7 @@ public class ExecUpdateTest extends HeadlessTest {
     public static Collection<Object[]> getParameters() {
         List<Object[]> parameters = new ArrayList<Object[]>();
 
-        for (Database db : Database.values()) {
+        for (Database db : DatabaseHelper.getTestDatabases()) {
             parameters.add(new Object[] { db });
         }
 
@@ -67,7 +67,7 @@ public class FetchResultSetTest extends HeadlessTest {
     public static Collection<Object[]> getParameters() {
         List<Object[]> parameters = new ArrayList<Object[]>();
 
-        for (Database db : Database.values()) {
+        for (Database db : DatabaseHelper.getTestDatabases()) {
             parameters.add(new Object[] { db });
         }
 
@@ -23,6 +23,8 @@ package nl.ou.netlogo;
 import static nl.ou.netlogo.testsupport.DatabaseHelper.getGenericConnectCommand;
 import static nl.ou.netlogo.testsupport.DatabaseHelper.getDefaultConnectCommand;
 import static nl.ou.netlogo.testsupport.DatabaseHelper.getDefaultPoolConfigurationCommand;
+import static nl.ou.netlogo.testsupport.DatabaseHelper.TEST_DATABASE;
+import static nl.ou.netlogo.testsupport.DatabaseHelper.assumeAvailable;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
@@ -53,7 +55,7 @@ public class FindDatabaseTest extends HeadlessTest {
     public void testFindDatabase_exists() throws Exception {
         workspace.open("init-sql.nlogo");
         workspace.command(getDefaultConnectCommand());
-        Boolean dbFound = (Boolean) workspace.report("sql:find-database \"" + Database.MYSQL.getSchema() + "\"");
+        Boolean dbFound = (Boolean) workspace.report("sql:find-database \"" + TEST_DATABASE.getCurrentDatabase() + "\"");
         assertTrue("Existing database schema should be found", dbFound);
     }
 
@@ -70,7 +72,7 @@ public class FindDatabaseTest extends HeadlessTest {
     public void testFindDatabase_connectionpool() throws Exception {
         workspace.open("init-sql.nlogo");
         workspace.command(getDefaultPoolConfigurationCommand());
-        Boolean dbFound = (Boolean) workspace.report("sql:find-database \"" + Database.MYSQL.getSchema() + "\"");
+        Boolean dbFound = (Boolean) workspace.report("sql:find-database \"" + TEST_DATABASE.getCurrentDatabase() + "\"");
         assertTrue("Existing database schema should be found", dbFound);
     }
 
@@ -88,7 +90,7 @@ public class FindDatabaseTest extends HeadlessTest {
         workspace.open("init-sql.nlogo");
         workspace.command(getDefaultPoolConfigurationCommand(true));
 
-        workspace.report("sql:find-database \"" + Database.MYSQL.getSchema() + "\"");
+        workspace.report("sql:find-database \"" + TEST_DATABASE.getCurrentDatabase() + "\"");
 
         assertFalse("Expected autodisconnect after sql:find-database",
                 (Boolean) workspace.report("sql:debug-is-connected?"));
@@ -125,7 +127,7 @@ public class FindDatabaseTest extends HeadlessTest {
     @Test(expected = EngineException.class)
     public void testFindDatabase_noConnection() throws Exception {
         workspace.open("init-sql.nlogo");
-        workspace.report("sql:find-database \"" + Database.MYSQL.getSchema() + "\"");
+        workspace.report("sql:find-database \"" + TEST_DATABASE.getCurrentDatabase() + "\"");
     }
     
     /**
@@ -141,6 +143,7 @@ public class FindDatabaseTest extends HeadlessTest {
      */
     @Test
     public void testFindDatabase_PostgreSQL_existingSchema() throws Exception {
+        assumeAvailable(Database.POSTGRESQL);
         workspace.open("init-sql.nlogo");
         workspace.command(Database.POSTGRESQL.getConnectCommand());
         
@@ -162,6 +165,7 @@ public class FindDatabaseTest extends HeadlessTest {
      */
     @Test
     public void testFindDatabase_PostgreSQL_notExists() throws Exception {
+        assumeAvailable(Database.POSTGRESQL);
         workspace.open("init-sql.nlogo");
         workspace.command(Database.POSTGRESQL.getConnectCommand());
 
@@ -186,7 +190,7 @@ public class FindDatabaseTest extends HeadlessTest {
         workspace.open("init-sql.nlogo");
         workspace.command(getGenericConnectCommand());
         
-        Boolean dbFound = (Boolean) workspace.report("sql:find-database \"" + Database.MYSQL.getSchema() + "\"");
+        Boolean dbFound = (Boolean) workspace.report("sql:find-database \"" + TEST_DATABASE.getSchema() + "\"");
         
         assertFalse("sql:find-database on a generic connection should return false", dbFound);
     }
@@ -53,6 +53,14 @@ public class GetConfigurationTest extends HeadlessTest {
         defaults.put("jdbc-url", "<default>");
         defaults.put("driver", "<default>");
         defaults.put("autodisconnect", "on");
+        defaults.put("replicas", "<default>");
+        defaults.put("read-routing", "round-robin");
+        defaults.put("read-your-writes", "0");
+        defaults.put("max-replica-lag", "0");
+        defaults.put("shards", "<default>");
+        defaults.put("metadata-ttl", "60");
+        defaults.put("mode", "file");
+        defaults.put("path", "%m");
 
         EXPECTED_DEFAULTS = Collections.unmodifiableMap(defaults);
     }
@@ -101,6 +109,14 @@ public class GetConfigurationTest extends HeadlessTest {
         config.put("jdbc-url", "<default>");
         config.put("driver", "<default>");
         config.put("autodisconnect", "off");
+        config.put("replicas", "<default>");
+        config.put("read-routing", "round-robin");
+        config.put("read-your-writes", "0");
+        config.put("max-replica-lag", "0");
+        config.put("shards", "<default>");
+        config.put("metadata-ttl", "60");
+        config.put("mode", "file");
+        config.put("path", "%m");
 
         EXPECTED_CONFIG = Collections.unmodifiableMap(config);
     }
@@ -0,0 +1,105 @@
+/*
+ * Copyright 2010, 2011 Open University of The Netherlands
+ * Contributors: Jan Blom, Rene Quakkelaar, Mark Rotteveel
+ *
+ * This file is part of NetLogo SQL Wrapper extension.
+ * 
+ * NetLogo SQL Wrapper extension is free software: you can redistribute it
+ * and/or modify it under the terms of the GNU Lesser General Public License 
+ * as published by the Free Software Foundation, either version 3 of the 
+ * License, or (at your option) any later version.
+ * 
+ * NetLogo SQL Wrapper is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with NetLogo SQL Wrapper extension.  If not, 
+ * see <http://www.gnu.org/licenses/>.
+ */
+package nl.ou.netlogo;
+
+import static nl.ou.netlogo.testsupport.DatabaseHelper.TEST_DATABASE;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.fail;
+
+import nl.ou.netlogo.testsupport.Database;
+import nl.ou.netlogo.testsupport.HeadlessTest;
+
+import org.junit.Test;
+import org.nlogo.api.LogoList;
+import org.nlogo.nvm.EngineException;
+
+/**
+ * Tests for named pools (sql:configure "pool:name") and sql:with-pool.
+ * 
+ * @author NetLogo project-team
+ */
+public class NamedPoolTest extends HeadlessTest {
+
+    private static String getNamedPoolConfigurationCommand(String name) {
+        Database db = TEST_DATABASE;
+        return String.format("sql:configure \"pool:%s\" [%s [\"max-connections\" 5]]", name, db.getConnectionSettings());
+    }
+
+    /**
+     * Test if statements in the scope of sql:with-pool use a connection from
+     * the named pool.
+     * <p>
+     * Expected: query executes without default connection, the connection
+     * is not visible outside the scope and the statistics of the named pool
+     * report the checkout.
+     * </p>
+     * 
+     * @throws Exception
+     *             For any exceptions during testing
+     */
+    @Test
+    public void testWithPool_query() throws Exception {
+        workspace.open("init-sql.nlogo");
+        workspace.command(getNamedPoolConfigurationCommand("results"));
+        workspace.command("create-testagents 1");
+
+        workspace.command("ask testagents [ sql:with-pool \"results\" task [ sql:exec-query \"SELECT ?\" (list 42) set label first sql:fetch-row ] ]");
+
+        assertEquals("Unexpected query result", 42.0, workspace.report("[label] of one-of testagents"));
+        assertEquals("Expected no connection outside scope of named pool", Boolean.FALSE,
+                workspace.report("[sql:is-connected?] of one-of testagents"));
+
+        workspace.command("ask testagents [ sql:with-pool \"results\" task [ set label sql:pool-stats ] ]");
+        LogoList stats = (LogoList) workspace.report("[label] of one-of testagents");
+        assertEquals("Unexpected number of checkouts of named pool", 1.0, getStat(stats, "checkouts"));
+        LogoList defaultStats = (LogoList) workspace.report("sql:pool-stats");
+        assertFalse("Expected default pool to be disabled", (Boolean) getStat(defaultStats, "enabled"));
+    }
+
+    /**
+     * Test if sql:with-pool with a pool that has not been configured throws an
+     * exception.
+     * <p>
+     * Expected: exception is thrown.
+     * </p>
+     * 
+     * @throws Exception
+     *             For any exceptions during testing
+     */
+    @Test(expected = EngineException.class)
+    public void testWithPool_notConfigured() throws Exception {
+        workspace.open("init-sql.nlogo");
+
+        workspace.command("sql:with-pool \"not-configured\" task [ sql:exec-direct \"SELECT 1\" ]");
+    }
+
+    private static Object getStat(LogoList stats, String name) {
+        for (int idx = 0; idx < stats.size(); idx++) {
+            LogoList kvpair = (LogoList) stats.get(idx);
+            if (name.equals(kvpair.get(0))) {
+                return kvpair.get(1);
+            }
+        }
+        fail("Statistic " + name + " not reported");
+        return null;
+    }
+}
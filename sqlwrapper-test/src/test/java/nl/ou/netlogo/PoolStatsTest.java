@@ -0,0 +1,110 @@
+/*
+ * Copyright 2010, 2011 Open University of The Netherlands
+ * Contributors: Jan Blom, Rene Quakkelaar, Mark Rotteveel
+ *
+ * This file is part of NetLogo SQL Wrapper extension.
+ * 
+ * NetLogo SQL Wrapper extension is free software: you can redistribute it
+ * and/or modify it under the terms of the GNU Lesser General Public License 
+ * as published by the Free Software Foundation, either version 3 of the 
+ * License, or (at your option) any later version.
+ * 
+ * NetLogo SQL Wrapper is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with NetLogo SQL Wrapper extension.  If not, 
+ * see <http://www.gnu.org/licenses/>.
+ */
+package nl.ou.netlogo;
+
+import static nl.ou.netlogo.testsupport.DatabaseHelper.getDefaultPoolConfigurationCommand;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import nl.ou.netlogo.testsupport.HeadlessTest;
+
+import org.junit.Test;
+import org.nlogo.api.LogoList;
+
+/**
+ * Tests for sql:pool-stats.
+ * 
+ * @author NetLogo project-team
+ */
+public class PoolStatsTest extends HeadlessTest {
+
+    /**
+     * Test if sql:pool-stats reports pooling disabled when no connection pool
+     * is configured.
+     * <p>
+     * Expected: enabled is false, no active and idle counts reported.
+     * </p>
+     * 
+     * @throws Exception
+     *             For any exceptions during testing
+     */
+    @Test
+    public void testPoolStats_noPool() throws Exception {
+        workspace.open("init-sql.nlogo");
+
+        LogoList stats = (LogoList) workspace.report("sql:pool-stats");
+
+        assertFalse("Expected pooling to be reported as disabled", (Boolean) getStat(stats, "enabled"));
+        assertFalse("Expected no active count without pool", hasStat(stats, "active"));
+    }
+
+    /**
+     * Test if sql:pool-stats reports checkouts and active connections of the
+     * connection pool.
+     * <p>
+     * Expected: one checkout, one active connection while the connection is
+     * held by the observer and none after disconnect.
+     * </p>
+     * 
+     * @throws Exception
+     *             For any exceptions during testing
+     */
+    @Test
+    public void testPoolStats_checkout() throws Exception {
+        workspace.open("init-sql.nlogo");
+        workspace.command(getDefaultPoolConfigurationCommand(false));
+
+        workspace.command("sql:exec-direct \"SELECT 1\"");
+        LogoList stats = (LogoList) workspace.report("sql:pool-stats");
+
+        assertTrue("Expected pooling to be reported as enabled", (Boolean) getStat(stats, "enabled"));
+        assertEquals("Unexpected number of checkouts", 1.0, getStat(stats, "checkouts"));
+        assertEquals("Unexpected number of active connections", 1.0, getStat(stats, "active"));
+        assertEquals("Unexpected number of checkout timeouts", 0.0, getStat(stats, "checkout-timeouts"));
+
+        workspace.command("sql:disconnect");
+        stats = (LogoList) workspace.report("sql:pool-stats");
+
+        assertEquals("Unexpected number of active connections after disconnect", 0.0, getStat(stats, "active"));
+    }
+
+    private static boolean hasStat(LogoList stats, String name) {
+        for (int idx = 0; idx < stats.size(); idx++) {
+            if (name.equals(((LogoList) stats.get(idx)).get(0))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static Object getStat(LogoList stats, String name) {
+        for (int idx = 0; idx < stats.size(); idx++) {
+            LogoList kvpair = (LogoList) stats.get(idx);
+            if (name.equals(kvpair.get(0))) {
+                return kvpair.get(1);
+            }
+        }
+        fail("Statistic " + name + " not reported");
+        return null;
+    }
+}
@@ -0,0 +1,103 @@
+/*
+ * Copyright 2010, 2011 Open University of The Netherlands
+ * Contributors: Jan Blom, Rene Quakkelaar, Mark Rotteveel
+ *
+ * This file is part of NetLogo SQL Wrapper extension.
+ * 
+ * NetLogo SQL Wrapper extension is free software: you can redistribute it
+ * and/or modify it under the terms of the GNU Lesser General Public License 
+ * as published by the Free Software Foundation, either version 3 of the 
+ * License, or (at your option) any later version.
+ * 
+ * NetLogo SQL Wrapper is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with NetLogo SQL Wrapper extension.  If not, 
+ * see <http://www.gnu.org/licenses/>.
+ */
+package nl.ou.netlogo;
+
+import static nl.ou.netlogo.testsupport.DatabaseHelper.getDefaultPoolConfigurationCommand;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import nl.ou.netlogo.testsupport.HeadlessTest;
+
+import org.junit.Test;
+import org.nlogo.api.LogoList;
+
+/**
+ * Tests for sql:stats and sql:reset-stats.
+ * 
+ * @author NetLogo project-team
+ */
+public class StatsTest extends HeadlessTest {
+
+    /**
+     * Test if sql:stats reports executions and fetched rows per normalized
+     * statement.
+     * <p>
+     * Expected: two queries differing only in a literal are reported as one
+     * statement with two executions and one fetched row.
+     * </p>
+     * 
+     * @throws Exception
+     *             For any exceptions during testing
+     */
+    @Test
+    public void testStats_normalizedStatement() throws Exception {
+        workspace.open("init-sql.nlogo");
+        workspace.command(getDefaultPoolConfigurationCommand(false));
+        workspace.command("sql:reset-stats");
+
+        workspace.command("sql:exec-query \"SELECT 1\" []");
+        workspace.command("sql:exec-query \"SELECT 2\" []");
+        workspace.report("sql:fetch-row");
+        LogoList stats = (LogoList) workspace.report("sql:stats");
+
+        assertEquals("Unexpected number of statements", 1, stats.size());
+        LogoList statement = (LogoList) stats.get(0);
+        assertEquals("Unexpected normalized statement", "SELECT ?", getStat(statement, "sql"));
+        assertEquals("Unexpected number of executions", 2.0, getStat(statement, "executions"));
+        assertEquals("Unexpected number of rows fetched", 1.0, getStat(statement, "rows-fetched"));
+        assertEquals("Unexpected number of errors", 0.0, getStat(statement, "errors"));
+        assertTrue("Expected p99 at least p50",
+                (Double) getStat(statement, "p99-ms") >= (Double) getStat(statement, "p50-ms"));
+    }
+
+    /**
+     * Test if sql:reset-stats clears the statistics.
+     * <p>
+     * Expected: no statements reported after reset.
+     * </p>
+     * 
+     * @throws Exception
+     *             For any exceptions during testing
+     */
+    @Test
+    public void testResetStats() throws Exception {
+        workspace.open("init-sql.nlogo");
+        workspace.command(getDefaultPoolConfigurationCommand(false));
+
+        workspace.command("sql:exec-direct \"SELECT 1\"");
+        workspace.command("sql:reset-stats");
+        LogoList stats = (LogoList) workspace.report("sql:stats");
+
+        assertEquals("Expected no statements after reset", 0, stats.size());
+    }
+
+    private static Object getStat(LogoList stats, String name) {
+        for (int idx = 0; idx < stats.size(); idx++) {
+            LogoList kvpair = (LogoList) stats.get(idx);
+            if (name.equals(kvpair.get(0))) {
+                return kvpair.get(1);
+            }
+        }
+        fail("Statistic " + name + " not reported");
+        return null;
+    }
+}
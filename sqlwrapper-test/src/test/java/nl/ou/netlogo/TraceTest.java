@@ -0,0 +1,91 @@
+/*
+ * Copyright 2010, 2011 Open University of The Netherlands
+ * Contributors: Jan Blom, Rene Quakkelaar, Mark Rotteveel
+ *
+ * This file is part of NetLogo SQL Wrapper extension.
+ * 
+ * NetLogo SQL Wrapper extension is free software: you can redistribute it
+ * and/or modify it under the terms of the GNU Lesser General Public License 
+ * as published by the Free Software Foundation, either version 3 of the 
+ * License, or (at your option) any later version.
+ * 
+ * NetLogo SQL Wrapper is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with NetLogo SQL Wrapper extension.  If not, 
+ * see <http://www.gnu.org/licenses/>.
+ */
+package nl.ou.netlogo;
+
+import static nl.ou.netlogo.testsupport.DatabaseHelper.getDefaultPoolConfigurationCommand;
+import static org.junit.Assert.assertTrue;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+
+import nl.ou.netlogo.testsupport.HeadlessTest;
+
+import org.junit.Test;
+
+/**
+ * Tests for sql:trace-start and sql:trace-stop.
+ * 
+ * @author NetLogo project-team
+ */
+public class TraceTest extends HeadlessTest {
+
+    /**
+     * Test if the database activity between sql:trace-start and sql:trace-stop
+     * is written to the trace file.
+     * <p>
+     * Expected: a complete trace with checkout, prepare, execute and fetch
+     * spans, tagged with the agent and the SQL text.
+     * </p>
+     * 
+     * @throws Exception
+     *             For any exceptions during testing
+     */
+    @Test
+    public void testTrace() throws Exception {
+        File traceFile = File.createTempFile("trace", ".json");
+        try {
+            workspace.open("init-sql.nlogo");
+            workspace.command(getDefaultPoolConfigurationCommand(false));
+
+            workspace.command("sql:trace-start \"" + traceFile.getAbsolutePath().replace("\\", "\\\\") + "\"");
+            workspace.command("sql:exec-query \"SELECT 1\" []");
+            workspace.report("sql:fetch-resultset");
+            workspace.command("sql:trace-stop");
+
+            String trace = read(traceFile);
+            assertTrue("Expected complete trace, got " + trace, trace.startsWith("{\"traceEvents\":[")
+                    && trace.endsWith("}}"));
+            assertTrue("Expected checkout, got " + trace, trace.contains("\"name\":\"checkout\""));
+            assertTrue("Expected prepare, got " + trace, trace.contains("\"name\":\"prepare\""));
+            assertTrue("Expected execute, got " + trace, trace.contains("\"name\":\"execute\""));
+            assertTrue("Expected fetch, got " + trace, trace.contains("\"name\":\"fetch\""));
+            assertTrue("Expected agent, got " + trace, trace.contains("\"agent\":\"observer\""));
+            assertTrue("Expected SQL, got " + trace, trace.contains("\"sql\":\"SELECT 1\""));
+        } finally {
+            traceFile.delete();
+        }
+    }
+
+    private static String read(File file) throws Exception {
+        StringBuilder content = new StringBuilder();
+        BufferedReader reader = new BufferedReader(new FileReader(file));
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                content.append(line);
+            }
+        } finally {
+            reader.close();
+        }
+        return content.toString();
+    }
+}
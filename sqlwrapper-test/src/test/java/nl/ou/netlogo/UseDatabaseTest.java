@@ -23,6 +23,7 @@ package nl.ou.netlogo;
 import static nl.ou.netlogo.testsupport.DatabaseHelper.getGenericConnectCommand;
 import static nl.ou.netlogo.testsupport.DatabaseHelper.getDefaultConnectCommand;
 import static nl.ou.netlogo.testsupport.DatabaseHelper.getDefaultPoolConfigurationCommand;
+import static nl.ou.netlogo.testsupport.DatabaseHelper.assumeAvailable;
 import static org.junit.Assert.assertEquals;
 import nl.ou.netlogo.testsupport.Database;
 import nl.ou.netlogo.testsupport.HeadlessTest;
@@ -54,6 +55,7 @@ public class UseDatabaseTest extends HeadlessTest {
      */
     @Test
     public void testUseDatabase_existingSchema() throws Exception {
+        assumeAvailable(Database.MYSQL);
         workspace.open("init-sql.nlogo");
         workspace.command(getDefaultConnectCommand());
         workspace.command("sql:exec-direct \"SELECT DATABASE()\"");
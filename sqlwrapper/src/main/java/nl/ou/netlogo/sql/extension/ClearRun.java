@@ -0,0 +1,80 @@
+/*
+ * Copyright 2010, 2011 Open University of The Netherlands
+ * Contributors: Jan Blom, Rene Quakkelaar, Mark Rotteveel
+ *
+ * This file is part of NetLogo SQL Wrapper extension.
+ * 
+ * NetLogo SQL Wrapper extension is free software: you can redistribute it
+ * and/or modify it under the terms of the GNU Lesser General Public License 
+ * as published by the Free Software Foundation, either version 3 of the 
+ * License, or (at your option) any later version.
+ * 
+ * NetLogo SQL Wrapper is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with NetLogo SQL Wrapper extension.  If not, 
+ * see <http://www.gnu.org/licenses/>.
+ */
+package nl.ou.netlogo.sql.extension;
+
+import nl.ou.netlogo.sql.wrapper.SqlConnection;
+import nl.ou.netlogo.sql.wrapper.SqlEnvironment;
+
+import org.nlogo.api.Argument;
+import org.nlogo.api.Context;
+import org.nlogo.api.DefaultCommand;
+import org.nlogo.api.ExtensionException;
+import org.nlogo.api.Syntax;
+
+/**
+ * Class associated with the sql:clear-run command in a NetLogo model from the
+ * SQL extension. Removes the rows a run of a BehaviorSpace experiment wrote
+ * to the tables configured with the runpartition aspect, by dropping the table
+ * or partition of the run, or by deleting the rows of the run.
+ * 
+ * @author NetLogo project-team
+ * 
+ */
+public class ClearRun extends DefaultCommand {
+
+    private final SqlEnvironment sqlenv;
+
+    /**
+     * @param sqlenv
+     *            SQL environment of the workspace
+     */
+    public ClearRun(SqlEnvironment sqlenv) {
+        this.sqlenv = sqlenv;
+    }
+
+    /**
+     * Checks syntax of the sql:clear-run command.
+     * 
+     * @return syntax object handle
+     */
+    public Syntax getSyntax() {
+        int[] right = { Syntax.NumberType() };
+        return Syntax.commandSyntax(right);
+    }
+
+    /**
+     * Executes sql:clear-run command from model context.
+     * 
+     * @param args
+     *            <dl>
+     *            <dt>args[0]</dt>
+     *            <dd>is the run id (eg behaviorspace-run-number)</dd>
+     *            </dl>
+     * @param context
+     * @throws ExtensionException
+     * @throws org.nlogo.api.LogoException
+     */
+    public void perform(Argument args[], Context context) throws ExtensionException, org.nlogo.api.LogoException {
+        SqlConnection sqlc = sqlenv.getActiveSqlConnection(context, true);
+
+        sqlenv.getConnectionManager().getRunPartitioning().clearRun(sqlc, (long) args[0].getDoubleValue());
+    }
+}
@@ -22,7 +22,6 @@ package nl.ou.netlogo.sql.extension;
 
 import nl.ou.netlogo.sql.wrapper.SqlConnection;
 import nl.ou.netlogo.sql.wrapper.SqlEnvironment;
-import nl.ou.netlogo.sql.wrapper.SqlExtension;
 
 import org.nlogo.api.Argument;
 import org.nlogo.api.Context;
@@ -39,7 +38,15 @@ import org.nlogo.api.Syntax;
  */
 public class CommitTransaction extends DefaultCommand {
 
-    private final SqlEnvironment sqlenv = SqlExtension.getSqlEnvironment();
+    private final SqlEnvironment sqlenv;
+
+    /**
+     * @param sqlenv
+     *            SQL environment of the workspace
+     */
+    public CommitTransaction(SqlEnvironment sqlenv) {
+        this.sqlenv = sqlenv;
+    }
 
     /**
      * Checks syntax of the sql:commit-transaction command.
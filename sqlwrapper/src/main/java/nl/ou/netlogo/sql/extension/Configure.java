@@ -24,7 +24,6 @@ import java.util.Map;
 
 import nl.ou.netlogo.sql.wrapper.SqlConfiguration;
 import nl.ou.netlogo.sql.wrapper.SqlEnvironment;
-import nl.ou.netlogo.sql.wrapper.SqlExtension;
 
 import org.nlogo.api.Argument;
 import org.nlogo.api.Context;
@@ -40,7 +39,15 @@ import org.nlogo.api.Syntax;
  */
 public class Configure extends DefaultCommand {
 
-    private final SqlEnvironment sqlenv = SqlExtension.getSqlEnvironment();
+    private final SqlEnvironment sqlenv;
+
+    /**
+     * @param sqlenv
+     *            SQL environment of the workspace
+     */
+    public Configure(SqlEnvironment sqlenv) {
+        this.sqlenv = sqlenv;
+    }
 
     /**
      * Checks syntax of the sql:configure command.
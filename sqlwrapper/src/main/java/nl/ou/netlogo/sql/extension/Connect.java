@@ -23,7 +23,6 @@ package nl.ou.netlogo.sql.extension;
 import nl.ou.netlogo.sql.wrapper.SqlConfiguration;
 import nl.ou.netlogo.sql.wrapper.SqlConnection;
 import nl.ou.netlogo.sql.wrapper.SqlEnvironment;
-import nl.ou.netlogo.sql.wrapper.SqlExtension;
 import nl.ou.netlogo.sql.wrapper.SqlSetting;
 
 import org.nlogo.api.Argument;
@@ -41,7 +40,15 @@ import org.nlogo.api.Syntax;
  */
 public class Connect extends DefaultCommand {
 
-    private final SqlEnvironment sqlenv = SqlExtension.getSqlEnvironment();
+    private final SqlEnvironment sqlenv;
+
+    /**
+     * @param sqlenv
+     *            SQL environment of the workspace
+     */
+    public Connect(SqlEnvironment sqlenv) {
+        this.sqlenv = sqlenv;
+    }
 
     /**
      * Checks syntax of the connect command.
@@ -24,7 +24,6 @@ import java.sql.SQLException;
 
 import nl.ou.netlogo.sql.wrapper.SqlConnection;
 import nl.ou.netlogo.sql.wrapper.SqlEnvironment;
-import nl.ou.netlogo.sql.wrapper.SqlExtension;
 import nl.ou.netlogo.sql.wrapper.SqlStatement;
 
 import org.nlogo.api.Argument;
@@ -41,7 +40,15 @@ import org.nlogo.api.Syntax;
  */
 public class ExecDirect extends DefaultCommand {
 
-    private final SqlEnvironment sqlenv = SqlExtension.getSqlEnvironment();
+    private final SqlEnvironment sqlenv;
+
+    /**
+     * @param sqlenv
+     *            SQL environment of the workspace
+     */
+    public ExecDirect(SqlEnvironment sqlenv) {
+        this.sqlenv = sqlenv;
+    }
 
     /**
      * Checks syntax of the sql:exec-direct command.
@@ -65,7 +72,7 @@ public class ExecDirect extends DefaultCommand {
     public void perform(Argument args[], Context context) throws ExtensionException, org.nlogo.api.LogoException {
 
         // Get the sql connection for this agent. Exception if none available.
-        SqlConnection sqlc = sqlenv.getActiveSqlConnection(context, true);
+        SqlConnection sqlc = sqlenv.getRoutedSqlConnection(context, false);
 
         try {
             SqlStatement statement = sqlc.createStatement(args[0].getString());
@@ -22,7 +22,6 @@ package nl.ou.netlogo.sql.extension;
 
 import nl.ou.netlogo.sql.wrapper.SqlConnection;
 import nl.ou.netlogo.sql.wrapper.SqlEnvironment;
-import nl.ou.netlogo.sql.wrapper.SqlExtension;
 import nl.ou.netlogo.sql.wrapper.SqlStatement;
 
 import org.nlogo.api.Argument;
@@ -42,7 +41,15 @@ import java.sql.*;
  */
 public class ExecQuery extends DefaultCommand {
 
-    private final SqlEnvironment sqlenv = SqlExtension.getSqlEnvironment();
+    private final SqlEnvironment sqlenv;
+
+    /**
+     * @param sqlenv
+     *            SQL environment of the workspace
+     */
+    public ExecQuery(SqlEnvironment sqlenv) {
+        this.sqlenv = sqlenv;
+    }
 
     /**
      * Description of the NetLogo syntax of the command.
@@ -65,7 +72,7 @@ public class ExecQuery extends DefaultCommand {
     public void perform(Argument args[], Context context) throws ExtensionException, org.nlogo.api.LogoException {
 
         // Get the sql connection for this agent. Exception if none available.
-        SqlConnection sqlc = sqlenv.getActiveSqlConnection(context, true);
+        SqlConnection sqlc = sqlenv.getRoutedSqlConnection(context, true);
 
         try {
             String query = args[0].getString();
@@ -24,7 +24,6 @@ import java.sql.SQLException;
 
 import nl.ou.netlogo.sql.wrapper.SqlConnection;
 import nl.ou.netlogo.sql.wrapper.SqlEnvironment;
-import nl.ou.netlogo.sql.wrapper.SqlExtension;
 import nl.ou.netlogo.sql.wrapper.SqlStatement;
 
 import org.nlogo.api.Argument;
@@ -44,7 +43,15 @@ import org.nlogo.api.Syntax;
  */
 public class ExecUpdate extends DefaultCommand {
 
-    private final SqlEnvironment sqlenv = SqlExtension.getSqlEnvironment();
+    private final SqlEnvironment sqlenv;
+
+    /**
+     * @param sqlenv
+     *            SQL environment of the workspace
+     */
+    public ExecUpdate(SqlEnvironment sqlenv) {
+        this.sqlenv = sqlenv;
+    }
 
     /**
      * Description of the NetLogo syntax of the command.
@@ -68,7 +75,7 @@ public class ExecUpdate extends DefaultCommand {
     public void perform(Argument args[], Context context) throws ExtensionException, LogoException {
 
         // Get the sql connection for this agent. Exception if none available.
-        SqlConnection sqlc = sqlenv.getActiveSqlConnection(context, true);
+        SqlConnection sqlc = sqlenv.getRoutedSqlConnection(context, false);
 
         try {
             String query = args[0].getString();
@@ -23,7 +23,6 @@ package nl.ou.netlogo.sql.extension;
 import java.util.Iterator;
 
 import nl.ou.netlogo.sql.wrapper.SqlEnvironment;
-import nl.ou.netlogo.sql.wrapper.SqlExtension;
 import nl.ou.netlogo.sql.wrapper.SqlSetting;
 
 import org.nlogo.api.Argument;
@@ -41,7 +40,15 @@ import org.nlogo.api.Syntax;
  */
 public class GetConfiguration extends DefaultReporter {
 
-    private final SqlEnvironment sqlenv = SqlExtension.getSqlEnvironment();
+    private final SqlEnvironment sqlenv;
+
+    /**
+     * @param sqlenv
+     *            SQL environment of the workspace
+     */
+    public GetConfiguration(SqlEnvironment sqlenv) {
+        this.sqlenv = sqlenv;
+    }
 
     /**
      * Checks syntax of the sql:get-configuration reporter.
@@ -22,7 +22,6 @@ package nl.ou.netlogo.sql.extension;
 
 import nl.ou.netlogo.sql.wrapper.SqlConnection;
 import nl.ou.netlogo.sql.wrapper.SqlEnvironment;
-import nl.ou.netlogo.sql.wrapper.SqlExtension;
 import nl.ou.netlogo.sql.wrapper.SqlConnectionManager;
 
 import org.nlogo.api.Argument;
@@ -41,7 +40,15 @@ import org.nlogo.api.Syntax;
  */
 public class IsConnected extends DefaultReporter {
 
-    protected final SqlEnvironment sqlenv = SqlExtension.getSqlEnvironment();
+    protected final SqlEnvironment sqlenv;
+
+    /**
+     * @param sqlenv
+     *            SQL environment of the workspace
+     */
+    public IsConnected(SqlEnvironment sqlenv) {
+        this.sqlenv = sqlenv;
+    }
 
     /**
      * Checks syntax of the sql:is-connected? command.
@@ -21,6 +21,7 @@
 package nl.ou.netlogo.sql.extension;
 
 import nl.ou.netlogo.sql.wrapper.SqlConnection;
+import nl.ou.netlogo.sql.wrapper.SqlEnvironment;
 
 import org.nlogo.api.Agent;
 import org.nlogo.api.Argument;
@@ -35,6 +36,15 @@ import org.nlogo.api.ExtensionException;
  * 
  */
 public class IsConnectedDebug extends IsConnected {
+
+    /**
+     * @param sqlenv
+     *            SQL environment of the workspace
+     */
+    public IsConnectedDebug(SqlEnvironment sqlenv) {
+        super(sqlenv);
+    }
+
     public Object report(Argument args[], Context context) throws ExtensionException, org.nlogo.api.LogoException {
 
         Agent agent = context.getAgent();
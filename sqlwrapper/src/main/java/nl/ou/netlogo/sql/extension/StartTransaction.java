@@ -22,7 +22,6 @@ package nl.ou.netlogo.sql.extension;
 
 import nl.ou.netlogo.sql.wrapper.SqlConnection;
 import nl.ou.netlogo.sql.wrapper.SqlEnvironment;
-import nl.ou.netlogo.sql.wrapper.SqlExtension;
 
 import org.nlogo.api.Argument;
 import org.nlogo.api.Context;
@@ -39,7 +38,15 @@ import org.nlogo.api.Syntax;
  */
 public class StartTransaction extends DefaultCommand {
 
-    private final SqlEnvironment sqlenv = SqlExtension.getSqlEnvironment();
+    private final SqlEnvironment sqlenv;
+
+    /**
+     * @param sqlenv
+     *            SQL environment of the workspace
+     */
+    public StartTransaction(SqlEnvironment sqlenv) {
+        this.sqlenv = sqlenv;
+    }
 
     /**
      * Checks syntax of the sql:start-transaction command.
@@ -61,7 +68,7 @@ public class StartTransaction extends DefaultCommand {
      */
     public void perform(Argument args[], Context context) throws ExtensionException, org.nlogo.api.LogoException {
 
-        SqlConnection sqlc = sqlenv.getActiveSqlConnection(context, true);
+        SqlConnection sqlc = sqlenv.getRoutedSqlConnection(context, false);
 
         sqlc.startTransaction();
     }
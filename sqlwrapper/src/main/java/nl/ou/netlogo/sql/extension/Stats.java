@@ -0,0 +1,88 @@
+/*
+ * Copyright 2010, 2011 Open University of The Netherlands
+ * Contributors: Jan Blom, Rene Quakkelaar, Mark Rotteveel
+ *
+ * This file is part of NetLogo SQL Wrapper extension.
+ * 
+ * NetLogo SQL Wrapper extension is free software: you can redistribute it
+ * and/or modify it under the terms of the GNU Lesser General Public License 
+ * as published by the Free Software Foundation, either version 3 of the 
+ * License, or (at your option) any later version.
+ * 
+ * NetLogo SQL Wrapper is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with NetLogo SQL Wrapper extension.  If not, 
+ * see <http://www.gnu.org/licenses/>.
+ */
+package nl.ou.netlogo.sql.extension;
+
+import java.util.Map;
+
+import nl.ou.netlogo.sql.wrapper.SqlEnvironment;
+import nl.ou.netlogo.sql.wrapper.StatementStatistics;
+
+import org.nlogo.api.Argument;
+import org.nlogo.api.Context;
+import org.nlogo.api.DefaultReporter;
+import org.nlogo.api.ExtensionException;
+import org.nlogo.api.LogoListBuilder;
+import org.nlogo.api.Syntax;
+
+/**
+ * Stats implements the sql:stats reporter
+ * 
+ * @author NetLogo project-team
+ * 
+ */
+public class Stats extends DefaultReporter {
+
+    private final SqlEnvironment sqlenv;
+
+    /**
+     * @param sqlenv
+     *            SQL environment of the workspace
+     */
+    public Stats(SqlEnvironment sqlenv) {
+        this.sqlenv = sqlenv;
+    }
+
+    /**
+     * Checks syntax of the sql:stats reporter.
+     * 
+     * @return syntax object handle
+     */
+    public Syntax getSyntax() {
+        return Syntax.reporterSyntax(new int[] {}, Syntax.ListType());
+    }
+
+    /**
+     * Executes sql:stats reporter.
+     * 
+     * @param args
+     *            (none)
+     * @param context
+     * @return list with for every statement a list of key-value pairs with its
+     *         statistics, the statement with the highest total time first
+     * @throws ExtensionException
+     * @throws org.nlogo.api.LogoException
+     */
+    public Object report(Argument args[], Context context) throws ExtensionException, org.nlogo.api.LogoException {
+        LogoListBuilder statementList = new LogoListBuilder();
+        for (StatementStatistics.Entry statement : sqlenv.getConnectionManager().getStatementStatistics()
+                .getEntries()) {
+            LogoListBuilder statsList = new LogoListBuilder();
+            for (Map.Entry<String, Object> entry : statement.toMap().entrySet()) {
+                LogoListBuilder kvpair = new LogoListBuilder();
+                kvpair.add(entry.getKey());
+                kvpair.add(entry.getValue());
+                statsList.add(kvpair.toLogoList());
+            }
+            statementList.add(statsList.toLogoList());
+        }
+        return statementList.toLogoList();
+    }
+}
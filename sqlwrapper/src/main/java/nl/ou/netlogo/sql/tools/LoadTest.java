@@ -0,0 +1,452 @@
+/*
+ * Copyright 2010, 2011 Open University of The Netherlands
+ * Contributors: Jan Blom, Rene Quakkelaar, Mark Rotteveel
+ *
+ * This file is part of NetLogo SQL Wrapper extension.
+ * 
+ * NetLogo SQL Wrapper extension is free software: you can redistribute it
+ * and/or modify it under the terms of the GNU Lesser General Public License 
+ * as published by the Free Software Foundation, either version 3 of the 
+ * License, or (at your option) any later version.
+ * 
+ * NetLogo SQL Wrapper is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with NetLogo SQL Wrapper extension.  If not, 
+ * see <http://www.gnu.org/licenses/>.
+ */
+package nl.ou.netlogo.sql.tools;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import nl.ou.netlogo.sql.wrapper.SqlManagement;
+
+import org.nlogo.api.LogoList;
+import org.nlogo.headless.HeadlessWorkspace;
+
+/**
+ * Tool to measure the throughput of models that use the extension.
+ * <p>
+ * Runs a synthetic model in a number of headless workspaces concurrently. In
+ * every tick each turtle executes a number of queries and updates on a table
+ * of its workspace, using the connection pool or a connection of its own.
+ * After warming up, the measured ticks are timed and one line with the
+ * settings and results is written as CSV: ticks and statements per second
+ * (over all workspaces), percentiles of the time waited for a pooled
+ * connection and heap usage. Appending the results of several runs to one
+ * file allows comparing settings, eg the maximum number of pooled
+ * connections.
+ * </p>
+ * <p>
+ * NetLogo and the extension must be on the classpath, and the extension
+ * installed in the extensions directory of NetLogo:
+ * </p>
+ * 
+ * <pre>
+ * java -cp "NetLogo.jar:lib/*:extensions/sql/*" nl.ou.netlogo.sql.tools.LoadTest \
+ *     -workspaces 4 -turtles 100 -queries 2 -updates 1 -pool "[[\"max-connections\" 20]]" -output results.csv
+ * </pre>
+ * <p>
+ * Without <code>-settings</code> the model uses an in-memory database of the
+ * embedded brand, so no database server is needed.
+ * </p>
+ * 
+ * @author NetLogo project-team
+ * 
+ */
+public class LoadTest {
+
+    private static final String DEFAULT_SETTINGS = "[[\"brand\" \"embedded\"] [\"mode\" \"memory\"] [\"database\" \"loadtest\"] [\"user\" \"sa\"] [\"password\" \"\"]]";
+    private static final String TABLE_PREFIX = "sqlwrapper_loadtest_";
+    private static final String CSV_HEADER = "workspaces,turtles,queries,updates,warmup-ticks,ticks,connection,autodisconnect,pool,"
+            + "elapsed-ms,ticks-per-sec,statements-per-sec,checkout-p50-ms,checkout-p95-ms,checkout-p99-ms,"
+            + "checkout-max-ms,checkout-timeouts,heap-used-mb,heap-peak-mb";
+    private static final String USAGE = "Usage: LoadTest [-workspaces K] [-turtles N] [-queries M] [-updates U] "
+            + "[-warmup ticks] [-ticks ticks] [-connection pooled|explicit] [-autodisconnect on|off] "
+            + "[-settings list] [-pool list] [-output file]";
+
+    private int workspaces = 1;
+    private int turtles = 100;
+    private int queries = 1;
+    private int updates = 1;
+    private int warmupTicks = 10;
+    private int ticks = 100;
+    private boolean pooled = true;
+    private String autodisconnect = "on";
+    private String settings = DEFAULT_SETTINGS;
+    private String pool;
+    private String output;
+
+    /**
+     * Start of the measured ticks, set when all workspaces are warmed up
+     */
+    private volatile long startNanos;
+
+    public static void main(String[] args) throws Exception {
+        LoadTest loadTest = new LoadTest();
+        try {
+            loadTest.parseArguments(args);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.err.println(USAGE);
+            System.exit(2);
+        }
+        loadTest.run();
+        // Threads of the NetLogo workspaces keep the JVM running
+        System.exit(0);
+    }
+
+    /**
+     * Parses the command line arguments.
+     * 
+     * @param args
+     *            Pairs of option name and value
+     * @throws IllegalArgumentException
+     *             For an unknown option or invalid value
+     */
+    void parseArguments(String[] args) {
+        if (args.length % 2 != 0) {
+            throw new IllegalArgumentException("Missing value of option " + args[args.length - 1]);
+        }
+        for (int idx = 0; idx < args.length; idx += 2) {
+            String option = args[idx];
+            String value = args[idx + 1];
+            if (option.equals("-workspaces")) {
+                workspaces = parseCount(option, value, 1);
+            } else if (option.equals("-turtles")) {
+                turtles = parseCount(option, value, 1);
+            } else if (option.equals("-queries")) {
+                queries = parseCount(option, value, 0);
+            } else if (option.equals("-updates")) {
+                updates = parseCount(option, value, 0);
+            } else if (option.equals("-warmup")) {
+                warmupTicks = parseCount(option, value, 0);
+            } else if (option.equals("-ticks")) {
+                ticks = parseCount(option, value, 1);
+            } else if (option.equals("-connection")) {
+                if (!value.equals("pooled") && !value.equals("explicit")) {
+                    throw new IllegalArgumentException("Invalid value for -connection: " + value);
+                }
+                pooled = value.equals("pooled");
+            } else if (option.equals("-autodisconnect")) {
+                if (!value.equals("on") && !value.equals("off")) {
+                    throw new IllegalArgumentException("Invalid value for -autodisconnect: " + value);
+                }
+                autodisconnect = value;
+            } else if (option.equals("-settings")) {
+                settings = value;
+            } else if (option.equals("-pool")) {
+                pool = value;
+            } else if (option.equals("-output")) {
+                output = value;
+            } else {
+                throw new IllegalArgumentException("Unknown option " + option);
+            }
+        }
+    }
+
+    private static int parseCount(String option, String value, int minimum) {
+        try {
+            int count = Integer.parseInt(value);
+            if (count >= minimum) {
+                return count;
+            }
+        } catch (NumberFormatException e) {
+            // reported below
+        }
+        throw new IllegalArgumentException("Invalid value for " + option + ": " + value + ", expected a number of at least "
+                + minimum);
+    }
+
+    /**
+     * Runs the model in the workspaces and writes the results.
+     * 
+     * @throws Exception
+     *             If the model fails in one of the workspaces
+     */
+    void run() throws Exception {
+        CyclicBarrier warmedUp = new CyclicBarrier(workspaces, new Runnable() {
+            public void run() {
+                resetStatistics();
+                startNanos = System.nanoTime();
+            }
+        });
+        CyclicBarrier finished = new CyclicBarrier(workspaces);
+        ExecutorService executor = Executors.newFixedThreadPool(workspaces);
+        try {
+            List<Future<RunResult>> futures = new ArrayList<Future<RunResult>>();
+            for (int idx = 0; idx < workspaces; idx++) {
+                futures.add(executor.submit(new ModelRun(idx, warmedUp, finished)));
+            }
+            long endNanos = 0;
+            for (Future<RunResult> future : futures) {
+                endNanos = Math.max(endNanos, future.get().endNanos);
+            }
+            // The workspaces share the pool, so every workspace reports the same statistics
+            writeResults(endNanos - startNanos, futures.get(0).get().poolStats);
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Generates the synthetic model for a workspace.
+     * 
+     * @param table
+     *            Table used by the model
+     * @return Source of the model, in the format of a .nlogo file
+     */
+    String createModel(String table) {
+        StringBuilder code = new StringBuilder();
+        code.append("extensions [sql]\n\n");
+        code.append("to setup\n");
+        code.append("  clear-all\n");
+        if (pooled) {
+            if (pool != null) {
+                code.append("  sql:configure \"connectionpool\" ").append(pool).append('\n');
+            }
+            code.append("  sql:configure \"defaultconnection\" (sentence ").append(settings).append(" [[\"autodisconnect\" \"")
+                    .append(autodisconnect).append("\"]])\n");
+        } else {
+            code.append("  sql:connect ").append(settings).append('\n');
+        }
+        code.append("  sql:exec-direct \"DROP TABLE IF EXISTS ").append(table).append("\"\n");
+        code.append("  sql:exec-direct \"CREATE TABLE ").append(table).append(" (id INT, tick INT, val DOUBLE PRECISION)\"\n");
+        code.append("  sql:exec-direct \"CREATE INDEX ").append(table).append("_idx ON ").append(table).append(" (id, tick)\"\n");
+        code.append("  crt ").append(turtles);
+        if (!pooled) {
+            code.append(" [ sql:connect ").append(settings).append(" ]");
+        }
+        code.append('\n');
+        code.append("  reset-ticks\n");
+        code.append("end\n\n");
+        code.append("to go\n");
+        code.append("  ask turtles [\n");
+        if (queries > 0) {
+            code.append("    repeat ").append(queries).append(" [\n");
+            code.append("      sql:exec-query \"SELECT val FROM ").append(table)
+                    .append(" WHERE id = ? AND tick = ?\" (list who (ticks - 1))\n");
+            code.append("      let rows sql:fetch-resultset\n");
+            code.append("    ]\n");
+        }
+        if (updates > 0) {
+            code.append("    repeat ").append(updates).append(" [\n");
+            code.append("      sql:exec-update \"INSERT INTO ").append(table)
+                    .append(" (id, tick, val) VALUES (?, ?, ?)\" (list who ticks random-float 1)\n");
+            code.append("    ]\n");
+        }
+        code.append("  ]\n");
+        code.append("  tick\n");
+        code.append("end\n\n");
+        code.append("to teardown\n");
+        code.append("  sql:exec-direct \"DROP TABLE ").append(table).append("\"\n");
+        if (!pooled) {
+            code.append("  ask turtles [ sql:disconnect ]\n");
+            code.append("  sql:disconnect\n");
+        }
+        code.append("end\n");
+
+        String separator = "@#$#@#$#@\n";
+        StringBuilder model = new StringBuilder(code);
+        model.append(separator);
+        // Interface: only the view, 33x33 patches
+        model.append("GRAPHICS-WINDOW\n210\n10\n649\n470\n16\n16\n13.0\n1\n10\n1\n1\n1\n0\n1\n1\n1\n-16\n16\n-16\n16\n0\n0\n1\nticks\n\n");
+        model.append(separator);
+        model.append("Synthetic model of the load test of the NetLogo SQL Wrapper extension.\n");
+        model.append(separator);
+        model.append("default\ntrue\n0\nPolygon -7500403 true true 150 5 40 250 150 205 260 250\n\n");
+        model.append(separator);
+        model.append("NetLogo 5.0\n");
+        model.append(separator).append(separator).append(separator).append(separator);
+        model.append("default\n0.0\n-0.2 0 1.0 0.0\n0.0 1 1.0 0.0\n0.2 0 1.0 0.0\nlink direction\ntrue\n0\n\n");
+        model.append(separator);
+        model.append("0\n");
+        model.append(separator);
+        return model.toString();
+    }
+
+    /**
+     * Resets the statistics of the connection pools, so they cover the
+     * measured ticks only, and the peak heap usage.
+     */
+    private void resetStatistics() {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            for (ObjectName name : server.queryNames(new ObjectName(SqlManagement.DOMAIN + ":type=ConnectionPool,*"),
+                    null)) {
+                server.invoke(name, "resetStatistics", new Object[0], new String[0]);
+            }
+        } catch (Exception e) {
+            System.err.println("Unable to reset the pool statistics: " + e);
+        }
+        for (MemoryPoolMXBean memoryPool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (memoryPool.getType() == MemoryType.HEAP) {
+                memoryPool.resetPeakUsage();
+            }
+        }
+    }
+
+    private File writeModel(String table) throws IOException {
+        File modelFile = File.createTempFile(table, ".nlogo");
+        modelFile.deleteOnExit();
+        Writer writer = new FileWriter(modelFile);
+        try {
+            writer.write(createModel(table));
+        } finally {
+            writer.close();
+        }
+        return modelFile;
+    }
+
+    private void writeResults(long elapsedNanos, Map<String, Object> poolStats) throws IOException {
+        long heapUsed = 0;
+        long heapPeak = 0;
+        for (MemoryPoolMXBean memoryPool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (memoryPool.getType() == MemoryType.HEAP) {
+                heapUsed += memoryPool.getUsage().getUsed();
+                heapPeak += memoryPool.getPeakUsage().getUsed();
+            }
+        }
+        double seconds = elapsedNanos / 1e9;
+        long totalTicks = (long) ticks * workspaces;
+        long totalStatements = totalTicks * turtles * (queries + updates);
+
+        StringBuilder line = new StringBuilder();
+        line.append(workspaces).append(',').append(turtles).append(',').append(queries).append(',').append(updates)
+                .append(',').append(warmupTicks).append(',').append(ticks).append(',')
+                .append(pooled ? "pooled" : "explicit").append(',').append(pooled ? autodisconnect : "n/a").append(',')
+                .append(quote(pool != null ? pool : "")).append(',');
+        line.append(format(elapsedNanos / 1e6)).append(',').append(format(totalTicks / seconds)).append(',')
+                .append(format(totalStatements / seconds)).append(',');
+        String[] poolColumns = { "checkout-p50-ms", "checkout-p95-ms", "checkout-p99-ms", "checkout-max-ms",
+                "checkout-timeouts" };
+        for (String column : poolColumns) {
+            Object value = poolStats != null ? poolStats.get(column) : null;
+            line.append(value instanceof Number ? format(((Number) value).doubleValue()) : "").append(',');
+        }
+        line.append(format(heapUsed / 1048576.0)).append(',').append(format(heapPeak / 1048576.0));
+
+        if (output == null) {
+            System.out.println(CSV_HEADER);
+            System.out.println(line);
+            return;
+        }
+        File outputFile = new File(output);
+        boolean newFile = !outputFile.exists() || outputFile.length() == 0;
+        PrintWriter out = new PrintWriter(new FileWriter(outputFile, true));
+        try {
+            if (newFile) {
+                out.println(CSV_HEADER);
+            }
+            out.println(line);
+        } finally {
+            out.close();
+        }
+        System.err.println("Results appended to " + outputFile.getAbsolutePath());
+    }
+
+    private static String format(double value) {
+        return String.format(Locale.ENGLISH, "%.3f", value);
+    }
+
+    private static String quote(String value) {
+        return "\"" + value.replace("\"", "\"\"") + "\"";
+    }
+
+    /**
+     * Result of the run of the model in one workspace.
+     */
+    private static class RunResult {
+
+        /**
+         * Time the measured ticks ended, as System.nanoTime()
+         */
+        private final long endNanos;
+        /**
+         * Statistics of the default connection pool by name, null if the
+         * turtles use connections of their own
+         */
+        private final Map<String, Object> poolStats;
+
+        RunResult(long endNanos, Map<String, Object> poolStats) {
+            this.endNanos = endNanos;
+            this.poolStats = poolStats;
+        }
+    }
+
+    /**
+     * Run of the model in one workspace.
+     */
+    private class ModelRun implements Callable<RunResult> {
+
+        private final int number;
+        private final CyclicBarrier warmedUp;
+        private final CyclicBarrier finished;
+
+        ModelRun(int number, CyclicBarrier warmedUp, CyclicBarrier finished) {
+            this.number = number;
+            this.warmedUp = warmedUp;
+            this.finished = finished;
+        }
+
+        public RunResult call() throws Exception {
+            HeadlessWorkspace workspace = HeadlessWorkspace.newInstance();
+            try {
+                File modelFile = writeModel(TABLE_PREFIX + number);
+                workspace.open(modelFile.getAbsolutePath());
+                workspace.command("setup");
+                if (warmupTicks > 0) {
+                    workspace.command("repeat " + warmupTicks + " [ go ]");
+                }
+                System.err.printf("Workspace %d: warmed up%n", number);
+                warmedUp.await();
+                workspace.command("repeat " + ticks + " [ go ]");
+                long endNanos = System.nanoTime();
+                System.err.printf("Workspace %d: done%n", number);
+                finished.await();
+                Map<String, Object> poolStats = null;
+                if (pooled) {
+                    poolStats = new HashMap<String, Object>();
+                    for (Object kvpair : (LogoList) workspace.report("sql:pool-stats")) {
+                        poolStats.put((String) ((LogoList) kvpair).get(0), ((LogoList) kvpair).get(1));
+                    }
+                }
+                workspace.command("teardown");
+                return new RunResult(endNanos, poolStats);
+            } catch (Exception e) {
+                // Do not leave the other workspaces waiting
+                warmedUp.reset();
+                finished.reset();
+                throw e;
+            } finally {
+                workspace.dispose();
+            }
+        }
+    }
+}
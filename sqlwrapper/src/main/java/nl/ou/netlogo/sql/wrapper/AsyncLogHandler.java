@@ -0,0 +1,269 @@
+/*
+ * Copyright 2010, 2011 Open University of The Netherlands
+ * Contributors: Jan Blom, Rene Quakkelaar, Mark Rotteveel
+ *
+ * This file is part of NetLogo SQL Wrapper extension.
+ * 
+ * NetLogo SQL Wrapper extension is free software: you can redistribute it
+ * and/or modify it under the terms of the GNU Lesser General Public License 
+ * as published by the Free Software Foundation, either version 3 of the 
+ * License, or (at your option) any later version.
+ * 
+ * NetLogo SQL Wrapper is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with NetLogo SQL Wrapper extension.  If not, 
+ * see <http://www.gnu.org/licenses/>.
+ */
+package nl.ou.netlogo.sql.wrapper;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.ErrorManager;
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+
+/**
+ * Handler that passes log records to its target handlers on a background
+ * thread, so the thread that logs does not wait for file or console I/O.
+ * <p>
+ * Records are queued in a ring buffer of fixed capacity. When the buffer is
+ * full, a record is either dropped or the logging thread waits for room,
+ * depending on the overflow policy. The number of dropped records is reported
+ * through the target handlers once there is room again.
+ * </p>
+ * 
+ * @author NetLogo project-team
+ */
+public class AsyncLogHandler extends Handler {
+
+    public enum Overflow {
+        DROP, BLOCK;
+
+        /**
+         * Returns the Overflow for a name as used in the configuration (eg
+         * "drop").
+         * 
+         * @param name
+         *            Name of the policy (case-insensitive)
+         * @return Overflow
+         * @throws IllegalArgumentException
+         *             For an unknown name
+         */
+        public static Overflow forName(String name) {
+            try {
+                return valueOf(name.toUpperCase());
+            } catch (IllegalArgumentException ex) {
+                throw new IllegalArgumentException("Unknown overflow policy '" + name + "', expected drop or block");
+            }
+        }
+    }
+
+    private final Handler[] targets;
+    private final LogRecord[] buffer;
+    private final Overflow overflow;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final Condition notFull = lock.newCondition();
+    /**
+     * Records dropped since the last report, and in total
+     */
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong totalDropped = new AtomicLong();
+    private final Thread writer;
+    /**
+     * Index of the oldest record, and number of records in the buffer
+     */
+    private int head;
+    private int count;
+    /**
+     * <code>true</code> while the writer passes a record to the targets
+     */
+    private boolean writing;
+    private boolean stopped;
+
+    /**
+     * Creates an AsyncLogHandler and starts its background thread.
+     * 
+     * @param targets
+     *            Handlers the records are passed to
+     * @param capacity
+     *            Maximum number of records waiting to be written
+     * @param overflow
+     *            What to do with a record if the buffer is full
+     */
+    public AsyncLogHandler(Handler[] targets, int capacity, Overflow overflow) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Capacity must be at least 1, was " + capacity);
+        }
+        this.targets = targets.clone();
+        this.buffer = new LogRecord[capacity];
+        this.overflow = overflow;
+        setLevel(Level.ALL);
+        writer = new Thread("sqlwrapper-log-writer") {
+            public void run() {
+                writeRecords();
+            }
+        };
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * @return Maximum number of records waiting to be written
+     */
+    public int getCapacity() {
+        return buffer.length;
+    }
+
+    /**
+     * @return Overflow policy
+     */
+    public Overflow getOverflow() {
+        return overflow;
+    }
+
+    /**
+     * @return Number of records dropped because the buffer was full
+     */
+    public long getDropped() {
+        return totalDropped.get();
+    }
+
+    /**
+     * Queues a record to be written by the background thread.
+     * 
+     * @param record
+     *            Log record
+     */
+    public void publish(LogRecord record) {
+        if (!isLoggable(record)) {
+            return;
+        }
+        // The caller of the logger is only known on the logging thread
+        record.getSourceClassName();
+        lock.lock();
+        try {
+            while (count == buffer.length && !stopped) {
+                if (overflow == Overflow.DROP) {
+                    dropped.incrementAndGet();
+                    totalDropped.incrementAndGet();
+                    return;
+                }
+                notFull.awaitUninterruptibly();
+            }
+            if (stopped) {
+                return;
+            }
+            buffer[(head + count) % buffer.length] = record;
+            count++;
+            notEmpty.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Waits until the queued records are written, and flushes the targets.
+     */
+    public void flush() {
+        lock.lock();
+        try {
+            while ((count > 0 || writing) && writer.isAlive()) {
+                try {
+                    notFull.await(100, TimeUnit.MILLISECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+        for (Handler target : targets) {
+            target.flush();
+        }
+    }
+
+    /**
+     * Writes the queued records and stops the background thread, without
+     * closing the targets.
+     */
+    public void stop() {
+        flush();
+        lock.lock();
+        try {
+            stopped = true;
+            notEmpty.signalAll();
+            notFull.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Writes the queued records, stops the background thread and closes the
+     * targets.
+     */
+    public void close() {
+        stop();
+        for (Handler target : targets) {
+            target.close();
+        }
+    }
+
+    private void writeRecords() {
+        while (true) {
+            LogRecord record;
+            lock.lock();
+            try {
+                while (count == 0 && !stopped) {
+                    notEmpty.awaitUninterruptibly();
+                }
+                if (count == 0) {
+                    return;
+                }
+                record = buffer[head];
+                buffer[head] = null;
+                head = (head + 1) % buffer.length;
+                count--;
+                writing = true;
+                notFull.signalAll();
+            } finally {
+                lock.unlock();
+            }
+            try {
+                long droppedRecords = dropped.getAndSet(0);
+                if (droppedRecords > 0) {
+                    write(new LogRecord(Level.WARNING, "Log buffer full, dropped " + droppedRecords
+                            + " log records"));
+                }
+                write(record);
+            } finally {
+                lock.lock();
+                try {
+                    writing = false;
+                    notFull.signalAll();
+                } finally {
+                    lock.unlock();
+                }
+            }
+        }
+    }
+
+    private void write(LogRecord record) {
+        for (Handler target : targets) {
+            try {
+                target.publish(record);
+            } catch (RuntimeException e) {
+                reportError(null, e, ErrorManager.WRITE_FAILURE);
+            }
+        }
+    }
+}
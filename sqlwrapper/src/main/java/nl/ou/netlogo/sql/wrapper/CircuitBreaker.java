@@ -0,0 +1,191 @@
+/*
+ * Copyright 2010, 2011 Open University of The Netherlands
+ * Contributors: Jan Blom, Rene Quakkelaar, Mark Rotteveel
+ *
+ * This file is part of NetLogo SQL Wrapper extension.
+ * 
+ * NetLogo SQL Wrapper extension is free software: you can redistribute it
+ * and/or modify it under the terms of the GNU Lesser General Public License 
+ * as published by the Free Software Foundation, either version 3 of the 
+ * License, or (at your option) any later version.
+ * 
+ * NetLogo SQL Wrapper is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with NetLogo SQL Wrapper extension.  If not, 
+ * see <http://www.gnu.org/licenses/>.
+ */
+package nl.ou.netlogo.sql.wrapper;
+
+import java.sql.SQLException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.logging.Logger;
+
+/**
+ * Circuit breaker for connecting to a database.
+ * <p>
+ * After a configured number of consecutive connection failures the breaker
+ * opens: connection attempts fail immediately instead of waiting for a
+ * timeout. After the cool-down period the breaker is half-open and a single
+ * attempt is allowed to probe the database; it closes the breaker on success
+ * and reopens it on failure.
+ * </p>
+ * 
+ * @author NetLogo project-team
+ */
+public class CircuitBreaker {
+
+    private static final Logger LOG = SqlLogger.getLogger();
+
+    public enum State {
+        CLOSED, OPEN, HALF_OPEN;
+
+        /**
+         * @return Name of the state as reported to the model
+         */
+        public String getName() {
+            return name().toLowerCase().replace('_', '-');
+        }
+    }
+
+    private final String database;
+    private int failureThreshold;
+    private long coolDownMillis;
+    private State state = State.CLOSED;
+    private int consecutiveFailures;
+    private long openedAt;
+    private boolean probeInProgress;
+    private String lastError;
+
+    /**
+     * Creates a circuit breaker.
+     * 
+     * @param database
+     *            Description of the database (for messages)
+     * @param failureThreshold
+     *            Number of consecutive failures that opens the breaker (0
+     *            disables the breaker)
+     * @param coolDownMillis
+     *            Time the breaker stays open before allowing a probe
+     */
+    public CircuitBreaker(String database, int failureThreshold, long coolDownMillis) {
+        this.database = database;
+        configure(failureThreshold, coolDownMillis);
+    }
+
+    /**
+     * Changes the settings of the circuit breaker.
+     * 
+     * @param failureThreshold
+     *            Number of consecutive failures that opens the breaker (0
+     *            disables the breaker)
+     * @param coolDownMillis
+     *            Time the breaker stays open before allowing a probe
+     */
+    public synchronized void configure(int failureThreshold, long coolDownMillis) {
+        this.failureThreshold = failureThreshold;
+        this.coolDownMillis = coolDownMillis;
+        if (failureThreshold <= 0) {
+            reset();
+        }
+    }
+
+    /**
+     * Checks if a connection attempt is allowed. Must be followed by
+     * {@link #recordSuccess()} or {@link #recordFailure(SQLException)} if it
+     * is.
+     * 
+     * @throws SQLException
+     *             If the breaker is open (the attempt should not be made)
+     */
+    public synchronized void beforeAttempt() throws SQLException {
+        if (state == State.OPEN) {
+            long remaining = openedAt + coolDownMillis - System.currentTimeMillis();
+            if (remaining > 0) {
+                throw fastFail("retrying in " + (remaining + 999) / 1000 + " seconds");
+            }
+            LOG.info("Circuit breaker for " + database + " half-open, probing database");
+            state = State.HALF_OPEN;
+        }
+        if (state == State.HALF_OPEN) {
+            if (probeInProgress) {
+                throw fastFail("probing database");
+            }
+            probeInProgress = true;
+        }
+    }
+
+    /**
+     * Ends an attempt allowed by {@link #beforeAttempt()} that failed for
+     * reasons unrelated to the availability of the database (eg an exhausted
+     * connection pool).
+     */
+    public synchronized void cancelAttempt() {
+        probeInProgress = false;
+    }
+
+    private SQLException fastFail(String detail) {
+        return new SQLException("Database " + database + " is unreachable, failing fast (" + detail
+                + "). Last error: " + lastError, "08001");
+    }
+
+    /**
+     * Records a successful connection attempt, closing the breaker.
+     */
+    public synchronized void recordSuccess() {
+        if (state != State.CLOSED) {
+            LOG.info("Circuit breaker for " + database + " closed");
+        }
+        reset();
+    }
+
+    /**
+     * Records a failed connection attempt.
+     * 
+     * @param failure
+     *            Cause of the failure
+     */
+    public synchronized void recordFailure(SQLException failure) {
+        consecutiveFailures++;
+        lastError = failure.getMessage();
+        probeInProgress = false;
+        if (failureThreshold > 0 && (state == State.HALF_OPEN || consecutiveFailures >= failureThreshold)) {
+            if (state != State.OPEN) {
+                LOG.warning("Circuit breaker for " + database + " opened after " + consecutiveFailures
+                        + " consecutive failures: " + lastError);
+            }
+            state = State.OPEN;
+            openedAt = System.currentTimeMillis();
+        }
+    }
+
+    private void reset() {
+        state = State.CLOSED;
+        consecutiveFailures = 0;
+        probeInProgress = false;
+    }
+
+    public synchronized State getState() {
+        return state;
+    }
+
+    /**
+     * Builds a snapshot of the state of the breaker.
+     * 
+     * @return Map of name to value (String or Double), in reporting order
+     */
+    public synchronized Map<String, Object> toMap() {
+        Map<String, Object> info = new LinkedHashMap<String, Object>();
+        info.put("database", database);
+        info.put("state", state.getName());
+        info.put("failures", Double.valueOf(consecutiveFailures));
+        long remaining = state == State.OPEN ? Math.max(0, openedAt + coolDownMillis - System.currentTimeMillis()) : 0;
+        info.put("retry-in-ms", Double.valueOf(remaining));
+        info.put("last-error", lastError == null ? "" : lastError);
+        return info;
+    }
+}
@@ -20,33 +20,75 @@
  */
 package nl.ou.netlogo.sql.wrapper;
 
-import java.util.logging.Level;
+import java.sql.SQLException;
 
 import com.jolbox.bonecp.ConnectionHandle;
 import com.jolbox.bonecp.hooks.AbstractConnectionHook;
+import com.jolbox.bonecp.hooks.AcquireFailConfig;
 
 /**
- * ConnectionHook implementation to reset autocommit status of connections
- * returned to pool.
+ * ConnectionHook implementation to maintain the connection counters of the
+ * pool statistics, and to report failures to establish a connection to the
+ * pool. The session state of connections returned to the pool is reset
+ * by {@link SqlConnection}, which knows if it was changed.
  * 
  * @author NetLogo project-team
  */
 public class ConnectionHook extends AbstractConnectionHook {
 
+    private final PoolStatistics poolStatistics;
+    private volatile SQLException acquireFailure;
+    private volatile long acquireFailureNanos;
+
+    /**
+     * Creates a ConnectionHook.
+     * 
+     * @param poolStatistics
+     *            PoolStatistics to update
+     */
+    public ConnectionHook(PoolStatistics poolStatistics) {
+        this.poolStatistics = poolStatistics;
+    }
+
+    @Override
+    public void onAcquire(ConnectionHandle connection) {
+        acquireFailure = null;
+        poolStatistics.connectionCreated();
+    }
+
+    /**
+     * Records the failure to establish a connection, so agents waiting for a
+     * connection get the failure instead of waiting for their timeout. The
+     * connection is not retried in the background: the next checkout signals
+     * the pool to try again.
+     */
     @Override
-    public void onCheckIn(ConnectionHandle connection) {
-        try {
-            boolean autoCommit = connection.getInternalConnection().getAutoCommit();
-            if (!autoCommit) {
-                try {
-                    connection.getInternalConnection().setAutoCommit(true);
-                } catch (Exception ex) {
-                    SqlLogger.getLogger().log(Level.FINEST, "Unable to reset autocommit status", ex);
-                }
-            }
-            // connection.setAutoCommit(true);
-        } catch (Exception ex) {
-            SqlLogger.getLogger().log(Level.FINEST, "Unable to get autocommit status", ex);
+    public boolean onAcquireFail(Throwable t, AcquireFailConfig acquireConfig) {
+        SQLException failure;
+        if (t instanceof SQLException) {
+            failure = (SQLException) t;
+        } else {
+            failure = new SQLException("Unable to establish a database connection: " + t, "08001");
+            failure.initCause(t);
         }
+        acquireFailureNanos = System.nanoTime();
+        acquireFailure = failure;
+        return false;
+    }
+
+    /**
+     * @param sinceNanos
+     *            Start of the wait for a connection ({@link System#nanoTime()})
+     * @return Failure to establish a connection since the start of the wait,
+     *         null if there was none
+     */
+    public SQLException getAcquireFailure(long sinceNanos) {
+        SQLException failure = acquireFailure;
+        return failure != null && acquireFailureNanos - sinceNanos >= 0 ? failure : null;
+    }
+
+    @Override
+    public void onDestroy(ConnectionHandle connection) {
+        poolStatistics.connectionDestroyed();
     }
 }
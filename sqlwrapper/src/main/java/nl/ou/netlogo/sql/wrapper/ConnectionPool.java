@@ -0,0 +1,455 @@
+/*
+ * Copyright 2010, 2011 Open University of The Netherlands
+ * Contributors: Jan Blom, Rene Quakkelaar, Mark Rotteveel
+ *
+ * This file is part of NetLogo SQL Wrapper extension.
+ * 
+ * NetLogo SQL Wrapper extension is free software: you can redistribute it
+ * and/or modify it under the terms of the GNU Lesser General Public License 
+ * as published by the Free Software Foundation, either version 3 of the 
+ * License, or (at your option) any later version.
+ * 
+ * NetLogo SQL Wrapper is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with NetLogo SQL Wrapper extension.  If not, 
+ * see <http://www.gnu.org/licenses/>.
+ */
+package nl.ou.netlogo.sql.wrapper;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.nlogo.api.ExtensionException;
+
+import com.jolbox.bonecp.BoneCP;
+import com.jolbox.bonecp.BoneCPConfig;
+import com.jolbox.bonecp.ConnectionHandle;
+
+/**
+ * A connection pool for one database, with its statistics.
+ * <p>
+ * The pool keeps track of the connections it has leased to agents. A pool that
+ * is replaced by a reconfiguration is retired: it no longer leases connections,
+ * and is shut down as soon as the last leased connection has been returned.
+ * </p>
+ * 
+ * @author NetLogo project-team
+ */
+public class ConnectionPool {
+
+    private static final Logger LOG = SqlLogger.getLogger();
+    private static final int VALIDATION_TIMEOUT_SECONDS = 5;
+    /**
+     * Time a single wait for a free connection takes, after which failures to
+     * establish a connection are checked.
+     */
+    private static final long WAIT_SLICE_MS = 200;
+
+    private final DatabaseInfo dbInfo;
+    private final ConnectionPoolSettings settings;
+    private final PoolStatistics statistics = new PoolStatistics();
+    private final BoneCP pool;
+    private final ConnectionHook connectionHook;
+    private final String testQuery;
+    private int leased;
+    private boolean retired;
+    private boolean shutdown;
+
+    /**
+     * Creates a connection pool.
+     * 
+     * @param dbInfo
+     *            Database to connect to
+     * @param settings
+     *            Settings of the pool
+     * @param prefill
+     *            <code>true</code> to establish the minimum number of
+     *            connections in a background thread
+     * @throws ExtensionException
+     *             If the settings are invalid, the driver cannot be loaded or
+     *             the pool cannot be created
+     */
+    public ConnectionPool(DatabaseInfo dbInfo, ConnectionPoolSettings settings, boolean prefill)
+            throws ExtensionException {
+        settings.validate();
+        this.dbInfo = dbInfo;
+        this.settings = settings;
+        try {
+            /*
+             * Make sure the correct driver is loaded before we continue.
+             */
+            Class.forName(dbInfo.getDriverClass());
+        } catch (ClassNotFoundException e) {
+            throw new ExtensionException("Unable to load database driver");
+        }
+        LOG.info("Connections per partition: " + settings.getMinConnectionsPerPartition() + " - "
+                + settings.getMaxConnectionsPerPartition());
+        BoneCPConfig config = new BoneCPConfig();
+        config.setUsername(dbInfo.getUser());
+        config.setPassword(dbInfo.getPassword());
+        config.setPartitionCount(settings.getPartitions());
+        config.setMaxConnectionsPerPartition(settings.getMaxConnectionsPerPartition());
+        config.setMinConnectionsPerPartition(settings.getMinConnectionsPerPartition());
+        /*
+         * Connections are created on demand (or by the background prefill),
+         * idle connections above the minimum are closed after idleTimeout. The
+         * pool does not grow ahead of demand, which would open up to a fifth of
+         * the maximum connections for a single user
+         */
+        config.setLazyInit(true);
+        config.setAcquireIncrement(1);
+        config.setPoolAvailabilityThreshold(0);
+        config.setIdleMaxAgeInMinutes(settings.getIdleTimeout());
+        /*
+         * Idle connections are validated in the background by BoneCP (with the
+         * test query, or using metadata if there is none), dead connections
+         * are replaced
+         */
+        testQuery = DatabaseSupport.forBrandName(dbInfo.getBrandName()).getTestQuery();
+        config.setIdleConnectionTestPeriodInMinutes(settings.getKeepaliveInterval());
+        config.setConnectionTestStatement(testQuery);
+        /*
+         * Return connections synchronously, so a retired pool can be shut down
+         * as soon as its last connection is returned
+         */
+        config.setReleaseHelperThreads(0);
+        config.setConnectionTimeoutInMs(WAIT_SLICE_MS);
+        config.setJdbcUrl(dbInfo.getJdbcUrl());
+        connectionHook = new ConnectionHook(statistics);
+        config.setConnectionHook(connectionHook);
+
+        LOG.finest(String.format("Trying to access database '%s', user '%s', password '%s'", dbInfo.getJdbcUrl(),
+                dbInfo.getUser(), dbInfo.getPassword()));
+        try {
+            pool = new BoneCP(config);
+        } catch (SQLException e) {
+            throw new ExtensionException(e);
+        }
+        if (prefill && settings.getMinConnections() > 0) {
+            startPrefill(settings.getMinConnections());
+        }
+    }
+
+    /**
+     * Fills the connection pool up to the specified number of connections in a
+     * background thread, so configuring the pool does not wait for the
+     * connections to be established.
+     * 
+     * @param count
+     *            Number of connections to establish
+     */
+    private void startPrefill(final int count) {
+        Thread prefillThread = new Thread(new Runnable() {
+            public void run() {
+                List<Connection> prefilled = new ArrayList<Connection>(count);
+                try {
+                    for (int idx = 0; idx < count; idx++) {
+                        prefilled.add(pool.getConnection());
+                    }
+                    LOG.fine("Prefilled connection pool with " + count + " connections");
+                } catch (SQLException e) {
+                    LOG.log(Level.WARNING, "Prefill of connection pool failed", e);
+                } finally {
+                    for (Connection conn : prefilled) {
+                        try {
+                            conn.close();
+                        } catch (SQLException e) {
+                            LOG.log(Level.FINE, "Returning prefilled connection failed (ignored)", e);
+                        }
+                    }
+                }
+            }
+        }, "SqlWrapper-pool-prefill");
+        prefillThread.setDaemon(true);
+        prefillThread.start();
+    }
+
+    /**
+     * Checks if this pool connects to the same database, with the same
+     * credentials, as the specified DatabaseInfo.
+     * 
+     * @param otherDbInfo
+     *            DatabaseInfo to compare
+     * @return <code>true</code> if connections of this pool are equivalent to
+     *         connections for otherDbInfo
+     */
+    public boolean isSameDatabase(DatabaseInfo otherDbInfo) {
+        return equal(dbInfo.getJdbcUrl(), otherDbInfo.getJdbcUrl())
+                && equal(dbInfo.getDriverClass(), otherDbInfo.getDriverClass())
+                && equal(dbInfo.getUser(), otherDbInfo.getUser())
+                && equal(dbInfo.getPassword(), otherDbInfo.getPassword());
+    }
+
+    private static boolean equal(String value1, String value2) {
+        return value1 == null ? value2 == null : value1.equals(value2);
+    }
+
+    /**
+     * Reserves a lease on this pool. Every successful reservation must be
+     * followed by a call to {@link #release()}, either directly if obtaining
+     * the connection failed, or when the connection is returned.
+     * 
+     * @return <code>true</code> if the lease was reserved,
+     *         <code>false</code> if this pool has been retired
+     */
+    synchronized boolean reserve() {
+        if (retired) {
+            return false;
+        }
+        leased++;
+        return true;
+    }
+
+    /**
+     * Releases a lease reserved with {@link #reserve()}. Shuts down the pool if
+     * it has been retired and this was the last lease.
+     */
+    synchronized void release() {
+        leased--;
+        if (retired && leased == 0) {
+            shutdown();
+        }
+    }
+
+    /**
+     * Obtains a connection from the pool. The caller must have reserved a
+     * lease using {@link #reserve()}.
+     * <p>
+     * Connections are validated by BoneCP in the background; only connections
+     * that have been idle for longer than the keepalive interval, and so may
+     * have missed the background validation, are validated first. Dead
+     * connections are destroyed and another connection is obtained. Waits
+     * until a connection is free, unless establishing a new connection fails.
+     * </p>
+     * 
+     * @return Connection
+     * @throws SQLException
+     *             If no (live) connection could be obtained, with the failure
+     *             of the database if a connection could not be established
+     */
+    Connection getConnection() throws SQLException {
+        int attempts = settings.getMaxConnections() + 1;
+        long waitStart = System.nanoTime();
+        statistics.waitStarted();
+        try {
+            while (true) {
+                Connection conn;
+                try {
+                    conn = pool.getConnection();
+                } catch (SQLException e) {
+                    SQLException failure = connectionHook.getAcquireFailure(waitStart);
+                    if (failure != null) {
+                        throw failure;
+                    }
+                    // without a cause, no connection became free within the wait slice
+                    if (e.getCause() != null || !"08001".equals(e.getSQLState()) || isShutdown()
+                            || Thread.currentThread().isInterrupted()) {
+                        throw e;
+                    }
+                    continue;
+                }
+                if (!(conn instanceof ConnectionHandle)
+                        || (!isClosed((ConnectionHandle) conn) && isAlive((ConnectionHandle) conn))) {
+                    return conn;
+                }
+                statistics.validationFailure();
+                LOG.warning("Discarding dead connection from pool");
+                discard((ConnectionHandle) conn);
+                if (--attempts == 0) {
+                    throw new SQLException("Unable to obtain a live connection from the pool", "08001");
+                }
+            }
+        } finally {
+            statistics.waitEnded();
+        }
+    }
+
+    /**
+     * Checks if a connection that has been idle for longer than the keepalive
+     * interval is still alive. Other connections are not checked: they were
+     * used or validated in the background recently.
+     * 
+     * @param handle
+     *            Pooled connection
+     * @return <code>false</code> if the connection is dead
+     */
+    private boolean isAlive(ConnectionHandle handle) {
+        long keepaliveMs = settings.getKeepaliveInterval() * 60 * 1000;
+        if (keepaliveMs <= 0 || System.currentTimeMillis() - handle.getConnectionLastUsedInMs() < keepaliveMs) {
+            return true;
+        }
+        Connection conn = handle.getInternalConnection();
+        try {
+            if (testQuery == null) {
+                return conn.isValid(VALIDATION_TIMEOUT_SECONDS);
+            }
+            Statement stmt = conn.createStatement();
+            try {
+                stmt.execute(testQuery);
+            } finally {
+                stmt.close();
+            }
+            return true;
+        } catch (SQLException e) {
+            LOG.log(Level.FINE, "Connection validation failed", e);
+            return false;
+        } catch (AbstractMethodError e) {
+            // Pre-JDBC 4 driver without isValid, rely on background validation
+            return true;
+        }
+    }
+
+    /**
+     * Destroys a connection obtained from the pool instead of returning it as
+     * is, eg because its state could not be reset.
+     * 
+     * @param conn
+     *            Pooled connection
+     */
+    void discard(Connection conn) {
+        if (conn instanceof ConnectionHandle) {
+            discard((ConnectionHandle) conn);
+        } else {
+            try {
+                conn.close();
+            } catch (SQLException e) {
+                LOG.log(Level.FINE, "Closing connection failed (ignored)", e);
+            }
+        }
+    }
+
+    /**
+     * Destroys the physical connection of a handle obtained from the pool,
+     * and returns the handle to the pool with a new physical connection.
+     * <p>
+     * If no new connection can be established, the handle is returned with
+     * the closed connection: the next checkout of the handle tries again, and
+     * BoneCP's keepalive test removes it from the pool.
+     * </p>
+     * 
+     * @param handle
+     *            Pooled connection
+     */
+    private void discard(ConnectionHandle handle) {
+        try {
+            handle.getInternalConnection().close();
+        } catch (SQLException e) {
+            // ignore, connection is dead
+        }
+        statistics.connectionDestroyed();
+        try {
+            handle.setInternalConnection(DriverManager.getConnection(dbInfo.getJdbcUrl(), dbInfo.getUser(),
+                    dbInfo.getPassword()));
+            statistics.connectionCreated();
+        } catch (SQLException e) {
+            LOG.log(Level.WARNING, "Unable to replace discarded connection", e);
+        }
+        try {
+            handle.close();
+        } catch (SQLException e) {
+            LOG.log(Level.FINE, "Returning discarded connection failed (ignored)", e);
+        }
+    }
+
+    /**
+     * @return <code>true</code> if the physical connection of the handle was
+     *         closed, eg by a discard that could not replace it
+     */
+    private static boolean isClosed(ConnectionHandle handle) {
+        try {
+            return handle.getInternalConnection().isClosed();
+        } catch (SQLException e) {
+            return true;
+        }
+    }
+
+    /**
+     * @return Number of connections leased (or being obtained) from this pool
+     */
+    public synchronized int getLeased() {
+        return leased;
+    }
+
+    /**
+     * @return <code>true</code> if all connections of the pool are leased
+     */
+    public boolean isExhausted() {
+        return pool.getTotalLeased() >= settings.getMaxConnectionsPerPartition() * settings.getPartitions();
+    }
+
+    /**
+     * Records the return of a leased connection (after closing the
+     * connection) and releases the lease.
+     * 
+     * @param leaseNanos
+     *            Time the connection was leased in nanoseconds
+     */
+    void checkin(long leaseNanos) {
+        statistics.checkin(leaseNanos);
+        release();
+    }
+
+    /**
+     * Retires this pool: no new leases are accepted and the pool is shut down
+     * when all leased connections have been returned.
+     */
+    public synchronized void retire() {
+        retired = true;
+        LOG.info("Retiring connection pool, leased connections: " + leased);
+        if (leased == 0) {
+            shutdown();
+        }
+    }
+
+    /**
+     * Shuts down the pool, closing all connections in the pool.
+     */
+    public synchronized void shutdown() {
+        retired = true;
+        if (!shutdown) {
+            shutdown = true;
+            LOG.info("Shutting down connection pool");
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * @return <code>true</code> if the pool has been shut down
+     */
+    public synchronized boolean isShutdown() {
+        return shutdown;
+    }
+
+    public DatabaseInfo getDatabaseInfo() {
+        return dbInfo;
+    }
+
+    public ConnectionPoolSettings getSettings() {
+        return settings;
+    }
+
+    public PoolStatistics getStatistics() {
+        return statistics;
+    }
+
+    /**
+     * Builds a snapshot of the statistics of this pool.
+     * 
+     * @return Map of statistic name to value (Double or Boolean), in reporting
+     *         order
+     */
+    public Map<String, Object> getStatisticsMap() {
+        return statistics.toMap(isShutdown() ? null : pool);
+    }
+}
@@ -0,0 +1,78 @@
+/*
+ * Copyright 2010, 2011 Open University of The Netherlands
+ * Contributors: Jan Blom, Rene Quakkelaar, Mark Rotteveel
+ *
+ * This file is part of NetLogo SQL Wrapper extension.
+ * 
+ * NetLogo SQL Wrapper extension is free software: you can redistribute it
+ * and/or modify it under the terms of the GNU Lesser General Public License 
+ * as published by the Free Software Foundation, either version 3 of the 
+ * License, or (at your option) any later version.
+ * 
+ * NetLogo SQL Wrapper is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with NetLogo SQL Wrapper extension.  If not, 
+ * see <http://www.gnu.org/licenses/>.
+ */
+package nl.ou.netlogo.sql.wrapper;
+
+/**
+ * Management interface of a connection pool (the default pool or a named
+ * pool), registered by {@link SqlManagement}.
+ * 
+ * @author NetLogo project-team
+ */
+public interface ConnectionPoolMXBean {
+
+    /**
+     * @return Name of the pool ("defaultconnection" for the default pool)
+     */
+    String getName();
+
+    /**
+     * @return <code>true</code> if the pool is configured
+     */
+    boolean isEnabled();
+
+    /**
+     * @return Number of connections leased from the pool
+     */
+    int getActive();
+
+    /**
+     * @return Number of idle connections in the pool
+     */
+    int getIdle();
+
+    /**
+     * @return Number of checkouts waiting for a connection
+     */
+    int getWaiting();
+
+    long getCheckouts();
+
+    long getCheckoutTimeouts();
+
+    long getCheckoutFailures();
+
+    long getValidationFailures();
+
+    double getCheckoutMeanMillis();
+
+    double getCheckoutP99Millis();
+
+    /**
+     * @return Number of pools replaced by a reconfiguration that are not shut
+     *         down yet
+     */
+    int getRetiredPools();
+
+    /**
+     * Clears the counters and histograms of the pool.
+     */
+    void resetStatistics();
+}
@@ -0,0 +1,220 @@
+/*
+ * Copyright 2010, 2011 Open University of The Netherlands
+ * Contributors: Jan Blom, Rene Quakkelaar, Mark Rotteveel
+ *
+ * This file is part of NetLogo SQL Wrapper extension.
+ * 
+ * NetLogo SQL Wrapper extension is free software: you can redistribute it
+ * and/or modify it under the terms of the GNU Lesser General Public License 
+ * as published by the Free Software Foundation, either version 3 of the 
+ * License, or (at your option) any later version.
+ * 
+ * NetLogo SQL Wrapper is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with NetLogo SQL Wrapper extension.  If not, 
+ * see <http://www.gnu.org/licenses/>.
+ */
+package nl.ou.netlogo.sql.wrapper;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+import org.nlogo.api.ExtensionException;
+
+/**
+ * Registry of connection pools shared by all users within the JVM, keyed by
+ * the connection settings.
+ * <p>
+ * Pools are reference counted. A pool that is no longer used is kept open for
+ * a grace period, so a model that is recompiled or reloaded with the same
+ * settings reattaches to the existing pool and its open connections instead of
+ * establishing new ones.
+ * </p>
+ * 
+ * @author NetLogo project-team
+ */
+public final class ConnectionPoolRegistry {
+
+    private static final Logger LOG = SqlLogger.getLogger();
+
+    private static final Map<PoolKey, Entry> pools = new HashMap<PoolKey, Entry>();
+    private static ScheduledExecutorService closeScheduler;
+
+    private ConnectionPoolRegistry() {
+        // no instances
+    }
+
+    /**
+     * Obtains a connection pool for the specified database and settings, and
+     * registers a reference to it. An existing pool is reused if available.
+     * <p>
+     * Every call must be matched by a call to
+     * {@link #release(ConnectionPool, long)}.
+     * </p>
+     * 
+     * @param dbInfo
+     *            Database to connect to
+     * @param settings
+     *            Settings of the pool
+     * @param prefill
+     *            <code>true</code> to prefill a newly created pool in the
+     *            background
+     * @return Connection pool
+     * @throws ExtensionException
+     *             If a new pool cannot be created
+     */
+    public static synchronized ConnectionPool acquire(DatabaseInfo dbInfo, ConnectionPoolSettings settings,
+            boolean prefill) throws ExtensionException {
+        PoolKey key = new PoolKey(dbInfo, settings);
+        Entry entry = pools.get(key);
+        if (entry == null) {
+            entry = new Entry(new ConnectionPool(dbInfo, settings, prefill));
+            pools.put(key, entry);
+            LOG.info("Created connection pool " + key.hashCode() + " (" + settings + ")");
+        } else {
+            LOG.info("Reusing connection pool " + key.hashCode() + ", references: " + entry.references);
+            if (entry.references == 0) {
+                // Statistics are reported from the time the pool was configured
+                entry.pool.getStatistics().reset();
+            }
+        }
+        entry.references++;
+        entry.generation++;
+        return entry.pool;
+    }
+
+    /**
+     * Releases a reference to a connection pool obtained using
+     * {@link #acquire(DatabaseInfo, ConnectionPoolSettings, boolean)}. When the
+     * last reference is released, the pool is retired after the grace period,
+     * unless it has been acquired again in the meantime.
+     * 
+     * @param pool
+     *            Connection pool
+     * @param gracePeriod
+     *            Grace period in seconds (0 to retire immediately)
+     */
+    public static synchronized void release(ConnectionPool pool, long gracePeriod) {
+        final PoolKey key = new PoolKey(pool.getDatabaseInfo(), pool.getSettings());
+        final Entry entry = pools.get(key);
+        if (entry == null || entry.pool != pool) {
+            LOG.warning("Releasing unregistered connection pool " + key.hashCode());
+            pool.retire();
+            return;
+        }
+        entry.references--;
+        if (entry.references > 0) {
+            return;
+        }
+        if (gracePeriod <= 0) {
+            retire(key, entry.generation);
+            return;
+        }
+        LOG.info("Connection pool " + key.hashCode() + " unused, retiring in " + gracePeriod + " seconds");
+        final int generation = entry.generation;
+        getCloseScheduler().schedule(new Runnable() {
+            public void run() {
+                retire(key, generation);
+            }
+        }, gracePeriod, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Retires and unregisters a pool if it has not been acquired since it was
+     * released.
+     * 
+     * @param key
+     *            Key of the pool
+     * @param generation
+     *            Generation of the entry when it was released
+     */
+    private static synchronized void retire(PoolKey key, int generation) {
+        Entry entry = pools.get(key);
+        if (entry != null && entry.references == 0 && entry.generation == generation) {
+            pools.remove(key);
+            entry.pool.retire();
+        }
+    }
+
+    private static ScheduledExecutorService getCloseScheduler() {
+        if (closeScheduler == null) {
+            closeScheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "SqlWrapper-pool-registry");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        return closeScheduler;
+    }
+
+    /**
+     * Registered pool with its reference count.
+     */
+    private static class Entry {
+        private final ConnectionPool pool;
+        private int references;
+        /**
+         * Incremented on every acquire, to detect reuse during the grace
+         * period.
+         */
+        private int generation;
+
+        private Entry(ConnectionPool pool) {
+            this.pool = pool;
+        }
+    }
+
+    /**
+     * Key of a pool: the connection settings and the pool settings.
+     */
+    private static class PoolKey {
+        private final String jdbcUrl;
+        private final String driverClass;
+        private final String user;
+        private final String password;
+        private final ConnectionPoolSettings settings;
+
+        private PoolKey(DatabaseInfo dbInfo, ConnectionPoolSettings settings) {
+            this.jdbcUrl = dbInfo.getJdbcUrl();
+            this.driverClass = dbInfo.getDriverClass();
+            this.user = dbInfo.getUser();
+            this.password = dbInfo.getPassword();
+            this.settings = settings;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof PoolKey)) {
+                return false;
+            }
+            PoolKey other = (PoolKey) obj;
+            return equal(jdbcUrl, other.jdbcUrl) && equal(driverClass, other.driverClass) && equal(user, other.user)
+                    && equal(password, other.password) && settings.equals(other.settings);
+        }
+
+        @Override
+        public int hashCode() {
+            int result = settings.hashCode();
+            result = 31 * result + (jdbcUrl == null ? 0 : jdbcUrl.hashCode());
+            result = 31 * result + (driverClass == null ? 0 : driverClass.hashCode());
+            result = 31 * result + (user == null ? 0 : user.hashCode());
+            result = 31 * result + (password == null ? 0 : password.hashCode());
+            return result;
+        }
+
+        private static boolean equal(String value1, String value2) {
+            return value1 == null ? value2 == null : value1.equals(value2);
+        }
+    }
+}
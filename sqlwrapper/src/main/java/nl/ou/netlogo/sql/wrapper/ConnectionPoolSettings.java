@@ -0,0 +1,187 @@
+/*
+ * Copyright 2010, 2011 Open University of The Netherlands
+ * Contributors: Jan Blom, Rene Quakkelaar, Mark Rotteveel
+ *
+ * This file is part of NetLogo SQL Wrapper extension.
+ * 
+ * NetLogo SQL Wrapper extension is free software: you can redistribute it
+ * and/or modify it under the terms of the GNU Lesser General Public License 
+ * as published by the Free Software Foundation, either version 3 of the 
+ * License, or (at your option) any later version.
+ * 
+ * NetLogo SQL Wrapper is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with NetLogo SQL Wrapper extension.  If not, 
+ * see <http://www.gnu.org/licenses/>.
+ */
+package nl.ou.netlogo.sql.wrapper;
+
+import org.nlogo.api.ExtensionException;
+
+/**
+ * Sizing settings of a connection pool, as configured using the connectionpool
+ * aspect.
+ * <p>
+ * Two connection pools with equal settings (and the same database) are
+ * interchangeable, so a reconfiguration with equal settings does not require a
+ * new connection pool.
+ * </p>
+ * 
+ * @author NetLogo project-team
+ */
+public final class ConnectionPoolSettings {
+
+    /**
+     * For any connection pool, a hard minimum count of connections should be
+     * available. The wrapper will throw an exception when it is configured with
+     * a count that is effectively lower.
+     */
+    public static final int MIN_CONNECTIONS = 5;
+
+    private final int partitions;
+    private final int minConnections;
+    private final int maxConnections;
+    private final long idleTimeout;
+    private final long keepaliveInterval;
+    private final boolean minimumEnforced;
+
+    /**
+     * Creates ConnectionPoolSettings of a pool configured using the
+     * connectionpool aspect, which should have at least
+     * {@link #MIN_CONNECTIONS} connections.
+     * 
+     * @param partitions
+     *            Number of partitions
+     * @param minConnections
+     *            Minimum number of connections kept open
+     * @param maxConnections
+     *            Maximum number of connections
+     * @param idleTimeout
+     *            Idle timeout in minutes (0 to keep idle connections open)
+     * @param keepaliveInterval
+     *            Interval in minutes for validating idle connections (0 to
+     *            disable)
+     */
+    public ConnectionPoolSettings(int partitions, int minConnections, int maxConnections, long idleTimeout,
+            long keepaliveInterval) {
+        this(partitions, minConnections, maxConnections, idleTimeout, keepaliveInterval, true);
+    }
+
+    private ConnectionPoolSettings(int partitions, int minConnections, int maxConnections, long idleTimeout,
+            long keepaliveInterval, boolean minimumEnforced) {
+        this.partitions = partitions;
+        this.minConnections = minConnections;
+        this.maxConnections = maxConnections;
+        this.idleTimeout = idleTimeout;
+        this.keepaliveInterval = keepaliveInterval;
+        this.minimumEnforced = minimumEnforced;
+    }
+
+    /**
+     * Creates ConnectionPoolSettings of a pool for explicit connections
+     * (created using sql:connect): no idle connections are kept open, idle
+     * connections are closed after 5 minutes and, as the user chooses the
+     * maximum per database, {@link #MIN_CONNECTIONS} does not apply.
+     * 
+     * @param maxConnections
+     *            Maximum number of connections
+     * @return ConnectionPoolSettings
+     */
+    public static ConnectionPoolSettings forExplicitConnections(int maxConnections) {
+        return new ConnectionPoolSettings(1, 0, maxConnections, 5, 1, false);
+    }
+
+    /**
+     * Checks if the settings describe a usable connection pool.
+     * 
+     * @throws ExtensionException
+     *             If the settings are invalid
+     */
+    public void validate() throws ExtensionException {
+        if (partitions < 1) {
+            throw new ExtensionException("partitions is less than 1, configure at minimum of 1");
+        }
+        if (getMaxConnectionsPerPartition() * partitions < 1) {
+            throw new ExtensionException("max-connections is less than 1, configure at minimum of 1");
+        }
+        if (minimumEnforced && getMaxConnectionsPerPartition() * partitions < MIN_CONNECTIONS) {
+            throw new ExtensionException("Effective amount of connections is less than " + MIN_CONNECTIONS
+                    + ". Configure max-connections and partitions so that there are at least " + MIN_CONNECTIONS
+                    + " connections in total.");
+        }
+        if (minConnections < 0 || minConnections > getMaxConnectionsPerPartition() * partitions) {
+            throw new ExtensionException(
+                    "min-connections should be between 0 and the effective amount of connections ("
+                            + getMaxConnectionsPerPartition() * partitions + ")");
+        }
+    }
+
+    public int getPartitions() {
+        return partitions;
+    }
+
+    public int getMinConnections() {
+        return minConnections;
+    }
+
+    public int getMaxConnections() {
+        return maxConnections;
+    }
+
+    public long getIdleTimeout() {
+        return idleTimeout;
+    }
+
+    public long getKeepaliveInterval() {
+        return keepaliveInterval;
+    }
+
+    /**
+     * @return Maximum number of connections per partition
+     */
+    public int getMaxConnectionsPerPartition() {
+        return maxConnections / partitions;
+    }
+
+    /**
+     * @return Minimum number of connections per partition (rounded up)
+     */
+    public int getMinConnectionsPerPartition() {
+        return (minConnections + partitions - 1) / partitions;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (!(obj instanceof ConnectionPoolSettings)) {
+            return false;
+        }
+        ConnectionPoolSettings other = (ConnectionPoolSettings) obj;
+        return partitions == other.partitions && minConnections == other.minConnections
+                && maxConnections == other.maxConnections && idleTimeout == other.idleTimeout
+                && keepaliveInterval == other.keepaliveInterval && minimumEnforced == other.minimumEnforced;
+    }
+
+    @Override
+    public int hashCode() {
+        int result = partitions;
+        result = 31 * result + minConnections;
+        result = 31 * result + maxConnections;
+        result = 31 * result + (int) (idleTimeout ^ (idleTimeout >>> 32));
+        result = 31 * result + (int) (keepaliveInterval ^ (keepaliveInterval >>> 32));
+        result = 31 * result + (minimumEnforced ? 1 : 0);
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return "partitions: " + partitions + ", connections: " + minConnections + " - " + maxConnections
+                + ", idle timeout: " + idleTimeout + ", keepalive interval: " + keepaliveInterval;
+    }
+}
@@ -0,0 +1,51 @@
+/*
+ * Copyright 2010, 2011 Open University of The Netherlands
+ * Contributors: Jan Blom, Rene Quakkelaar, Mark Rotteveel
+ *
+ * This file is part of NetLogo SQL Wrapper extension.
+ * 
+ * NetLogo SQL Wrapper extension is free software: you can redistribute it
+ * and/or modify it under the terms of the GNU Lesser General Public License 
+ * as published by the Free Software Foundation, either version 3 of the 
+ * License, or (at your option) any later version.
+ * 
+ * NetLogo SQL Wrapper is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with NetLogo SQL Wrapper extension.  If not, 
+ * see <http://www.gnu.org/licenses/>.
+ */
+package nl.ou.netlogo.sql.wrapper;
+
+/**
+ * Management interface of the connections associated with agents, registered
+ * by {@link SqlManagement}.
+ * 
+ * @author NetLogo project-team
+ */
+public interface ConnectionRegistryMXBean {
+
+    /**
+     * @return Number of connections associated with agents
+     */
+    int getConnectionCount();
+
+    /**
+     * @return Number of connections with a resultset that has not been read
+     *         to its end
+     */
+    int getOpenResultSets();
+
+    /**
+     * Closes the connections of agents that have not executed a statement for
+     * some time, have no open resultset and are not in a transaction.
+     * 
+     * @param idleSeconds
+     *            Minimum time in seconds since the last statement
+     * @return Number of connections closed
+     */
+    int closeIdleConnections(long idleSeconds);
+}
@@ -32,13 +32,7 @@ public class DatabaseFactory {
     public static DatabaseInfo createDatabaseInfo(SqlSetting settings) throws DatabaseConfigurationException {
         try {
             String brandName = settings.getString(SqlConfiguration.DEFAULTCONNECTION_OPT_BRAND);
-            DatabaseSupport dbSupport;
-            try {
-                dbSupport = DatabaseSupport.valueOf(brandName.toUpperCase());
-            } catch (IllegalArgumentException ex) {
-                SqlLogger.getLogger().warning("Unknown brandname, defaulting to GENERIC support: " + brandName);
-                dbSupport = DatabaseSupport.GENERIC;
-            }
+            DatabaseSupport dbSupport = DatabaseSupport.forBrandName(brandName);
             if (!dbSupport.validateSettings(settings)) {
                 throw new DatabaseConfigurationException("Provided configuration is incomplete");
             }
@@ -92,4 +92,9 @@ public interface DatabaseInfo {
      * @return indication whether auto disconnect is on or off
      */
     boolean useAutoDisconnect();
+
+    /**
+     * @return cache of the metadata of the database
+     */
+    MetadataCache getMetadataCache();
 }
@@ -20,11 +20,13 @@
  */
 package nl.ou.netlogo.sql.wrapper;
 
-import org.nlogo.api.ExtensionException;
-import org.nlogo.api.LogoList;
-
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import org.nlogo.api.ExtensionException;
+
 /**
  * Implements the MySql specific methods that the SQL extension needs to
  * interact with a MySql database engine
@@ -55,26 +57,33 @@ public class DatabaseMySql extends GenericDatabase {
         }
     }
 
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Looks up the databases (catalogs) in the {@link MetadataCache}, without
+     * disturbing the statement of the connection.
+     * </p>
+     * 
+     * @return <code>true</code> if a database with the name
+     *         (case-insensitive) exists, <code>false</code> otherwise or if
+     *         the metadata cannot be retrieved
+     */
     @Override
     public boolean findDatabase(SqlConnection sqlc, String schemaName) {
-        if (sqlc != null) {
-            try {
-                SqlStatement statement = sqlc
-                        .createStatement("SELECT SCHEMA_NAME FROM INFORMATION_SCHEMA.SCHEMATA WHERE SCHEMA_NAME = '"
-                                + schemaName + "'");
-                if (statement.executeDirect()) {
-                    // We have a result, process it.
-                    SqlResultSet rs = sqlc.getResultSet();
-                    LogoList result = rs.fetchRow();
-                    String dbName = (String) result.first();
-                    return dbName.equalsIgnoreCase(schemaName);
-                }
-            } catch (Exception e) {
-                // log, but ignore, semantics is: database not found
-                LOG.severe("Exception while finding database '" + schemaName + "': " + e);
-            }
+        Connection conn = sqlc != null ? sqlc.getConnection() : null;
+        if (conn == null) {
+            return false;
+        }
+        try {
+            return getMetadataCache().hasDatabase(conn, schemaName);
+        } catch (SQLException e) {
+            // log, but ignore, semantics is: database not found
+            LOG.log(Level.SEVERE, "Exception while finding database '" + schemaName + "'", e);
+            return false;
+        } finally {
+            // Ensure autodisconnect behavior:
+            endOfLookup(sqlc);
         }
-        return false;
     }
 
 }
@@ -20,6 +20,11 @@
  */
 package nl.ou.netlogo.sql.wrapper;
 
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
 /**
  * Provides explicit support for databases
  * 
@@ -38,6 +43,24 @@ public enum DatabaseSupport {
             return SqlSetting.DEFAULT_UNSET;
         }
 
+        @Override
+        public String getTestQuery() {
+            // No portable query; Connection.isValid is used instead
+            return null;
+        }
+
+        @Override
+        public long getReplicaLag(Connection conn) throws SQLException {
+            // No portable way to determine replication lag
+            return -1;
+        }
+
+        @Override
+        public String getExplainSql(String sql) {
+            // No portable way to obtain an execution plan
+            return null;
+        }
+
         @Override
         public boolean validateSettings(SqlSetting settings) throws Exception {
             if (!settings.isValid()) {
@@ -79,6 +102,55 @@ public enum DatabaseSupport {
             return "com.mysql.jdbc.Driver";
         }
 
+        @Override
+        public String getTestQuery() {
+            // Connector/J handles this as a ping, without executing a query
+            return "/* ping */ SELECT 1";
+        }
+
+        @Override
+        public long getReplicaLag(Connection conn) throws SQLException {
+            Statement stmt = conn.createStatement();
+            try {
+                ResultSet rs = stmt.executeQuery("SHOW SLAVE STATUS");
+                if (!rs.next()) {
+                    // Not a replica
+                    return 0;
+                }
+                long lag = rs.getLong("Seconds_Behind_Master");
+                // NULL if replication is not running
+                return rs.wasNull() ? Long.MAX_VALUE : lag;
+            } finally {
+                stmt.close();
+            }
+        }
+
+        @Override
+        public String getCreateRunTableSql(String table, String runTable) {
+            return "CREATE TABLE IF NOT EXISTS " + runTable + " LIKE " + table;
+        }
+
+        @Override
+        public String getDropRunTableSql(String runTable) {
+            return "DROP TABLE IF EXISTS " + runTable;
+        }
+
+        @Override
+        public String getCreateRunPartitionSql(String table, String partition, long runId) {
+            return "ALTER TABLE " + table + " ADD PARTITION (PARTITION " + partition + " VALUES IN (" + runId + "))";
+        }
+
+        @Override
+        public String getDropRunPartitionSql(String table, String partition) {
+            return "ALTER TABLE " + table + " DROP PARTITION " + partition;
+        }
+
+        @Override
+        public boolean isAlreadyExists(SQLException e) {
+            // 1517: duplicate partition name
+            return super.isAlreadyExists(e) || e.getErrorCode() == 1517;
+        }
+
         @Override
         public boolean validateSettings(SqlSetting settings) throws Exception {
             if (!settings.isValid()) {
@@ -116,6 +188,47 @@ public enum DatabaseSupport {
             return "org.postgresql.Driver";
         }
 
+        @Override
+        public String getTestQuery() {
+            return "SELECT 1";
+        }
+
+        @Override
+        public long getReplicaLag(Connection conn) throws SQLException {
+            Statement stmt = conn.createStatement();
+            try {
+                ResultSet rs = stmt.executeQuery("SELECT CASE WHEN pg_is_in_recovery() "
+                        + "THEN COALESCE(EXTRACT(EPOCH FROM now() - pg_last_xact_replay_timestamp()), 0) "
+                        + "ELSE 0 END");
+                rs.next();
+                return rs.getLong(1);
+            } finally {
+                stmt.close();
+            }
+        }
+
+        @Override
+        public String getCreateRunTableSql(String table, String runTable) {
+            return "CREATE TABLE IF NOT EXISTS " + runTable + " (LIKE " + table + " INCLUDING ALL)";
+        }
+
+        @Override
+        public String getDropRunTableSql(String runTable) {
+            return "DROP TABLE IF EXISTS " + runTable;
+        }
+
+        @Override
+        public String getCreateRunPartitionSql(String table, String partition, long runId) {
+            return "CREATE TABLE IF NOT EXISTS " + partition + " PARTITION OF " + table + " FOR VALUES IN (" + runId
+                    + ")";
+        }
+
+        @Override
+        public String getDropRunPartitionSql(String table, String partition) {
+            // a partition is a table of its own
+            return "DROP TABLE IF EXISTS " + partition;
+        }
+
         @Override
         public boolean validateSettings(SqlSetting settings) throws Exception {
             if (!settings.isValid()) {
@@ -133,8 +246,78 @@ public enum DatabaseSupport {
                 String password, boolean autoDisconnect) throws Exception {
             return new GenericDatabase(name(), jdbcUrl, driverClass, user, password, autoDisconnect);
         }
+    },
+    EMBEDDED {
+
+        @Override
+        public String buildJdbcUrl(SqlSetting settings) throws Exception {
+            return EmbeddedDatabase.buildJdbcUrl(settings.getString(SqlConfiguration.DEFAULTCONNECTION_OPT_MODE),
+                    SqlLogger.parseLogPath(settings.getString(SqlConfiguration.DEFAULTCONNECTION_OPT_PATH), null),
+                    settings.getString(SqlConfiguration.DEFAULTCONNECTION_OPT_DATABASE));
+        }
+
+        @Override
+        protected String getDefaultDriverClass() {
+            return EmbeddedDatabase.DRIVER_CLASS;
+        }
+
+        @Override
+        public String getTestQuery() {
+            return "SELECT 1";
+        }
+
+        @Override
+        public long getReplicaLag(Connection conn) throws SQLException {
+            // An embedded database is never a replica
+            return 0;
+        }
+
+        @Override
+        public String getCreateRunTableSql(String table, String runTable) {
+            return "CREATE TABLE IF NOT EXISTS " + runTable + " AS SELECT * FROM " + table + " WHERE 1 = 0";
+        }
+
+        @Override
+        public String getDropRunTableSql(String runTable) {
+            return "DROP TABLE IF EXISTS " + runTable;
+        }
+
+        @Override
+        public boolean validateSettings(SqlSetting settings) throws Exception {
+            if (!settings.isValid()) {
+                return false;
+            }
+            // Name of the database is required for the embedded database
+            if (settings.getString(SqlConfiguration.DEFAULTCONNECTION_OPT_DATABASE).equals(SqlSetting.DEFAULT_UNSET)) {
+                return false;
+            }
+            return true;
+        }
+
+        @Override
+        protected DatabaseInfo buildDatabaseInfo(String brandName, String jdbcUrl, String driverClass, String user,
+                String password, boolean autoDisconnect) throws Exception {
+            return new EmbeddedDatabase(jdbcUrl, driverClass, user, password, autoDisconnect);
+        }
     };
 
+    /**
+     * Returns the DatabaseSupport for a brand name, defaulting to
+     * {@link #GENERIC} for unknown brands.
+     * 
+     * @param brandName
+     *            Brand name (case-insensitive)
+     * @return DatabaseSupport for the brand
+     */
+    public static DatabaseSupport forBrandName(String brandName) {
+        try {
+            return valueOf(brandName.toUpperCase());
+        } catch (IllegalArgumentException ex) {
+            SqlLogger.getLogger().warning("Unknown brandname, defaulting to GENERIC support: " + brandName);
+            return GENERIC;
+        }
+    }
+
     /**
      * Builds the JDBC URL for this database based on the provided settings.
      * 
@@ -169,6 +352,117 @@ public enum DatabaseSupport {
      */
     protected abstract String getDefaultDriverClass();
 
+    /**
+     * Returns a cheap query to check if a connection to this database is still
+     * alive.
+     * 
+     * @return Test query, or <code>null</code> to use
+     *         {@link java.sql.Connection#isValid(int)}
+     */
+    public abstract String getTestQuery();
+
+    /**
+     * Determines how far a replica is behind its primary.
+     * 
+     * @param conn
+     *            Connection to the replica
+     * @return Lag in seconds (0 if the database is not a replica),
+     *         <code>Long.MAX_VALUE</code> if replication is not running, or -1
+     *         if the lag cannot be determined for this database
+     * @throws SQLException
+     *             For errors querying the replication status
+     */
+    public abstract long getReplicaLag(Connection conn) throws SQLException;
+
+    /**
+     * Builds the statement that reports the execution plan of a statement,
+     * without executing it.
+     * 
+     * @param sql
+     *            SQL statement (SELECT, INSERT, UPDATE or DELETE)
+     * @return Statement with the same parameters as the statement, or null if
+     *         the database has no such statement
+     */
+    public String getExplainSql(String sql) {
+        return "EXPLAIN " + sql;
+    }
+
+    /**
+     * Builds the statement that creates the table of a run of a BehaviorSpace
+     * experiment, with the columns of the configured table, if it does not
+     * exist yet.
+     * 
+     * @param table
+     *            Configured table
+     * @param runTable
+     *            Table of the run
+     * @return Statement creating the table of the run
+     */
+    public String getCreateRunTableSql(String table, String runTable) {
+        return "CREATE TABLE " + runTable + " AS SELECT * FROM " + table + " WHERE 1 = 0";
+    }
+
+    /**
+     * Builds the statement that drops the table of a run of a BehaviorSpace
+     * experiment.
+     * 
+     * @param runTable
+     *            Table of the run
+     * @return Statement dropping the table of the run
+     */
+    public String getDropRunTableSql(String runTable) {
+        return "DROP TABLE " + runTable;
+    }
+
+    /**
+     * Builds the statement that creates the partition of a run of a
+     * BehaviorSpace experiment in a table partitioned by list on the run id.
+     * 
+     * @param table
+     *            Configured table
+     * @param partition
+     *            Partition of the run
+     * @param runId
+     *            Run id
+     * @return Statement creating the partition of the run
+     * @throws DatabaseFeatureNotImplementedException
+     *             If the database has no partitioning by list
+     */
+    public String getCreateRunPartitionSql(String table, String partition, long runId)
+            throws DatabaseFeatureNotImplementedException {
+        throw new DatabaseFeatureNotImplementedException("Run partitions are not supported for " + name());
+    }
+
+    /**
+     * Builds the statement that drops the partition of a run of a
+     * BehaviorSpace experiment, with its rows.
+     * 
+     * @param table
+     *            Configured table
+     * @param partition
+     *            Partition of the run
+     * @return Statement dropping the partition of the run
+     * @throws DatabaseFeatureNotImplementedException
+     *             If the database has no partitioning by list
+     */
+    public String getDropRunPartitionSql(String table, String partition)
+            throws DatabaseFeatureNotImplementedException {
+        throw new DatabaseFeatureNotImplementedException("Run partitions are not supported for " + name());
+    }
+
+    /**
+     * Checks if creating a table or partition failed because it already
+     * exists.
+     * 
+     * @param e
+     *            Failure of the statement
+     * @return <code>true</code> if the table or partition already exists
+     */
+    public boolean isAlreadyExists(SQLException e) {
+        // X/Open and PostgreSQL states of an existing table
+        return "42S01".equals(e.getSQLState()) || "42P07".equals(e.getSQLState());
+    }
+
     /**
      * Provides database specific validation of the settings object.
      * 
@@ -189,14 +483,20 @@ public enum DatabaseSupport {
      */
     public DatabaseInfo buildDatabaseInfo(SqlSetting settings) throws Exception {
         boolean autoDisconnect = false;
-        // Autodisconnect should only apply to the default connection (connection pool)
-        if (settings.getName().equals(SqlConfiguration.DEFAULTCONNECTION)) {
+        // Autodisconnect should only apply to the default connection and named pools (connection pools)
+        if (settings.getName().equals(SqlConfiguration.DEFAULTCONNECTION)
+                || SqlConfiguration.isNamedPool(settings.getName())) {
             autoDisconnect = SqlSetting.toggleValue(settings
                     .getString(SqlConfiguration.DEFAULTCONNECTION_OPT_AUTODISCONNECT));
         }
-        return buildDatabaseInfo(name(), buildJdbcUrl(settings), getDriverClass(settings),
+        DatabaseInfo dbInfo = buildDatabaseInfo(name(), buildJdbcUrl(settings), getDriverClass(settings),
                 settings.getString(SqlConfiguration.DEFAULTCONNECTION_OPT_USER),
                 settings.getString(SqlConfiguration.DEFAULTCONNECTION_OPT_PASSWORD), autoDisconnect);
+        if (settings.containsKey(SqlConfiguration.DEFAULTCONNECTION_OPT_METADATATTL)) {
+            dbInfo.getMetadataCache().setTimeToLive(
+                    settings.getLong(SqlConfiguration.DEFAULTCONNECTION_OPT_METADATATTL) * 1000);
+        }
+        return dbInfo;
     }
 
     /**
@@ -0,0 +1,188 @@
+/*
+ * Copyright 2010, 2011 Open University of The Netherlands
+ * Contributors: Jan Blom, Rene Quakkelaar, Mark Rotteveel
+ *
+ * This file is part of NetLogo SQL Wrapper extension.
+ * 
+ * NetLogo SQL Wrapper extension is free software: you can redistribute it
+ * and/or modify it under the terms of the GNU Lesser General Public License 
+ * as published by the Free Software Foundation, either version 3 of the 
+ * License, or (at your option) any later version.
+ * 
+ * NetLogo SQL Wrapper is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with NetLogo SQL Wrapper extension.  If not, 
+ * see <http://www.gnu.org/licenses/>.
+ */
+package nl.ou.netlogo.sql.wrapper;
+
+import java.io.File;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.logging.Level;
+
+import org.nlogo.api.Context;
+import org.nlogo.api.ExtensionException;
+
+/**
+ * Implements the methods for the embedded database, an H2 database running
+ * inside NetLogo, in memory or in a file.
+ * <p>
+ * A database of the embedded database corresponds to a schema, so
+ * sql:use-database, sql:current-database and sql:find-database work on the
+ * schemas of the database.
+ * </p>
+ * 
+ * @author NetLogo project-team
+ */
+public class EmbeddedDatabase extends GenericDatabase {
+
+    public static final String BRANDNAME = "Embedded";
+    public static final String DRIVER_CLASS = "org.h2.Driver";
+    public static final String MODE_MEMORY = "memory";
+    public static final String MODE_FILE = "file";
+
+    public EmbeddedDatabase(String jdbcUrl, String driverClass, String user, String password, boolean autoDisconnect) {
+        super(BRANDNAME, jdbcUrl, driverClass, user, password, autoDisconnect);
+    }
+
+    /**
+     * Builds the JDBC URL of an embedded database.
+     * 
+     * @param mode
+     *            {@link #MODE_MEMORY} or {@link #MODE_FILE} (case-insensitive)
+     * @param path
+     *            Directory of the database file (file mode only)
+     * @param database
+     *            Name of the database
+     * @return JDBC URL
+     * @throws IllegalArgumentException
+     *             For an unknown mode
+     */
+    public static String buildJdbcUrl(String mode, String path, String database) {
+        if (MODE_MEMORY.equalsIgnoreCase(mode)) {
+            // Keep the data until NetLogo exits, not only while a connection is open
+            return "jdbc:h2:mem:" + database + ";DB_CLOSE_DELAY=-1";
+        } else if (MODE_FILE.equalsIgnoreCase(mode)) {
+            return "jdbc:h2:file:" + new File(path, database).getAbsolutePath();
+        }
+        throw new IllegalArgumentException("Unknown mode '" + mode + "', expected " + MODE_MEMORY + " or "
+                + MODE_FILE);
+    }
+
+    /**
+     * Replaces "%m" (the model directory) or "%c" (the current directory) at
+     * the start of the path of the embedded database, as in the path of the
+     * log file.
+     * 
+     * @param settings
+     *            Connection settings
+     * @param context
+     *            Context of the model (can be null)
+     * @return The settings, or a copy with the path replaced for the embedded
+     *         brand
+     * @throws ExtensionException
+     *             If the path cannot be resolved
+     */
+    public static SqlSetting resolvePath(SqlSetting settings, Context context) throws ExtensionException {
+        try {
+            if (!settings.containsKey(SqlConfiguration.DEFAULTCONNECTION_OPT_PATH)
+                    || !DatabaseSupport.EMBEDDED.name().equalsIgnoreCase(
+                            settings.getString(SqlConfiguration.DEFAULTCONNECTION_OPT_BRAND))) {
+                return settings;
+            }
+            String path = settings.getString(SqlConfiguration.DEFAULTCONNECTION_OPT_PATH);
+            if (!path.startsWith("%")) {
+                return settings;
+            }
+            SqlSetting resolved = settings.clone();
+            resolved.put(SqlConfiguration.DEFAULTCONNECTION_OPT_PATH, SqlLogger.parseLogPath(path, context));
+            return resolved;
+        } catch (Exception e) {
+            throw new ExtensionException("Cannot resolve path of embedded database: " + e);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Sets the current schema of the connection.
+     * </p>
+     */
+    @Override
+    public void useDatabase(SqlConnection sqlc, String schemaName) throws ExtensionException {
+        try {
+            // Without the SqlStatement of the connection, so an open resultset is not closed
+            Statement stmt = sqlc.getConnection().createStatement();
+            try {
+                stmt.execute("SET SCHEMA " + schemaName);
+            } finally {
+                stmt.close();
+            }
+        } catch (Exception e) {
+            throw new ExtensionException("Could not switch database context to '" + schemaName + "' " + e);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * @return Current schema of the connection, "default" if it cannot be
+     *         determined
+     */
+    @Override
+    public String getCurrentDatabase(SqlConnection sqlc) {
+        try {
+            Statement stmt = sqlc.getConnection().createStatement();
+            try {
+                ResultSet rs = stmt.executeQuery("SELECT SCHEMA()");
+                return rs.next() ? rs.getString(1) : "default";
+            } finally {
+                stmt.close();
+            }
+        } catch (SQLException e) {
+            return "default";
+        } finally {
+            // Ensure autodisconnect behavior:
+            endOfLookup(sqlc);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * @return <code>true</code> if a schema with the name (case-insensitive)
+     *         exists, <code>false</code> otherwise
+     */
+    @Override
+    public boolean findDatabase(SqlConnection sqlc, String schemaName) {
+        Connection conn = sqlc != null ? sqlc.getConnection() : null;
+        if (conn == null) {
+            return false;
+        }
+        try {
+            PreparedStatement stmt = conn
+                    .prepareStatement("SELECT 1 FROM INFORMATION_SCHEMA.SCHEMATA WHERE UPPER(SCHEMA_NAME) = UPPER(?)");
+            try {
+                stmt.setString(1, schemaName);
+                return stmt.executeQuery().next();
+            } finally {
+                stmt.close();
+            }
+        } catch (SQLException ex) {
+            // log, but ignore, semantics is: database not found
+            SqlLogger.getLogger().log(Level.SEVERE, "Exception while finding database '" + schemaName + "'", ex);
+            return false;
+        } finally {
+            // Ensure autodisconnect behavior:
+            endOfLookup(sqlc);
+        }
+    }
+}
@@ -0,0 +1,87 @@
+/*
+ * Copyright 2010, 2011 Open University of The Netherlands
+ * Contributors: Jan Blom, Rene Quakkelaar, Mark Rotteveel
+ *
+ * This file is part of NetLogo SQL Wrapper extension.
+ * 
+ * NetLogo SQL Wrapper extension is free software: you can redistribute it
+ * and/or modify it under the terms of the GNU Lesser General Public License 
+ * as published by the Free Software Foundation, either version 3 of the 
+ * License, or (at your option) any later version.
+ * 
+ * NetLogo SQL Wrapper is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with NetLogo SQL Wrapper extension.  If not, 
+ * see <http://www.gnu.org/licenses/>.
+ */
+package nl.ou.netlogo.sql.wrapper;
+
+import java.util.List;
+
+import org.nlogo.api.ExtensionException;
+import org.nlogo.api.LogoList;
+import org.nlogo.api.LogoListBuilder;
+
+/**
+ * Result set combining the result sets of the same query executed on several
+ * databases (eg the shards of a pool). The rows are returned shard after shard,
+ * without reading ahead, so every part keeps streaming from its own database.
+ * 
+ * @author NetLogo project-team
+ */
+public class GatheredResultSet extends SqlResultSet {
+
+    private final List<SqlResultSet> parts;
+    private int current;
+    private boolean fetching = false;
+    private boolean closed = false;
+
+    /**
+     * Creates a GatheredResultSet.
+     * 
+     * @param parts
+     *            Result sets to combine, in the order of their rows
+     */
+    public GatheredResultSet(List<SqlResultSet> parts) {
+        this.parts = parts;
+    }
+
+    @Override
+    public boolean isResultSetAvailable() {
+        return !closed;
+    }
+
+    @Override
+    public boolean isEndOfResultSet() {
+        while (current < parts.size() && !parts.get(current).isRowAvailable()) {
+            current++;
+        }
+        return current >= parts.size();
+    }
+
+    @Override
+    public boolean isFetching() {
+        return fetching;
+    }
+
+    @Override
+    public LogoList fetchRow() throws ExtensionException {
+        fetching = true;
+        if (closed || isEndOfResultSet()) {
+            return new LogoListBuilder().toLogoList();
+        }
+        return parts.get(current).fetchRow();
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        for (SqlResultSet part : parts) {
+            part.close();
+        }
+    }
+}
@@ -37,6 +37,7 @@ public class GenericDatabase implements DatabaseInfo {
     private final String user;
     private final String password;
     private final boolean autoDisconnect;
+    private final MetadataCache metadataCache = new MetadataCache();
 
     /**
      * Constructs a GenericDatabase object.
@@ -94,6 +95,11 @@ public class GenericDatabase implements DatabaseInfo {
         return autoDisconnect;
     }
 
+    @Override
+    public MetadataCache getMetadataCache() {
+        return metadataCache;
+    }
+
     /**
      * {@inheritDoc}
      * <p>
@@ -109,7 +115,8 @@ public class GenericDatabase implements DatabaseInfo {
     /**
      * {@inheritDoc}
      * <p>
-     * Attempts to retrieve the catalog name reported by {@link java.sql.Connection}, will return "default" if this
+     * Attempts to retrieve the catalog name reported by {@link java.sql.Connection} (once, the catalog is
+     * remembered by the SqlConnection), will return "default" if this
      * throws an SQLException.
      * </p>
      * 
@@ -118,12 +125,12 @@ public class GenericDatabase implements DatabaseInfo {
     @Override
     public String getCurrentDatabase(SqlConnection conn) throws DatabaseFeatureNotImplementedException {
         try {
-            return conn.getConnection().getCatalog();
+            return conn.getCatalog();
         } catch (SQLException ex) {
             return "default";
         } finally {
             // Ensure autodisconnect behavior:
-            conn.autodisconnectCoordinator.endOfResultSet();
+            endOfLookup(conn);
         }
     }
 
@@ -137,4 +144,17 @@ public class GenericDatabase implements DatabaseInfo {
     public boolean findDatabase(SqlConnection sqlc, String schemaName) throws DatabaseFeatureNotImplementedException {
         return false;
     }
+
+    /**
+     * Autodisconnects after a lookup that did not use the statement of the
+     * connection, unless the agent is still fetching an open resultset.
+     * 
+     * @param conn
+     *            Connection the lookup was done for
+     */
+    protected static void endOfLookup(SqlConnection conn) {
+        if (!conn.hasOpenResultSet()) {
+            conn.autodisconnectCoordinator.endOfResultSet();
+        }
+    }
 }
@@ -0,0 +1,174 @@
+/*
+ * Copyright 2010, 2011 Open University of The Netherlands
+ * Contributors: Jan Blom, Rene Quakkelaar, Mark Rotteveel
+ *
+ * This file is part of NetLogo SQL Wrapper extension.
+ * 
+ * NetLogo SQL Wrapper extension is free software: you can redistribute it
+ * and/or modify it under the terms of the GNU Lesser General Public License 
+ * as published by the Free Software Foundation, either version 3 of the 
+ * License, or (at your option) any later version.
+ * 
+ * NetLogo SQL Wrapper is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with NetLogo SQL Wrapper extension.  If not, 
+ * see <http://www.gnu.org/licenses/>.
+ */
+package nl.ou.netlogo.sql.wrapper;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free latency histogram with log-linear buckets (in the style of an HDR
+ * histogram).
+ * <p>
+ * Values are recorded in microseconds. Values below 32 microseconds are
+ * recorded exactly, larger values are recorded with a relative precision of
+ * 1/16 (about 6%), up to the full range of a long.
+ * </p>
+ * 
+ * @author NetLogo project-team
+ */
+public class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 4;
+    private static final int SUB_BUCKET_HALF = 1 << SUB_BUCKET_BITS;
+    private static final int LINEAR_BUCKETS = SUB_BUCKET_HALF << 1;
+    private static final int BUCKET_COUNT = LINEAR_BUCKETS + (63 - SUB_BUCKET_BITS) * SUB_BUCKET_HALF;
+
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKET_COUNT);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong total = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * Records a duration.
+     * 
+     * @param nanos
+     *            Duration in nanoseconds (negative values are recorded as 0)
+     */
+    public void recordNanos(long nanos) {
+        long micros = nanos > 0 ? nanos / 1000 : 0;
+        buckets.incrementAndGet(bucketIndex(micros));
+        count.incrementAndGet();
+        total.addAndGet(micros);
+        long currentMax;
+        while (micros > (currentMax = max.get())) {
+            if (max.compareAndSet(currentMax, micros)) {
+                break;
+            }
+        }
+    }
+
+    /**
+     * @return Number of recorded values
+     */
+    public long getCount() {
+        return count.get();
+    }
+
+    /**
+     * @return Mean of the recorded values in milliseconds, 0 if nothing was
+     *         recorded
+     */
+    public double getMeanMillis() {
+        long currentCount = count.get();
+        return currentCount == 0 ? 0 : total.get() / (currentCount * 1000.0);
+    }
+
+    /**
+     * @return Largest recorded value in milliseconds
+     */
+    public double getMaxMillis() {
+        return max.get() / 1000.0;
+    }
+
+    /**
+     * Determines the value at the specified percentile.
+     * <p>
+     * The value is approximate: it is the midpoint of the bucket the
+     * percentile falls in (capped at the maximum recorded value).
+     * </p>
+     * 
+     * @param percentile
+     *            Percentile (0 - 100)
+     * @return Value at the percentile in milliseconds, 0 if nothing was
+     *         recorded
+     */
+    public double getPercentileMillis(double percentile) {
+        long[] snapshot = new long[BUCKET_COUNT];
+        long snapshotCount = 0;
+        for (int idx = 0; idx < BUCKET_COUNT; idx++) {
+            snapshot[idx] = buckets.get(idx);
+            snapshotCount += snapshot[idx];
+        }
+        if (snapshotCount == 0) {
+            return 0;
+        }
+        long target = (long) Math.ceil(Math.min(100.0, Math.max(0.0, percentile)) / 100.0 * snapshotCount);
+        if (target < 1) {
+            target = 1;
+        }
+        long cumulative = 0;
+        for (int idx = 0; idx < BUCKET_COUNT; idx++) {
+            cumulative += snapshot[idx];
+            if (cumulative >= target) {
+                return Math.min(bucketMidpoint(idx), max.get()) / 1000.0;
+            }
+        }
+        return getMaxMillis();
+    }
+
+    /**
+     * Clears all recorded values.
+     * <p>
+     * Not atomic with regard to concurrent recording: values recorded during
+     * the reset may be partially retained.
+     * </p>
+     */
+    public void reset() {
+        for (int idx = 0; idx < BUCKET_COUNT; idx++) {
+            buckets.set(idx, 0);
+        }
+        count.set(0);
+        total.set(0);
+        max.set(0);
+    }
+
+    /**
+     * Determines the bucket for a value.
+     * 
+     * @param value
+     *            Value (not negative)
+     * @return Index of the bucket
+     */
+    static int bucketIndex(long value) {
+        if (value < LINEAR_BUCKETS) {
+            return (int) value;
+        }
+        int shift = (63 - Long.numberOfLeadingZeros(value)) - SUB_BUCKET_BITS;
+        int subBucket = (int) (value >>> shift) - SUB_BUCKET_HALF;
+        return LINEAR_BUCKETS + (shift - 1) * SUB_BUCKET_HALF + subBucket;
+    }
+
+    /**
+     * Determines the midpoint of the range of values recorded in a bucket.
+     * 
+     * @param index
+     *            Index of the bucket
+     * @return Midpoint value
+     */
+    static long bucketMidpoint(int index) {
+        if (index < LINEAR_BUCKETS) {
+            return index;
+        }
+        int shift = (index - LINEAR_BUCKETS) / SUB_BUCKET_HALF + 1;
+        long lowerBound = (long) ((index - LINEAR_BUCKETS) % SUB_BUCKET_HALF + SUB_BUCKET_HALF) << shift;
+        return lowerBound + ((1L << shift) >>> 1);
+    }
+}
@@ -0,0 +1,290 @@
+/*
+ * Copyright 2010, 2011 Open University of The Netherlands
+ * Contributors: Jan Blom, Rene Quakkelaar, Mark Rotteveel
+ *
+ * This file is part of NetLogo SQL Wrapper extension.
+ * 
+ * NetLogo SQL Wrapper extension is free software: you can redistribute it
+ * and/or modify it under the terms of the GNU Lesser General Public License 
+ * as published by the Free Software Foundation, either version 3 of the 
+ * License, or (at your option) any later version.
+ * 
+ * NetLogo SQL Wrapper is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with NetLogo SQL Wrapper extension.  If not, 
+ * see <http://www.gnu.org/licenses/>.
+ */
+package nl.ou.netlogo.sql.wrapper;
+
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Cache of the databases (catalogs and schemas), tables and columns of a
+ * database, loaded through {@link DatabaseMetaData}.
+ * <p>
+ * The metadata is read on the connection of the caller, without using its
+ * {@link SqlStatement}, so an open resultset of the agent is not disturbed.
+ * Cached entries expire after the time-to-live, and all entries are dropped
+ * by {@link #clear()}. Names are compared case-insensitively.
+ * </p>
+ * 
+ * @author NetLogo project-team
+ */
+public class MetadataCache {
+
+    /**
+     * Default time-to-live of cached metadata in milliseconds.
+     */
+    public static final long DEFAULT_TIME_TO_LIVE = 60000;
+
+    private static final String[] DDL_PREFIXES = { "create", "drop", "alter", "rename" };
+
+    private volatile long timeToLive = DEFAULT_TIME_TO_LIVE;
+    /**
+     * Catalogs and schemas, by normalized name, with the name as stored
+     */
+    private Entry<Map<String, String>> catalogs;
+    private Entry<Map<String, String>> schemas;
+    private final Map<String, Entry<Set<String>>> tables = new HashMap<String, Entry<Set<String>>>();
+    private final Map<String, Entry<List<String>>> columns = new HashMap<String, Entry<List<String>>>();
+
+    /**
+     * Changes the time-to-live of cached metadata.
+     * 
+     * @param timeToLive
+     *            Time in milliseconds entries are used (0 disables caching)
+     */
+    public void setTimeToLive(long timeToLive) {
+        this.timeToLive = timeToLive;
+    }
+
+    /**
+     * @return Time in milliseconds entries are used
+     */
+    public long getTimeToLive() {
+        return timeToLive;
+    }
+
+    /**
+     * Drops all cached metadata.
+     */
+    public synchronized void clear() {
+        catalogs = null;
+        schemas = null;
+        tables.clear();
+        columns.clear();
+    }
+
+    /**
+     * Checks if a database exists, as a catalog or as a schema.
+     * 
+     * @param conn
+     *            Connection to the database, used if the databases are not
+     *            cached
+     * @param name
+     *            Name of the database
+     * @return <code>true</code> if the database exists
+     * @throws SQLException
+     */
+    public synchronized boolean hasDatabase(Connection conn, String name) throws SQLException {
+        String key = normalize(name);
+        return getCatalogs(conn).containsKey(key) || getSchemas(conn).containsKey(key);
+    }
+
+    /**
+     * Checks if a table (or view) exists.
+     * 
+     * @param conn
+     *            Connection to the database, used if the tables are not cached
+     * @param database
+     *            Name of the catalog or schema of the table, or null for all
+     * @param table
+     *            Name of the table
+     * @return <code>true</code> if the table exists
+     * @throws SQLException
+     */
+    public synchronized boolean hasTable(Connection conn, String database, String table) throws SQLException {
+        String key = database == null ? "" : normalize(database);
+        Entry<Set<String>> entry = tables.get(key);
+        if (isExpired(entry)) {
+            Set<String> names = new HashSet<String>();
+            ResultSet rs = queryTables(conn, database);
+            try {
+                while (rs.next()) {
+                    names.add(normalize(rs.getString("TABLE_NAME")));
+                }
+            } finally {
+                rs.close();
+            }
+            entry = new Entry<Set<String>>(names);
+            tables.put(key, entry);
+        }
+        return entry.value.contains(normalize(table));
+    }
+
+    /**
+     * Returns the columns of a table.
+     * 
+     * @param conn
+     *            Connection to the database, used if the columns are not
+     *            cached
+     * @param database
+     *            Name of the catalog or schema of the table, or null for all
+     * @param table
+     *            Name of the table
+     * @return Names of the columns in the order of the table (empty if the
+     *         table does not exist)
+     * @throws SQLException
+     */
+    public synchronized List<String> getColumns(Connection conn, String database, String table)
+            throws SQLException {
+        String key = (database == null ? "" : normalize(database)) + '.' + normalize(table);
+        Entry<List<String>> entry = columns.get(key);
+        if (isExpired(entry)) {
+            List<String> names = new ArrayList<String>();
+            // Stored as given, in uppercase or in lowercase depending on the database
+            Set<String> patterns = new LinkedHashSet<String>();
+            patterns.add(table);
+            patterns.add(table.toUpperCase(Locale.ENGLISH));
+            patterns.add(normalize(table));
+            for (String pattern : patterns) {
+                ResultSet rs = queryColumns(conn, database, pattern);
+                try {
+                    while (rs.next()) {
+                        // The pattern also matches other names if the table name contains '_'
+                        if (rs.getString("TABLE_NAME").equalsIgnoreCase(table)) {
+                            names.add(rs.getString("COLUMN_NAME"));
+                        }
+                    }
+                } finally {
+                    rs.close();
+                }
+                if (!names.isEmpty()) {
+                    break;
+                }
+            }
+            entry = new Entry<List<String>>(Collections.unmodifiableList(names));
+            columns.put(key, entry);
+        }
+        return entry.value;
+    }
+
+    /**
+     * Checks if a statement changes the metadata of a database, so cached
+     * metadata must be dropped.
+     * 
+     * @param sql
+     *            SQL statement
+     * @return <code>true</code> for CREATE, DROP, ALTER and RENAME statements
+     */
+    public static boolean isDdl(String sql) {
+        int start = 0;
+        while (start < sql.length() && Character.isWhitespace(sql.charAt(start))) {
+            start++;
+        }
+        for (String prefix : DDL_PREFIXES) {
+            if (sql.regionMatches(true, start, prefix, 0, prefix.length())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private Map<String, String> getCatalogs(Connection conn) throws SQLException {
+        if (isExpired(catalogs)) {
+            catalogs = new Entry<Map<String, String>>(readNames(conn.getMetaData().getCatalogs(), "TABLE_CAT"));
+        }
+        return catalogs.value;
+    }
+
+    private Map<String, String> getSchemas(Connection conn) throws SQLException {
+        if (isExpired(schemas)) {
+            schemas = new Entry<Map<String, String>>(readNames(conn.getMetaData().getSchemas(), "TABLE_SCHEM"));
+        }
+        return schemas.value;
+    }
+
+    private ResultSet queryTables(Connection conn, String database) throws SQLException {
+        DatabaseMetaData metaData = conn.getMetaData();
+        if (database == null) {
+            return metaData.getTables(null, null, "%", null);
+        }
+        String catalog = getCatalogs(conn).get(normalize(database));
+        if (catalog != null) {
+            return metaData.getTables(catalog, null, "%", null);
+        }
+        return metaData.getTables(null, getSchemaName(conn, database), "%", null);
+    }
+
+    private ResultSet queryColumns(Connection conn, String database, String tablePattern) throws SQLException {
+        DatabaseMetaData metaData = conn.getMetaData();
+        if (database == null) {
+            return metaData.getColumns(null, null, tablePattern, "%");
+        }
+        String catalog = getCatalogs(conn).get(normalize(database));
+        if (catalog != null) {
+            return metaData.getColumns(catalog, null, tablePattern, "%");
+        }
+        return metaData.getColumns(null, getSchemaName(conn, database), tablePattern, "%");
+    }
+
+    /**
+     * @return Name of a schema as stored by the database (the given name if
+     *         the schema does not exist)
+     */
+    private String getSchemaName(Connection conn, String database) throws SQLException {
+        String schema = getSchemas(conn).get(normalize(database));
+        return schema != null ? schema : database;
+    }
+
+    private static Map<String, String> readNames(ResultSet rs, String column) throws SQLException {
+        Map<String, String> names = new HashMap<String, String>();
+        try {
+            while (rs.next()) {
+                String name = rs.getString(column);
+                if (name != null) {
+                    names.put(normalize(name), name);
+                }
+            }
+        } finally {
+            rs.close();
+        }
+        return names;
+    }
+
+    private boolean isExpired(Entry<?> entry) {
+        return entry == null || System.currentTimeMillis() - entry.loadedAt >= timeToLive;
+    }
+
+    private static String normalize(String name) {
+        return name.toLowerCase(Locale.ENGLISH);
+    }
+
+    /**
+     * Cached value with the time it was loaded.
+     */
+    private static class Entry<T> {
+        final T value;
+        final long loadedAt = System.currentTimeMillis();
+
+        Entry(T value) {
+            this.value = value;
+        }
+    }
+}
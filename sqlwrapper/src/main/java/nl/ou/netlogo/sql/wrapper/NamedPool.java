@@ -0,0 +1,520 @@
+/*
+ * Copyright 2010, 2011 Open University of The Netherlands
+ * Contributors: Jan Blom, Rene Quakkelaar, Mark Rotteveel
+ *
+ * This file is part of NetLogo SQL Wrapper extension.
+ * 
+ * NetLogo SQL Wrapper extension is free software: you can redistribute it
+ * and/or modify it under the terms of the GNU Lesser General Public License 
+ * as published by the Free Software Foundation, either version 3 of the 
+ * License, or (at your option) any later version.
+ * 
+ * NetLogo SQL Wrapper is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with NetLogo SQL Wrapper extension.  If not, 
+ * see <http://www.gnu.org/licenses/>.
+ */
+package nl.ou.netlogo.sql.wrapper;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.nlogo.api.Agent;
+import org.nlogo.api.ExtensionException;
+
+/**
+ * A configured connection pool: the database and pool settings of the default
+ * connection or of a named pool (<code>sql:configure "pool:name"</code>), the
+ * {@link ConnectionPool} currently used for them and the connections of agents
+ * obtained from it.
+ * <p>
+ * If replicas are configured, a {@link ReadReplicas} with a connection pool per
+ * replica is used for queries. If shards are configured, the {@link Shards}
+ * provide a connection pool per additional shard.
+ * </p>
+ * <p>
+ * If the database or the pool settings change, the ConnectionPool is replaced
+ * by one obtained from the {@link ConnectionPoolRegistry}. The previous pool is
+ * retired: connections already leased to agents remain usable, and it is shut
+ * down when it is no longer used and the last of them is returned.
+ * </p>
+ * 
+ * @author NetLogo project-team
+ */
+public class NamedPool {
+
+    private static final Logger LOG = SqlLogger.getLogger();
+
+    private final String name;
+    private final Map<Agent, SqlConnection> connections;
+    private int partitions;
+    private int maxConnections;
+    private int minConnections;
+    private long idleTimeout;
+    private boolean prefill;
+    private long gracePeriod;
+    private long keepaliveInterval;
+    private volatile long timeout;
+    private volatile DatabaseInfo dbInfo;
+    private volatile ConnectionPool connectionPool;
+    private List<DatabaseInfo> replicaInfos = Collections.emptyList();
+    private ReadReplicas.Routing readRouting;
+    private long readYourWrites;
+    private long maxReplicaLag;
+    private volatile ReadReplicas replicas;
+    private List<DatabaseInfo> shardInfos = Collections.emptyList();
+    private volatile Shards shards;
+    private final Map<Agent, Object> shardKeys = new ConcurrentHashMap<Agent, Object>();
+
+    /**
+     * Pools replaced by a reconfiguration that may still have connections
+     * leased to agents, or may still be reused within their grace period.
+     */
+    private final List<ConnectionPool> retiredPools = new CopyOnWriteArrayList<ConnectionPool>();
+
+    /**
+     * Creates a named pool with its own map of agent connections.
+     * 
+     * @param name
+     *            Name of the pool
+     */
+    public NamedPool(String name) {
+        this(name, new ConcurrentHashMap<Agent, SqlConnection>());
+    }
+
+    /**
+     * Creates a named pool.
+     * 
+     * @param name
+     *            Name of the pool
+     * @param connections
+     *            Map to register the connections of agents in
+     */
+    public NamedPool(String name, Map<Agent, SqlConnection> connections) {
+        this.name = name;
+        this.connections = connections;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return Connections of agents obtained in the scope of this pool
+     */
+    public Map<Agent, SqlConnection> getConnections() {
+        return connections;
+    }
+
+    /**
+     * @return <code>true</code> if a connection pool is available
+     */
+    public boolean isEnabled() {
+        return connectionPool != null;
+    }
+
+    /**
+     * @return Database of the pool, null if not configured
+     */
+    public DatabaseInfo getDatabaseInfo() {
+        return dbInfo;
+    }
+
+    /**
+     * @return Current connection pool, null if not configured
+     */
+    public ConnectionPool getConnectionPool() {
+        return connectionPool;
+    }
+
+    /**
+     * @return Read replicas, null if no replicas are configured
+     */
+    public ReadReplicas getReplicas() {
+        return replicas;
+    }
+
+    /**
+     * @return Shards, null if no shards are configured
+     */
+    public Shards getShards() {
+        return shards;
+    }
+
+    /**
+     * Sets the shard key of an agent, which determines the shard used by the
+     * agent instead of its who number.
+     * 
+     * @param agent
+     *            Agent
+     * @param key
+     *            Shard key (number or string)
+     */
+    public void setShardKey(Agent agent, Object key) {
+        shardKeys.put(agent, key);
+    }
+
+    /**
+     * Determines the shard of an agent.
+     * 
+     * @param currentShards
+     *            Shards of the pool
+     * @param agent
+     *            Agent
+     * @return Index of the shard (0 for the database of the pool itself)
+     */
+    public int shardOf(Shards currentShards, Agent agent) {
+        Object key = shardKeys.get(agent);
+        return currentShards.shardOf(key != null ? key : Long.valueOf(agent.id()));
+    }
+
+    /**
+     * @return Time in seconds to wait for a connection (0 waits indefinitely)
+     */
+    public long getTimeout() {
+        return timeout;
+    }
+
+    /**
+     * Configures the database and the pool settings (the options of both the
+     * "defaultconnection" and the "connectionpool" aspect), and
+     * (re)initializes the connection pool.
+     * 
+     * @param settings
+     *            SqlSetting object
+     * @throws DatabaseConfigurationException
+     *             For configuration errors of the database
+     * @throws ExtensionException
+     *             For invalid pool settings, or if the pool cannot be created
+     */
+    public synchronized void configure(SqlSetting settings) throws DatabaseConfigurationException,
+            ExtensionException {
+        long[] previousSettings = { partitions, maxConnections, minConnections, idleTimeout, prefill ? 1 : 0,
+                gracePeriod, keepaliveInterval, timeout };
+        assignPoolSettings(settings);
+        try {
+            configureDatabase(settings);
+        } catch (DatabaseConfigurationException e) {
+            restorePoolSettings(previousSettings);
+            throw e;
+        } catch (ExtensionException e) {
+            restorePoolSettings(previousSettings);
+            throw e;
+        }
+    }
+
+    /**
+     * Configures the pool settings (the options of the "connectionpool"
+     * aspect). If the connection pool has already been initialized, the
+     * changed settings are applied immediately.
+     * 
+     * @param settings
+     *            SqlSetting object
+     * @throws ExtensionException
+     *             For invalid pool settings, or if the pool cannot be created
+     */
+    public synchronized void configurePool(SqlSetting settings) throws ExtensionException {
+        assignPoolSettings(settings);
+        if (connectionPool != null) {
+            // Apply to the active pool; a changed timeout applies without a new pool
+            initConnectionPool();
+        }
+    }
+
+    /**
+     * Configures the database and its replicas or shards (the options of the
+     * "defaultconnection" aspect), and (re)initializes the connection pool. If
+     * the pool cannot be created, the previous database and pool remain in
+     * use.
+     * 
+     * @param settings
+     *            SqlSetting object
+     * @throws DatabaseConfigurationException
+     *             For configuration errors
+     * @throws ExtensionException
+     *             If the pool cannot be created
+     */
+    public synchronized void configureDatabase(SqlSetting settings) throws DatabaseConfigurationException,
+            ExtensionException {
+        DatabaseInfo newDbInfo = DatabaseFactory.createDatabaseInfo(settings);
+        List<DatabaseInfo> newReplicaInfos = createDatabaseInfos(settings,
+                SqlConfiguration.DEFAULTCONNECTION_OPT_REPLICAS);
+        List<DatabaseInfo> newShardInfos = createDatabaseInfos(settings,
+                SqlConfiguration.DEFAULTCONNECTION_OPT_SHARDS);
+        if (!newReplicaInfos.isEmpty() && !newShardInfos.isEmpty()) {
+            throw new ExtensionException("Replicas cannot be combined with shards");
+        }
+        DatabaseInfo previousDbInfo = dbInfo;
+        List<DatabaseInfo> previousReplicaInfos = replicaInfos;
+        List<DatabaseInfo> previousShardInfos = shardInfos;
+        try {
+            readRouting = ReadReplicas.Routing.forName(settings
+                    .getString(SqlConfiguration.DEFAULTCONNECTION_OPT_READROUTING));
+            readYourWrites = settings.getLong(SqlConfiguration.DEFAULTCONNECTION_OPT_READYOURWRITES);
+            maxReplicaLag = settings.getLong(SqlConfiguration.DEFAULTCONNECTION_OPT_MAXREPLICALAG);
+        } catch (ExtensionException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new ExtensionException("Exception while configuring replicas: " + e);
+        }
+        dbInfo = newDbInfo;
+        replicaInfos = newReplicaInfos;
+        shardInfos = newShardInfos;
+        try {
+            initConnectionPool();
+        } catch (ExtensionException e) {
+            // Keep using the existing pool (if any)
+            dbInfo = previousDbInfo;
+            replicaInfos = previousReplicaInfos;
+            shardInfos = previousShardInfos;
+            throw e;
+        }
+    }
+
+    /**
+     * Creates the DatabaseInfo of the replicas or shards in the "replicas" or
+     * "shards" option: a list of host or host:port entries (separated by spaces
+     * or commas) with the other settings of the primary, or JDBC URLs for the
+     * generic brand.
+     * 
+     * @param settings
+     *            SqlSetting object
+     * @param option
+     *            Name of the option
+     * @return DatabaseInfo per entry (empty if the option is not set)
+     * @throws DatabaseConfigurationException
+     *             For configuration errors
+     * @throws ExtensionException
+     *             For errors reading the settings
+     */
+    private static List<DatabaseInfo> createDatabaseInfos(SqlSetting settings, String option)
+            throws DatabaseConfigurationException, ExtensionException {
+        List<DatabaseInfo> infos = new ArrayList<DatabaseInfo>();
+        try {
+            String replicaList = settings.getString(option);
+            if (replicaList.equals(SqlSetting.DEFAULT_UNSET)) {
+                return infos;
+            }
+            // Also accepts a NetLogo list of strings, as converted to string by sql:configure
+            for (String replica : replicaList.split("[,\\s\\[\\]\"]+")) {
+                if (replica.length() == 0) {
+                    continue;
+                }
+                SqlSetting replicaSettings = settings.clone();
+                if (replica.startsWith("jdbc:")) {
+                    replicaSettings.put(SqlConfiguration.DEFAULTCONNECTION_OPT_JDBC_URL, replica);
+                } else {
+                    int colon = replica.lastIndexOf(':');
+                    if (colon > 0) {
+                        replicaSettings.put(SqlConfiguration.DEFAULTCONNECTION_OPT_HOST, replica.substring(0, colon));
+                        replicaSettings.put(SqlConfiguration.DEFAULTCONNECTION_OPT_PORT, replica.substring(colon + 1));
+                    } else {
+                        replicaSettings.put(SqlConfiguration.DEFAULTCONNECTION_OPT_HOST, replica);
+                    }
+                }
+                infos.add(DatabaseFactory.createDatabaseInfo(replicaSettings));
+            }
+        } catch (DatabaseConfigurationException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new ExtensionException("Exception while configuring " + option + ": " + e);
+        }
+        return infos;
+    }
+
+    private void assignPoolSettings(SqlSetting settings) throws ExtensionException {
+        try {
+            partitions = settings.getInt(SqlConfiguration.CONNECTIONPOOL_OPT_PARTITIONS);
+            maxConnections = settings.getInt(SqlConfiguration.CONNECTIONPOOL_OPT_MAXCONNECTIONS);
+            minConnections = settings.getInt(SqlConfiguration.CONNECTIONPOOL_OPT_MINCONNECTIONS);
+            idleTimeout = settings.getLong(SqlConfiguration.CONNECTIONPOOL_OPT_IDLETIMEOUT);
+            prefill = SqlSetting.toggleValue(settings.getString(SqlConfiguration.CONNECTIONPOOL_OPT_PREFILL));
+            gracePeriod = settings.getLong(SqlConfiguration.CONNECTIONPOOL_OPT_GRACEPERIOD);
+            keepaliveInterval = settings.getLong(SqlConfiguration.CONNECTIONPOOL_OPT_KEEPALIVE);
+            timeout = settings.getLong(SqlConfiguration.CONNECTIONPOOL_OPT_TIMEOUT);
+            LOG.fine("Configured connection pool " + name + ":");
+            LOG.fine("    Partitions: " + partitions);
+            LOG.fine("    Connections (max): " + maxConnections);
+            LOG.fine("    Connections (min): " + minConnections);
+            LOG.fine("    Idle timeout: " + idleTimeout);
+            LOG.fine("    Prefill: " + prefill);
+            LOG.fine("    Grace period: " + gracePeriod);
+            LOG.fine("    Keepalive interval: " + keepaliveInterval);
+            LOG.fine("    Timeout: " + timeout);
+        } catch (Exception e) {
+            throw new ExtensionException("Exception while configuring connection pool: " + e);
+        }
+    }
+
+    private void restorePoolSettings(long[] previousSettings) {
+        partitions = (int) previousSettings[0];
+        maxConnections = (int) previousSettings[1];
+        minConnections = (int) previousSettings[2];
+        idleTimeout = previousSettings[3];
+        prefill = previousSettings[4] != 0;
+        gracePeriod = previousSettings[5];
+        keepaliveInterval = previousSettings[6];
+        timeout = previousSettings[7];
+    }
+
+    /**
+     * Initializes the connection pool, or replaces it if the database or pool
+     * settings changed. If the database and the pool settings are unchanged,
+     * the existing pool is kept.
+     * 
+     * @throws ExtensionException
+     *             If the pool cannot be created
+     */
+    private void initConnectionPool() throws ExtensionException {
+        LOG.fine("NamedPool.initConnectionPool(" + name + ")");
+        ConnectionPoolSettings poolSettings = new ConnectionPoolSettings(partitions, minConnections, maxConnections,
+                idleTimeout, keepaliveInterval);
+        if (connectionPool != null && connectionPool.isSameDatabase(dbInfo)
+                && connectionPool.getSettings().equals(poolSettings)
+                && (replicas == null ? replicaInfos.isEmpty() : replicas.isSame(replicaInfos, poolSettings))
+                && (shards == null ? shardInfos.isEmpty() : shards.isSame(shardInfos, poolSettings))) {
+            LOG.info("Connection pool settings unchanged, keeping existing pool");
+            if (replicas != null) {
+                replicas.configure(readRouting, readYourWrites, maxReplicaLag);
+            }
+            return;
+        }
+        ConnectionPool newPool;
+        ReadReplicas newReplicas = null;
+        Shards newShards = null;
+        try {
+            newPool = ConnectionPoolRegistry.acquire(dbInfo, poolSettings, prefill);
+            try {
+                if (!replicaInfos.isEmpty()) {
+                    newReplicas = new ReadReplicas(replicaInfos, poolSettings, prefill);
+                    newReplicas.configure(readRouting, readYourWrites, maxReplicaLag);
+                }
+                if (!shardInfos.isEmpty()) {
+                    newShards = new Shards(shardInfos, poolSettings, prefill);
+                }
+            } catch (ExtensionException e) {
+                ConnectionPoolRegistry.release(newPool, gracePeriod);
+                throw e;
+            }
+        } catch (ExtensionException e) {
+            LOG.log(Level.SEVERE, "NamedPool.initConnectionPool(" + name + ") failed", e);
+            throw e;
+        }
+        ConnectionPool previousPool = connectionPool;
+        ReadReplicas previousReplicas = replicas;
+        Shards previousShards = shards;
+        connectionPool = newPool;
+        replicas = newReplicas;
+        shards = newShards;
+        if (previousPool != null) {
+            retiredPools.add(previousPool);
+            ConnectionPoolRegistry.release(previousPool, gracePeriod);
+            removeShutdownPools();
+        }
+        if (previousReplicas != null) {
+            previousReplicas.release(gracePeriod);
+        }
+        if (previousShards != null) {
+            previousShards.release(gracePeriod);
+        }
+    }
+
+    /**
+     * Removes retired pools that have been shut down from the list of retired
+     * pools.
+     */
+    private void removeShutdownPools() {
+        for (ConnectionPool pool : retiredPools) {
+            if (pool.isShutdown()) {
+                retiredPools.remove(pool);
+            }
+        }
+    }
+
+    /**
+     * Reserves a lease on the current connection pool.
+     * 
+     * @return Connection pool to obtain the connection from
+     * @throws SQLException
+     *             If no connection pool is available
+     */
+    ConnectionPool reserve() throws SQLException {
+        ConnectionPool pool = connectionPool;
+        // The pool can only be retired concurrently by a reconfiguration, retry with the new pool
+        while (pool != null && !pool.reserve()) {
+            pool = connectionPool;
+        }
+        if (pool == null) {
+            throw new SQLException("No connection pool available");
+        }
+        return pool;
+    }
+
+    /**
+     * Releases the connection pool, returning the pooled connections of agents
+     * in the process. The pool itself remains open for the grace period, so it
+     * can be reused if the same settings are configured again (eg after a
+     * recompile or reload).
+     */
+    public synchronized void release() {
+        if (connectionPool != null) {
+            LOG.info("Releasing connection pool " + name);
+            // Close existing connections provided by the connection pool
+            for (SqlConnection sqlConnection : connections.values()) {
+                if (sqlConnection.isPooled()) {
+                    LOG.fine("Removing pooled connection " + sqlConnection);
+                    sqlConnection.close();
+                }
+            }
+            ConnectionPoolRegistry.release(connectionPool, gracePeriod);
+            connectionPool = null;
+        }
+        if (replicas != null) {
+            replicas.release(gracePeriod);
+            replicas = null;
+        }
+        if (shards != null) {
+            shards.release(gracePeriod);
+            shards = null;
+        }
+        retiredPools.clear();
+    }
+
+    /**
+     * Retrieves the statistics of the connection pool.
+     * 
+     * @return Map of statistic name to value (Double or Boolean), in reporting
+     *         order
+     */
+    public Map<String, Object> getStatisticsMap() {
+        removeShutdownPools();
+        ConnectionPool pool = connectionPool;
+        Map<String, Object> stats;
+        if (pool != null) {
+            stats = pool.getStatisticsMap();
+        } else {
+            stats = new PoolStatistics().toMap(null);
+        }
+        stats.put("retired-pools", Double.valueOf(retiredPools.size()));
+        ReadReplicas currentReplicas = replicas;
+        if (currentReplicas != null) {
+            currentReplicas.addStatistics(stats);
+        }
+        Shards currentShards = shards;
+        if (currentShards != null) {
+            currentShards.addStatistics(stats);
+        }
+        return stats;
+    }
+}
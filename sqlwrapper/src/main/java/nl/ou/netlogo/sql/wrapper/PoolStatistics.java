@@ -0,0 +1,178 @@
+/*
+ * Copyright 2010, 2011 Open University of The Netherlands
+ * Contributors: Jan Blom, Rene Quakkelaar, Mark Rotteveel
+ *
+ * This file is part of NetLogo SQL Wrapper extension.
+ * 
+ * NetLogo SQL Wrapper extension is free software: you can redistribute it
+ * and/or modify it under the terms of the GNU Lesser General Public License 
+ * as published by the Free Software Foundation, either version 3 of the 
+ * License, or (at your option) any later version.
+ * 
+ * NetLogo SQL Wrapper is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with NetLogo SQL Wrapper extension.  If not, 
+ * see <http://www.gnu.org/licenses/>.
+ */
+package nl.ou.netlogo.sql.wrapper;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.jolbox.bonecp.BoneCP;
+
+/**
+ * Statistics of a connection pool, complementing the counters maintained by
+ * BoneCP itself.
+ * 
+ * @author NetLogo project-team
+ */
+public class PoolStatistics {
+
+    private final AtomicLong checkouts = new AtomicLong();
+    private final AtomicLong checkoutTimeouts = new AtomicLong();
+    private final AtomicLong checkoutFailures = new AtomicLong();
+    private final AtomicLong connectionsCreated = new AtomicLong();
+    private final AtomicLong connectionsDestroyed = new AtomicLong();
+    private final AtomicLong validationFailures = new AtomicLong();
+    private final AtomicInteger waiting = new AtomicInteger();
+    private final LatencyHistogram checkoutLatency = new LatencyHistogram();
+    private final LatencyHistogram leaseTime = new LatencyHistogram();
+
+    /**
+     * Records a successful checkout of a connection from the pool.
+     * 
+     * @param waitNanos
+     *            Time waited for the connection in nanoseconds
+     */
+    public void checkout(long waitNanos) {
+        checkouts.incrementAndGet();
+        checkoutLatency.recordNanos(waitNanos);
+    }
+
+    /**
+     * Records the start of a checkout, while it waits for a connection.
+     */
+    public void waitStarted() {
+        waiting.incrementAndGet();
+    }
+
+    /**
+     * Records the end of a checkout started with {@link #waitStarted()},
+     * whether it succeeded or not.
+     */
+    public void waitEnded() {
+        waiting.decrementAndGet();
+    }
+
+    /**
+     * @return Number of checkouts currently waiting for a connection
+     */
+    public int getWaiting() {
+        return waiting.get();
+    }
+
+    /**
+     * Records a checkout that did not complete within the pool timeout.
+     */
+    public void checkoutTimeout() {
+        checkoutTimeouts.incrementAndGet();
+    }
+
+    /**
+     * Records a checkout that failed for reasons other than a timeout.
+     */
+    public void checkoutFailure() {
+        checkoutFailures.incrementAndGet();
+    }
+
+    /**
+     * Records the return of a connection to the pool.
+     * 
+     * @param leaseNanos
+     *            Time between checkout and return of the connection in
+     *            nanoseconds
+     */
+    public void checkin(long leaseNanos) {
+        leaseTime.recordNanos(leaseNanos);
+    }
+
+    /**
+     * Records the creation of a physical connection by the pool.
+     */
+    public void connectionCreated() {
+        connectionsCreated.incrementAndGet();
+    }
+
+    /**
+     * Records the destruction of a physical connection by the pool.
+     */
+    public void connectionDestroyed() {
+        connectionsDestroyed.incrementAndGet();
+    }
+
+    /**
+     * Records a connection that was found dead when it was checked out.
+     */
+    public void validationFailure() {
+        validationFailures.incrementAndGet();
+    }
+
+    /**
+     * Clears all counters and histograms (the number of waiting checkouts is
+     * a current value, and is not cleared).
+     */
+    public void reset() {
+        checkouts.set(0);
+        checkoutTimeouts.set(0);
+        checkoutFailures.set(0);
+        connectionsCreated.set(0);
+        connectionsDestroyed.set(0);
+        validationFailures.set(0);
+        checkoutLatency.reset();
+        leaseTime.reset();
+    }
+
+    /**
+     * Builds a snapshot of the statistics.
+     * 
+     * @param pool
+     *            Connection pool the statistics apply to (for the current
+     *            active and idle counts), or null
+     * @return Map of statistic name to value (Double or Boolean), in
+     *         reporting order
+     */
+    public Map<String, Object> toMap(BoneCP pool) {
+        Map<String, Object> stats = new LinkedHashMap<String, Object>();
+        stats.put("enabled", Boolean.valueOf(pool != null));
+        if (pool != null) {
+            int active = pool.getTotalLeased();
+            int idle = pool.getTotalFree();
+            stats.put("active", Double.valueOf(active));
+            stats.put("idle", Double.valueOf(idle));
+            stats.put("total", Double.valueOf(active + idle));
+        }
+        stats.put("waiting", Double.valueOf(waiting.get()));
+        stats.put("checkouts", Double.valueOf(checkouts.get()));
+        stats.put("checkout-timeouts", Double.valueOf(checkoutTimeouts.get()));
+        stats.put("checkout-failures", Double.valueOf(checkoutFailures.get()));
+        stats.put("connections-created", Double.valueOf(connectionsCreated.get()));
+        stats.put("connections-destroyed", Double.valueOf(connectionsDestroyed.get()));
+        stats.put("validation-failures", Double.valueOf(validationFailures.get()));
+        stats.put("checkout-mean-ms", Double.valueOf(checkoutLatency.getMeanMillis()));
+        stats.put("checkout-p50-ms", Double.valueOf(checkoutLatency.getPercentileMillis(50)));
+        stats.put("checkout-p95-ms", Double.valueOf(checkoutLatency.getPercentileMillis(95)));
+        stats.put("checkout-p99-ms", Double.valueOf(checkoutLatency.getPercentileMillis(99)));
+        stats.put("checkout-max-ms", Double.valueOf(checkoutLatency.getMaxMillis()));
+        stats.put("lease-p50-ms", Double.valueOf(leaseTime.getPercentileMillis(50)));
+        stats.put("lease-p95-ms", Double.valueOf(leaseTime.getPercentileMillis(95)));
+        stats.put("lease-p99-ms", Double.valueOf(leaseTime.getPercentileMillis(99)));
+        return stats;
+    }
+}
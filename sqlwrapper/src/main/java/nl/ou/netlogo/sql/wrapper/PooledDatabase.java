@@ -0,0 +1,71 @@
+/*
+ * Copyright 2010, 2011 Open University of The Netherlands
+ * Contributors: Jan Blom, Rene Quakkelaar, Mark Rotteveel
+ *
+ * This file is part of NetLogo SQL Wrapper extension.
+ * 
+ * NetLogo SQL Wrapper extension is free software: you can redistribute it
+ * and/or modify it under the terms of the GNU Lesser General Public License 
+ * as published by the Free Software Foundation, either version 3 of the 
+ * License, or (at your option) any later version.
+ * 
+ * NetLogo SQL Wrapper is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with NetLogo SQL Wrapper extension.  If not, 
+ * see <http://www.gnu.org/licenses/>.
+ */
+package nl.ou.netlogo.sql.wrapper;
+
+import java.sql.SQLException;
+
+/**
+ * A database and the connection pool obtained for it from the
+ * {@link ConnectionPoolRegistry}, such as a read replica or a shard of a
+ * {@link NamedPool}.
+ * 
+ * @author NetLogo project-team
+ */
+public class PooledDatabase {
+
+    private final DatabaseInfo dbInfo;
+    private final ConnectionPool pool;
+
+    /**
+     * Creates a PooledDatabase.
+     * 
+     * @param dbInfo
+     *            Database
+     * @param pool
+     *            Connection pool of the database
+     */
+    public PooledDatabase(DatabaseInfo dbInfo, ConnectionPool pool) {
+        this.dbInfo = dbInfo;
+        this.pool = pool;
+    }
+
+    public DatabaseInfo getDatabaseInfo() {
+        return dbInfo;
+    }
+
+    public ConnectionPool getConnectionPool() {
+        return pool;
+    }
+
+    /**
+     * Reserves a lease on the connection pool of the database.
+     * 
+     * @return Connection pool to obtain the connection from
+     * @throws SQLException
+     *             If the pool has been retired
+     */
+    ConnectionPool reserve() throws SQLException {
+        if (!pool.reserve()) {
+            throw new SQLException("Connection pool of " + dbInfo.getJdbcUrl() + " has been retired");
+        }
+        return pool;
+    }
+}
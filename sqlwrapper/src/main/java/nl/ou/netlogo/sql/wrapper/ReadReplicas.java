@@ -0,0 +1,310 @@
+/*
+ * Copyright 2010, 2011 Open University of The Netherlands
+ * Contributors: Jan Blom, Rene Quakkelaar, Mark Rotteveel
+ *
+ * This file is part of NetLogo SQL Wrapper extension.
+ * 
+ * NetLogo SQL Wrapper extension is free software: you can redistribute it
+ * and/or modify it under the terms of the GNU Lesser General Public License 
+ * as published by the Free Software Foundation, either version 3 of the 
+ * License, or (at your option) any later version.
+ * 
+ * NetLogo SQL Wrapper is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with NetLogo SQL Wrapper extension.  If not, 
+ * see <http://www.gnu.org/licenses/>.
+ */
+package nl.ou.netlogo.sql.wrapper;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.nlogo.api.Agent;
+import org.nlogo.api.ExtensionException;
+
+/**
+ * The read replicas of a pool, with a connection pool per replica.
+ * <p>
+ * Queries are routed to the replicas round-robin or to the replica with the
+ * least leased connections. After an agent writes, its queries are routed to
+ * the primary for the read-your-writes period. Optionally replicas lagging
+ * behind the primary more than a maximum are skipped.
+ * </p>
+ * 
+ * @author NetLogo project-team
+ */
+public class ReadReplicas {
+
+    private static final Logger LOG = SqlLogger.getLogger();
+    /**
+     * Minimum time between two checks of the lag of a replica.
+     */
+    private static final long LAG_CHECK_INTERVAL_MS = 5000;
+
+    public enum Routing {
+        ROUND_ROBIN, LEAST_LOADED;
+
+        /**
+         * Returns the Routing for a name as used in the configuration (eg
+         * "round-robin").
+         * 
+         * @param name
+         *            Name of the routing (case-insensitive)
+         * @return Routing
+         * @throws ExtensionException
+         *             For an unknown name
+         */
+        public static Routing forName(String name) throws ExtensionException {
+            try {
+                return valueOf(name.toUpperCase().replace('-', '_'));
+            } catch (IllegalArgumentException ex) {
+                throw new ExtensionException("Unknown read-routing '" + name
+                        + "', expected round-robin or least-loaded");
+            }
+        }
+    }
+
+    private final List<Replica> replicas;
+    private volatile Routing routing;
+    private volatile long readYourWritesMillis;
+    private volatile long maxLag;
+    private final AtomicInteger next = new AtomicInteger();
+    private final AtomicLong replicaReads = new AtomicLong();
+    private final Map<Agent, Long> lastWrites = new ConcurrentHashMap<Agent, Long>();
+
+    /**
+     * Creates the read replicas, obtaining a connection pool for every replica
+     * from the {@link ConnectionPoolRegistry}.
+     * 
+     * @param replicaInfos
+     *            Databases of the replicas
+     * @param poolSettings
+     *            Settings of the connection pools
+     * @param prefill
+     *            <code>true</code> to prefill the connection pools
+     * @throws ExtensionException
+     *             If a pool cannot be created
+     */
+    public ReadReplicas(List<DatabaseInfo> replicaInfos, ConnectionPoolSettings poolSettings, boolean prefill)
+            throws ExtensionException {
+        List<Replica> newReplicas = new ArrayList<Replica>(replicaInfos.size());
+        try {
+            for (DatabaseInfo replicaInfo : replicaInfos) {
+                newReplicas.add(new Replica(replicaInfo, ConnectionPoolRegistry.acquire(replicaInfo, poolSettings,
+                        prefill)));
+            }
+        } catch (ExtensionException e) {
+            for (Replica replica : newReplicas) {
+                ConnectionPoolRegistry.release(replica.getConnectionPool(), 0);
+            }
+            throw e;
+        }
+        replicas = Collections.unmodifiableList(newReplicas);
+    }
+
+    /**
+     * Changes the routing options.
+     * 
+     * @param routing
+     *            Routing of queries across the replicas
+     * @param readYourWrites
+     *            Time in seconds queries of an agent are routed to the primary
+     *            after it wrote (0 disables)
+     * @param maxLag
+     *            Maximum lag in seconds of a replica to be used (0 disables
+     *            the check)
+     */
+    public void configure(Routing routing, long readYourWrites, long maxLag) {
+        this.routing = routing;
+        this.readYourWritesMillis = readYourWrites * 1000;
+        this.maxLag = maxLag;
+    }
+
+    /**
+     * Checks if these replicas connect to the specified databases, in the same
+     * order, with the specified pool settings.
+     * 
+     * @param replicaInfos
+     *            Databases of the replicas
+     * @param poolSettings
+     *            Settings of the connection pools
+     * @return <code>true</code> if the replicas can be kept
+     */
+    public boolean isSame(List<DatabaseInfo> replicaInfos, ConnectionPoolSettings poolSettings) {
+        if (replicaInfos.size() != replicas.size()) {
+            return false;
+        }
+        for (int idx = 0; idx < replicas.size(); idx++) {
+            ConnectionPool pool = replicas.get(idx).getConnectionPool();
+            if (!pool.isSameDatabase(replicaInfos.get(idx)) || !pool.getSettings().equals(poolSettings)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Records a write by an agent, for read-your-writes.
+     * 
+     * @param agent
+     *            Agent
+     */
+    public void recordWrite(Agent agent) {
+        if (readYourWritesMillis > 0) {
+            lastWrites.put(agent, Long.valueOf(System.currentTimeMillis()));
+        }
+    }
+
+    /**
+     * Checks if the queries of an agent must be routed to the primary because
+     * it wrote within the read-your-writes period.
+     * 
+     * @param agent
+     *            Agent
+     * @return <code>true</code> if the agent should read from the primary
+     */
+    public boolean isSticky(Agent agent) {
+        Long lastWrite = lastWrites.get(agent);
+        if (lastWrite == null) {
+            return false;
+        }
+        if (System.currentTimeMillis() - lastWrite.longValue() < readYourWritesMillis) {
+            return true;
+        }
+        lastWrites.remove(agent);
+        return false;
+    }
+
+    /**
+     * Chooses the replica for a query.
+     * 
+     * @return Replica, or null if no replica is available (all lagging)
+     */
+    public Replica choose() {
+        List<Replica> candidates = new ArrayList<Replica>(replicas.size());
+        for (Replica replica : replicas) {
+            if (!replica.isLagging(maxLag)) {
+                candidates.add(replica);
+            }
+        }
+        if (candidates.isEmpty()) {
+            return null;
+        }
+        Replica chosen;
+        if (routing == Routing.LEAST_LOADED) {
+            chosen = candidates.get(0);
+            for (Replica replica : candidates) {
+                if (replica.getConnectionPool().getLeased() < chosen.getConnectionPool().getLeased()) {
+                    chosen = replica;
+                }
+            }
+        } else {
+            chosen = candidates.get((next.getAndIncrement() & Integer.MAX_VALUE) % candidates.size());
+        }
+        replicaReads.incrementAndGet();
+        return chosen;
+    }
+
+    /**
+     * Releases the connection pools of the replicas.
+     * 
+     * @param gracePeriod
+     *            Time in seconds the pools remain open for reuse
+     */
+    public void release(long gracePeriod) {
+        for (Replica replica : replicas) {
+            ConnectionPoolRegistry.release(replica.getConnectionPool(), gracePeriod);
+        }
+    }
+
+    /**
+     * Adds the statistics of the replicas to the statistics of the pool.
+     * 
+     * @param stats
+     *            Statistics of the pool
+     */
+    public void addStatistics(Map<String, Object> stats) {
+        int lagging = 0;
+        for (Replica replica : replicas) {
+            if (replica.lagging) {
+                lagging++;
+            }
+        }
+        stats.put("replicas", Double.valueOf(replicas.size()));
+        stats.put("replicas-lagging", Double.valueOf(lagging));
+        stats.put("replica-reads", Double.valueOf(replicaReads.get()));
+    }
+
+    /**
+     * A read replica and its connection pool, with the result of the last lag
+     * check.
+     */
+    public static class Replica extends PooledDatabase {
+
+        private long lagCheckedAt;
+        private volatile boolean lagging;
+
+        Replica(DatabaseInfo dbInfo, ConnectionPool pool) {
+            super(dbInfo, pool);
+        }
+
+        /**
+         * Checks if the replica lags behind the primary more than the maximum
+         * lag. The lag is checked at most every
+         * {@link ReadReplicas#LAG_CHECK_INTERVAL_MS} milliseconds.
+         * 
+         * @param maxLag
+         *            Maximum lag in seconds (0 disables the check)
+         * @return <code>true</code> if the replica should not be used
+         */
+        synchronized boolean isLagging(long maxLag) {
+            if (maxLag <= 0) {
+                return false;
+            }
+            long now = System.currentTimeMillis();
+            if (now - lagCheckedAt >= LAG_CHECK_INTERVAL_MS) {
+                lagCheckedAt = now;
+                long lag = checkLag();
+                lagging = lag > maxLag || lag == Long.MAX_VALUE;
+                if (lagging) {
+                    LOG.warning("Replica " + getDatabaseInfo().getJdbcUrl() + " lags behind the primary: " + lag
+                            + " seconds");
+                }
+            }
+            return lagging;
+        }
+
+        private long checkLag() {
+            ConnectionPool pool = getConnectionPool();
+            if (!pool.reserve()) {
+                return Long.MAX_VALUE;
+            }
+            try {
+                Connection conn = pool.getConnection();
+                try {
+                    return DatabaseSupport.forBrandName(getDatabaseInfo().getBrandName()).getReplicaLag(conn);
+                } finally {
+                    conn.close();
+                }
+            } catch (SQLException e) {
+                LOG.log(Level.WARNING, "Unable to check lag of replica " + getDatabaseInfo().getJdbcUrl(), e);
+                return Long.MAX_VALUE;
+            } finally {
+                pool.release();
+            }
+        }
+    }
+}
@@ -0,0 +1,121 @@
+/*
+ * Copyright 2010, 2011 Open University of The Netherlands
+ * Contributors: Jan Blom, Rene Quakkelaar, Mark Rotteveel
+ *
+ * This file is part of NetLogo SQL Wrapper extension.
+ * 
+ * NetLogo SQL Wrapper extension is free software: you can redistribute it
+ * and/or modify it under the terms of the GNU Lesser General Public License 
+ * as published by the Free Software Foundation, either version 3 of the 
+ * License, or (at your option) any later version.
+ * 
+ * NetLogo SQL Wrapper is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with NetLogo SQL Wrapper extension.  If not, 
+ * see <http://www.gnu.org/licenses/>.
+ */
+package nl.ou.netlogo.sql.wrapper;
+
+import java.sql.SQLException;
+
+import org.nlogo.api.ExtensionException;
+import org.nlogo.api.LogoList;
+
+/**
+ * Connection of an agent in replay mode, without a physical connection: its
+ * statements are replayed by the {@link ReplayLog}. Transactions are
+ * accepted, but have no effect.
+ * 
+ * @author NetLogo project-team
+ */
+public class ReplayConnection extends SqlConnection {
+
+    private final ReplayLog replayLog;
+    private boolean open = true;
+    private boolean autoCommit = true;
+
+    /**
+     * Creates a ReplayConnection.
+     * 
+     * @param replayLog
+     *            Replay log with the recorded results
+     * @param dbInfo
+     *            DatabaseInfo of the pool (can be null)
+     */
+    protected ReplayConnection(ReplayLog replayLog, DatabaseInfo dbInfo) {
+        super(null, dbInfo, null, Origin.POOL);
+        this.replayLog = replayLog;
+    }
+
+    @Override
+    public void close() {
+        open = false;
+        super.close();
+    }
+
+    /**
+     * @return <code>true</code> until the connection is closed or replay mode
+     *         is switched off
+     */
+    @Override
+    public boolean isConnected() {
+        return open && replayLog.isReplaying();
+    }
+
+    @Override
+    public SqlStatement createStatement(String sql, LogoList parameters) throws SQLException {
+        if (!replayLog.isReplaying()) {
+            throw new SQLException("Replay mode was switched off, the connection has been closed");
+        }
+        return super.createStatement(sql, parameters);
+    }
+
+    @Override
+    public String currentDatabase() throws DatabaseFeatureNotImplementedException {
+        throw new DatabaseFeatureNotImplementedException("sql:current-database is not available in replay mode");
+    }
+
+    @Override
+    public boolean findDatabase(String schemaName) throws DatabaseFeatureNotImplementedException {
+        throw new DatabaseFeatureNotImplementedException("sql:find-database is not available in replay mode");
+    }
+
+    @Override
+    public void autoCommitOn() throws ExtensionException {
+        autoCommit = true;
+    }
+
+    @Override
+    public void autoCommitOff() throws ExtensionException {
+        autoCommit = false;
+    }
+
+    @Override
+    public boolean autoCommitEnabled() {
+        return autoCommit;
+    }
+
+    @Override
+    public void setTransactionIsolation(int level) {
+        // no physical connection
+    }
+
+    @Override
+    public void setReadOnly(boolean readOnly) {
+        // no physical connection
+    }
+
+    @Override
+    public void commitTransaction() {
+        // nothing was changed
+    }
+
+    @Override
+    public void rollbackTransaction() {
+        // nothing was changed
+    }
+}
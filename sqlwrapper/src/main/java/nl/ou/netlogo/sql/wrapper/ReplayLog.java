@@ -0,0 +1,437 @@
+/*
+ * Copyright 2010, 2011 Open University of The Netherlands
+ * Contributors: Jan Blom, Rene Quakkelaar, Mark Rotteveel
+ *
+ * This file is part of NetLogo SQL Wrapper extension.
+ * 
+ * NetLogo SQL Wrapper extension is free software: you can redistribute it
+ * and/or modify it under the terms of the GNU Lesser General Public License 
+ * as published by the Free Software Foundation, either version 3 of the 
+ * License, or (at your option) any later version.
+ * 
+ * NetLogo SQL Wrapper is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with NetLogo SQL Wrapper extension.  If not, 
+ * see <http://www.gnu.org/licenses/>.
+ */
+package nl.ou.netlogo.sql.wrapper;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.nlogo.api.Context;
+import org.nlogo.api.ExtensionException;
+import org.nlogo.api.LogoList;
+
+/**
+ * Recording of the results of statements, to run a model again without the
+ * database.
+ * <p>
+ * In record mode the rows of every query and the row count of every update
+ * are appended to the replay file, keyed by the SQL text, the parameters and
+ * the number of earlier executions with the same SQL text and parameters
+ * since the aspect was configured. In replay mode the results are served from
+ * the replay file, which is memory-mapped and indexed when the aspect is
+ * configured, and the connection manager hands out {@link ReplayConnection}s
+ * that have no physical connection. When a key was recorded more than once
+ * (eg by several runs), the last recording is replayed.
+ * </p>
+ * <p>
+ * The file starts with a header of {@link #MAGIC} and {@link #VERSION},
+ * followed by the entries. An entry is the length of the rest of the entry,
+ * the hash of the SQL text and parameters, the sequence number and the
+ * result: a row count, or the number of columns and rows followed by the
+ * values. Every entry is appended with a single write, so concurrent
+ * recordings to the same file do not mix; an incomplete last entry (of an
+ * aborted run) is ignored.
+ * </p>
+ * 
+ * @author NetLogo project-team
+ */
+public class ReplayLog implements SqlConfigurable {
+
+    private static final Logger LOG = SqlLogger.getLogger();
+
+    public static final String MODE_OFF = "off";
+    public static final String MODE_RECORD = "record";
+    public static final String MODE_REPLAY = "replay";
+
+    /**
+     * First bytes of a replay file ("SQLR")
+     */
+    public static final int MAGIC = 0x53514c52;
+    public static final byte VERSION = 1;
+    private static final int HEADER_SIZE = 5;
+
+    static final byte KIND_ROW_COUNT = 1;
+    static final byte KIND_RESULT_SET = 2;
+    static final byte VALUE_NULL = 0;
+    static final byte VALUE_STRING = 1;
+    static final byte VALUE_DOUBLE = 2;
+    static final byte VALUE_TRUE = 3;
+    static final byte VALUE_FALSE = 4;
+
+    private volatile String mode = MODE_OFF;
+    private String path;
+    /**
+     * Replay file opened for appending (record mode)
+     */
+    private FileOutputStream out;
+    /**
+     * Memory-mapped replay file (replay mode)
+     */
+    private ByteBuffer data;
+    /**
+     * Position of the result of each key in the replay file (replay mode)
+     */
+    private final Map<Key, Integer> index = new HashMap<Key, Integer>();
+    /**
+     * Number of executions per hash of SQL text and parameters
+     */
+    private final Map<Long, Integer> sequences = new HashMap<Long, Integer>();
+
+    /**
+     * @return <code>true</code> if results are recorded
+     */
+    public boolean isRecording() {
+        return MODE_RECORD.equals(mode);
+    }
+
+    /**
+     * @return <code>true</code> if results are replayed instead of executing
+     *         statements
+     */
+    public boolean isReplaying() {
+        return MODE_REPLAY.equals(mode);
+    }
+
+    /**
+     * @return Number of results in the index of the replay file (replay mode)
+     */
+    public synchronized int getRecordedCount() {
+        return index.size();
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see {@link
+     * nl.ou.netlogo.sql.wrapper.SqlConfigurable#configure(nl.ou.netlogo
+     * .sql.wrapper.SqlSetting, org.nlogo.api.Context)}
+     */
+    public void configure(SqlSetting settings, Context context) throws Exception {
+        if (!settings.getName().equals(SqlConfiguration.REPLAY) || !settings.isValid()) {
+            return;
+        }
+        String newMode = settings.getString(SqlConfiguration.REPLAY_OPT_MODE).toLowerCase();
+        if (!newMode.equals(MODE_OFF) && !newMode.equals(MODE_RECORD) && !newMode.equals(MODE_REPLAY)) {
+            throw new ExtensionException("Unknown replay mode '" + newMode + "', expected " + MODE_OFF + ", "
+                    + MODE_RECORD + " or " + MODE_REPLAY);
+        }
+        String replayPath = settings.getString(SqlConfiguration.REPLAY_OPT_PATH);
+        if (replayPath.startsWith("%t")) {
+            replayPath = System.getProperty("java.io.tmpdir") + replayPath.substring(2);
+        } else {
+            replayPath = SqlLogger.parseLogPath(replayPath, context);
+        }
+        synchronized (this) {
+            close();
+            if (newMode.equals(MODE_RECORD)) {
+                openForRecording(replayPath);
+            } else if (newMode.equals(MODE_REPLAY)) {
+                openForReplay(replayPath);
+            }
+            path = replayPath;
+            mode = newMode;
+        }
+        LOG.log(Level.FINE, "Configured replay: mode {0}, path {1}", new Object[] { mode, path });
+    }
+
+    /**
+     * Closes the replay file and switches recording and replaying off.
+     */
+    public synchronized void close() {
+        mode = MODE_OFF;
+        sequences.clear();
+        index.clear();
+        data = null;
+        if (out != null) {
+            try {
+                out.close();
+            } catch (IOException e) {
+                LOG.log(Level.WARNING, "Unable to close replay file " + path, e);
+            }
+            out = null;
+        }
+    }
+
+    private void openForRecording(String replayPath) throws ExtensionException {
+        try {
+            File file = new File(replayPath);
+            boolean empty = !file.exists() || file.length() == 0;
+            out = new FileOutputStream(file, true);
+            if (empty) {
+                out.write(new byte[] { (byte) (MAGIC >>> 24), (byte) (MAGIC >>> 16), (byte) (MAGIC >>> 8),
+                        (byte) MAGIC, VERSION });
+            }
+        } catch (IOException e) {
+            throw new ExtensionException("Cannot open replay file " + replayPath + " for recording: " + e);
+        }
+    }
+
+    private void openForReplay(String replayPath) throws ExtensionException {
+        try {
+            RandomAccessFile file = new RandomAccessFile(replayPath, "r");
+            try {
+                data = file.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, file.length());
+            } finally {
+                // The mapping stays valid after closing the file
+                file.close();
+            }
+        } catch (IOException e) {
+            throw new ExtensionException("Cannot open replay file " + replayPath + ": " + e);
+        }
+        if (data.limit() < HEADER_SIZE || data.getInt(0) != MAGIC || data.get(4) != VERSION) {
+            data = null;
+            throw new ExtensionException(replayPath + " is not a replay file of this version of the extension");
+        }
+        int position = HEADER_SIZE;
+        while (position + 4 <= data.limit()) {
+            int length = data.getInt(position);
+            if (length < 12 || position + 4 + length > data.limit()) {
+                LOG.warning("Ignoring incomplete entry at the end of replay file " + replayPath);
+                break;
+            }
+            index.put(new Key(data.getLong(position + 4), data.getInt(position + 12)), Integer.valueOf(position + 16));
+            position += 4 + length;
+        }
+        LOG.log(Level.FINE, "Indexed {0} results of replay file {1}",
+                new Object[] { Integer.valueOf(index.size()), replayPath });
+    }
+
+    /**
+     * Records the rows of a query. The rows are read from the resultset,
+     * which is closed.
+     * 
+     * @param sql
+     *            SQL text of the statement
+     * @param parameters
+     *            Parameters of the statement (can be null)
+     * @param resultSet
+     *            Resultset of the statement
+     * @return Resultset with the recorded rows, to be used instead of the
+     *         original resultset
+     * @throws ExtensionException
+     *             For failure to write the replay file
+     */
+    public SqlResultSet record(String sql, LogoList parameters, SqlResultSet resultSet) throws ExtensionException {
+        LogoList rows;
+        try {
+            rows = resultSet.fetchResultSet();
+        } finally {
+            resultSet.close();
+        }
+        int columns = rows.size() == 0 ? 0 : ((LogoList) rows.get(0)).size();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream entry = new DataOutputStream(bytes);
+        try {
+            entry.writeByte(KIND_RESULT_SET);
+            entry.writeInt(columns);
+            entry.writeInt(rows.size());
+            for (Object row : rows) {
+                for (Object value : (LogoList) row) {
+                    writeValue(entry, value);
+                }
+            }
+        } catch (IOException e) {
+            throw new ExtensionException(e);
+        }
+        byte[] result = bytes.toByteArray();
+        write(sql, parameters, result);
+        return new ReplayedResultSet(ByteBuffer.wrap(result, 1, result.length - 1).slice());
+    }
+
+    /**
+     * Records the row count of an update.
+     * 
+     * @param sql
+     *            SQL text of the statement
+     * @param parameters
+     *            Parameters of the statement (can be null)
+     * @param rowCount
+     *            Number of rows updated
+     * @throws ExtensionException
+     *             For failure to write the replay file
+     */
+    public void record(String sql, LogoList parameters, int rowCount) throws ExtensionException {
+        write(sql, parameters, new byte[] { KIND_ROW_COUNT, (byte) (rowCount >>> 24), (byte) (rowCount >>> 16),
+                (byte) (rowCount >>> 8), (byte) rowCount });
+    }
+
+    private synchronized void write(String sql, LogoList parameters, byte[] result) throws ExtensionException {
+        if (out == null) {
+            throw new ExtensionException("Replay file is not open for recording");
+        }
+        long hash = hash(sql, parameters);
+        int sequence = nextSequence(hash);
+        ByteBuffer entry = ByteBuffer.allocate(16 + result.length);
+        entry.putInt(12 + result.length).putLong(hash).putInt(sequence).put(result);
+        try {
+            out.write(entry.array());
+        } catch (IOException e) {
+            throw new ExtensionException("Cannot write replay file " + path + ": " + e);
+        }
+    }
+
+    /**
+     * Replays the result of the next execution of a statement.
+     * 
+     * @param sql
+     *            SQL text of the statement
+     * @param parameters
+     *            Parameters of the statement (can be null)
+     * @return Recorded result
+     * @throws ExtensionException
+     *             If the execution was not recorded
+     */
+    public Result replay(String sql, LogoList parameters) throws ExtensionException {
+        ByteBuffer result;
+        synchronized (this) {
+            if (data == null) {
+                throw new ExtensionException("Replay file is not open for replaying");
+            }
+            long hash = hash(sql, parameters);
+            int sequence = nextSequence(hash);
+            Integer position = index.get(new Key(hash, sequence));
+            if (position == null) {
+                throw new ExtensionException("No recorded result for execution " + (sequence + 1) + " of '" + sql
+                        + "'" + (parameters != null && parameters.size() > 0 ? " with parameters " + parameters : "")
+                        + " in replay file " + path);
+            }
+            result = data.duplicate();
+            result.position(position.intValue());
+        }
+        if (result.get() == KIND_ROW_COUNT) {
+            return new Result(null, result.getInt());
+        }
+        return new Result(new ReplayedResultSet(result.slice()), -1);
+    }
+
+    private int nextSequence(long hash) {
+        Long key = Long.valueOf(hash);
+        Integer sequence = sequences.get(key);
+        int next = sequence == null ? 0 : sequence.intValue();
+        sequences.put(key, Integer.valueOf(next + 1));
+        return next;
+    }
+
+    /**
+     * Hashes the SQL text and parameters of a statement (64 bit FNV-1a).
+     */
+    static long hash(String sql, LogoList parameters) {
+        long hash = 0xcbf29ce484222325L;
+        hash = hash(hash, sql);
+        if (parameters != null) {
+            for (Object parameter : parameters) {
+                // Separate the parameters, and distinguish their types
+                hash = hash(hash, parameter instanceof String ? "\u0000s" : "\u0000o");
+                hash = hash(hash, String.valueOf(parameter));
+            }
+        }
+        return hash;
+    }
+
+    private static long hash(long hash, String text) {
+        for (int idx = 0; idx < text.length(); idx++) {
+            hash ^= text.charAt(idx);
+            hash *= 0x100000001b3L;
+        }
+        return hash;
+    }
+
+    private static void writeValue(DataOutputStream entry, Object value) throws IOException {
+        if (value == null) {
+            entry.writeByte(VALUE_NULL);
+        } else if (value instanceof Double) {
+            entry.writeByte(VALUE_DOUBLE);
+            entry.writeDouble(((Double) value).doubleValue());
+        } else if (value instanceof Boolean) {
+            entry.writeByte(((Boolean) value).booleanValue() ? VALUE_TRUE : VALUE_FALSE);
+        } else {
+            byte[] text = value.toString().getBytes("UTF-8");
+            entry.writeByte(VALUE_STRING);
+            entry.writeInt(text.length);
+            entry.write(text);
+        }
+    }
+
+    /**
+     * Recorded result of a statement.
+     */
+    public static class Result {
+
+        private final SqlResultSet resultSet;
+        private final int rowCount;
+
+        Result(SqlResultSet resultSet, int rowCount) {
+            this.resultSet = resultSet;
+            this.rowCount = rowCount;
+        }
+
+        /**
+         * @return Rows of a query, null for an update
+         */
+        public SqlResultSet getResultSet() {
+            return resultSet;
+        }
+
+        /**
+         * @return Row count of an update, -1 for a query
+         */
+        public int getRowCount() {
+            return rowCount;
+        }
+    }
+
+    /**
+     * Key of a recorded result.
+     */
+    private static class Key {
+
+        private final long hash;
+        private final int sequence;
+
+        Key(long hash, int sequence) {
+            this.hash = hash;
+            this.sequence = sequence;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) obj;
+            return hash == other.hash && sequence == other.sequence;
+        }
+
+        @Override
+        public int hashCode() {
+            return (int) (hash ^ (hash >>> 32)) * 31 + sequence;
+        }
+    }
+}
@@ -0,0 +1,120 @@
+/*
+ * Copyright 2010, 2011 Open University of The Netherlands
+ * Contributors: Jan Blom, Rene Quakkelaar, Mark Rotteveel
+ *
+ * This file is part of NetLogo SQL Wrapper extension.
+ * 
+ * NetLogo SQL Wrapper extension is free software: you can redistribute it
+ * and/or modify it under the terms of the GNU Lesser General Public License 
+ * as published by the Free Software Foundation, either version 3 of the 
+ * License, or (at your option) any later version.
+ * 
+ * NetLogo SQL Wrapper is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with NetLogo SQL Wrapper extension.  If not, 
+ * see <http://www.gnu.org/licenses/>.
+ */
+package nl.ou.netlogo.sql.wrapper;
+
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+
+import org.nlogo.api.ExtensionException;
+import org.nlogo.api.LogoList;
+import org.nlogo.api.LogoListBuilder;
+
+/**
+ * Result set with the rows of a query recorded by the {@link ReplayLog}. The
+ * rows are decoded from the (memory-mapped) replay file while they are
+ * fetched.
+ * 
+ * @author NetLogo project-team
+ */
+public class ReplayedResultSet extends SqlResultSet {
+
+    private final ByteBuffer data;
+    private final int columns;
+    private final int rows;
+    private int rowsFetched;
+    private boolean fetching = false;
+    private boolean closed = false;
+
+    /**
+     * Creates a ReplayedResultSet.
+     * 
+     * @param data
+     *            Recorded result, starting at the number of columns
+     */
+    protected ReplayedResultSet(ByteBuffer data) {
+        this.data = data;
+        this.columns = data.getInt();
+        this.rows = data.getInt();
+    }
+
+    @Override
+    public boolean isResultSetAvailable() {
+        return !closed;
+    }
+
+    @Override
+    public boolean isEndOfResultSet() {
+        return rowsFetched >= rows;
+    }
+
+    @Override
+    public boolean isFetching() {
+        return fetching;
+    }
+
+    @Override
+    public LogoList fetchRow() throws ExtensionException {
+        fetching = true;
+        LogoListBuilder cols = new LogoListBuilder();
+        if (closed || isEndOfResultSet()) {
+            return cols.toLogoList();
+        }
+        for (int col = 0; col < columns; col++) {
+            cols.add(readValue());
+        }
+        rowsFetched++;
+        return cols.toLogoList();
+    }
+
+    private Object readValue() throws ExtensionException {
+        byte type = data.get();
+        switch (type) {
+        case ReplayLog.VALUE_NULL:
+            return null;
+        case ReplayLog.VALUE_DOUBLE:
+            return Double.valueOf(data.getDouble());
+        case ReplayLog.VALUE_TRUE:
+            return Boolean.TRUE;
+        case ReplayLog.VALUE_FALSE:
+            return Boolean.FALSE;
+        case ReplayLog.VALUE_STRING:
+            byte[] text = new byte[data.getInt()];
+            data.get(text);
+            try {
+                return new String(text, "UTF-8");
+            } catch (UnsupportedEncodingException e) {
+                throw new ExtensionException(e);
+            }
+        default:
+            throw new ExtensionException("Replay file is corrupt, unknown value type " + type);
+        }
+    }
+
+    @Override
+    public int getRowsFetched() {
+        return rowsFetched;
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+    }
+}
@@ -0,0 +1,108 @@
+/*
+ * Copyright 2010, 2011 Open University of The Netherlands
+ * Contributors: Jan Blom, Rene Quakkelaar, Mark Rotteveel
+ *
+ * This file is part of NetLogo SQL Wrapper extension.
+ * 
+ * NetLogo SQL Wrapper extension is free software: you can redistribute it
+ * and/or modify it under the terms of the GNU Lesser General Public License 
+ * as published by the Free Software Foundation, either version 3 of the 
+ * License, or (at your option) any later version.
+ * 
+ * NetLogo SQL Wrapper is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with NetLogo SQL Wrapper extension.  If not, 
+ * see <http://www.gnu.org/licenses/>.
+ */
+package nl.ou.netlogo.sql.wrapper;
+
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.nlogo.api.ExtensionException;
+import org.nlogo.api.LogoList;
+
+/**
+ * Statement whose result is replayed by the {@link ReplayLog}, without
+ * executing it on the database.
+ * 
+ * @author NetLogo project-team
+ */
+public class ReplayedStatement extends SqlStatement {
+
+    private static final Logger LOG = SqlLogger.getLogger();
+
+    private final ReplayLog replayLog;
+    private final String sql;
+    private final LogoList parameters;
+    private SqlResultSet resultSet;
+    private int rowCount = -1;
+
+    /**
+     * Creates a ReplayedStatement.
+     * 
+     * @param replayLog
+     *            Replay log with the recorded results
+     * @param sql
+     *            SQL text of the statement
+     * @param parameters
+     *            Parameters as a NetLogo list (or null or empty list if no
+     *            parameters are needed)
+     */
+    protected ReplayedStatement(ReplayLog replayLog, String sql, LogoList parameters) {
+        super(null, parameters, null);
+        this.replayLog = replayLog;
+        this.sql = sql;
+        this.parameters = parameters;
+    }
+
+    @Override
+    public boolean executeDirect() throws ExtensionException {
+        LOG.log(Level.FINE, "ReplayedStatement.executeDirect(''{0}'')", sql);
+        replay();
+        return resultSet != null;
+    }
+
+    @Override
+    public void executeQuery() throws ExtensionException {
+        LOG.log(Level.FINE, "ReplayedStatement.executeQuery(''{0}'', ''{1}'')", new Object[] { sql, parameters });
+        replay();
+        if (resultSet == null) {
+            throw new ExtensionException("Recorded result of '" + sql + "' is not a resultset");
+        }
+    }
+
+    @Override
+    public void executeUpdate() throws ExtensionException {
+        LOG.log(Level.FINE, "ReplayedStatement.executeUpdate(''{0}'', ''{1}'')", new Object[] { sql, parameters });
+        replay();
+    }
+
+    private void replay() throws ExtensionException {
+        ReplayLog.Result result = replayLog.replay(sql, parameters);
+        resultSet = result.getResultSet();
+        rowCount = result.getRowCount();
+    }
+
+    @Override
+    public void close() {
+        if (resultSet != null) {
+            resultSet.close();
+            resultSet = null;
+        }
+    }
+
+    @Override
+    public SqlResultSet getResultSet() {
+        return resultSet;
+    }
+
+    @Override
+    public int getRowCount() {
+        return rowCount;
+    }
+}
@@ -0,0 +1,613 @@
+/*
+ * Copyright 2010, 2011 Open University of The Netherlands
+ * Contributors: Jan Blom, Rene Quakkelaar, Mark Rotteveel
+ *
+ * This file is part of NetLogo SQL Wrapper extension.
+ * 
+ * NetLogo SQL Wrapper extension is free software: you can redistribute it
+ * and/or modify it under the terms of the GNU Lesser General Public License 
+ * as published by the Free Software Foundation, either version 3 of the 
+ * License, or (at your option) any later version.
+ * 
+ * NetLogo SQL Wrapper is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with NetLogo SQL Wrapper extension.  If not, 
+ * see <http://www.gnu.org/licenses/>.
+ */
+package nl.ou.netlogo.sql.wrapper;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.nlogo.api.Context;
+import org.nlogo.api.ExtensionException;
+import org.nlogo.api.LogoList;
+import org.nlogo.api.LogoListBuilder;
+
+/**
+ * Separation of the rows written by the runs of a BehaviorSpace experiment,
+ * for the configured tables.
+ * <p>
+ * In column mode the run id is added as an extra column and parameter to
+ * every <code>INSERT INTO table (columns) VALUES (...)</code> of a configured
+ * table. Partition mode does the same, and first creates the partition of the
+ * run in the table, which must be partitioned by list on the run id column
+ * (PostgreSQL and MySQL only). In table mode every unqualified reference to a
+ * configured table is replaced by the table of the run, which is created with
+ * the structure of the configured table when it is first used.
+ * </p>
+ * <p>
+ * The rows of a run are removed with {@link #clearRun(SqlConnection, long)}:
+ * by dropping the table or partition of the run, or in column mode by
+ * deleting the rows of the run.
+ * </p>
+ * 
+ * @author NetLogo project-team
+ */
+public class RunPartitioning implements SqlConfigurable {
+
+    private static final Logger LOG = SqlLogger.getLogger();
+
+    public static final String MODE_OFF = "off";
+    public static final String MODE_COLUMN = "column";
+    public static final String MODE_PARTITION = "partition";
+    public static final String MODE_TABLE = "table";
+
+    private volatile Rules rules = new Rules(MODE_OFF, 0, Collections.<String> emptySet(), "run", "%t_run%r");
+
+    /**
+     * Tables and partitions of runs known to exist, by JDBC URL and name
+     */
+    private final Set<String> created = Collections.synchronizedSet(new HashSet<String>());
+
+    /**
+     * Keywords followed by a table name
+     */
+    private static final Set<String> TABLE_KEYWORDS = new HashSet<String>(Arrays.asList("from", "join", "into",
+            "update", "table"));
+    /**
+     * Keywords ending the list of tables of a FROM clause
+     */
+    private static final Set<String> FROM_LIST_END = new HashSet<String>(Arrays.asList("where", "group", "having",
+            "order", "limit", "offset", "fetch", "for", "union", "intersect", "except", "minus", "window", "set",
+            "values", "select", "returning"));
+
+    /**
+     * @return <code>true</code> if the statements are rewritten for the run
+     */
+    public boolean isEnabled() {
+        return !rules.mode.equals(MODE_OFF);
+    }
+
+    /**
+     * @return Configured run id
+     */
+    public long getRunId() {
+        return rules.runId;
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see {@link
+     * nl.ou.netlogo.sql.wrapper.SqlConfigurable#configure(nl.ou.netlogo
+     * .sql.wrapper.SqlSetting, org.nlogo.api.Context)}
+     */
+    public void configure(SqlSetting settings, Context context) throws Exception {
+        if (!settings.getName().equals(SqlConfiguration.RUNPARTITION) || !settings.isValid()) {
+            return;
+        }
+        String mode = settings.getString(SqlConfiguration.RUNPARTITION_OPT_MODE).toLowerCase();
+        if (!mode.equals(MODE_OFF) && !mode.equals(MODE_COLUMN) && !mode.equals(MODE_PARTITION)
+                && !mode.equals(MODE_TABLE)) {
+            throw new ExtensionException("Unknown run partitioning mode '" + mode + "', expected " + MODE_OFF + ", "
+                    + MODE_COLUMN + ", " + MODE_PARTITION + " or " + MODE_TABLE);
+        }
+        long runId = settings.getLong(SqlConfiguration.RUNPARTITION_OPT_RUNID);
+        if (runId < 0) {
+            throw new ExtensionException("Run id must not be negative: " + runId);
+        }
+        Set<String> tables = new LinkedHashSet<String>();
+        for (String table : settings.getString(SqlConfiguration.RUNPARTITION_OPT_TABLES).split(",")) {
+            if (table.trim().length() > 0) {
+                tables.add(table.trim().toLowerCase());
+            }
+        }
+        String column = settings.getString(SqlConfiguration.RUNPARTITION_OPT_COLUMN).trim();
+        String tableName = settings.getString(SqlConfiguration.RUNPARTITION_OPT_TABLENAME).trim();
+        if (!tableName.contains("%t") || !tableName.contains("%r")) {
+            throw new ExtensionException("Table name of a run must contain %t and %r: " + tableName);
+        }
+        rules = new Rules(mode, runId, Collections.unmodifiableSet(tables), column, tableName);
+        LOG.log(Level.FINE, "Configured run partitioning: mode {0}, run {1}, tables {2}", new Object[] { mode,
+                Long.valueOf(runId), tables });
+    }
+
+    /**
+     * Rewrites a statement for the configured run, creating the table or
+     * partition of the run if required.
+     * 
+     * @param sqlc
+     *            Connection the statement is executed on
+     * @param sql
+     *            SQL statement
+     * @param parameters
+     *            Parameters of the statement (null if none)
+     * @return Rewritten statement, the same statement if it does not write to
+     *         or use a configured table
+     * @throws SQLException
+     *             If an insert of a configured table cannot be rewritten, or
+     *             the table or partition of the run cannot be created
+     */
+    public Rewrite rewrite(SqlConnection sqlc, String sql, LogoList parameters) throws SQLException {
+        Rules current = rules;
+        if (current.mode.equals(MODE_OFF) || current.tables.isEmpty()) {
+            return new Rewrite(sql, parameters);
+        }
+        if (current.mode.equals(MODE_TABLE)) {
+            return rewriteTables(sqlc, current, sql, parameters);
+        }
+        List<Token> tokens = tokenize(sql);
+        String table = getInsertTable(tokens);
+        if (table == null || !current.tables.contains(table.toLowerCase())) {
+            return new Rewrite(sql, parameters);
+        }
+        if (current.mode.equals(MODE_PARTITION)) {
+            createPartition(sqlc, current, table.toLowerCase());
+        }
+        return tagInsert(current, sql, parameters, tokens, table);
+    }
+
+    /**
+     * Removes the rows a run wrote to the configured tables, by dropping its
+     * table or partition, or in column mode by deleting its rows.
+     * 
+     * @param sqlc
+     *            Connection to the database
+     * @param runId
+     *            Run id
+     * @throws ExtensionException
+     *             If run partitioning is off, or the rows cannot be removed
+     */
+    public void clearRun(SqlConnection sqlc, long runId) throws ExtensionException {
+        Rules current = rules;
+        if (current.mode.equals(MODE_OFF)) {
+            throw new ExtensionException("Run partitioning is not configured");
+        }
+        DatabaseInfo dbInfo = sqlc.getDatabaseInfo();
+        DatabaseSupport support = DatabaseSupport.forBrandName(dbInfo.getBrandName());
+        try {
+            for (String table : current.tables) {
+                String runTable = current.getRunTable(table, runId);
+                if (current.mode.equals(MODE_COLUMN)) {
+                    PreparedStatement stmt = sqlc.getConnection().prepareStatement(
+                            "DELETE FROM " + table + " WHERE " + current.column + " = ?");
+                    try {
+                        stmt.setLong(1, runId);
+                        stmt.executeUpdate();
+                    } finally {
+                        stmt.close();
+                    }
+                } else if (current.mode.equals(MODE_PARTITION)) {
+                    execute(sqlc, support.getDropRunPartitionSql(table, runTable));
+                } else {
+                    execute(sqlc, support.getDropRunTableSql(runTable));
+                }
+                created.remove(dbInfo.getJdbcUrl() + "/" + runTable);
+            }
+            sqlc.refreshMetadata();
+        } catch (SQLException e) {
+            throw new ExtensionException("Unable to clear run " + runId + ": " + e.getMessage());
+        } catch (DatabaseFeatureNotImplementedException e) {
+            throw new ExtensionException(e.getMessage());
+        }
+    }
+
+    private Rewrite rewriteTables(SqlConnection sqlc, Rules current, String sql, LogoList parameters)
+            throws SQLException {
+        if (MetadataCache.isDdl(sql)) {
+            // the configured tables themselves are created and changed by the model
+            return new Rewrite(sql, parameters);
+        }
+        List<Token> tokens = tokenize(sql);
+        StringBuilder rewritten = new StringBuilder(sql.length() + 16);
+        int copied = 0;
+        for (int idx : findTableReferences(tokens, current.tables)) {
+            Token token = tokens.get(idx);
+            String table = token.text.toLowerCase();
+            String runTable = current.getRunTable(table, current.runId);
+            createRunTable(sqlc, table, runTable);
+            rewritten.append(sql, copied, token.start).append(runTable);
+            copied = token.end;
+        }
+        if (copied == 0) {
+            return new Rewrite(sql, parameters);
+        }
+        rewritten.append(sql, copied, sql.length());
+        return new Rewrite(rewritten.toString(), parameters);
+    }
+
+    /**
+     * Finds the references to the configured tables: unqualified names in a
+     * table position (after FROM, JOIN, INTO, UPDATE or TABLE, or in the
+     * comma-separated list of tables of a FROM clause) and qualifiers of
+     * columns (<code>table.column</code>). Columns, aliases and other names
+     * that are equal to the name of a table are not references, nor are the
+     * arguments of functions such as <code>EXTRACT(YEAR FROM column)</code>.
+     * 
+     * @return Indexes of the tokens, in order
+     */
+    static List<Integer> findTableReferences(List<Token> tokens, Set<String> tables) {
+        List<Integer> references = new ArrayList<Integer>();
+        // depths of the parentheses of the FROM clauses that are being read
+        List<Integer> fromLists = new ArrayList<Integer>();
+        // per depth of parentheses, whether it contains a (sub)query instead
+        // of eg the arguments of a function
+        List<Boolean> queries = new ArrayList<Boolean>();
+        queries.add(Boolean.TRUE);
+        int depth = 0;
+        boolean tablePosition = false;
+        for (int idx = 0; idx < tokens.size(); idx++) {
+            Token token = tokens.get(idx);
+            boolean inFromList = !fromLists.isEmpty() && fromLists.get(fromLists.size() - 1).intValue() == depth;
+            if (token.is('(')) {
+                depth++;
+                queries.add(Boolean.FALSE);
+                tablePosition = false;
+            } else if (token.is(')')) {
+                if (depth > 0) {
+                    queries.remove(depth--);
+                }
+                while (!fromLists.isEmpty() && fromLists.get(fromLists.size() - 1).intValue() > depth) {
+                    fromLists.remove(fromLists.size() - 1);
+                }
+            } else if (token.is(',')) {
+                tablePosition = inFromList;
+            } else if (token.is(';')) {
+                fromLists.clear();
+                tablePosition = false;
+            } else if (token.isIdentifier()) {
+                boolean qualified = idx > 0 && tokens.get(idx - 1).is('.');
+                boolean qualifier = idx + 1 < tokens.size() && tokens.get(idx + 1).is('.');
+                boolean table = !qualified && tables.contains(token.text.toLowerCase());
+                if (tablePosition) {
+                    // a qualified table name is not a configured table
+                    tablePosition = false;
+                    if (table && !qualifier) {
+                        references.add(Integer.valueOf(idx));
+                    }
+                    continue;
+                }
+                if (table && qualifier) {
+                    references.add(Integer.valueOf(idx));
+                    continue;
+                }
+                String keyword = token.text.toLowerCase();
+                if (keyword.equals("select") || keyword.equals("with")) {
+                    queries.set(depth, Boolean.TRUE);
+                }
+                if (TABLE_KEYWORDS.contains(keyword) && queries.get(depth).booleanValue()
+                        && !(keyword.equals("update") && idx > 0 && isKeyword(tokens.get(idx - 1), "key", "for"))) {
+                    tablePosition = true;
+                    if ((keyword.equals("from") || keyword.equals("update")) && !inFromList) {
+                        fromLists.add(Integer.valueOf(depth));
+                    }
+                } else if (inFromList && FROM_LIST_END.contains(keyword)) {
+                    fromLists.remove(fromLists.size() - 1);
+                }
+            } else {
+                tablePosition = false;
+            }
+        }
+        return references;
+    }
+
+    private static boolean isKeyword(Token token, String... keywords) {
+        for (String keyword : keywords) {
+            if (token.text.equalsIgnoreCase(keyword)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Adds the run id column and a parameter for the run id to every row of an
+     * insert. A statement without parameters (eg of sql:exec-direct) gets the
+     * run id as a literal instead.
+     */
+    private static Rewrite tagInsert(Rules current, String sql, LogoList parameters, List<Token> tokens,
+            String table) throws SQLException {
+        int idx = 3;
+        while (idx + 1 < tokens.size() && tokens.get(idx).is('.')) {
+            idx += 2;
+        }
+        if (idx >= tokens.size() || !tokens.get(idx).is('(')) {
+            throw unsupportedInsert(table);
+        }
+        // column list
+        int columnsEnd = findClose(tokens, idx);
+        for (int col = idx + 1; col < columnsEnd; col++) {
+            if (tokens.get(col).isIdentifier() && tokens.get(col).text.equalsIgnoreCase(current.column)) {
+                // the model passes the run id itself
+                return new Rewrite(sql, parameters);
+            }
+        }
+        if (columnsEnd + 1 >= tokens.size() || !tokens.get(columnsEnd + 1).text.equalsIgnoreCase("values")) {
+            throw unsupportedInsert(table);
+        }
+        StringBuilder rewritten = new StringBuilder(sql.length() + 32);
+        rewritten.append(sql, 0, tokens.get(columnsEnd).start).append(", ").append(current.column);
+        String runValue = parameters == null ? String.valueOf(current.runId) : "?";
+        int copied = tokens.get(columnsEnd).start;
+        // rows, with the number of parameters of each row
+        List<Integer> rowParameters = new ArrayList<Integer>();
+        idx = columnsEnd + 2;
+        while (idx < tokens.size() && tokens.get(idx).is('(')) {
+            int rowEnd = findClose(tokens, idx);
+            int count = 0;
+            for (int value = idx + 1; value < rowEnd; value++) {
+                if (tokens.get(value).is('?')) {
+                    count++;
+                }
+            }
+            rowParameters.add(Integer.valueOf(count));
+            rewritten.append(sql, copied, tokens.get(rowEnd).start).append(", ").append(runValue);
+            copied = tokens.get(rowEnd).start;
+            idx = rowEnd + 1;
+            if (idx < tokens.size() && tokens.get(idx).is(',')) {
+                idx++;
+            }
+        }
+        if (rowParameters.isEmpty()) {
+            throw unsupportedInsert(table);
+        }
+        rewritten.append(sql, copied, sql.length());
+        if (parameters == null) {
+            return new Rewrite(rewritten.toString(), null);
+        }
+
+        LogoListBuilder tagged = new LogoListBuilder();
+        Double runId = Double.valueOf(current.runId);
+        int parameter = 0;
+        for (Integer count : rowParameters) {
+            for (int value = 0; value < count.intValue() && parameter < parameters.size(); value++) {
+                tagged.add(parameters.get(parameter++));
+            }
+            tagged.add(runId);
+        }
+        return new Rewrite(rewritten.toString(), tagged.toLogoList());
+    }
+
+    private static SQLException unsupportedInsert(String table) {
+        return new SQLException("Run partitioning of table " + table + " requires INSERT INTO " + table
+                + " (columns) VALUES (...)");
+    }
+
+    private void createPartition(SqlConnection sqlc, Rules current, String table) throws SQLException {
+        String partition = current.getRunTable(table, current.runId);
+        DatabaseInfo dbInfo = sqlc.getDatabaseInfo();
+        String key = dbInfo.getJdbcUrl() + "/" + partition;
+        if (created.contains(key)) {
+            return;
+        }
+        DatabaseSupport support = DatabaseSupport.forBrandName(dbInfo.getBrandName());
+        try {
+            execute(sqlc, support.getCreateRunPartitionSql(table, partition, current.runId));
+        } catch (DatabaseFeatureNotImplementedException e) {
+            throw new SQLException(e.getMessage());
+        } catch (SQLException e) {
+            if (!support.isAlreadyExists(e)) {
+                throw e;
+            }
+        }
+        rememberCreated(sqlc, key);
+        LOG.log(Level.INFO, "Created partition {0} of table {1}", new Object[] { partition, table });
+    }
+
+    private void createRunTable(SqlConnection sqlc, String table, String runTable) throws SQLException {
+        DatabaseInfo dbInfo = sqlc.getDatabaseInfo();
+        String key = dbInfo.getJdbcUrl() + "/" + runTable;
+        if (created.contains(key)) {
+            return;
+        }
+        DatabaseSupport support = DatabaseSupport.forBrandName(dbInfo.getBrandName());
+        try {
+            execute(sqlc, support.getCreateRunTableSql(table, runTable));
+        } catch (SQLException e) {
+            if (!support.isAlreadyExists(e)) {
+                throw e;
+            }
+        }
+        rememberCreated(sqlc, key);
+        sqlc.refreshMetadata();
+        LOG.log(Level.INFO, "Created table {0} from table {1}", new Object[] { runTable, table });
+    }
+
+    /**
+     * Remembers that a table or partition exists. Within a transaction it is
+     * not remembered, as a rollback may remove it again (eg in PostgreSQL).
+     */
+    private void rememberCreated(SqlConnection sqlc, String key) {
+        if (sqlc.autoCommitEnabled()) {
+            created.add(key);
+        }
+    }
+
+    private static void execute(SqlConnection sqlc, String sql) throws SQLException {
+        Statement stmt = sqlc.getConnection().createStatement();
+        try {
+            stmt.execute(sql);
+        } finally {
+            stmt.close();
+        }
+    }
+
+    /**
+     * @return Table of an <code>INSERT INTO table</code> statement, null for
+     *         other statements
+     */
+    private static String getInsertTable(List<Token> tokens) {
+        if (tokens.size() < 3 || !tokens.get(0).text.equalsIgnoreCase("insert")
+                || !tokens.get(1).text.equalsIgnoreCase("into") || !tokens.get(2).isIdentifier()) {
+            return null;
+        }
+        // last part of a qualified name
+        int idx = 2;
+        while (idx + 2 < tokens.size() && tokens.get(idx + 1).is('.') && tokens.get(idx + 2).isIdentifier()) {
+            idx += 2;
+        }
+        return tokens.get(idx).text;
+    }
+
+    private static int findClose(List<Token> tokens, int open) throws SQLException {
+        int depth = 0;
+        for (int idx = open; idx < tokens.size(); idx++) {
+            if (tokens.get(idx).is('(')) {
+                depth++;
+            } else if (tokens.get(idx).is(')') && --depth == 0) {
+                return idx;
+            }
+        }
+        throw new SQLException("Unbalanced parentheses in statement");
+    }
+
+    /**
+     * Splits a statement in identifiers and other characters, skipping white
+     * space, comments, string literals and quoted identifiers.
+     */
+    static List<Token> tokenize(String sql) {
+        List<Token> tokens = new ArrayList<Token>();
+        int length = sql.length();
+        int idx = 0;
+        while (idx < length) {
+            char c = sql.charAt(idx);
+            if (Character.isWhitespace(c)) {
+                idx++;
+            } else if (c == '\'' || c == '"' || c == '`') {
+                int end = idx + 1;
+                while (end < length) {
+                    if (sql.charAt(end) == c) {
+                        if (end + 1 < length && sql.charAt(end + 1) == c) {
+                            end += 2;
+                            continue;
+                        }
+                        break;
+                    }
+                    end++;
+                }
+                tokens.add(new Token(sql.substring(idx, Math.min(end + 1, length)), idx, Math.min(end + 1, length)));
+                idx = end + 1;
+            } else if (c == '-' && sql.startsWith("--", idx)) {
+                int end = sql.indexOf('\n', idx);
+                idx = end < 0 ? length : end + 1;
+            } else if (c == '/' && sql.startsWith("/*", idx)) {
+                int end = sql.indexOf("*/", idx + 2);
+                idx = end < 0 ? length : end + 2;
+            } else if (Character.isLetter(c) || c == '_') {
+                int end = idx + 1;
+                while (end < length
+                        && (Character.isLetterOrDigit(sql.charAt(end)) || sql.charAt(end) == '_' || sql.charAt(end) == '$')) {
+                    end++;
+                }
+                tokens.add(new Token(sql.substring(idx, end), idx, end));
+                idx = end;
+            } else {
+                tokens.add(new Token(String.valueOf(c), idx, idx + 1));
+                idx++;
+            }
+        }
+        return tokens;
+    }
+
+    /**
+     * Statement rewritten for the run.
+     */
+    public static final class Rewrite {
+
+        private final String sql;
+        private final LogoList parameters;
+
+        Rewrite(String sql, LogoList parameters) {
+            this.sql = sql;
+            this.parameters = parameters;
+        }
+
+        /**
+         * @return SQL statement
+         */
+        public String getSql() {
+            return sql;
+        }
+
+        /**
+         * @return Parameters of the statement (null if none)
+         */
+        public LogoList getParameters() {
+            return parameters;
+        }
+    }
+
+    static final class Token {
+
+        final String text;
+        final int start;
+        final int end;
+
+        Token(String text, int start, int end) {
+            this.text = text;
+            this.start = start;
+            this.end = end;
+        }
+
+        boolean isIdentifier() {
+            char c = text.charAt(0);
+            return Character.isLetter(c) || c == '_';
+        }
+
+        boolean is(char c) {
+            return text.length() == 1 && text.charAt(0) == c;
+        }
+    }
+
+    /**
+     * Configured settings, replaced as a whole when configured again.
+     */
+    private static final class Rules {
+
+        final String mode;
+        final long runId;
+        /**
+         * Names of the tables, in lower case
+         */
+        final Set<String> tables;
+        final String column;
+        final String tableName;
+
+        Rules(String mode, long runId, Set<String> tables, String column, String tableName) {
+            this.mode = mode;
+            this.runId = runId;
+            this.tables = tables;
+            this.column = column;
+            this.tableName = tableName;
+        }
+
+        String getRunTable(String table, long run) {
+            return tableName.replace("%t", table).replace("%r", String.valueOf(run));
+        }
+    }
+}
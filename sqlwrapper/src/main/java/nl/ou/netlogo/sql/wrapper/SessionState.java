@@ -0,0 +1,345 @@
+/*
+ * Copyright 2010, 2011 Open University of The Netherlands
+ * Contributors: Jan Blom, Rene Quakkelaar, Mark Rotteveel
+ *
+ * This file is part of NetLogo SQL Wrapper extension.
+ * 
+ * NetLogo SQL Wrapper extension is free software: you can redistribute it
+ * and/or modify it under the terms of the GNU Lesser General Public License 
+ * as published by the Free Software Foundation, either version 3 of the 
+ * License, or (at your option) any later version.
+ * 
+ * NetLogo SQL Wrapper is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with NetLogo SQL Wrapper extension.  If not, 
+ * see <http://www.gnu.org/licenses/>.
+ */
+package nl.ou.netlogo.sql.wrapper;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+
+/**
+ * Mirror of the session state of a physical connection (autocommit, catalog,
+ * transaction isolation and read-only), so the state can be answered without
+ * asking the driver and only needs to be reset if it was changed.
+ * <p>
+ * State that is not known yet is read from the connection once. Changes must
+ * go through this class; state changed by executing SQL directly (eg a
+ * MySQL <code>USE</code> statement or <code>SET autocommit = 0</code>) must
+ * be reported with {@link #beforeStatement(Connection, String)}, so it is
+ * read from the connection again and restored on reset.
+ * </p>
+ * 
+ * @author NetLogo project-team
+ */
+public class SessionState {
+
+    static final int AUTOCOMMIT = 1;
+    static final int CATALOG = 2;
+    static final int ISOLATION = 4;
+    static final int READ_ONLY = 8;
+
+    private Boolean autoCommit;
+    private String catalog;
+    private boolean catalogKnown;
+    private String initialCatalog;
+    private Integer isolation;
+    private Integer initialIsolation;
+    private Boolean readOnly;
+    private Boolean initialReadOnly;
+    private boolean autoCommitDirty;
+    private boolean catalogDirty;
+    private boolean isolationDirty;
+    private boolean readOnlyDirty;
+
+    /**
+     * Creates a SessionState.
+     * 
+     * @param autoCommit
+     *            Autocommit state of the connection, or null if unknown
+     */
+    public SessionState(Boolean autoCommit) {
+        this.autoCommit = autoCommit;
+    }
+
+    /**
+     * @param conn
+     *            Physical connection
+     * @return Autocommit state
+     * @throws SQLException
+     *             If the state is not known and cannot be read
+     */
+    public boolean getAutoCommit(Connection conn) throws SQLException {
+        if (autoCommit == null) {
+            autoCommit = Boolean.valueOf(conn.getAutoCommit());
+        }
+        return autoCommit.booleanValue();
+    }
+
+    /**
+     * Changes the autocommit state, if it differs from the current state.
+     * 
+     * @param conn
+     *            Physical connection
+     * @param value
+     *            New autocommit state
+     * @throws SQLException
+     */
+    public void setAutoCommit(Connection conn, boolean value) throws SQLException {
+        if (autoCommit == null || autoCommit.booleanValue() != value) {
+            // Unknown (and to be reset) until the driver accepted the change
+            autoCommit = null;
+            autoCommitDirty = true;
+            conn.setAutoCommit(value);
+            autoCommit = Boolean.valueOf(value);
+            autoCommitDirty = !value;
+        }
+    }
+
+    /**
+     * @param conn
+     *            Physical connection
+     * @return Current catalog (can be null)
+     * @throws SQLException
+     *             If the catalog is not known and cannot be read
+     */
+    public String getCatalog(Connection conn) throws SQLException {
+        if (!catalogKnown) {
+            catalog = conn.getCatalog();
+            catalogKnown = true;
+            if (!catalogDirty) {
+                initialCatalog = catalog;
+            }
+        }
+        return catalog;
+    }
+
+    /**
+     * Prepares for a change of catalog, recording the catalog to restore on
+     * {@link #reset(Connection)}.
+     * 
+     * @param conn
+     *            Physical connection
+     * @throws SQLException
+     *             If the catalog is not known and cannot be read
+     */
+    public void beforeCatalogChange(Connection conn) throws SQLException {
+        getCatalog(conn);
+    }
+
+    /**
+     * Records that the catalog was changed; the new catalog is read from the
+     * connection when it is needed.
+     */
+    public void catalogChanged() {
+        catalogKnown = false;
+        catalogDirty = true;
+    }
+
+    /**
+     * Records the state that is changed by a statement executed directly.
+     * The state that may be changed is read from the connection again when it
+     * is needed, and restored on {@link #reset(Connection)}.
+     * 
+     * @param conn
+     *            Physical connection
+     * @param sql
+     *            SQL statement about to be executed
+     * @throws SQLException
+     *             If the state to restore is not known and cannot be read
+     */
+    public void beforeStatement(Connection conn, String sql) throws SQLException {
+        int changed = changedBy(sql);
+        if ((changed & AUTOCOMMIT) != 0) {
+            autoCommit = null;
+            autoCommitDirty = true;
+        }
+        if ((changed & CATALOG) != 0) {
+            beforeCatalogChange(conn);
+            catalogChanged();
+        }
+        if ((changed & ISOLATION) != 0) {
+            getTransactionIsolation(conn);
+            isolation = null;
+            isolationDirty = true;
+        }
+        if ((changed & READ_ONLY) != 0) {
+            isReadOnly(conn);
+            readOnly = null;
+            readOnlyDirty = true;
+        }
+    }
+
+    /**
+     * Determines the session state a statement can change: <code>SET</code>
+     * statements (except for user variables), <code>USE</code>,
+     * <code>START TRANSACTION</code> and <code>BEGIN</code>.
+     * 
+     * @param sql
+     *            SQL statement
+     * @return Combination of {@link #AUTOCOMMIT}, {@link #CATALOG},
+     *         {@link #ISOLATION} and {@link #READ_ONLY}, 0 if the statement
+     *         does not change the session state
+     */
+    static int changedBy(String sql) {
+        int start = 0;
+        while (start < sql.length() && Character.isWhitespace(sql.charAt(start))) {
+            start++;
+        }
+        if (sql.regionMatches(true, start, "USE ", 0, 4)) {
+            return CATALOG;
+        }
+        if (sql.regionMatches(true, start, "BEGIN", 0, 5) || sql.regionMatches(true, start, "START TRANSACTION", 0, 17)) {
+            return AUTOCOMMIT;
+        }
+        if (!sql.regionMatches(true, start, "SET ", 0, 4)) {
+            return 0;
+        }
+        // only the (short) statements that change settings are parsed further
+        String setting = sql.substring(start + 4).trim().toUpperCase();
+        if (setting.startsWith("@") && !setting.startsWith("@@")) {
+            // user variable
+            return 0;
+        }
+        if (setting.indexOf("AUTOCOMMIT") >= 0) {
+            return AUTOCOMMIT;
+        }
+        if (setting.indexOf("TRANSACTION") >= 0 || setting.indexOf("CHARACTERISTICS") >= 0) {
+            return ISOLATION | READ_ONLY;
+        }
+        if (setting.startsWith("SCHEMA") || setting.startsWith("CATALOG") || setting.startsWith("DATABASE")
+                || setting.startsWith("SEARCH_PATH")) {
+            return CATALOG;
+        }
+        // any other setting could change any state
+        return AUTOCOMMIT | CATALOG | ISOLATION | READ_ONLY;
+    }
+
+    /**
+     * @param conn
+     *            Physical connection
+     * @return Transaction isolation level
+     * @throws SQLException
+     *             If the level is not known and cannot be read
+     */
+    public int getTransactionIsolation(Connection conn) throws SQLException {
+        if (isolation == null) {
+            isolation = Integer.valueOf(conn.getTransactionIsolation());
+            if (!isolationDirty) {
+                initialIsolation = isolation;
+            }
+        }
+        return isolation.intValue();
+    }
+
+    /**
+     * Changes the transaction isolation level, if it differs from the current
+     * level.
+     * 
+     * @param conn
+     *            Physical connection
+     * @param level
+     *            New isolation level (one of the
+     *            <code>Connection.TRANSACTION_*</code> constants)
+     * @throws SQLException
+     */
+    public void setTransactionIsolation(Connection conn, int level) throws SQLException {
+        if (getTransactionIsolation(conn) != level) {
+            isolation = null;
+            isolationDirty = true;
+            conn.setTransactionIsolation(level);
+            isolation = Integer.valueOf(level);
+            isolationDirty = level != initialIsolation.intValue();
+        }
+    }
+
+    /**
+     * @param conn
+     *            Physical connection
+     * @return Read-only state
+     * @throws SQLException
+     *             If the state is not known and cannot be read
+     */
+    public boolean isReadOnly(Connection conn) throws SQLException {
+        if (readOnly == null) {
+            readOnly = Boolean.valueOf(conn.isReadOnly());
+            if (!readOnlyDirty) {
+                initialReadOnly = readOnly;
+            }
+        }
+        return readOnly.booleanValue();
+    }
+
+    /**
+     * Changes the read-only state, if it differs from the current state.
+     * 
+     * @param conn
+     *            Physical connection
+     * @param value
+     *            New read-only state
+     * @throws SQLException
+     */
+    public void setReadOnly(Connection conn, boolean value) throws SQLException {
+        if (isReadOnly(conn) != value) {
+            readOnly = null;
+            readOnlyDirty = true;
+            conn.setReadOnly(value);
+            readOnly = Boolean.valueOf(value);
+            readOnlyDirty = value != initialReadOnly.booleanValue();
+        }
+    }
+
+    /**
+     * @return <code>true</code> if the state was changed from the state of a
+     *         connection freshly obtained from a pool: autocommit enabled, and
+     *         the catalog, isolation level and read-only state it had
+     *         initially
+     */
+    public boolean isDirty() {
+        return autoCommitDirty || catalogDirty || isolationDirty || readOnlyDirty;
+    }
+
+    /**
+     * Restores the state of a connection freshly obtained from a pool, issuing
+     * only the calls needed for state that was changed.
+     * 
+     * @param conn
+     *            Physical connection
+     * @throws SQLException
+     *             If the state could not be restored (the connection should
+     *             not be reused)
+     */
+    public void reset(Connection conn) throws SQLException {
+        if (autoCommitDirty) {
+            // Also ends a transaction that is still active, eg one started by
+            // START TRANSACTION while the driver reports autocommit
+            conn.setAutoCommit(true);
+            autoCommit = Boolean.TRUE;
+            autoCommitDirty = false;
+        }
+        if (catalogDirty) {
+            if (initialCatalog == null) {
+                throw new SQLException("Initial catalog unknown, unable to restore it");
+            }
+            conn.setCatalog(initialCatalog);
+            catalog = initialCatalog;
+            catalogKnown = true;
+            catalogDirty = false;
+        }
+        if (isolationDirty) {
+            conn.setTransactionIsolation(initialIsolation.intValue());
+            isolation = initialIsolation;
+            isolationDirty = false;
+        }
+        if (readOnlyDirty) {
+            conn.setReadOnly(initialReadOnly.booleanValue());
+            readOnly = initialReadOnly;
+            readOnlyDirty = false;
+        }
+    }
+}
@@ -0,0 +1,226 @@
+/*
+ * Copyright 2010, 2011 Open University of The Netherlands
+ * Contributors: Jan Blom, Rene Quakkelaar, Mark Rotteveel
+ *
+ * This file is part of NetLogo SQL Wrapper extension.
+ * 
+ * NetLogo SQL Wrapper extension is free software: you can redistribute it
+ * and/or modify it under the terms of the GNU Lesser General Public License 
+ * as published by the Free Software Foundation, either version 3 of the 
+ * License, or (at your option) any later version.
+ * 
+ * NetLogo SQL Wrapper is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with NetLogo SQL Wrapper extension.  If not, 
+ * see <http://www.gnu.org/licenses/>.
+ */
+package nl.ou.netlogo.sql.wrapper;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.nlogo.api.Agent;
+import org.nlogo.api.ExtensionException;
+import org.nlogo.api.LogoList;
+
+/**
+ * Connection of the observer to all shards of a pool. Statements are executed
+ * on every shard (scatter), the rows of queries are combined into one result
+ * set (gather).
+ * <p>
+ * Statements that add rows (<code>INSERT</code> and the like) are rejected:
+ * executed on every shard they would add each row to every shard. Rows are
+ * added by the agents they belong to, which use the connection to their own
+ * shard.
+ * </p>
+ * <p>
+ * Transactions are started, committed and rolled back on every shard, but are
+ * not atomic across the shards.
+ * </p>
+ * 
+ * @author NetLogo project-team
+ */
+public class ShardedConnection extends SqlConnection {
+
+    private static final Logger LOG = SqlLogger.getLogger();
+
+    private final List<SqlConnection> shardConnections;
+    private ShardedStatement statement;
+
+    /**
+     * Creates a ShardedConnection.
+     * 
+     * @param shardConnections
+     *            Pooled connection per shard, in shard order
+     * @param dbInfo
+     *            DatabaseInfo of the pool
+     */
+    protected ShardedConnection(List<SqlConnection> shardConnections, DatabaseInfo dbInfo) {
+        super(null, dbInfo);
+        this.shardConnections = Collections.unmodifiableList(new ArrayList<SqlConnection>(shardConnections));
+    }
+
+    @Override
+    public void close() {
+        LOG.log(Level.FINE, "ShardedConnection.close()");
+        try {
+            for (SqlConnection shardConnection : shardConnections) {
+                shardConnection.close();
+            }
+        } finally {
+            super.close();
+        }
+    }
+
+    @Override
+    public boolean isPooled() {
+        return true;
+    }
+
+    /**
+     * @return <code>true</code> if the connections to all shards are open
+     */
+    @Override
+    public boolean isConnected() {
+        for (SqlConnection shardConnection : shardConnections) {
+            if (!shardConnection.isConnected()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public void closeStatement() {
+        if (statement != null) {
+            statement.close();
+            statement = null;
+        }
+    }
+
+    @Override
+    public SqlResultSet getResultSet() {
+        return statement != null ? statement.getResultSet() : null;
+    }
+
+    @Override
+    public Double getRowCount() {
+        return Double.valueOf(statement != null ? statement.getRowCount() : -1);
+    }
+
+    @Override
+    public SqlStatement createStatement(String sql, LogoList parameters) throws SQLException {
+        LOG.fine("ShardedConnection.createStatement('" + sql + "', " + parameters + ")");
+        if (addsRows(sql)) {
+            throw new SQLException("The observer cannot add rows to a pool with shards: the rows would be added to "
+                    + "every shard. Add the rows from the agents they belong to, so they are stored on their shard");
+        }
+        closeStatement();
+        List<SqlStatement> statements = new ArrayList<SqlStatement>(shardConnections.size());
+        try {
+            for (SqlConnection shardConnection : shardConnections) {
+                statements.add(shardConnection.createStatement(sql, parameters));
+            }
+        } catch (SQLException e) {
+            for (SqlStatement shardStatement : statements) {
+                shardStatement.close();
+            }
+            throw e;
+        }
+        statement = new ShardedStatement(statements, parameters);
+        return statement;
+    }
+
+    /**
+     * Checks if a statement adds rows, which must not be executed on every
+     * shard.
+     * 
+     * @param sql
+     *            SQL statement
+     * @return <code>true</code> for <code>INSERT</code>, <code>REPLACE</code>,
+     *         <code>MERGE</code> and <code>UPSERT</code> statements
+     */
+    static boolean addsRows(String sql) {
+        String statement = sql.trim();
+        return startsWithKeyword(statement, "INSERT") || startsWithKeyword(statement, "REPLACE")
+                || startsWithKeyword(statement, "MERGE") || startsWithKeyword(statement, "UPSERT");
+    }
+
+    private static boolean startsWithKeyword(String statement, String keyword) {
+        return statement.regionMatches(true, 0, keyword, 0, keyword.length())
+                && (statement.length() == keyword.length() || !Character.isLetterOrDigit(statement.charAt(keyword
+                        .length())));
+    }
+
+    @Override
+    protected void setAgent(Agent agent) {
+        super.setAgent(agent);
+        for (SqlConnection shardConnection : shardConnections) {
+            shardConnection.setAgent(agent);
+        }
+    }
+
+    @Override
+    public String currentDatabase() throws DatabaseFeatureNotImplementedException {
+        return shardConnections.get(0).currentDatabase();
+    }
+
+    @Override
+    public void useDatabase(String schemaName) throws DatabaseFeatureNotImplementedException, ExtensionException {
+        throw new ExtensionException(
+                "sql:use-database is only allowed on connections created using sql:connect; this is a connection to the shards of the connection pool");
+    }
+
+    @Override
+    public boolean findDatabase(String schemaName) throws DatabaseFeatureNotImplementedException {
+        return shardConnections.get(0).findDatabase(schemaName);
+    }
+
+    @Override
+    public void refreshMetadata() {
+        for (SqlConnection shardConnection : shardConnections) {
+            shardConnection.refreshMetadata();
+        }
+    }
+
+    @Override
+    public void autoCommitOn() throws ExtensionException {
+        for (SqlConnection shardConnection : shardConnections) {
+            shardConnection.autoCommitOn();
+        }
+    }
+
+    @Override
+    public void autoCommitOff() throws ExtensionException {
+        for (SqlConnection shardConnection : shardConnections) {
+            shardConnection.autoCommitOff();
+        }
+    }
+
+    @Override
+    public boolean autoCommitEnabled() {
+        return shardConnections.get(0).autoCommitEnabled();
+    }
+
+    @Override
+    public void commitTransaction() throws ExtensionException {
+        for (SqlConnection shardConnection : shardConnections) {
+            shardConnection.commitTransaction();
+        }
+    }
+
+    @Override
+    public void rollbackTransaction() throws ExtensionException {
+        for (SqlConnection shardConnection : shardConnections) {
+            shardConnection.rollbackTransaction();
+        }
+    }
+}
@@ -0,0 +1,143 @@
+/*
+ * Copyright 2010, 2011 Open University of The Netherlands
+ * Contributors: Jan Blom, Rene Quakkelaar, Mark Rotteveel
+ *
+ * This file is part of NetLogo SQL Wrapper extension.
+ * 
+ * NetLogo SQL Wrapper extension is free software: you can redistribute it
+ * and/or modify it under the terms of the GNU Lesser General Public License 
+ * as published by the Free Software Foundation, either version 3 of the 
+ * License, or (at your option) any later version.
+ * 
+ * NetLogo SQL Wrapper is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with NetLogo SQL Wrapper extension.  If not, 
+ * see <http://www.gnu.org/licenses/>.
+ */
+package nl.ou.netlogo.sql.wrapper;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.nlogo.api.ExtensionException;
+import org.nlogo.api.LogoList;
+
+/**
+ * Statement executed on all shards of a {@link ShardedConnection}: the rows of
+ * a query are gathered in a {@link GatheredResultSet}, the row counts of an
+ * update are added up.
+ * 
+ * @author NetLogo project-team
+ */
+public class ShardedStatement extends SqlStatement {
+
+    private static final Logger LOG = SqlLogger.getLogger();
+
+    private final List<SqlStatement> statements;
+    private SqlResultSet resultSet;
+    private int rowCount = -1;
+
+    /**
+     * Creates a ShardedStatement.
+     * 
+     * @param statements
+     *            Statement per shard
+     * @param parameters
+     *            Parameters as a NetLogo list (or null or empty list if no
+     *            parameters are needed)
+     */
+    protected ShardedStatement(List<SqlStatement> statements, LogoList parameters) {
+        super(null, parameters, null);
+        this.statements = statements;
+    }
+
+    @Override
+    public boolean executeDirect() throws ExtensionException {
+        LOG.log(Level.FINE, "ShardedStatement.executeDirect() on {0} shards", Integer.valueOf(statements.size()));
+        try {
+            boolean hasResultSet = false;
+            for (SqlStatement statement : statements) {
+                hasResultSet |= statement.executeDirect();
+            }
+            if (hasResultSet) {
+                gatherResultSets();
+            } else {
+                sumRowCounts();
+            }
+            return hasResultSet;
+        } catch (ExtensionException e) {
+            close();
+            throw e;
+        }
+    }
+
+    @Override
+    public void executeQuery() throws ExtensionException {
+        LOG.log(Level.FINE, "ShardedStatement.executeQuery() on {0} shards", Integer.valueOf(statements.size()));
+        try {
+            for (SqlStatement statement : statements) {
+                statement.executeQuery();
+            }
+            gatherResultSets();
+        } catch (ExtensionException e) {
+            close();
+            throw e;
+        }
+    }
+
+    @Override
+    public void executeUpdate() throws ExtensionException {
+        LOG.log(Level.FINE, "ShardedStatement.executeUpdate() on {0} shards", Integer.valueOf(statements.size()));
+        try {
+            for (SqlStatement statement : statements) {
+                statement.executeUpdate();
+            }
+            sumRowCounts();
+        } catch (ExtensionException e) {
+            close();
+            throw e;
+        }
+    }
+
+    private void gatherResultSets() {
+        List<SqlResultSet> parts = new ArrayList<SqlResultSet>(statements.size());
+        for (SqlStatement statement : statements) {
+            if (statement.getResultSet() != null) {
+                parts.add(statement.getResultSet());
+            }
+        }
+        resultSet = new GatheredResultSet(parts);
+    }
+
+    private void sumRowCounts() {
+        rowCount = 0;
+        for (SqlStatement statement : statements) {
+            rowCount += Math.max(statement.getRowCount(), 0);
+        }
+    }
+
+    @Override
+    public void close() {
+        LOG.log(Level.FINE, "ShardedStatement.close()");
+        for (SqlStatement statement : statements) {
+            statement.close();
+        }
+        resultSet = null;
+    }
+
+    @Override
+    public SqlResultSet getResultSet() {
+        return resultSet;
+    }
+
+    @Override
+    public int getRowCount() {
+        return rowCount;
+    }
+}
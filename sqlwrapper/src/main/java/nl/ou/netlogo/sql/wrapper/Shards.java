@@ -0,0 +1,178 @@
+/*
+ * Copyright 2010, 2011 Open University of The Netherlands
+ * Contributors: Jan Blom, Rene Quakkelaar, Mark Rotteveel
+ *
+ * This file is part of NetLogo SQL Wrapper extension.
+ * 
+ * NetLogo SQL Wrapper extension is free software: you can redistribute it
+ * and/or modify it under the terms of the GNU Lesser General Public License 
+ * as published by the Free Software Foundation, either version 3 of the 
+ * License, or (at your option) any later version.
+ * 
+ * NetLogo SQL Wrapper is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with NetLogo SQL Wrapper extension.  If not, 
+ * see <http://www.gnu.org/licenses/>.
+ */
+package nl.ou.netlogo.sql.wrapper;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import org.nlogo.api.ExtensionException;
+
+/**
+ * The additional shards of a pool, with a connection pool per shard.
+ * <p>
+ * The database of the pool itself is shard 0, the shards configured with the
+ * "shards" option are shard 1 and up. Every agent is assigned to a shard by a
+ * stable hash of its shard key: the key set with <code>sql:set-shard-key</code>
+ * or otherwise its who number, so an agent always uses the same shard, in
+ * every run of the model.
+ * </p>
+ * 
+ * @author NetLogo project-team
+ */
+public class Shards {
+
+    private final List<PooledDatabase> shards;
+
+    /**
+     * Creates the shards, obtaining a connection pool for every shard from the
+     * {@link ConnectionPoolRegistry}.
+     * 
+     * @param shardInfos
+     *            Databases of the shards (excluding the database of the pool
+     *            itself)
+     * @param poolSettings
+     *            Settings of the connection pools
+     * @param prefill
+     *            <code>true</code> to prefill the connection pools
+     * @throws ExtensionException
+     *             If a pool cannot be created
+     */
+    public Shards(List<DatabaseInfo> shardInfos, ConnectionPoolSettings poolSettings, boolean prefill)
+            throws ExtensionException {
+        List<PooledDatabase> newShards = new ArrayList<PooledDatabase>(shardInfos.size());
+        try {
+            for (DatabaseInfo shardInfo : shardInfos) {
+                newShards.add(new PooledDatabase(shardInfo, ConnectionPoolRegistry.acquire(shardInfo, poolSettings,
+                        prefill)));
+            }
+        } catch (ExtensionException e) {
+            for (PooledDatabase shard : newShards) {
+                ConnectionPoolRegistry.release(shard.getConnectionPool(), 0);
+            }
+            throw e;
+        }
+        shards = Collections.unmodifiableList(newShards);
+    }
+
+    /**
+     * @return Number of shards, including the database of the pool itself
+     */
+    public int getCount() {
+        return shards.size() + 1;
+    }
+
+    /**
+     * Returns a shard.
+     * 
+     * @param index
+     *            Index of the shard (1 up to {@link #getCount()})
+     * @return Shard
+     */
+    public PooledDatabase getShard(int index) {
+        return shards.get(index - 1);
+    }
+
+    /**
+     * Checks if these shards connect to the specified databases, in the same
+     * order, with the specified pool settings.
+     * 
+     * @param shardInfos
+     *            Databases of the shards
+     * @param poolSettings
+     *            Settings of the connection pools
+     * @return <code>true</code> if the shards can be kept
+     */
+    public boolean isSame(List<DatabaseInfo> shardInfos, ConnectionPoolSettings poolSettings) {
+        if (shardInfos.size() != shards.size()) {
+            return false;
+        }
+        for (int idx = 0; idx < shards.size(); idx++) {
+            ConnectionPool pool = shards.get(idx).getConnectionPool();
+            if (!pool.isSameDatabase(shardInfos.get(idx)) || !pool.getSettings().equals(poolSettings)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Determines the shard for a shard key.
+     * 
+     * @param key
+     *            Shard key: a number (eg the who number of a turtle) or a
+     *            string
+     * @return Index of the shard (0 up to {@link #getCount()})
+     */
+    public int shardOf(Object key) {
+        return shardOf(key, getCount());
+    }
+
+    /**
+     * Determines the shard for a shard key. The hash does not depend on the
+     * JVM, so the same key is assigned to the same shard in every run.
+     * 
+     * @param key
+     *            Shard key: a number (eg the who number of a turtle) or a
+     *            string
+     * @param count
+     *            Number of shards
+     * @return Index of the shard (0 up to count)
+     */
+    static int shardOf(Object key, int count) {
+        long hash;
+        if (key instanceof Number) {
+            hash = ((Number) key).longValue();
+        } else {
+            hash = String.valueOf(key).hashCode();
+        }
+        // Spread consecutive who numbers over the shards (finalizer of MurmurHash3)
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return (int) ((hash & Long.MAX_VALUE) % count);
+    }
+
+    /**
+     * Releases the connection pools of the shards.
+     * 
+     * @param gracePeriod
+     *            Time in seconds the pools remain open for reuse
+     */
+    public void release(long gracePeriod) {
+        for (PooledDatabase shard : shards) {
+            ConnectionPoolRegistry.release(shard.getConnectionPool(), gracePeriod);
+        }
+    }
+
+    /**
+     * Adds the statistics of the shards to the statistics of the pool.
+     * 
+     * @param stats
+     *            Statistics of the pool
+     */
+    public void addStatistics(Map<String, Object> stats) {
+        stats.put("shards", Double.valueOf(getCount()));
+    }
+}
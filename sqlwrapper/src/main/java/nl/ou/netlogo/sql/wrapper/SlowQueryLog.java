@@ -0,0 +1,353 @@
+/*
+ * Copyright 2010, 2011 Open University of The Netherlands
+ * Contributors: Jan Blom, Rene Quakkelaar, Mark Rotteveel
+ *
+ * This file is part of NetLogo SQL Wrapper extension.
+ * 
+ * NetLogo SQL Wrapper extension is free software: you can redistribute it
+ * and/or modify it under the terms of the GNU Lesser General Public License 
+ * as published by the Free Software Foundation, either version 3 of the 
+ * License, or (at your option) any later version.
+ * 
+ * NetLogo SQL Wrapper is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with NetLogo SQL Wrapper extension.  If not, 
+ * see <http://www.gnu.org/licenses/>.
+ */
+package nl.ou.netlogo.sql.wrapper;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.Properties;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.nlogo.api.Agent;
+import org.nlogo.api.Context;
+import org.nlogo.api.LogoList;
+
+/**
+ * Log of the statements that took longer than a threshold, with their
+ * parameters, agent, tick, duration and number of rows.
+ * <p>
+ * Entries are written on a background thread, so agents do not wait for the
+ * log file. Optionally the execution plan of a slow statement is obtained
+ * using the <code>EXPLAIN</code> statement of the database (see
+ * {@link DatabaseSupport#getExplainSql(String)}), on a connection of its own.
+ * When more than {@link #QUEUE_SIZE} entries wait to be written, further
+ * entries are dropped.
+ * </p>
+ * 
+ * @author NetLogo project-team
+ */
+public class SlowQueryLog implements SqlConfigurable {
+
+    private static final Logger LOG = SqlLogger.getLogger();
+
+    /**
+     * Maximum number of entries waiting to be written.
+     */
+    public static final int QUEUE_SIZE = 100;
+
+    private static final String[] EXPLAINABLE_PREFIXES = { "select", "insert", "update", "delete", "with" };
+
+    /**
+     * Threshold in nanoseconds, negative if the log is disabled
+     */
+    private volatile long thresholdNanos = -1;
+    private volatile String path;
+    private volatile boolean explain;
+    private final AtomicLong dropped = new AtomicLong();
+    private ThreadPoolExecutor writer;
+
+    /**
+     * @return <code>true</code> if slow statements are logged
+     */
+    public boolean isEnabled() {
+        return thresholdNanos >= 0;
+    }
+
+    /**
+     * Checks if an execution took longer than the threshold.
+     * 
+     * @param nanos
+     *            Duration of the execution in nanoseconds
+     * @return <code>true</code> if the execution must be logged
+     */
+    public boolean isSlow(long nanos) {
+        long threshold = thresholdNanos;
+        return threshold >= 0 && nanos >= threshold;
+    }
+
+    /**
+     * @return Number of entries dropped because too many entries waited to be
+     *         written, since the last entry was written
+     */
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    /**
+     * Queues a slow statement to be written to the log.
+     * 
+     * @param query
+     *            Slow statement
+     * @param rows
+     *            Number of rows fetched or updated (-1 if unknown)
+     */
+    public void record(final SlowQuery query, final long rows) {
+        final String logPath = path;
+        final boolean withExplain = explain;
+        ThreadPoolExecutor currentWriter = getWriter();
+        try {
+            currentWriter.execute(new Runnable() {
+                public void run() {
+                    write(logPath, query, rows, withExplain ? explain(query) : null);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            dropped.incrementAndGet();
+        }
+    }
+
+    /**
+     * Writes the queued entries and stops the background thread.
+     */
+    public void close() {
+        ThreadPoolExecutor currentWriter;
+        synchronized (this) {
+            currentWriter = writer;
+            writer = null;
+        }
+        if (currentWriter != null) {
+            currentWriter.shutdown();
+            try {
+                currentWriter.awaitTermination(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see {@link
+     * nl.ou.netlogo.sql.wrapper.SqlConfigurable#configure(nl.ou.netlogo
+     * .sql.wrapper.SqlSetting, org.nlogo.api.Context)}
+     */
+    public void configure(SqlSetting settings, Context context) throws Exception {
+        if (!settings.getName().equals(SqlConfiguration.SLOWQUERY) || !settings.isValid()) {
+            return;
+        }
+        long threshold = settings.getLong(SqlConfiguration.SLOWQUERY_OPT_THRESHOLD);
+        String logPath = settings.getString(SqlConfiguration.SLOWQUERY_OPT_PATH);
+        if (logPath.startsWith("%t")) {
+            logPath = System.getProperty("java.io.tmpdir") + logPath.substring(2);
+        } else {
+            logPath = SqlLogger.parseLogPath(logPath, context);
+        }
+        path = logPath;
+        explain = SqlSetting.toggleValue(settings.getString(SqlConfiguration.SLOWQUERY_OPT_EXPLAIN));
+        thresholdNanos = threshold > 0 ? threshold * 1000000 : -1;
+        LOG.log(Level.FINE, "Configured slow query log: threshold {0} ms, path {1}, explain {2}", new Object[] {
+                Long.valueOf(threshold), path, Boolean.valueOf(explain) });
+    }
+
+    private synchronized ThreadPoolExecutor getWriter() {
+        if (writer == null) {
+            writer = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<Runnable>(
+                    QUEUE_SIZE), new ThreadFactory() {
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "sqlwrapper-slowquery-writer");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        return writer;
+    }
+
+    private void write(String logPath, SlowQuery query, long rows, String plan) {
+        try {
+            PrintWriter out = new PrintWriter(new FileWriter(new File(logPath), true));
+            try {
+                long droppedEntries = dropped.getAndSet(0);
+                if (droppedEntries > 0) {
+                    out.println("# " + droppedEntries + " slow statements not logged, too many waiting");
+                }
+                out.println(query.format(rows));
+                if (plan != null) {
+                    out.println(plan);
+                }
+            } finally {
+                out.close();
+            }
+        } catch (IOException e) {
+            LOG.log(Level.WARNING, "Unable to write slow query log " + logPath, e);
+        }
+    }
+
+    /**
+     * Obtains the execution plan of a statement, on a connection of its own.
+     * 
+     * @param query
+     *            Slow statement
+     * @return Execution plan, or null if the database or statement has no
+     *         EXPLAIN
+     */
+    private String explain(SlowQuery query) {
+        DatabaseInfo dbInfo = query.dbInfo;
+        String explainSql = dbInfo == null || !isExplainable(query.sql) ? null : DatabaseSupport.forBrandName(
+                dbInfo.getBrandName()).getExplainSql(query.sql);
+        if (explainSql == null) {
+            return null;
+        }
+        StringBuilder plan = new StringBuilder();
+        try {
+            Properties info = new Properties();
+            if (dbInfo.getUser() != null) {
+                info.put("user", dbInfo.getUser());
+            }
+            if (dbInfo.getPassword() != null) {
+                info.put("password", dbInfo.getPassword());
+            }
+            Connection conn = SqlConnectionManager.getDriver(dbInfo).connect(dbInfo.getJdbcUrl(), info);
+            if (conn == null) {
+                return "  EXPLAIN failed: no driver for " + dbInfo.getJdbcUrl();
+            }
+            try {
+                // Never change data while explaining
+                conn.setReadOnly(true);
+                conn.setAutoCommit(false);
+                PreparedStatement stmt = conn.prepareStatement(explainSql);
+                try {
+                    if (query.parameters != null) {
+                        for (int idx = 0; idx < query.parameters.size(); idx++) {
+                            stmt.setObject(idx + 1, query.parameters.get(idx));
+                        }
+                    }
+                    ResultSet rs = stmt.executeQuery();
+                    ResultSetMetaData metaData = rs.getMetaData();
+                    while (rs.next()) {
+                        plan.append("  EXPLAIN:");
+                        for (int col = 1; col <= metaData.getColumnCount(); col++) {
+                            // Some databases return the plan as multi-line text
+                            String value = rs.getString(col);
+                            plan.append(col == 1 ? " " : " | ").append(
+                                    value == null ? null : value.replaceAll("\\s+", " ").trim());
+                        }
+                        plan.append('\n');
+                    }
+                } finally {
+                    stmt.close();
+                }
+            } finally {
+                try {
+                    conn.rollback();
+                } finally {
+                    conn.close();
+                }
+            }
+        } catch (Exception e) {
+            return "  EXPLAIN failed: " + e;
+        }
+        return plan.length() == 0 ? null : plan.substring(0, plan.length() - 1);
+    }
+
+    private static boolean isExplainable(String sql) {
+        String trimmed = sql.trim();
+        for (String prefix : EXPLAINABLE_PREFIXES) {
+            if (trimmed.regionMatches(true, 0, prefix, 0, prefix.length())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Execution of a statement that took longer than the threshold.
+     */
+    public static class SlowQuery {
+
+        private final long executedAt = System.currentTimeMillis();
+        private final String sql;
+        private final LogoList parameters;
+        private final String agent;
+        private final double tick;
+        private final long nanos;
+        private final DatabaseInfo dbInfo;
+
+        /**
+         * Creates a SlowQuery.
+         * 
+         * @param sql
+         *            SQL text of the statement
+         * @param parameters
+         *            Parameters of the statement (can be null)
+         * @param agent
+         *            Agent that executed the statement (can be null)
+         * @param nanos
+         *            Duration of the execution in nanoseconds
+         * @param dbInfo
+         *            Database the statement was executed on (can be null)
+         */
+        public SlowQuery(String sql, LogoList parameters, Agent agent, long nanos, DatabaseInfo dbInfo) {
+            this.sql = sql;
+            this.parameters = parameters;
+            this.agent = agent == null ? "unknown" : agent.toString();
+            this.tick = getTicks(agent);
+            this.nanos = nanos;
+            this.dbInfo = dbInfo;
+        }
+
+        /**
+         * @return Duration of the execution in milliseconds
+         */
+        public double getMillis() {
+            return nanos / 1000000.0;
+        }
+
+        /**
+         * Formats the entry as a single line.
+         * 
+         * @param rows
+         *            Number of rows fetched or updated (-1 if unknown)
+         * @return Line for the log
+         */
+        String format(long rows) {
+            return new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS", Locale.ENGLISH).format(new Date(executedAt))
+                    + " duration-ms=" + String.format(Locale.ENGLISH, "%.3f", getMillis()) + " rows=" + rows
+                    + " agent=" + agent + " tick=" + tick + " sql=" + sql.replaceAll("\\s+", " ").trim()
+                    + " parameters=" + (parameters == null ? "[]" : parameters.toString());
+        }
+
+        static double getTicks(Agent agent) {
+            try {
+                return agent == null ? -1 : agent.world().ticks();
+            } catch (RuntimeException e) {
+                // world not available (eg in tests)
+                return -1;
+            }
+        }
+    }
+}
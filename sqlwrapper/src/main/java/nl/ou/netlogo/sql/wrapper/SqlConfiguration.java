@@ -50,6 +50,15 @@ public class SqlConfiguration {
     public static final String CONNECTIONPOOL = "connectionpool";
     public static final String LOGGING = "logging";
     public static final String EXPLICITCONNECTION = "explicit-connection";
+    public static final String CIRCUITBREAKER = "circuitbreaker";
+    public static final String STATISTICS = "statistics";
+    public static final String SLOWQUERY = "slowquery";
+    public static final String REPLAY = "replay";
+    public static final String RUNPARTITION = "runpartition";
+    /**
+     * Prefix of the aspects for named pools ("pool:name")
+     */
+    public static final String NAMEDPOOL_PREFIX = "pool:";
 
     //
     // configurable options for above aspects, the strings are options for the
@@ -64,13 +73,46 @@ public class SqlConfiguration {
     public static final String DEFAULTCONNECTION_OPT_AUTODISCONNECT = "autodisconnect";
     public static final String DEFAULTCONNECTION_OPT_DRIVER_CLASSNAME = "driver";
     public static final String DEFAULTCONNECTION_OPT_JDBC_URL = "jdbc-url";
+    public static final String DEFAULTCONNECTION_OPT_REPLICAS = "replicas";
+    public static final String DEFAULTCONNECTION_OPT_READROUTING = "read-routing";
+    public static final String DEFAULTCONNECTION_OPT_READYOURWRITES = "read-your-writes";
+    public static final String DEFAULTCONNECTION_OPT_MAXREPLICALAG = "max-replica-lag";
+    public static final String DEFAULTCONNECTION_OPT_SHARDS = "shards";
+    public static final String DEFAULTCONNECTION_OPT_METADATATTL = "metadata-ttl";
+    public static final String DEFAULTCONNECTION_OPT_MODE = "mode";
+    public static final String DEFAULTCONNECTION_OPT_PATH = "path";
+    public static final String EXPLICITCONNECTION_OPT_POOLED = "pooled";
+    public static final String EXPLICITCONNECTION_OPT_MAXCONNECTIONS = "max-connections";
+    public static final String EXPLICITCONNECTION_OPT_TIMEOUT = "timeout";
     public static final String CONNECTIONPOOL_OPT_PARTITIONS = "partitions";
     public static final String CONNECTIONPOOL_OPT_MAXCONNECTIONS = "max-connections";
     public static final String CONNECTIONPOOL_OPT_TIMEOUT = "timeout";
+    public static final String CONNECTIONPOOL_OPT_MINCONNECTIONS = "min-connections";
+    public static final String CONNECTIONPOOL_OPT_IDLETIMEOUT = "idle-timeout";
+    public static final String CONNECTIONPOOL_OPT_PREFILL = "prefill";
+    public static final String CONNECTIONPOOL_OPT_GRACEPERIOD = "grace-period";
+    public static final String CONNECTIONPOOL_OPT_KEEPALIVE = "keepalive";
+    public static final String CIRCUITBREAKER_OPT_FAILURES = "failure-threshold";
+    public static final String CIRCUITBREAKER_OPT_COOLDOWN = "cool-down";
+    public static final String STATISTICS_OPT_ENABLED = "enabled";
+    public static final String STATISTICS_OPT_CSVPATH = "csv-path";
+    public static final String SLOWQUERY_OPT_THRESHOLD = "threshold";
+    public static final String SLOWQUERY_OPT_PATH = "path";
+    public static final String SLOWQUERY_OPT_EXPLAIN = "explain";
+    public static final String REPLAY_OPT_MODE = "mode";
+    public static final String REPLAY_OPT_PATH = "path";
+    public static final String RUNPARTITION_OPT_MODE = "mode";
+    public static final String RUNPARTITION_OPT_RUNID = "run-id";
+    public static final String RUNPARTITION_OPT_TABLES = "tables";
+    public static final String RUNPARTITION_OPT_COLUMN = "column";
+    public static final String RUNPARTITION_OPT_TABLENAME = "table-name";
     public static final String LOGGING_OPT_PATH = "path";
     public static final String LOGGING_OPT_LOGGING = "file-logging";
     public static final String LOGGING_OPT_LEVEL = "level";
     public static final String LOGGING_OPT_COPYTOSTDERR = "copy-to-stderr";
+    public static final String LOGGING_OPT_ASYNC = "async";
+    public static final String LOGGING_OPT_QUEUESIZE = "queue-size";
+    public static final String LOGGING_OPT_OVERFLOW = "overflow";
 
     /**
      * available contains all available aspects
@@ -89,6 +131,12 @@ public class SqlConfiguration {
      */
     private Map<String, Set<SqlConfigurable>> configurables = new HashMap<String, Set<SqlConfigurable>>();
 
+    /**
+     * Options with their defaults for named pools, the aspect for a named pool
+     * is made available when it is configured for the first time
+     */
+    private String[][] namedPoolSettings;
+
     /**
      * Default constructor, initializes all available aspects and options
      */
@@ -110,12 +158,21 @@ public class SqlConfiguration {
                 { DEFAULTCONNECTION_OPT_JDBC_URL, SqlSetting.DEFAULT_UNSET },
                 { DEFAULTCONNECTION_OPT_DRIVER_CLASSNAME, SqlSetting.DEFAULT_UNSET },
                 { DEFAULTCONNECTION_OPT_AUTODISCONNECT, "on" },
+                { DEFAULTCONNECTION_OPT_REPLICAS, SqlSetting.DEFAULT_UNSET },
+                { DEFAULTCONNECTION_OPT_READROUTING, "round-robin" },
+                { DEFAULTCONNECTION_OPT_READYOURWRITES, "0" },
+                { DEFAULTCONNECTION_OPT_MAXREPLICALAG, "0" },
+                { DEFAULTCONNECTION_OPT_SHARDS, SqlSetting.DEFAULT_UNSET },
+                { DEFAULTCONNECTION_OPT_METADATATTL, "60" },
+                { DEFAULTCONNECTION_OPT_MODE, EmbeddedDatabase.MODE_FILE },
+                { DEFAULTCONNECTION_OPT_PATH, "%m" },
         };
         //
         // connectSettings is used for explicit connections done
         // through the sql:connect command. This set is then used to validate
         // the arguments for the sql:command. For ease of use and consistency,
-        // this set should be a subset of defaultConnectionSettings
+        // this set should be a subset of defaultConnectionSettings, apart from
+        // the options for pooling of explicit connections
         //
         String[][] connectSettings = {
         		{ DEFAULTCONNECTION_OPT_BRAND, "MySql" },
@@ -126,29 +183,75 @@ public class SqlConfiguration {
                 { DEFAULTCONNECTION_OPT_PASSWORD, SqlSetting.DEFAULT_INVALID },
                 { DEFAULTCONNECTION_OPT_JDBC_URL, SqlSetting.DEFAULT_UNSET },
                 { DEFAULTCONNECTION_OPT_DRIVER_CLASSNAME, SqlSetting.DEFAULT_UNSET },
+                { DEFAULTCONNECTION_OPT_METADATATTL, "60" },
+                { DEFAULTCONNECTION_OPT_MODE, EmbeddedDatabase.MODE_FILE },
+                { DEFAULTCONNECTION_OPT_PATH, "%m" },
+                { EXPLICITCONNECTION_OPT_POOLED, "on" },
+                { EXPLICITCONNECTION_OPT_MAXCONNECTIONS, "100" },
+                { EXPLICITCONNECTION_OPT_TIMEOUT, "5" },
         };
         String[][] connectionPoolSettings = { 
         		{ CONNECTIONPOOL_OPT_PARTITIONS, "1" },
                 { CONNECTIONPOOL_OPT_MAXCONNECTIONS, "20" },
                 { CONNECTIONPOOL_OPT_TIMEOUT, "5" },
+                { CONNECTIONPOOL_OPT_MINCONNECTIONS, "0" },
+                { CONNECTIONPOOL_OPT_IDLETIMEOUT, "5" },
+                { CONNECTIONPOOL_OPT_PREFILL, "off" },
+                { CONNECTIONPOOL_OPT_GRACEPERIOD, "60" },
+                { CONNECTIONPOOL_OPT_KEEPALIVE, "1" },
+        };
+        String[][] circuitBreakerSettings = {
+                { CIRCUITBREAKER_OPT_FAILURES, "5" },
+                { CIRCUITBREAKER_OPT_COOLDOWN, "30" },
+        };
+        String[][] statisticsSettings = {
+                { STATISTICS_OPT_ENABLED, "on" },
+                { STATISTICS_OPT_CSVPATH, "" },
+        };
+        String[][] slowQuerySettings = {
+                { SLOWQUERY_OPT_THRESHOLD, "0" },
+                { SLOWQUERY_OPT_PATH, "%t/sqlwrapper-slow.log" },
+                { SLOWQUERY_OPT_EXPLAIN, "off" },
+        };
+        String[][] replaySettings = {
+                { REPLAY_OPT_MODE, ReplayLog.MODE_OFF },
+                { REPLAY_OPT_PATH, "%m/sqlwrapper-replay.dat" },
+        };
+        String[][] runPartitionSettings = {
+                { RUNPARTITION_OPT_MODE, RunPartitioning.MODE_OFF },
+                { RUNPARTITION_OPT_RUNID, "0" },
+                { RUNPARTITION_OPT_TABLES, "" },
+                { RUNPARTITION_OPT_COLUMN, "run" },
+                { RUNPARTITION_OPT_TABLENAME, "%t_run%r" },
         };
-        /*
-         * NB: the FileHandler for logging is disfunctional for reasons so far
-         * unknown/not understood if you need logging, turn COPYTOSTDERR on.
-         * Switching on the FileHandler does not actually send any logging to a
-         * file
-         */
         String[][] loggingSettings = {
         		{ LOGGING_OPT_PATH, "%t" },
         		{ LOGGING_OPT_LOGGING, "off" },
                 { LOGGING_OPT_LEVEL, "ALL" },
                 { LOGGING_OPT_COPYTOSTDERR, "off" },
+                { LOGGING_OPT_ASYNC, "on" },
+                { LOGGING_OPT_QUEUESIZE, "1024" },
+                { LOGGING_OPT_OVERFLOW, "drop" },
         };
+        //
+        // namedPoolSettings is used for the named pools ("pool:name"), which
+        // combine the settings of the default connection and the connection
+        // pool
+        //
+        namedPoolSettings = new String[defaultConnectionSettings.length + connectionPoolSettings.length][];
+        System.arraycopy(defaultConnectionSettings, 0, namedPoolSettings, 0, defaultConnectionSettings.length);
+        System.arraycopy(connectionPoolSettings, 0, namedPoolSettings, defaultConnectionSettings.length,
+                connectionPoolSettings.length);
         try {
             addAvailable(DEFAULTCONNECTION, defaultConnectionSettings);
             addAvailable(CONNECTIONPOOL, connectionPoolSettings);
             addAvailable(LOGGING, loggingSettings);
             addAvailable(EXPLICITCONNECTION, connectSettings);
+            addAvailable(CIRCUITBREAKER, circuitBreakerSettings);
+            addAvailable(STATISTICS, statisticsSettings);
+            addAvailable(SLOWQUERY, slowQuerySettings);
+            addAvailable(REPLAY, replaySettings);
+            addAvailable(RUNPARTITION, runPartitionSettings);
         } catch (Exception ex) {
             // ignore, for now. should log error at least
             System.err.println("SqlConfiguration: broke in constructor\n");
@@ -176,8 +279,23 @@ public class SqlConfiguration {
         }
     }
 
+    /**
+     * Checks if an aspect is the aspect of a named pool.
+     * 
+     * @param name
+     *            name of aspect
+     * @return <code>true</code> if the aspect is "pool:" followed by a name
+     */
+    public static boolean isNamedPool(String name) {
+        return name.startsWith(NAMEDPOOL_PREFIX) && name.length() > NAMEDPOOL_PREFIX.length();
+    }
+
     /**
      * Implementation of the sql:configure command
+     * <p>
+     * Use {@link #NAMEDPOOL_PREFIX} as name to register a configurable for all
+     * named pools.
+     * </p>
      * 
      * @param name
      *            aspect to configure
@@ -189,7 +307,13 @@ public class SqlConfiguration {
      */
     public void addConfigurable(String name, SqlConfigurable configurable) throws ExtensionException {
         SqlLogger.getLogger().fine("Adding configuration for '" + name + "'");
-        if (available.containsKey(name)) {
+        if (name.equals(NAMEDPOOL_PREFIX)) {
+            // Named pools are configured when they are configured for the first time
+            if (!configurables.containsKey(name)) {
+                configurables.put(name, new HashSet<SqlConfigurable>());
+            }
+            configurables.get(name).add(configurable);
+        } else if (available.containsKey(name)) {
             if (!configurables.containsKey(name)) {
                 configurables.put(name, new HashSet<SqlConfigurable>());
             }
@@ -232,6 +356,12 @@ public class SqlConfiguration {
      */
     public void setConfiguration(String name, Map<String, String> keyValuePairs, Context context)
             throws ExtensionException {
+        if (isNamedPool(name) && !available.containsKey(name)) {
+            addAvailable(name, namedPoolSettings);
+            if (configurables.containsKey(NAMEDPOOL_PREFIX)) {
+                configurables.put(name, configurables.get(NAMEDPOOL_PREFIX));
+            }
+        }
         SqlSetting availableSetting = available.get(name);
         SqlSetting configuredSetting;
         if (availableSetting != null && availableSetting.isVisible()) {
@@ -29,11 +29,10 @@ import java.util.List;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import org.nlogo.api.Agent;
 import org.nlogo.api.ExtensionException;
 import org.nlogo.api.LogoList;
 
-import com.jolbox.bonecp.ConnectionHandle;
-
 /**
  * Connection object for the plugin.
  * 
@@ -45,7 +44,18 @@ public class SqlConnection implements EventObservable<SqlConnection.ConnectionEv
 
     private DatabaseInfo dbInfo;
     private Connection connection;
+    private final ConnectionPool connectionPool;
+    private final Origin origin;
+    private final long checkoutTime = System.nanoTime();
+    private final SessionState session;
     private SqlStatement statement;
+    private StatementStatistics statementStatistics;
+    private SlowQueryLog slowQueryLog;
+    private TraceRecorder traceRecorder;
+    private ReplayLog replayLog;
+    private RunPartitioning runPartitioning;
+    private Agent agent;
+    private volatile long lastUsed = System.currentTimeMillis();
     private List<EventObserver<ConnectionEvent>> connectionObservers = Collections
             .synchronizedList(new ArrayList<EventObserver<ConnectionEvent>>());
     protected final AutodisconnectCoordinator autodisconnectCoordinator = new AutodisconnectCoordinator();
@@ -60,8 +70,46 @@ public class SqlConnection implements EventObservable<SqlConnection.ConnectionEv
      *            DatabaseInfo
      */
     protected SqlConnection(Connection conn, DatabaseInfo dbInfo) {
+        this(conn, dbInfo, null, Origin.EXPLICIT);
+    }
+
+    /**
+     * Creates an SqlConnection for the given pooled database Connection and
+     * DatabaseInfo.
+     * 
+     * @param conn
+     *            Database Connection
+     * @param dbInfo
+     *            DatabaseInfo
+     * @param connectionPool
+     *            ConnectionPool the connection was obtained from (null for
+     *            unpooled connections)
+     */
+    protected SqlConnection(Connection conn, DatabaseInfo dbInfo, ConnectionPool connectionPool) {
+        this(conn, dbInfo, connectionPool, connectionPool != null ? Origin.POOL : Origin.EXPLICIT);
+    }
+
+    /**
+     * Creates an SqlConnection for the given pooled database Connection and
+     * DatabaseInfo.
+     * 
+     * @param conn
+     *            Database Connection
+     * @param dbInfo
+     *            DatabaseInfo
+     * @param connectionPool
+     *            ConnectionPool the connection was obtained from (null for
+     *            unpooled connections)
+     * @param origin
+     *            How the connection was created
+     */
+    protected SqlConnection(Connection conn, DatabaseInfo dbInfo, ConnectionPool connectionPool, Origin origin) {
         this.connection = conn;
         this.dbInfo = dbInfo;
+        this.connectionPool = connectionPool;
+        this.origin = origin;
+        // Pooled connections are handed out with autocommit enabled
+        this.session = new SessionState(connectionPool != null ? Boolean.TRUE : null);
     }
 
     /**
@@ -97,16 +145,31 @@ public class SqlConnection implements EventObservable<SqlConnection.ConnectionEv
     }
 
     /**
-     * Closes the physical connection to the database.
+     * Closes the physical connection to the database. For a pooled connection
+     * this restores the session state changed by the agent, returns the
+     * connection to the pool and records the end of the lease with the pool.
+     * A connection whose state could not be restored is destroyed.
      */
     protected void closePhysicalConnection() {
         if (connection != null) {
             try {
+                if (connectionPool != null && session.isDirty()) {
+                    try {
+                        session.reset(connection);
+                    } catch (SQLException e) {
+                        LOG.log(Level.WARNING, "Unable to reset session state, discarding connection", e);
+                        connectionPool.discard(connection);
+                        return;
+                    }
+                }
                 connection.close();
             } catch (SQLException e) {
                 LOG.log(Level.FINE, "Closing connection failed (ignored)", e);
             } finally {
                 connection = null;
+                if (connectionPool != null) {
+                    connectionPool.checkin(System.nanoTime() - checkoutTime);
+                }
             }
         }
     }
@@ -121,23 +184,68 @@ public class SqlConnection implements EventObservable<SqlConnection.ConnectionEv
         return connection;
     }
 
+    /**
+     * @return Database of the connection
+     */
+    protected DatabaseInfo getDatabaseInfo() {
+        return dbInfo;
+    }
+
+    /**
+     * @return <code>true</code> if the connection was obtained from the
+     *         connection pool for the automatic connection management
+     *         (connections created using sql:connect are not, even if their
+     *         physical connection is pooled)
+     */
+    public boolean isPooled() {
+        return origin != Origin.EXPLICIT;
+    }
+
+    /**
+     * @return <code>true</code> if the connection is to a read replica
+     */
+    public boolean isReplica() {
+        return origin == Origin.REPLICA;
+    }
+
     /**
      * Method used to indicate we have an active connection. We assume the
-     * connection itself is healthy when initialized.
+     * connection itself is healthy when initialized; the physical connection
+     * is only closed through this SqlConnection, so the driver is not asked.
      * 
      * @return true or false
      */
     public boolean isConnected() {
         LOG.log(Level.FINE, "SqlConnection.isConnected()");
-        if (connection != null) {
-            try {
-                return !connection.isClosed();
-            } catch (SQLException e) {
-                return false;
-            }
-        } else {
+        return connection != null;
+    }
+
+    /**
+     * @return <code>true</code> if a resultset is open that has not been read
+     *         to its end
+     */
+    public boolean hasOpenResultSet() {
+        SqlResultSet resultSet = getResultSet();
+        return resultSet != null && resultSet.isRowAvailable();
+    }
+
+    /**
+     * Closes this connection if it is idle: it has not executed a statement
+     * for the given time, has no open resultset and is not in a transaction
+     * (autocommit is enabled).
+     * 
+     * @param idleMillis
+     *            Minimum time in milliseconds since the last statement
+     * @return <code>true</code> if the connection was closed
+     */
+    protected synchronized boolean closeIfIdle(long idleMillis) {
+        if (!isConnected() || System.currentTimeMillis() - lastUsed < idleMillis || hasOpenResultSet()
+                || !autoCommitEnabled()) {
             return false;
         }
+        LOG.log(Level.FINE, "Closing idle connection {0}", this);
+        close();
+        return true;
     }
 
     /**
@@ -186,7 +294,7 @@ public class SqlConnection implements EventObservable<SqlConnection.ConnectionEv
      * @throws SQLException
      */
     public SqlStatement createStatement(String sql) throws SQLException {
-        LOG.fine("SqlConnection.createStatement('" + sql + "'");
+        LOG.log(Level.FINE, "SqlConnection.createStatement(''{0}'')", sql);
         return createStatement(sql, null);
     }
 
@@ -209,11 +317,31 @@ public class SqlConnection implements EventObservable<SqlConnection.ConnectionEv
      * @throws ExtensionException
      */
     public void useDatabase(String schemaName) throws DatabaseFeatureNotImplementedException, ExtensionException {
-        if (connection instanceof ConnectionHandle) {
+        if (isPooled()) {
             throw new ExtensionException(
                     "sql:use-database is only allowed on connections created using sql:connect; this is a connection from the connection pool");
         }
-        dbInfo.useDatabase(this, schemaName);
+        try {
+            session.beforeCatalogChange(connection);
+        } catch (SQLException e) {
+            throw new ExtensionException(e);
+        }
+        try {
+            dbInfo.useDatabase(this, schemaName);
+        } finally {
+            session.catalogChanged();
+        }
+    }
+
+    /**
+     * Returns the current catalog of the connection, asking the driver only if
+     * it is not known yet.
+     * 
+     * @return Catalog name (can be null)
+     * @throws SQLException
+     */
+    protected String getCatalog() throws SQLException {
+        return session.getCatalog(connection);
     }
 
     /**
@@ -227,6 +355,16 @@ public class SqlConnection implements EventObservable<SqlConnection.ConnectionEv
         return dbInfo.findDatabase(this, schemaName);
     }
 
+    /**
+     * Method used to drop the cached metadata of the database, so it is read
+     * again when it is needed.
+     */
+    public void refreshMetadata() {
+        if (dbInfo != null) {
+            dbInfo.getMetadataCache().clear();
+        }
+    }
+
     /**
      * Method used to switch on auto-commit for the active database connection.
      * 
@@ -234,7 +372,7 @@ public class SqlConnection implements EventObservable<SqlConnection.ConnectionEv
      */
     public void autoCommitOn() throws ExtensionException {
         try {
-            connection.setAutoCommit(true);
+            session.setAutoCommit(connection, true);
             autodisconnectCoordinator.commit();
         } catch (Exception ex) {
             throw new ExtensionException("Could not enable autocommit");
@@ -248,7 +386,7 @@ public class SqlConnection implements EventObservable<SqlConnection.ConnectionEv
      */
     public void autoCommitOff() throws ExtensionException {
         try {
-            connection.setAutoCommit(false);
+            session.setAutoCommit(connection, false);
         } catch (Exception ex) {
             throw new ExtensionException("Could not disable autocommit");
         }
@@ -262,12 +400,46 @@ public class SqlConnection implements EventObservable<SqlConnection.ConnectionEv
      */
     public boolean autoCommitEnabled() {
         try {
-            return connection.getAutoCommit();
+            return session.getAutoCommit(connection);
         } catch (Exception e) {
             return false;
         }
     }
 
+    /**
+     * Method used to change the transaction isolation level of the active
+     * connection. For a pooled connection the level is restored when the
+     * connection is returned to the pool.
+     * 
+     * @param level
+     *            One of the <code>Connection.TRANSACTION_*</code> constants
+     * @throws ExtensionException
+     */
+    public void setTransactionIsolation(int level) throws ExtensionException {
+        try {
+            session.setTransactionIsolation(connection, level);
+        } catch (Exception ex) {
+            throw new ExtensionException("Could not change the transaction isolation level");
+        }
+    }
+
+    /**
+     * Method used to change the read-only state of the active connection. For
+     * a pooled connection the state is restored when the connection is
+     * returned to the pool.
+     * 
+     * @param readOnly
+     *            <code>true</code> for a read-only connection
+     * @throws ExtensionException
+     */
+    public void setReadOnly(boolean readOnly) throws ExtensionException {
+        try {
+            session.setReadOnly(connection, readOnly);
+        } catch (Exception ex) {
+            throw new ExtensionException("Could not change the read-only state");
+        }
+    }
+
     /**
      * Method used to start a SQL transaction.
      * 
@@ -283,11 +455,14 @@ public class SqlConnection implements EventObservable<SqlConnection.ConnectionEv
      * @throws ExtensionException
      */
     public void commitTransaction() throws ExtensionException {
+        long start = System.nanoTime();
         try {
             connection.commit();
             autodisconnectCoordinator.commit();
         } catch (Exception e) {
             throw new ExtensionException("Could not commit the current transaction.");
+        } finally {
+            recordTrace(TraceRecorder.COMMIT, start);
         }
     }
 
@@ -297,11 +472,20 @@ public class SqlConnection implements EventObservable<SqlConnection.ConnectionEv
      * @throws ExtensionException
      */
     public void rollbackTransaction() throws ExtensionException {
+        long start = System.nanoTime();
         try {
             connection.rollback();
             autodisconnectCoordinator.rollback();
         } catch (Exception e) {
             throw new ExtensionException("Could not rollback the current transaction.");
+        } finally {
+            recordTrace(TraceRecorder.ROLLBACK, start);
+        }
+    }
+
+    private void recordTrace(String name, long start) {
+        if (traceRecorder != null) {
+            traceRecorder.record(name, start, agent, null);
         }
     }
 
@@ -319,17 +503,110 @@ public class SqlConnection implements EventObservable<SqlConnection.ConnectionEv
      * @throws SQLException
      */
     public SqlStatement createStatement(String sql, LogoList parameters) throws SQLException {
-        LOG.fine("SqlConnection.createStatement('" + sql + "', " + parameters + ")");
+        LOG.log(Level.FINE, "SqlConnection.createStatement(''{0}'', {1})", new Object[] { sql, parameters });
+        lastUsed = System.currentTimeMillis();
         closeStatement();
-        PreparedStatement stmt = getConnection().prepareStatement(sql);
-        statement = new SqlStatement(stmt, parameters, autodisconnectCoordinator);
+        if (replayLog != null && replayLog.isReplaying()) {
+            statement = new ReplayedStatement(replayLog, sql, parameters);
+            return statement;
+        }
+        if (MetadataCache.isDdl(sql)) {
+            refreshMetadata();
+        }
+        // state changed by SET, USE and the like is read back and reset on check-in
+        session.beforeStatement(getConnection(), sql);
+        long start = System.nanoTime();
+        // statistics and recordings are kept for the statement of the model,
+        // the same for every run
+        String runSql = sql;
+        LogoList runParameters = parameters;
+        if (runPartitioning != null && runPartitioning.isEnabled()) {
+            RunPartitioning.Rewrite rewrite = runPartitioning.rewrite(this, sql, parameters);
+            runSql = rewrite.getSql();
+            runParameters = rewrite.getParameters();
+        }
+        PreparedStatement stmt = getConnection().prepareStatement(runSql);
+        statement = new SqlStatement(stmt, runParameters, autodisconnectCoordinator,
+                statementStatistics != null ? statementStatistics.forSql(sql) : null);
+        if (slowQueryLog != null && slowQueryLog.isEnabled()) {
+            statement.setSlowQueryLog(slowQueryLog, runSql, agent, dbInfo);
+        }
+        if (traceRecorder != null) {
+            traceRecorder.record(TraceRecorder.PREPARE, start, agent, runSql);
+            statement.setTraceRecorder(traceRecorder, runSql, agent);
+        }
+        if (replayLog != null && replayLog.isRecording()) {
+            statement.setReplayLog(replayLog, sql, parameters);
+        }
         return statement;
     }
 
+    /**
+     * Sets the statistics the statements of this connection are recorded in.
+     * 
+     * @param statementStatistics
+     *            Statement statistics (null to not record statistics)
+     */
+    protected void setStatementStatistics(StatementStatistics statementStatistics) {
+        this.statementStatistics = statementStatistics;
+    }
+
+    /**
+     * Sets the log the slow statements of this connection are written to.
+     * 
+     * @param slowQueryLog
+     *            Slow query log (null to not log slow statements)
+     */
+    protected void setSlowQueryLog(SlowQueryLog slowQueryLog) {
+        this.slowQueryLog = slowQueryLog;
+    }
+
+    /**
+     * Sets the recorder the activity of this connection is traced with.
+     * 
+     * @param traceRecorder
+     *            Trace recorder (null to not trace)
+     */
+    protected void setTraceRecorder(TraceRecorder traceRecorder) {
+        this.traceRecorder = traceRecorder;
+    }
+
+    /**
+     * Sets the log the results of the statements of this connection are
+     * recorded in or replayed from.
+     * 
+     * @param replayLog
+     *            Replay log (null to neither record nor replay)
+     */
+    protected void setReplayLog(ReplayLog replayLog) {
+        this.replayLog = replayLog;
+    }
+
+    /**
+     * Sets the rewriting of the statements of this connection for the run of
+     * a BehaviorSpace experiment.
+     * 
+     * @param runPartitioning
+     *            Run partitioning (null to not rewrite statements)
+     */
+    protected void setRunPartitioning(RunPartitioning runPartitioning) {
+        this.runPartitioning = runPartitioning;
+    }
+
+    /**
+     * Sets the agent using this connection, reported in the slow query log.
+     * 
+     * @param agent
+     *            Agent
+     */
+    protected void setAgent(Agent agent) {
+        this.agent = agent;
+    }
+
     @Override
     public void register(EventObserver<ConnectionEvent> observer) {
         if (!connectionObservers.contains(observer)) {
-            LOG.fine("Registering observer " + observer);
+            LOG.log(Level.FINE, "Registering observer {0}", observer);
             connectionObservers.add(observer);
         }
     }
@@ -394,6 +671,28 @@ public class SqlConnection implements EventObservable<SqlConnection.ConnectionEv
 
     }
 
+    /**
+     * How a SqlConnection was created.
+     * 
+     * @author NetLogo project-team
+     */
+    public enum Origin {
+        /**
+         * Created using sql:connect (possibly with a physical connection from
+         * a pool for explicit connections).
+         */
+        EXPLICIT,
+        /**
+         * Obtained from the connection pool of the automatic connection
+         * management.
+         */
+        POOL,
+        /**
+         * Obtained from the connection pool of a read replica.
+         */
+        REPLICA
+    }
+
     /**
      * Connection events associated with SqlConnection.
      * 
@@ -21,9 +21,14 @@
 package nl.ou.netlogo.sql.wrapper;
 
 import java.sql.Connection;
+import java.sql.Driver;
 import java.sql.DriverManager;
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Properties;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
@@ -31,14 +36,12 @@ import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import nl.ou.netlogo.sql.wrapper.SqlConnection.ConnectionEvent;
+import nl.ou.netlogo.sql.wrapper.SqlConnection.Origin;
 
 import org.nlogo.api.Agent;
 import org.nlogo.api.Context;
 import org.nlogo.api.ExtensionException;
-
-import com.jolbox.bonecp.BoneCP;
-import com.jolbox.bonecp.BoneCPConfig;
-import com.jolbox.bonecp.ConnectionHandle;
+import org.nlogo.api.Observer;
 
 /**
  * Class used to implement the storage of multiple database connections for a
@@ -51,27 +54,85 @@ public class SqlConnectionManager implements SqlConfigurable, EventObserver<Conn
 
     private static final Logger LOG = SqlLogger.getLogger();
     /**
-     * For any connection pool, a hard minimum count of connections should be
-     * available. The wrapper will throw an exception when it is configured with
-     * a count that is effectively lower.
+     * Time in seconds the connection pools of explicit connections remain
+     * open after unloading the extension, for reuse after a recompile.
+     */
+    private static final long EXPLICIT_POOL_GRACE_PERIOD = 60;
+    /**
+     * JDBC drivers by driver class, so DriverManager (which is synchronized
+     * globally) is only consulted for the first connection. Bounded by the
+     * number of driver classes, not the number of databases.
      */
-    private static final int MIN_CONNECTIONS = 5;
-    private int partitions;
-    private int maxConnections;
-    private long connectionPoolTimeout;
+    private static final Map<String, Driver> drivers = new ConcurrentHashMap<String, Driver>();
+    private int failureThreshold;
+    private long coolDown;
 
     /**
-     * Connection pool used for the connections in the model context.
+     * Connections of agents in the model context: explicit connections and
+     * connections from the default connection pool.
      */
     private Map<Agent, SqlConnection> connections = new ConcurrentHashMap<Agent, SqlConnection>();
 
-    private DatabaseInfo dbInfo = null;
-
     /**
-     * the pool of physical connections towards a database when the default
+     * The pool of physical connections towards a database when the default
      * connection properties are used.
      */
-    private BoneCP connectionPool;
+    private final NamedPool defaultPool = new NamedPool(SqlConfiguration.DEFAULTCONNECTION, connections);
+
+    /**
+     * Pools configured with sql:configure "pool:name", by name.
+     */
+    private final Map<String, NamedPool> namedPools = new ConcurrentHashMap<String, NamedPool>();
+
+    /**
+     * Named pool selected by sql:with-pool for the current thread, null for
+     * the default pool.
+     */
+    private final ThreadLocal<NamedPool> selectedPool = new ThreadLocal<NamedPool>();
+
+    /**
+     * Circuit breakers per database (JDBC URL and user).
+     */
+    private Map<String, CircuitBreaker> circuitBreakers = new ConcurrentHashMap<String, CircuitBreaker>();
+
+    /**
+     * Connection pools of explicit connections (sql:connect), by connection
+     * settings and pool size.
+     */
+    private final Map<String, PooledDatabase> explicitPools = new HashMap<String, PooledDatabase>();
+
+    /**
+     * Latency statistics of the statements executed on the connections.
+     */
+    private final StatementStatistics statementStatistics = new StatementStatistics();
+
+    /**
+     * Log of the statements that took longer than the configured threshold.
+     */
+    private final SlowQueryLog slowQueryLog = new SlowQueryLog();
+
+    /**
+     * Timeline trace of the database activity, recorded between sql:trace-start
+     * and sql:trace-stop.
+     */
+    private final TraceRecorder traceRecorder = new TraceRecorder();
+
+    /**
+     * Recorded results of statements, replayed instead of executing the
+     * statements in replay mode.
+     */
+    private final ReplayLog replayLog = new ReplayLog();
+
+    /**
+     * Rewriting of the statements for the run of a BehaviorSpace experiment.
+     */
+    private final RunPartitioning runPartitioning = new RunPartitioning();
+
+    /**
+     * MBeans of the extension, notified of new named pools (null if not
+     * registered).
+     */
+    private volatile SqlManagement management;
 
     public SqlConnectionManager() {
         LOG.fine("SqlConnectionManager constructor");
@@ -79,92 +140,215 @@ public class SqlConnectionManager implements SqlConfigurable, EventObserver<Conn
 
     /**
      * Method used to check if the connection manager is using a connection pool
-     * to manage physical database connections
+     * to manage physical database connections (the named pool selected by
+     * sql:with-pool, or the default pool)
      * 
      * @return TRUE if so, FALSE otherwise.
      */
     public boolean connectionPoolEnabled() {
-        if (this.connectionPool != null) {
-            return true;
-        } else {
-            return false;
+        return currentPool().isEnabled();
+    }
+
+    /**
+     * @return Named pool selected by sql:with-pool, or the default pool
+     */
+    private NamedPool currentPool() {
+        NamedPool pool = selectedPool.get();
+        return pool != null ? pool : defaultPool;
+    }
+
+    /**
+     * Selects the named pool used by the current thread for pooled
+     * connections, until it is restored with {@link #restorePool(NamedPool)}.
+     * 
+     * @param name
+     *            Name of the pool (as configured with sql:configure
+     *            "pool:name")
+     * @return Previously selected pool (null for the default pool)
+     * @throws ExtensionException
+     *             If no pool with this name has been configured
+     */
+    public NamedPool selectPool(String name) throws ExtensionException {
+        NamedPool pool = namedPools.get(name);
+        if (pool == null) {
+            throw new ExtensionException("Connection pool '" + name + "' is not configured, use sql:configure \""
+                    + SqlConfiguration.NAMEDPOOL_PREFIX + name + "\" [...]");
         }
+        NamedPool previous = selectedPool.get();
+        selectedPool.set(pool);
+        return previous;
     }
 
     /**
-     * Method used to initialize the default connection pool when the command
-     * sql:set-default "connect" [params]" is executed. As we do not know at
-     * which time it is executed and how many times, any existing pool is
-     * dropped. The JDBC driver is loaded to be on the safe side.
+     * Restores the pool selection of the current thread.
+     * 
+     * @param previous
+     *            Pool returned by {@link #selectPool(String)}
      */
-    public void initDefaultConnectionPool() {
-        LOG.fine("SqlConnectionManager.initDefaultConnectionPool()");
-        try {
-            /*
-             * If we already had an active pool, shutdown and create a new one.
-             */
-            shutdownConnectionPool();
+    public void restorePool(NamedPool previous) {
+        if (previous == null) {
+            selectedPool.remove();
+        } else {
+            selectedPool.set(previous);
+        }
+    }
 
-            /*
-             * Make sure the correct driver is loaded before we continue.
-             */
-            Class.forName(dbInfo.getDriverClass());
+    /**
+     * Sets the shard key of an agent for the pool used by the current thread.
+     * The key determines the shard of the agent instead of its who number; a
+     * connection of the agent to another shard is exchanged for one to the new
+     * shard at the next statement outside a transaction.
+     * 
+     * @param agent
+     *            Agent (not the observer)
+     * @param key
+     *            Shard key (number or string)
+     * @throws ExtensionException
+     *             For the observer, which uses all shards
+     */
+    public void setShardKey(Agent agent, Object key) throws ExtensionException {
+        if (agent instanceof Observer) {
+            throw new ExtensionException("The observer uses all shards and has no shard key");
+        }
+        currentPool().setShardKey(agent, key);
+    }
 
-            if (partitions < 1) {
-                String message = "partitions is less than 1, configure at minimum of 1";
-                LOG.severe(message);
-                throw new ExtensionException(message);
+    /**
+     * Releases the connection pools, returning the pooled connections of
+     * agents in the process. The pools themselves remain open for the grace
+     * period, so they can be reused if the model configures the same settings
+     * again (eg after a recompile or reload).
+     */
+    protected void releaseConnectionPool() {
+        defaultPool.release();
+        for (NamedPool pool : namedPools.values()) {
+            pool.release();
+        }
+        namedPools.clear();
+        synchronized (explicitPools) {
+            for (PooledDatabase explicitPool : explicitPools.values()) {
+                ConnectionPoolRegistry.release(explicitPool.getConnectionPool(), EXPLICIT_POOL_GRACE_PERIOD);
             }
+            explicitPools.clear();
+        }
+    }
 
-            int connectionsPerPartition = maxConnections / partitions;
-            if (connectionsPerPartition * partitions < MIN_CONNECTIONS) {
-                String message = "Effective amount of connections is less than " + MIN_CONNECTIONS
-                        + ". Configure max-connections and partitions so that there are at least " + MIN_CONNECTIONS
-                        + " connections in total.";
-                LOG.severe(message);
-                throw new ExtensionException(message);
-            }
-            LOG.info("Connections per partition: " + connectionsPerPartition);
-            BoneCPConfig config = new BoneCPConfig();
-            config.setUsername(dbInfo.getUser());
-            config.setPassword(dbInfo.getPassword());
-            config.setPartitionCount(partitions);
-            config.setMaxConnectionsPerPartition(connectionsPerPartition);
-            if (config.getMinConnectionsPerPartition() < connectionsPerPartition) {
-                config.setMinConnectionsPerPartition(connectionsPerPartition);
-            }
-            config.setJdbcUrl(dbInfo.getJdbcUrl());
-            config.setConnectionHook(new ConnectionHook());
+    /**
+     * Retrieves the statistics of the connection pool (the named pool
+     * selected by sql:with-pool, or the default pool).
+     * 
+     * @return Map of statistic name to value (Double or Boolean), in reporting
+     *         order
+     */
+    public Map<String, Object> getPoolStatistics() {
+        return currentPool().getStatisticsMap();
+    }
 
-            LOG.finest(String.format("Trying to access database '%s', user '%s', password '%s'", dbInfo.getJdbcUrl(),
-                    dbInfo.getUser(), dbInfo.getPassword()));
-            connectionPool = new BoneCP(config);
-        } catch (Exception e) {
-            LOG.severe("SqlConnectionManager.initDefaultConnectionPool() failed with Exception");
-            e.printStackTrace();
-            throw new RuntimeException(e);
+    /**
+     * @return Latency statistics of the statements executed on the
+     *         connections of all pools
+     */
+    public StatementStatistics getStatementStatistics() {
+        return statementStatistics;
+    }
+
+    /**
+     * @return Log of the statements executed on the connections of all pools
+     *         that took longer than the configured threshold
+     */
+    public SlowQueryLog getSlowQueryLog() {
+        return slowQueryLog;
+    }
+
+    /**
+     * @return Recorder of the timeline trace of the database activity on the
+     *         connections of all pools
+     */
+    public TraceRecorder getTraceRecorder() {
+        return traceRecorder;
+    }
+
+    /**
+     * @return Replay log of the statements
+     */
+    public ReplayLog getReplayLog() {
+        return replayLog;
+    }
+
+    /**
+     * @return Run partitioning of the statements
+     */
+    public RunPartitioning getRunPartitioning() {
+        return runPartitioning;
+    }
+
+    /**
+     * @return The default pool and the named pools
+     */
+    public List<NamedPool> getPools() {
+        List<NamedPool> pools = new ArrayList<NamedPool>();
+        pools.add(defaultPool);
+        pools.addAll(namedPools.values());
+        return pools;
+    }
+
+    /**
+     * Sets the MBeans to notify of new named pools.
+     * 
+     * @param management
+     *            SqlManagement (null if the MBeans are unregistered)
+     */
+    protected void setManagement(SqlManagement management) {
+        this.management = management;
+    }
+
+    /**
+     * @return Number of connections associated with agents, in all pools
+     */
+    public int getConnectionCount() {
+        return getAgentConnections().size();
+    }
+
+    /**
+     * @return Number of connections associated with agents that have a
+     *         resultset open that has not been read to its end
+     */
+    public int getOpenResultSetCount() {
+        int count = 0;
+        for (SqlConnection sqlConnection : getAgentConnections()) {
+            if (sqlConnection.hasOpenResultSet()) {
+                count++;
+            }
         }
+        return count;
     }
 
     /**
-     * Shuts down the existing connection pool, releasing connections etc in the
-     * process.
+     * Closes the connections associated with agents that have not executed a
+     * statement for some time, have no open resultset and are not in a
+     * transaction. An agent that needs a connection again obtains a new one.
+     * 
+     * @param idleMillis
+     *            Minimum time in milliseconds since the last statement
+     * @return Number of connections closed
      */
-    protected void shutdownConnectionPool() {
-        // If we already had an active pool, shutdown
-        // and create a new one.
-        if (connectionPool != null) {
-            LOG.info("Shutting down connection pool");
-            // Close existing connections provided by the connection pool
-            for (SqlConnection sqlConnection : connections.values()) {
-                if (sqlConnection.getConnection() instanceof ConnectionHandle) {
-                    LOG.fine("Removing pooled connection " + sqlConnection);
-                    sqlConnection.close();
-                }
+    public int closeIdleConnections(long idleMillis) {
+        int closed = 0;
+        for (SqlConnection sqlConnection : getAgentConnections()) {
+            if (sqlConnection.closeIfIdle(idleMillis)) {
+                closed++;
             }
-            connectionPool.shutdown();
-            connectionPool = null;
         }
+        LOG.log(Level.INFO, "Closed {0} idle connections", Integer.valueOf(closed));
+        return closed;
+    }
+
+    private List<SqlConnection> getAgentConnections() {
+        List<SqlConnection> agentConnections = new ArrayList<SqlConnection>(connections.values());
+        for (NamedPool pool : namedPools.values()) {
+            agentConnections.addAll(pool.getConnections().values());
+        }
+        return agentConnections;
     }
 
     /**
@@ -176,20 +360,31 @@ public class SqlConnectionManager implements SqlConfigurable, EventObserver<Conn
             LOG.fine("Closing connection " + sqlConnection);
             sqlConnection.close();
         }
+        for (NamedPool pool : namedPools.values()) {
+            for (SqlConnection sqlConnection : pool.getConnections().values()) {
+                LOG.fine("Closing connection " + sqlConnection);
+                sqlConnection.close();
+            }
+        }
     }
 
     /**
      * Register an SqlConnection to an agent
      * 
+     * @param agentConnections
+     *            Map of connections to register the connection in
      * @param agent
      *            Agent Object
      * @param connection
      *            SqlConnection object
      */
-    private void registerConnection(Agent agent, SqlConnection connection) {
-        LOG.fine("SqlConnectionManager.registerConnection(this: " + this + ", agent: " + agent + ")");
+    private void registerConnection(Map<Agent, SqlConnection> agentConnections, Agent agent, SqlConnection connection) {
+        if (LOG.isLoggable(Level.FINE)) {
+            LOG.fine("SqlConnectionManager.registerConnection(this: " + this + ", agent: " + agent + ")");
+        }
         connection.register(this);
-        connections.put(agent, connection);
+        connection.setAgent(agent);
+        agentConnections.put(agent, connection);
     }
 
     /**
@@ -207,39 +402,288 @@ public class SqlConnectionManager implements SqlConfigurable, EventObserver<Conn
      *             For failure to create a new connection
      */
     public SqlConnection getConnection(Agent agent, boolean createConnection) throws ExtensionException {
-        LOG.fine("SqlConnectionManager.getConnection(agent: " + agent + ", createConnection:" + createConnection + ")");
+        boolean fine = LOG.isLoggable(Level.FINE);
+        if (fine) {
+            LOG.fine("SqlConnectionManager.getConnection(agent: " + agent + ", createConnection:" + createConnection
+                    + ")");
+        }
         SqlConnection sqlconn = null;
+        NamedPool pool = currentPool();
 
-        sqlconn = connections.get(agent);
-        if (createConnection && connectionPool != null && (sqlconn == null || !sqlconn.isConnected())) {
+        sqlconn = pool.getConnections().get(agent);
+        if (createConnection && replayLog.isReplaying()) {
+            // statements are replayed, no physical connection is needed
+            if (sqlconn == null || !sqlconn.isConnected()) {
+                sqlconn = new ReplayConnection(replayLog, pool.getDatabaseInfo());
+                sqlconn.setReplayLog(replayLog);
+                registerConnection(pool.getConnections(), agent, sqlconn);
+            }
+        } else if (createConnection && pool.isEnabled() && pool.getShards() != null) {
+            sqlconn = getShardedConnection(agent, pool, sqlconn);
+        } else if (createConnection && pool.isEnabled() && (sqlconn == null || !sqlconn.isConnected())) {
             // fetch a connection from the pool
             try {
-                LOG.finest("SqlConnectionManager.getConnection(agent: " + agent + ", createConnection:"
-                        + createConnection + "): fetching a connection from the pool");
-                sqlconn = createConnectionFromPool(agent);
+                if (LOG.isLoggable(Level.FINEST)) {
+                    LOG.finest("SqlConnectionManager.getConnection(agent: " + agent + ", createConnection:"
+                            + createConnection + "): fetching a connection from the pool " + pool.getName());
+                }
+                sqlconn = createConnectionFromPool(agent, pool, null);
             } catch (SQLException e) {
                 throw new ExtensionException(e);
             }
-        } else {
+        } else if (LOG.isLoggable(Level.FINEST)) {
             LOG.finest("SqlConnectionManager.getConnection(agent: " + agent + ", createConnection:" + createConnection
-                    + "): hitting the empty else branch. connectionPool: " + connectionPool);
+                    + "): hitting the empty else branch. connectionPool: " + pool.getConnectionPool());
         }
 
-        LOG.fine("SqlConnectionManager.getConnection(): returning " + sqlconn);
+        if (fine) {
+            LOG.fine("SqlConnectionManager.getConnection(): returning " + sqlconn);
+        }
         return sqlconn;
 
     }
 
+    /**
+     * Retrieves the connection of an agent to its shard, or for the observer
+     * the connection to all shards.
+     * <p>
+     * Outside a transaction, a pooled connection to another shard (after a
+     * change of the shard key of the agent) is exchanged for a connection to
+     * the shard of the agent.
+     * </p>
+     * 
+     * @param agent
+     *            Agent object
+     * @param namedPool
+     *            Pool with shards
+     * @param existing
+     *            Current connection of the agent, or null
+     * @return connection handle
+     * @throws ExtensionException
+     *             For failure to create a new connection
+     */
+    private SqlConnection getShardedConnection(Agent agent, NamedPool namedPool, SqlConnection existing)
+            throws ExtensionException {
+        Shards shards = namedPool.getShards();
+        // The observer scatters its statements over all shards
+        int shard = agent instanceof Observer ? -1 : namedPool.shardOf(shards, agent);
+        if (existing != null && existing.isConnected()) {
+            if (!existing.isPooled() || !existing.autoCommitEnabled()
+                    || isConnectionToShard(existing, namedPool, shard)) {
+                return existing;
+            }
+        }
+        if (existing != null && existing.isPooled()) {
+            // Also returns the connections to the other shards of a partially disconnected observer
+            existing.close();
+        }
+        try {
+            if (shard >= 0) {
+                return createConnectionFromPool(agent, namedPool, shard == 0 ? null : shards.getShard(shard));
+            }
+            List<SqlConnection> shardConnections = new ArrayList<SqlConnection>(shards.getCount());
+            long start = System.nanoTime();
+            try {
+                for (int idx = 0; idx < shards.getCount(); idx++) {
+                    shardConnections.add(obtainFromPool(namedPool, idx == 0 ? null : shards.getShard(idx)));
+                }
+            } catch (SQLException e) {
+                for (SqlConnection shardConnection : shardConnections) {
+                    shardConnection.close();
+                }
+                throw e;
+            } finally {
+                traceRecorder.record(TraceRecorder.CHECKOUT, start, agent, null);
+            }
+            SqlConnection sqlConn = new ShardedConnection(shardConnections, namedPool.getDatabaseInfo());
+            registerConnection(namedPool.getConnections(), agent, sqlConn);
+            return sqlConn;
+        } catch (SQLException e) {
+            throw new ExtensionException(e);
+        }
+    }
+
+    /**
+     * Checks if a pooled connection is a connection to a shard.
+     * 
+     * @param sqlConn
+     *            Pooled connection
+     * @param namedPool
+     *            Pool with shards
+     * @param shard
+     *            Index of the shard, -1 for all shards
+     * @return <code>true</code> if the connection is to the shard
+     */
+    private static boolean isConnectionToShard(SqlConnection sqlConn, NamedPool namedPool, int shard) {
+        if (shard < 0 || sqlConn instanceof ShardedConnection) {
+            return shard < 0 && sqlConn instanceof ShardedConnection;
+        }
+        DatabaseInfo shardInfo = shard == 0 ? namedPool.getDatabaseInfo() : namedPool.getShards().getShard(shard)
+                .getDatabaseInfo();
+        return sqlConn.getDatabaseInfo().getJdbcUrl().equals(shardInfo.getJdbcUrl());
+    }
+
+    /**
+     * Retrieves the connection of an agent for a query or an update, routing
+     * queries to a read replica if replicas are configured for the pool.
+     * <p>
+     * Outside a transaction, a pooled connection to the primary is exchanged
+     * for a connection to a replica (and vice versa) when needed. Queries of
+     * an agent that wrote within the read-your-writes period go to the
+     * primary. If no replica is available, the primary is used.
+     * </p>
+     * 
+     * @param agent
+     *            Agent object
+     * @param read
+     *            <code>true</code> for a query, <code>false</code> for an
+     *            update or the start of a transaction
+     * @return connection handle, null when no connection was found or no
+     *         connection pool was available to create a new connection
+     * @throws ExtensionException
+     *             For failure to create a new connection
+     */
+    public SqlConnection getRoutedConnection(Agent agent, boolean read) throws ExtensionException {
+        NamedPool pool = currentPool();
+        ReadReplicas replicas = pool.getReplicas();
+        if (replicas == null || replayLog.isReplaying()) {
+            return getConnection(agent, true);
+        }
+        if (!read) {
+            replicas.recordWrite(agent);
+        }
+        boolean useReplica = read && !replicas.isSticky(agent);
+        SqlConnection sqlconn = pool.getConnections().get(agent);
+        if (sqlconn != null && sqlconn.isConnected()) {
+            if (!sqlconn.isPooled() || sqlconn.isReplica() == useReplica || !sqlconn.autoCommitEnabled()) {
+                // Explicit connections and transactions keep their connection
+                return sqlconn;
+            }
+            sqlconn.close();
+        }
+        if (useReplica) {
+            ReadReplicas.Replica replica = replicas.choose();
+            if (replica != null) {
+                try {
+                    return createConnectionFromPool(agent, pool, replica);
+                } catch (SQLException e) {
+                    LOG.log(Level.WARNING, "Unable to obtain a connection to replica "
+                            + replica.getDatabaseInfo().getJdbcUrl() + ", using the primary", e);
+                }
+            }
+        }
+        return getConnection(agent, true);
+    }
+
     /**
      * Creates a new SqlConnection from the connection pool and registers it to
      * the supplied agent.
      * 
      * @param agent
      *            Agent object which will use this connection
+     * @param namedPool
+     *            Pool to obtain the connection from
+     * @param target
+     *            Read replica or shard of the pool to obtain the connection
+     *            from, or null for the database of the pool itself
+     * @return SqlConnection
+     * @throws SQLException
+     *             If no connection could be obtained, or immediately if the
+     *             circuit breaker is open
+     */
+    private SqlConnection createConnectionFromPool(Agent agent, NamedPool namedPool, PooledDatabase target)
+            throws SQLException {
+        SqlConnection sqlConn;
+        long start = System.nanoTime();
+        try {
+            sqlConn = obtainFromPool(namedPool, target);
+        } finally {
+            traceRecorder.record(TraceRecorder.CHECKOUT, start, agent, null);
+        }
+        registerConnection(namedPool.getConnections(), agent, sqlConn);
+        return sqlConn;
+    }
+
+    /**
+     * Obtains a new SqlConnection from the connection pool, guarded by the
+     * circuit breaker of the database.
+     * 
+     * @param namedPool
+     *            Pool to obtain the connection from
+     * @param target
+     *            Read replica or shard of the pool to obtain the connection
+     *            from, or null for the database of the pool itself
+     * @return SqlConnection
+     * @throws SQLException
+     *             If no connection could be obtained, or immediately if the
+     *             circuit breaker is open
+     */
+    private SqlConnection obtainFromPool(NamedPool namedPool, PooledDatabase target) throws SQLException {
+        return obtainFromPool(target != null ? target.getDatabaseInfo() : namedPool.getDatabaseInfo(), namedPool,
+                target, namedPool.getTimeout(), target instanceof ReadReplicas.Replica ? Origin.REPLICA
+                        : Origin.POOL);
+    }
+
+    /**
+     * Obtains a new SqlConnection from a connection pool, guarded by the
+     * circuit breaker of the database.
+     * 
+     * @param poolDbInfo
+     *            Database of the connection pool
+     * @param namedPool
+     *            Pool to obtain the connection from if target is null
+     * @param target
+     *            Pooled database to obtain the connection from, or null for
+     *            the database of namedPool
+     * @param timeout
+     *            Time in seconds to wait for a connection (0 waits
+     *            indefinitely)
+     * @param origin
+     *            Origin of the connection
+     * @return SqlConnection
+     * @throws SQLException
+     *             If no connection could be obtained, or immediately if the
+     *             circuit breaker is open
+     */
+    private SqlConnection obtainFromPool(DatabaseInfo poolDbInfo, NamedPool namedPool, PooledDatabase target,
+            long timeout, Origin origin) throws SQLException {
+        CircuitBreaker circuitBreaker = getCircuitBreaker(poolDbInfo);
+        circuitBreaker.beforeAttempt();
+        try {
+            ConnectionPool pool = target != null ? target.reserve() : namedPool.reserve();
+            SqlConnection sqlConn = checkoutFromPool(pool, poolDbInfo, timeout, origin);
+            circuitBreaker.recordSuccess();
+            return sqlConn;
+        } catch (SQLException e) {
+            ConnectionPool pool = target != null ? target.getConnectionPool() : namedPool.getConnectionPool();
+            if (Thread.currentThread().isInterrupted() || (pool != null && pool.isExhausted())) {
+                // Not a problem of the database
+                circuitBreaker.cancelAttempt();
+            } else {
+                circuitBreaker.recordFailure(e);
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Checks out a connection from a connection pool.
+     * 
+     * @param pool
+     *            Connection pool to obtain the connection from, with a lease
+     *            reserved by the caller (released if the checkout fails)
+     * @param poolDbInfo
+     *            Database of the connection pool
+     * @param connectionPoolTimeout
+     *            Time in seconds to wait for a connection (0 waits
+     *            indefinitely)
+     * @param origin
+     *            Origin of the connection
      * @return SqlConnection
      * @throws SQLException
      */
-    private SqlConnection createConnectionFromPool(Agent agent) throws SQLException {
+    private SqlConnection checkoutFromPool(final ConnectionPool pool, DatabaseInfo poolDbInfo,
+            long connectionPoolTimeout, Origin origin) throws SQLException {
         Connection conn = null;
 
         /**
@@ -252,6 +696,9 @@ public class SqlConnectionManager implements SqlConfigurable, EventObserver<Conn
         class ConnectionGetter extends Thread {
             Semaphore binSem;
             Connection conn = null;
+            SQLException failure = null;
+            private boolean done = false;
+            private boolean abandoned = false;
 
             ConnectionGetter(Semaphore binSem) {
                 this.binSem = binSem;
@@ -264,15 +711,56 @@ public class SqlConnectionManager implements SqlConfigurable, EventObserver<Conn
                  */
                 try {
                     LOG.finest("ConnectionGetter.run(): before connectionPool.getConnection()");
-                    this.conn = connectionPool.getConnection();
+                    this.conn = pool.getConnection();
                     LOG.finest("ConnectionGetter.run(): after connectionPool.getConnection()");
-                    LOG.finest("ConnectionGetter.run(): before this.binSem.release()");
-                    this.binSem.release();
-                    LOG.finest("ConnectionGetter.run(): after this.binSem.release()");
                 } catch (SQLException sqlex) {
                     LOG.log(Level.SEVERE, "connectionPool.createConnectionFromPool() failed : ", sqlex);
                     this.conn = null;
+                    this.failure = sqlex;
+                } finally {
+                    finish();
+                    // the waiting thread continues with the connection or the failure
+                    this.binSem.release();
+                }
+            }
+
+            /**
+             * Marks the checkout as done; if the waiting thread gave up, this
+             * thread owns the lease and the connection, so a late connection is
+             * returned to the pool and the lease is released.
+             */
+            private void finish() {
+                synchronized (this) {
+                    done = true;
+                    if (!abandoned) {
+                        return;
+                    }
                 }
+                if (conn != null) {
+                    try {
+                        conn.close();
+                    } catch (SQLException sqlex) {
+                        LOG.log(Level.WARNING, "Unable to return late connection to the pool", sqlex);
+                    }
+                    conn = null;
+                }
+                pool.release();
+            }
+
+            /**
+             * Called by the waiting thread when it gives up, to hand over the
+             * ownership of the lease to this thread.
+             * 
+             * @return <code>true</code> if this thread now owns the lease,
+             *         <code>false</code> if the checkout completed in the
+             *         meantime and the result can still be used
+             */
+            synchronized boolean abandon() {
+                if (done) {
+                    return false;
+                }
+                abandoned = true;
+                return true;
             }
 
             public Connection getConnection() {
@@ -285,10 +773,12 @@ public class SqlConnectionManager implements SqlConfigurable, EventObserver<Conn
          * exhausted and no connections are closed. Try to obtain the connection
          * in a thread, and impose a timeout
          */
+        long checkoutStart = System.nanoTime();
         Semaphore binSem = new Semaphore(1);
         try {
             binSem.acquire();
         } catch (InterruptedException intex) {
+            pool.release();
             String message = "connectionPool.createConnectionFromPool() interrupted: " + intex;
             LOG.severe(message);
             Thread.currentThread().interrupt();
@@ -302,42 +792,106 @@ public class SqlConnectionManager implements SqlConfigurable, EventObserver<Conn
              * timeout is 0, don't try to acquire the semaphore (and be willing
              * to block indefinitely)
              */
-            if ((this.connectionPoolTimeout > 0 && binSem.tryAcquire(this.connectionPoolTimeout /*
+            if ((connectionPoolTimeout > 0 && binSem.tryAcquire(connectionPoolTimeout /*
                                                                                                  * +
                                                                                                  * 2
                                                                                                  */, TimeUnit.SECONDS))
-                    || this.connectionPoolTimeout == 0) {
+                    || connectionPoolTimeout == 0) {
                 // success, get the connection from the thread
-                if (this.connectionPoolTimeout == 0) {
+                if (connectionPoolTimeout == 0) {
                     // will block here if BoneCP (connection pool) blocks
                     binSem.acquireUninterruptibly();
                 }
                 conn = getterThread.getConnection();
-            } else {
+            } else if (getterThread.abandon()) {
                 /*
                  * obtaining the connection did not succeed within the timeout
-                 * period, terminate the thread and report failure
+                 * period, terminate the thread and report failure; the thread
+                 * returns a late connection and releases the lease
                  */
                 getterThread.interrupt();
+                pool.getStatistics().checkoutTimeout();
                 String message = "connectionPool.createConnectionFromPool() timed out";
                 LOG.severe(message);
                 throw new SQLException(message);
+            } else {
+                // completed just after the timeout
+                conn = getterThread.getConnection();
             }
         } catch (InterruptedException intex) {
+            if (!getterThread.abandon()) {
+                try {
+                    Connection late = getterThread.getConnection();
+                    if (late != null) {
+                        late.close();
+                    }
+                } finally {
+                    pool.release();
+                }
+            } else {
+                getterThread.interrupt();
+            }
             String message = "connectionPool.createConnectionFromPool() was interrupted: " + intex;
             LOG.severe(message);
             Thread.currentThread().interrupt();
             throw new SQLException(message);
         }
         if (conn != null) {
-            SqlConnection sqlConn = new SqlConnection(conn, dbInfo);
-            registerConnection(agent, sqlConn);
+            pool.getStatistics().checkout(System.nanoTime() - checkoutStart);
+            SqlConnection sqlConn = new SqlConnection(conn, poolDbInfo, pool, origin);
+            sqlConn.setStatementStatistics(statementStatistics);
+            sqlConn.setSlowQueryLog(slowQueryLog);
+            sqlConn.setTraceRecorder(traceRecorder);
+            sqlConn.setReplayLog(replayLog);
+            sqlConn.setRunPartitioning(runPartitioning);
             return sqlConn;
         } else {
+            pool.getStatistics().checkoutFailure();
+            pool.release();
+            SQLException failure = getterThread.failure;
+            if (failure != null) {
+                SQLException ex = new SQLException("Unable to obtain a database connection: " + failure.getMessage(),
+                        failure.getSQLState());
+                ex.initCause(failure);
+                throw ex;
+            }
             throw new SQLException("Unable to obtain a database connection");
         }
     }
 
+    /**
+     * Retrieves the circuit breaker for a database, creating it if needed.
+     * Connections with the same JDBC URL and user share a circuit breaker.
+     * 
+     * @param info
+     *            DatabaseInfo of the database
+     * @return CircuitBreaker
+     */
+    private synchronized CircuitBreaker getCircuitBreaker(DatabaseInfo info) {
+        String key = info.getJdbcUrl() + "|" + info.getUser();
+        CircuitBreaker circuitBreaker = circuitBreakers.get(key);
+        if (circuitBreaker == null) {
+            circuitBreaker = new CircuitBreaker(info.getJdbcUrl(), failureThreshold, coolDown * 1000);
+            circuitBreakers.put(key, circuitBreaker);
+        }
+        return circuitBreaker;
+    }
+
+    /**
+     * Retrieves the state of the circuit breakers of all databases that were
+     * connected to.
+     * 
+     * @return List with for each database a map of name to value (String or
+     *         Double), in reporting order
+     */
+    public List<Map<String, Object>> getCircuitBreakerStates() {
+        List<Map<String, Object>> states = new ArrayList<Map<String, Object>>();
+        for (CircuitBreaker circuitBreaker : circuitBreakers.values()) {
+            states.add(circuitBreaker.toMap());
+        }
+        return states;
+    }
+
     /**
      * Creates a new unmanaged connection for the specified agent.
      * 
@@ -349,13 +903,67 @@ public class SqlConnectionManager implements SqlConfigurable, EventObserver<Conn
      * @throws ExtensionException
      */
     public SqlConnection createConnection(Agent agent, SqlSetting connectionSettings) throws ExtensionException {
+        DatabaseInfo localDbInfo;
+        boolean pooled;
+        int maxConnections;
+        long timeout;
         try {
-            DatabaseInfo localDbInfo = DatabaseFactory.createDatabaseInfo(connectionSettings);
-            SqlConnection sqlConn = createConnection(localDbInfo);
-            registerConnection(agent, sqlConn);
-            return sqlConn;
+            localDbInfo = DatabaseFactory.createDatabaseInfo(connectionSettings);
+            pooled = SqlSetting.toggleValue(connectionSettings
+                    .getString(SqlConfiguration.EXPLICITCONNECTION_OPT_POOLED));
+            maxConnections = connectionSettings.getInt(SqlConfiguration.EXPLICITCONNECTION_OPT_MAXCONNECTIONS);
+            timeout = connectionSettings.getLong(SqlConfiguration.EXPLICITCONNECTION_OPT_TIMEOUT);
         } catch (DatabaseConfigurationException ex) {
             throw new ExtensionException(ex);
+        } catch (Exception ex) {
+            throw new ExtensionException("Exception while configuring explicit connection: " + ex);
+        }
+        SqlConnection sqlConn;
+        if (pooled) {
+            long start = System.nanoTime();
+            try {
+                PooledDatabase explicitPool = getExplicitPool(localDbInfo, maxConnections);
+                // Connections of the pool share the DatabaseInfo, and with it the metadata cache
+                DatabaseInfo poolDbInfo = explicitPool.getDatabaseInfo();
+                poolDbInfo.getMetadataCache().setTimeToLive(localDbInfo.getMetadataCache().getTimeToLive());
+                sqlConn = obtainFromPool(poolDbInfo, null, explicitPool, timeout, Origin.EXPLICIT);
+            } catch (SQLException e) {
+                throw new ExtensionException(e);
+            } finally {
+                traceRecorder.record(TraceRecorder.CHECKOUT, start, agent, null);
+            }
+        } else {
+            sqlConn = createConnection(localDbInfo);
+        }
+        registerConnection(connections, agent, sqlConn);
+        return sqlConn;
+    }
+
+    /**
+     * Retrieves the connection pool for explicit connections to a database,
+     * obtaining it from the {@link ConnectionPoolRegistry} for the first
+     * connection.
+     * 
+     * @param myDbInfo
+     *            DatabaseInfo of the explicit connection
+     * @param maxConnections
+     *            Maximum number of connections of the pool
+     * @return Pool for the database
+     * @throws ExtensionException
+     *             If the pool cannot be created
+     */
+    private PooledDatabase getExplicitPool(DatabaseInfo myDbInfo, int maxConnections) throws ExtensionException {
+        String key = myDbInfo.getJdbcUrl() + '\n' + myDbInfo.getDriverClass() + '\n' + myDbInfo.getUser() + '\n'
+                + myDbInfo.getPassword() + '\n' + maxConnections;
+        synchronized (explicitPools) {
+            PooledDatabase explicitPool = explicitPools.get(key);
+            if (explicitPool == null) {
+                ConnectionPoolSettings poolSettings = ConnectionPoolSettings.forExplicitConnections(maxConnections);
+                explicitPool = new PooledDatabase(myDbInfo, ConnectionPoolRegistry.acquire(myDbInfo, poolSettings,
+                        false));
+                explicitPools.put(key, explicitPool);
+            }
+            return explicitPool;
         }
     }
 
@@ -369,11 +977,34 @@ public class SqlConnectionManager implements SqlConfigurable, EventObserver<Conn
      */
     private SqlConnection createConnection(DatabaseInfo myDbInfo) throws ExtensionException {
         try {
-            Class.forName(myDbInfo.getDriverClass());
-            Connection conn = DriverManager.getConnection(myDbInfo.getJdbcUrl(), myDbInfo.getUser(),
-                    myDbInfo.getPassword());
+            Driver driver = getDriver(myDbInfo);
+            CircuitBreaker circuitBreaker = getCircuitBreaker(myDbInfo);
+            circuitBreaker.beforeAttempt();
+            Connection conn;
+            try {
+                Properties info = new Properties();
+                if (myDbInfo.getUser() != null) {
+                    info.put("user", myDbInfo.getUser());
+                }
+                if (myDbInfo.getPassword() != null) {
+                    info.put("password", myDbInfo.getPassword());
+                }
+                conn = driver.connect(myDbInfo.getJdbcUrl(), info);
+                if (conn == null) {
+                    throw new SQLException("No suitable driver found for " + myDbInfo.getJdbcUrl(), "08001");
+                }
+                circuitBreaker.recordSuccess();
+            } catch (SQLException e) {
+                circuitBreaker.recordFailure(e);
+                throw e;
+            }
 
             SqlConnection sqlConn = new SqlConnection(conn, myDbInfo);
+            sqlConn.setStatementStatistics(statementStatistics);
+            sqlConn.setSlowQueryLog(slowQueryLog);
+            sqlConn.setTraceRecorder(traceRecorder);
+            sqlConn.setReplayLog(replayLog);
+            sqlConn.setRunPartitioning(runPartitioning);
             return sqlConn;
         } catch (ClassNotFoundException e) {
             throw new ExtensionException("Unable to load database driver");
@@ -382,30 +1013,68 @@ public class SqlConnectionManager implements SqlConfigurable, EventObserver<Conn
         }
     }
 
+    /**
+     * Retrieves the JDBC driver for a database, loading the driver class and
+     * looking it up in DriverManager for the first connection only.
+     * 
+     * @param myDbInfo
+     *            DatabaseInfo for a specific database engine
+     * @return Driver accepting the JDBC URL of the database
+     * @throws ClassNotFoundException
+     *             If the driver class cannot be loaded
+     * @throws SQLException
+     *             If no driver accepts the JDBC URL
+     */
+    static Driver getDriver(DatabaseInfo myDbInfo) throws ClassNotFoundException, SQLException {
+        String driverClass = myDbInfo.getDriverClass();
+        Driver driver = drivers.get(driverClass);
+        if (driver != null && driver.acceptsURL(myDbInfo.getJdbcUrl())) {
+            return driver;
+        }
+        Class.forName(driverClass);
+        driver = DriverManager.getDriver(myDbInfo.getJdbcUrl());
+        if (driver.getClass().getName().equals(driverClass)) {
+            drivers.put(driverClass, driver);
+        }
+        return driver;
+    }
+
     @Override
     public void configure(SqlSetting settings, Context context) throws Exception {
         if (settings.getName().equals(SqlConfiguration.DEFAULTCONNECTION)) {
-            configureDatabase(settings);
+            configureDatabase(EmbeddedDatabase.resolvePath(settings, context));
         } else if (settings.getName().equals(SqlConfiguration.CONNECTIONPOOL)) {
             configureConnectionPool(settings);
+        } else if (SqlConfiguration.isNamedPool(settings.getName())) {
+            configureNamedPool(EmbeddedDatabase.resolvePath(settings, context));
+        } else if (settings.getName().equals(SqlConfiguration.CIRCUITBREAKER)) {
+            configureCircuitBreaker(settings);
         }
     }
 
-    private void configureConnectionPool(SqlSetting settings) throws ExtensionException {
+    private synchronized void configureCircuitBreaker(SqlSetting settings) throws ExtensionException {
         if (!settings.isValid()) {
             return;
         }
         try {
-            partitions = settings.getInt(SqlConfiguration.CONNECTIONPOOL_OPT_PARTITIONS);
-            maxConnections = settings.getInt(SqlConfiguration.CONNECTIONPOOL_OPT_MAXCONNECTIONS);
-            connectionPoolTimeout = settings.getLong(SqlConfiguration.CONNECTIONPOOL_OPT_TIMEOUT);
-            LOG.fine("Configured connection pool:");
-            LOG.fine("    Partitions: " + partitions);
-            LOG.fine("    Connections (max): " + maxConnections);
-            LOG.fine("    Timeout: " + connectionPoolTimeout);
+            failureThreshold = settings.getInt(SqlConfiguration.CIRCUITBREAKER_OPT_FAILURES);
+            coolDown = settings.getLong(SqlConfiguration.CIRCUITBREAKER_OPT_COOLDOWN);
+            LOG.fine("Configured circuit breaker:");
+            LOG.fine("    Failures: " + failureThreshold);
+            LOG.fine("    Cool-down: " + coolDown);
         } catch (Exception e) {
-            throw new ExtensionException("Exception while configuring connection pool: " + e);
+            throw new ExtensionException("Exception while configuring circuit breaker: " + e);
+        }
+        for (CircuitBreaker circuitBreaker : circuitBreakers.values()) {
+            circuitBreaker.configure(failureThreshold, coolDown * 1000);
+        }
+    }
+
+    private void configureConnectionPool(SqlSetting settings) throws ExtensionException {
+        if (!settings.isValid()) {
+            return;
         }
+        defaultPool.configurePool(settings);
     }
 
     /**
@@ -417,12 +1086,41 @@ public class SqlConnectionManager implements SqlConfigurable, EventObserver<Conn
      * @throws DatabaseConfigurationException
      *             For configuration errors
      */
-    private void configureDatabase(SqlSetting settings) throws DatabaseConfigurationException {
+    private void configureDatabase(SqlSetting settings) throws DatabaseConfigurationException, ExtensionException {
+        if (!settings.isValid()) {
+            return;
+        }
+        defaultPool.configureDatabase(settings);
+    }
+
+    /**
+     * Configures a named pool (database and pool settings) based on the
+     * SqlSetting object provided, creating the pool if it does not exist yet.
+     * 
+     * @param settings
+     *            SqlSetting object, with name "pool:" followed by the name of
+     *            the pool
+     * @throws DatabaseConfigurationException
+     *             For configuration errors
+     */
+    private synchronized void configureNamedPool(SqlSetting settings) throws DatabaseConfigurationException,
+            ExtensionException {
         if (!settings.isValid()) {
             return;
         }
-        dbInfo = DatabaseFactory.createDatabaseInfo(settings);
-        initDefaultConnectionPool();
+        String name = settings.getName().substring(SqlConfiguration.NAMEDPOOL_PREFIX.length());
+        NamedPool pool = namedPools.get(name);
+        if (pool == null) {
+            NamedPool newPool = new NamedPool(name);
+            newPool.configure(settings);
+            namedPools.put(name, newPool);
+            SqlManagement currentManagement = management;
+            if (currentManagement != null) {
+                currentManagement.registerPool(newPool);
+            }
+        } else {
+            pool.configure(settings);
+        }
     }
 
     /**
@@ -432,13 +1130,16 @@ public class SqlConnectionManager implements SqlConfigurable, EventObserver<Conn
      *            SqlConnection object to remove
      */
     private void remove(SqlConnection sqlConnection) {
-        LOG.fine("Removing SqlConnection " + sqlConnection + " from connections-map");
+        LOG.log(Level.FINE, "Removing SqlConnection {0} from connections-map", sqlConnection);
         connections.values().remove(sqlConnection);
+        for (NamedPool pool : namedPools.values()) {
+            pool.getConnections().values().remove(sqlConnection);
+        }
     }
 
     @Override
     public void notify(ConnectionEvent event, EventObservable<ConnectionEvent> observable) {
-        LOG.fine("Notified of event " + event + " on " + observable);
+        LOG.log(Level.FINE, "Notified of event {0} on {1}", new Object[] { event, observable });
         switch (event) {
         case CLOSE:
             remove((SqlConnection) observable);
@@ -43,6 +43,7 @@ public class SqlEnvironment {
     private SqlConnectionManager connectionManager = new SqlConnectionManager();
     private SqlConfiguration configuration = new SqlConfiguration();
     private Logger LOG = SqlLogger.getLogger();
+    private SqlManagement management;
 
     private static String mavenVersion;
 
@@ -67,7 +68,7 @@ public class SqlEnvironment {
      * @throws ExtensionException
      */
     public SqlConnection getSqlConnection(Context context, boolean createConnection) throws ExtensionException {
-        LOG.log(Level.FINE, "SqlEnvironment.getSqlConnection(context=" + context + ")");
+        LOG.log(Level.FINE, "SqlEnvironment.getSqlConnection(context={0})", context);
         Agent agent = context.getAgent();
 
         if (agent == null) {
@@ -98,8 +99,37 @@ public class SqlEnvironment {
                     + "(sqlc == null)");
             throw new ExtensionException(problem);
         }
-        LOG.log(Level.FINE, "SqlEnvironment.getSqlActiveConnection(context=" + context + ")" + "returns SqlConnection("
-                + sqlc + ")");
+        LOG.log(Level.FINE, "SqlEnvironment.getSqlActiveConnection(context={0}) returns SqlConnection({1})",
+                new Object[] { context, sqlc });
+        return sqlc;
+    }
+
+    /**
+     * Method used to retrieve the connection for a query or an update of a
+     * context, routing queries to a read replica if replicas are configured.
+     * Will return an exception if no active connection was available.
+     * 
+     * @param context
+     * @param read
+     *            <code>true</code> for a query, <code>false</code> for an
+     *            update or the start of a transaction
+     * @return active connection
+     * @throws ExtensionException
+     */
+    public SqlConnection getRoutedSqlConnection(Context context, boolean read) throws ExtensionException {
+        Agent agent = context.getAgent();
+        if (agent == null) {
+            String problem = "Cannot determine agent.";
+            LOG.log(Level.SEVERE, "SqlEnvironment.getRoutedSqlConnection(context=" + context + "): " + problem);
+            throw new ExtensionException(problem);
+        }
+        SqlConnection sqlc = connectionManager.getRoutedConnection(agent, read);
+        if (sqlc == null) {
+            String problem = "No active database connection available";
+            LOG.log(Level.SEVERE, "SqlEnvironment.getRoutedSqlConnection(context=" + context + "): " + problem
+                    + "(sqlc == null)");
+            throw new ExtensionException(problem);
+        }
         return sqlc;
     }
 
@@ -120,7 +150,7 @@ public class SqlEnvironment {
             throw new ExtensionException("Cannot determine agent.");
         }
 
-        return connectionManager.createConnection(agent, connectionSettings);
+        return connectionManager.createConnection(agent, EmbeddedDatabase.resolvePath(connectionSettings, context));
     }
 
     /**
@@ -157,6 +187,28 @@ public class SqlEnvironment {
         return String.format(VERSION_TEMPLATE, mavenVersion);
     }
 
+    /**
+     * Registers the MBeans of the connection pools, agent connections and
+     * statement statistics with the platform MBean server, if not registered
+     * yet.
+     */
+    public synchronized void registerMBeans() {
+        if (management == null) {
+            management = new SqlManagement(connectionManager);
+            management.register();
+        }
+    }
+
+    /**
+     * Unregisters the MBeans registered by {@link #registerMBeans()}.
+     */
+    public synchronized void unregisterMBeans() {
+        if (management != null) {
+            management.unregister();
+            management = null;
+        }
+    }
+
     /**
      * 
      * @return the SQL configuration
@@ -25,6 +25,8 @@ import java.util.logging.Level;
 import nl.ou.netlogo.sql.extension.AutoCommitEnabled;
 import nl.ou.netlogo.sql.extension.AutoCommitOff;
 import nl.ou.netlogo.sql.extension.AutoCommitOn;
+import nl.ou.netlogo.sql.extension.CircuitBreakers;
+import nl.ou.netlogo.sql.extension.ClearRun;
 import nl.ou.netlogo.sql.extension.CommitTransaction;
 import nl.ou.netlogo.sql.extension.Configure;
 import nl.ou.netlogo.sql.extension.Connect;
@@ -42,12 +44,20 @@ import nl.ou.netlogo.sql.extension.GetRowCount;
 import nl.ou.netlogo.sql.extension.IsConnected;
 import nl.ou.netlogo.sql.extension.IsConnectedDebug;
 import nl.ou.netlogo.sql.extension.Log;
+import nl.ou.netlogo.sql.extension.PoolStats;
+import nl.ou.netlogo.sql.extension.RefreshMetadata;
+import nl.ou.netlogo.sql.extension.ResetStats;
 import nl.ou.netlogo.sql.extension.ResultSetAvailable;
 import nl.ou.netlogo.sql.extension.RollbackTransaction;
 import nl.ou.netlogo.sql.extension.RowAvailable;
+import nl.ou.netlogo.sql.extension.SetShardKey;
 import nl.ou.netlogo.sql.extension.ShowVersion;
 import nl.ou.netlogo.sql.extension.StartTransaction;
+import nl.ou.netlogo.sql.extension.Stats;
+import nl.ou.netlogo.sql.extension.TraceStart;
+import nl.ou.netlogo.sql.extension.TraceStop;
 import nl.ou.netlogo.sql.extension.UseDatabase;
+import nl.ou.netlogo.sql.extension.WithPool;
 
 import org.nlogo.api.DefaultClassManager;
 import org.nlogo.api.ExtensionException;
@@ -81,19 +91,31 @@ public class SqlExtension extends DefaultClassManager {
     public static final String USE_DATABASE = "use-database";
     public static final String CURRENT_DATABASE = "current-database";
     public static final String FIND_DATABASE = "find-database";
+    public static final String REFRESH_METADATA = "refresh-metadata";
+    public static final String WITH_POOL = "with-pool";
+    public static final String SET_SHARD_KEY = "set-shard-key";
+    public static final String CLEAR_RUN = "clear-run";
     public static final String AUTOCOMMITON = "autocommit-on";
     public static final String AUTOCOMMITOFF = "autocommit-off";
     public static final String AUTOCOMMIT_ENABLED = "autocommit-enabled?";
     public static final String START_TRANSACTION = "start-transaction";
     public static final String COMMIT_TRANSACTION = "commit-transaction";
     public static final String ROLLBACK_TRANSACTION = "rollback-transaction";
+    public static final String POOL_STATS = "pool-stats";
+    public static final String CIRCUIT_BREAKERS = "circuit-breakers";
+    public static final String STATS = "stats";
+    public static final String RESET_STATS = "reset-stats";
+    public static final String TRACE_START = "trace-start";
+    public static final String TRACE_STOP = "trace-stop";
 
     //
-    // Initialize the environment. When the model compiles,
-    // the load() method is called once. All environment defaults
-    // are available. The environment is shared across agents.
+    // Initialize the environment. Every workspace (eg every run of a parallel
+    // BehaviorSpace experiment) has its own instance of the extension, and so
+    // its own configuration and connections. The environment is shared across
+    // the agents of the workspace; physical connection pools are shared with
+    // other workspaces through the ConnectionPoolRegistry.
     //
-    private static SqlEnvironment sqlenv = null;
+    private final SqlEnvironment sqlenv = createSqlEnvironment();
     private static SqlLogger sqlLogger = null;
 
     static {
@@ -108,82 +130,129 @@ public class SqlExtension extends DefaultClassManager {
     public void load(PrimitiveManager primitiveManager) throws ExtensionException {
         SqlLogger.getLogger().log(Level.FINE, "Call to load");
         // Other
-        primitiveManager.addPrimitive(SHOW_VERSION, new ShowVersion());
+        primitiveManager.addPrimitive(SHOW_VERSION, new ShowVersion(sqlenv));
 
         // Connection setup and maintenance
-        primitiveManager.addPrimitive(CONNECT, new Connect());
-        primitiveManager.addPrimitive(IS_CONNECTED, new IsConnected());
-        primitiveManager.addPrimitive(DISCONNECT, new Disconnect());
-        primitiveManager.addPrimitive(USE_DATABASE, new UseDatabase());
-        primitiveManager.addPrimitive(CURRENT_DATABASE, new CurrentDatabase());
-        primitiveManager.addPrimitive(FIND_DATABASE, new FindDatabase());
+        primitiveManager.addPrimitive(CONNECT, new Connect(sqlenv));
+        primitiveManager.addPrimitive(IS_CONNECTED, new IsConnected(sqlenv));
+        primitiveManager.addPrimitive(DISCONNECT, new Disconnect(sqlenv));
+        primitiveManager.addPrimitive(USE_DATABASE, new UseDatabase(sqlenv));
+        primitiveManager.addPrimitive(CURRENT_DATABASE, new CurrentDatabase(sqlenv));
+        primitiveManager.addPrimitive(FIND_DATABASE, new FindDatabase(sqlenv));
+        primitiveManager.addPrimitive(REFRESH_METADATA, new RefreshMetadata(sqlenv));
+        primitiveManager.addPrimitive(WITH_POOL, new WithPool(sqlenv));
+        primitiveManager.addPrimitive(SET_SHARD_KEY, new SetShardKey(sqlenv));
+        primitiveManager.addPrimitive(CLEAR_RUN, new ClearRun(sqlenv));
 
         // Transaction management
-        primitiveManager.addPrimitive(AUTOCOMMITON, new AutoCommitOn());
-        primitiveManager.addPrimitive(AUTOCOMMITOFF, new AutoCommitOff());
-        primitiveManager.addPrimitive(AUTOCOMMIT_ENABLED, new AutoCommitEnabled());
-        primitiveManager.addPrimitive(START_TRANSACTION, new StartTransaction());
-        primitiveManager.addPrimitive(COMMIT_TRANSACTION, new CommitTransaction());
-        primitiveManager.addPrimitive(ROLLBACK_TRANSACTION, new RollbackTransaction());
+        primitiveManager.addPrimitive(AUTOCOMMITON, new AutoCommitOn(sqlenv));
+        primitiveManager.addPrimitive(AUTOCOMMITOFF, new AutoCommitOff(sqlenv));
+        primitiveManager.addPrimitive(AUTOCOMMIT_ENABLED, new AutoCommitEnabled(sqlenv));
+        primitiveManager.addPrimitive(START_TRANSACTION, new StartTransaction(sqlenv));
+        primitiveManager.addPrimitive(COMMIT_TRANSACTION, new CommitTransaction(sqlenv));
+        primitiveManager.addPrimitive(ROLLBACK_TRANSACTION, new RollbackTransaction(sqlenv));
 
         // Configuration
-        primitiveManager.addPrimitive(CONFIGURE, new Configure());
-        primitiveManager.addPrimitive(GET_CONFIGURATION, new GetConfiguration());
-        primitiveManager.addPrimitive(GET_FULL_CONFIGURATION, new GetFullConfiguration());
+        primitiveManager.addPrimitive(CONFIGURE, new Configure(sqlenv));
+        primitiveManager.addPrimitive(GET_CONFIGURATION, new GetConfiguration(sqlenv));
+        primitiveManager.addPrimitive(GET_FULL_CONFIGURATION, new GetFullConfiguration(sqlenv));
 
         // Logging
         primitiveManager.addPrimitive(LOG, new Log());
 
+        // Monitoring
+        primitiveManager.addPrimitive(POOL_STATS, new PoolStats(sqlenv));
+        primitiveManager.addPrimitive(CIRCUIT_BREAKERS, new CircuitBreakers(sqlenv));
+        primitiveManager.addPrimitive(STATS, new Stats(sqlenv));
+        primitiveManager.addPrimitive(RESET_STATS, new ResetStats(sqlenv));
+        primitiveManager.addPrimitive(TRACE_START, new TraceStart(sqlenv));
+        primitiveManager.addPrimitive(TRACE_STOP, new TraceStop(sqlenv));
+
         // Query
-        primitiveManager.addPrimitive(EXEC_DIRECT, new ExecDirect());
-        primitiveManager.addPrimitive(EXEC_QUERY, new ExecQuery());
-        primitiveManager.addPrimitive(EXEC_UPDATE, new ExecUpdate());
+        primitiveManager.addPrimitive(EXEC_DIRECT, new ExecDirect(sqlenv));
+        primitiveManager.addPrimitive(EXEC_QUERY, new ExecQuery(sqlenv));
+        primitiveManager.addPrimitive(EXEC_UPDATE, new ExecUpdate(sqlenv));
 
         // Result processing
-        primitiveManager.addPrimitive(RESULTSET_AVAILABLE, new ResultSetAvailable());
-        primitiveManager.addPrimitive(ROW_AVAILABLE, new RowAvailable());
-        primitiveManager.addPrimitive(FETCH_ROW, new FetchRow());
-        primitiveManager.addPrimitive(FETCH_RESULTSET, new FetchResultSet());
-        primitiveManager.addPrimitive(GET_ROWCOUNT, new GetRowCount());
+        primitiveManager.addPrimitive(RESULTSET_AVAILABLE, new ResultSetAvailable(sqlenv));
+        primitiveManager.addPrimitive(ROW_AVAILABLE, new RowAvailable(sqlenv));
+        primitiveManager.addPrimitive(FETCH_ROW, new FetchRow(sqlenv));
+        primitiveManager.addPrimitive(FETCH_RESULTSET, new FetchResultSet(sqlenv));
+        primitiveManager.addPrimitive(GET_ROWCOUNT, new GetRowCount(sqlenv));
 
         // Debugging/testing
-        primitiveManager.addPrimitive(DEBUG_IS_CONNECTED, new IsConnectedDebug());
+        primitiveManager.addPrimitive(DEBUG_IS_CONNECTED, new IsConnectedDebug(sqlenv));
+
+        // JMX monitoring
+        sqlenv.registerMBeans();
     }
 
     @Override
     public void unload(ExtensionManager em) throws ExtensionException {
         SqlLogger.getLogger().info("Call to SqlExtension.unload()");
-        SqlConnectionManager conMan = getSqlEnvironment().getConnectionManager();
+        sqlenv.unregisterMBeans();
+        SqlConnectionManager conMan = sqlenv.getConnectionManager();
         conMan.closeAll();
-        conMan.shutdownConnectionPool();
+        conMan.releaseConnectionPool();
+        conMan.getSlowQueryLog().close();
+        conMan.getReplayLog().close();
+        try {
+            conMan.getStatementStatistics().writeCsv();
+        } catch (ExtensionException e) {
+            SqlLogger.getLogger().severe(e.getMessage());
+        }
+        try {
+            conMan.getTraceRecorder().stop();
+        } catch (ExtensionException e) {
+            SqlLogger.getLogger().severe(e.getMessage());
+        }
 
         super.unload(em);
     }
 
     /**
-     * Method used to return the sql environment handle.
+     * Method used to return the sql environment handle of the workspace.
      * 
      * @return sql environment handle
      */
-    public synchronized static SqlEnvironment getSqlEnvironment() {
-        if (sqlenv == null) {
-            sqlenv = new SqlEnvironment();
-
-            //
-            // register objects that are configurable with the SqlConfiguration
-            // class in sqlenv
-            //
-            try {
-                // NB: Logging should be configured FIRST, so that the default logging settings
-                // will be obeyed while configuring other aspects
-                sqlenv.getConfiguration().addConfigurable(SqlConfiguration.LOGGING, sqlLogger);
-                sqlenv.getConfiguration().addConfigurable(SqlConfiguration.DEFAULTCONNECTION,
-                        sqlenv.getConnectionManager());
-                sqlenv.getConfiguration().addConfigurable(SqlConfiguration.CONNECTIONPOOL,
-                        sqlenv.getConnectionManager());
-            } catch (Exception ex) {
-                throw new IllegalStateException("Unable to initialize SqlEnvironment: ", ex);
-            }
+    public SqlEnvironment getSqlEnvironment() {
+        return sqlenv;
+    }
+
+    /**
+     * Creates a sql environment, with all configurable objects registered.
+     * 
+     * @return sql environment handle
+     */
+    static SqlEnvironment createSqlEnvironment() {
+        SqlEnvironment sqlenv = new SqlEnvironment();
+
+        //
+        // register objects that are configurable with the SqlConfiguration
+        // class in sqlenv
+        //
+        try {
+            // NB: Logging should be configured FIRST, so that the default logging settings
+            // will be obeyed while configuring other aspects
+            sqlenv.getConfiguration().addConfigurable(SqlConfiguration.LOGGING, sqlLogger);
+            sqlenv.getConfiguration().addConfigurable(SqlConfiguration.DEFAULTCONNECTION,
+                    sqlenv.getConnectionManager());
+            sqlenv.getConfiguration().addConfigurable(SqlConfiguration.CONNECTIONPOOL,
+                    sqlenv.getConnectionManager());
+            sqlenv.getConfiguration().addConfigurable(SqlConfiguration.CIRCUITBREAKER,
+                    sqlenv.getConnectionManager());
+            sqlenv.getConfiguration().addConfigurable(SqlConfiguration.NAMEDPOOL_PREFIX,
+                    sqlenv.getConnectionManager());
+            sqlenv.getConfiguration().addConfigurable(SqlConfiguration.STATISTICS,
+                    sqlenv.getConnectionManager().getStatementStatistics());
+            sqlenv.getConfiguration().addConfigurable(SqlConfiguration.SLOWQUERY,
+                    sqlenv.getConnectionManager().getSlowQueryLog());
+            sqlenv.getConfiguration().addConfigurable(SqlConfiguration.REPLAY,
+                    sqlenv.getConnectionManager().getReplayLog());
+            sqlenv.getConfiguration().addConfigurable(SqlConfiguration.RUNPARTITION,
+                    sqlenv.getConnectionManager().getRunPartitioning());
+        } catch (Exception ex) {
+            throw new IllegalStateException("Unable to initialize SqlEnvironment: ", ex);
         }
 
         return sqlenv;
@@ -20,11 +20,19 @@
  */
 package nl.ou.netlogo.sql.wrapper;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.logging.*;
 import org.nlogo.api.*;
 
 /**
  * Configurable wrapper class for the standard Java Logger class
+ * <p>
+ * Records are only created if they will be written: without file logging and
+ * copying to stderr the level of the logger is OFF, so guarded or
+ * parameterized log calls cost next to nothing. By default records are written
+ * by an {@link AsyncLogHandler}, so the logging thread does not wait for I/O.
+ * </p>
  * 
  * @author NetLogo project-team
  * 
@@ -34,13 +42,20 @@ public class SqlLogger implements SqlConfigurable {
     private static final String loggerName = "nl.ou.netlogo";
     private static MyLogger logger = null;
     private static FileHandler fileHandler;
+    private static Handler stdErrHandler;
+    /**
+     * Handlers installed on the logger: an AsyncLogHandler, or the file and
+     * stderr handlers themselves when writing synchronously
+     */
+    private static List<Handler> installedHandlers = new ArrayList<Handler>();
+    private static boolean shutdownHookAdded = false;
 
     /*
      * internal logger to intercept all logging
      */
     private static class MyLogger extends Logger {
         private Logger realLogger = null;
-        private boolean copy2StdErr = false;
+        private volatile boolean hasOutput = false;
 
         public MyLogger(String name) {
             super(name, null);
@@ -52,26 +67,52 @@ public class SqlLogger implements SqlConfigurable {
         }
 
         public void log(LogRecord rec) {
-            if (copy2StdErr) {
-                System.err.println("LOGGED (" + rec.getLevel() + "): " + rec.getMessage());
-            }
             realLogger.log(rec);
         }
 
+        public boolean isLoggable(Level level) {
+            return realLogger.isLoggable(level);
+        }
+
+        public void setLevel(Level level) {
+            super.setLevel(level);
+            updateLevel();
+        }
+
         private void initializeLogger() {
             /*
-             * Create the logger. By default, set up a memory handler that will
-             * only push SEVERE messages to the console, (buffer size 1 makes it
-             * discard any other messages), and switch all parent handlers off
+             * Create the logger, and switch all parent handlers off. Until
+             * output is configured, nothing is logged at all.
              */
             realLogger.setUseParentHandlers(false);
+            realLogger.setLevel(Level.OFF);
+        }
 
+        public void setHasOutput(boolean toggle) {
+            hasOutput = toggle;
+            updateLevel();
         }
 
-        public void setCopy2StdErr(boolean toggle) {
-            copy2StdErr = toggle;
+        private void updateLevel() {
+            if (realLogger != null) {
+                // the level of the real logger also applies to classes that
+                // obtained it before this logger was created
+                realLogger.setLevel(hasOutput ? getLevel() : Level.OFF);
+            }
         }
+    }
 
+    /*
+     * formats log records copied to stderr
+     */
+    private static class StdErrFormatter extends Formatter {
+        public String format(LogRecord rec) {
+            String message = "LOGGED (" + rec.getLevel() + "): " + formatMessage(rec) + "\n";
+            if (rec.getThrown() != null) {
+                message += rec.getThrown() + "\n";
+            }
+            return message;
+        }
     }
     
     public SqlLogger() {
@@ -103,7 +144,20 @@ public class SqlLogger implements SqlConfigurable {
             logLevel = Level.INFO;
             message = "(" + level.toUpperCase() + ") " + message;
         }
-        logger.log(logLevel, message + "(from: " + context + ")");
+        if (logger.isLoggable(logLevel)) {
+            logger.log(logLevel, message + "(from: " + context + ")");
+        }
+    }
+
+    /**
+     * Writes the log records that are still queued.
+     */
+    public static void flush() {
+        synchronized (SqlLogger.class) {
+            for (Handler handler : installedHandlers) {
+                handler.flush();
+            }
+        }
     }
 
     /*
@@ -123,44 +177,56 @@ public class SqlLogger implements SqlConfigurable {
             try {
                 LOG.finest("Starting to configure the logger");
                 boolean toggle = SqlSetting.toggleValue(settings.getString(SqlConfiguration.LOGGING_OPT_LOGGING));
-                if (toggle) {
-                    synchronized(SqlLogger.class) {
-                        if (fileHandler == null) {
-                            /*
-                             * create a file handler
-                             */
-                            try {
-                                fileHandler = new FileHandler(parseLogPath(
-                                        settings.getString(SqlConfiguration.LOGGING_OPT_PATH), context)
-                                        + "/sqlwrapper.log");
-                                fileHandler.setFormatter(new SimpleFormatter());
-                                fileHandler.setLevel(Level.ALL);
-    
-                                // add a shutdown hook to close down the file handler at program exit
-                                Runtime.getRuntime().addShutdownHook(new Thread() {
-                                    public void run() {
-                                        if (fileHandler != null) {
-                                            fileHandler.close();
-                                        }
-                                    }
-                                });
-                            } catch (Exception ex) {
-                                String message = "Cannot configure logging file handler: " + ex;
-                                LOG.severe(message);
-                                throw new ExtensionException(message);
-                            }
+                boolean copy2StdErr = SqlSetting.toggleValue(settings
+                        .getString(SqlConfiguration.LOGGING_OPT_COPYTOSTDERR));
+                boolean async = SqlSetting.toggleValue(settings.getString(SqlConfiguration.LOGGING_OPT_ASYNC));
+                int queueSize = settings.getInt(SqlConfiguration.LOGGING_OPT_QUEUESIZE);
+                AsyncLogHandler.Overflow overflow;
+                try {
+                    overflow = AsyncLogHandler.Overflow.forName(settings
+                            .getString(SqlConfiguration.LOGGING_OPT_OVERFLOW));
+                } catch (IllegalArgumentException ex) {
+                    throw new ExtensionException(ex.getMessage());
+                }
+                if (async && queueSize < 1) {
+                    throw new ExtensionException("Logging queue-size must be at least 1, was " + queueSize);
+                }
+                synchronized(SqlLogger.class) {
+                    if (toggle && fileHandler == null) {
+                        /*
+                         * create a file handler
+                         */
+                        try {
+                            fileHandler = new FileHandler(parseLogPath(
+                                    settings.getString(SqlConfiguration.LOGGING_OPT_PATH), context)
+                                    + "/sqlwrapper.log");
+                            fileHandler.setFormatter(new SimpleFormatter());
+                            fileHandler.setLevel(Level.ALL);
+                        } catch (Exception ex) {
+                            String message = "Cannot configure logging file handler: " + ex;
+                            LOG.severe(message);
+                            throw new ExtensionException(message);
                         }
                     }
+                    if (copy2StdErr && stdErrHandler == null) {
+                        stdErrHandler = new ConsoleHandler();
+                        stdErrHandler.setFormatter(new StdErrFormatter());
+                        stdErrHandler.setLevel(Level.ALL);
+                    }
+                    LOG.finest("Handler done, now doing logger settings");
+                    installHandler(toggle, copy2StdErr, async, queueSize, overflow);
                 }
-                LOG.finest("Handler done, now doing logger settings");
-                logger.setCopy2StdErr(SqlSetting.toggleValue(settings
-                        .getString(SqlConfiguration.LOGGING_OPT_COPYTOSTDERR)));
                 setLevel(logger, settings.getString(SqlConfiguration.LOGGING_OPT_LEVEL));
 
-                LOG.fine("Logging configured");
-                LOG.fine("    path: " + parseLogPath(settings.getString(SqlConfiguration.LOGGING_OPT_PATH), context));
-                LOG.fine("    file handler: " + settings.getString(SqlConfiguration.LOGGING_OPT_LOGGING));
-                LOG.fine("    copy to stderr: " + settings.getString(SqlConfiguration.LOGGING_OPT_COPYTOSTDERR));
+                if (LOG.isLoggable(Level.FINE)) {
+                    LOG.fine("Logging configured");
+                    LOG.fine("    path: " + parseLogPath(settings.getString(SqlConfiguration.LOGGING_OPT_PATH), context));
+                    LOG.fine("    file handler: " + settings.getString(SqlConfiguration.LOGGING_OPT_LOGGING));
+                    LOG.fine("    copy to stderr: " + settings.getString(SqlConfiguration.LOGGING_OPT_COPYTOSTDERR));
+                    LOG.fine("    async: " + async + " (queue-size: " + queueSize + ", overflow: " + overflow + ")");
+                }
+            } catch (ExtensionException ex) {
+                throw ex;
             } catch (Exception ex) {
                 String message = "Unexpected exception: " + ex;
                 LOG.severe(message);
@@ -170,6 +236,70 @@ public class SqlLogger implements SqlConfigurable {
         }
     }
 
+    /**
+     * Installs the handler for the configured output on the logger, replacing
+     * the handler installed before.
+     * 
+     * @param toFile
+     *            <code>true</code> to write to the log file
+     * @param toStdErr
+     *            <code>true</code> to copy to stderr
+     * @param async
+     *            <code>true</code> to write on a background thread
+     * @param queueSize
+     *            Maximum number of records waiting to be written
+     * @param overflow
+     *            What to do with a record if the queue is full
+     */
+    private static void installHandler(boolean toFile, boolean toStdErr, boolean async, int queueSize,
+            AsyncLogHandler.Overflow overflow) {
+        List<Handler> targets = new ArrayList<Handler>();
+        if (toFile) {
+            targets.add(fileHandler);
+        }
+        if (toStdErr) {
+            targets.add(stdErrHandler);
+        }
+        List<Handler> newHandlers = new ArrayList<Handler>();
+        if (async && !targets.isEmpty()) {
+            newHandlers.add(new AsyncLogHandler(targets.toArray(new Handler[targets.size()]), queueSize, overflow));
+        } else {
+            newHandlers.addAll(targets);
+        }
+        for (Handler oldHandler : installedHandlers) {
+            logger.realLogger.removeHandler(oldHandler);
+            if (oldHandler instanceof AsyncLogHandler) {
+                // write what is queued before the outputs change
+                ((AsyncLogHandler) oldHandler).stop();
+            }
+        }
+        for (Handler newHandler : newHandlers) {
+            logger.realLogger.addHandler(newHandler);
+        }
+        installedHandlers = newHandlers;
+        logger.setHasOutput(!targets.isEmpty());
+
+        if (!shutdownHookAdded && !targets.isEmpty()) {
+            // add a shutdown hook to write the queued records and close down
+            // the file handler at program exit
+            Runtime.getRuntime().addShutdownHook(new Thread() {
+                public void run() {
+                    synchronized (SqlLogger.class) {
+                        for (Handler handler : installedHandlers) {
+                            if (handler instanceof AsyncLogHandler) {
+                                ((AsyncLogHandler) handler).stop();
+                            }
+                        }
+                        if (fileHandler != null) {
+                            fileHandler.close();
+                        }
+                    }
+                }
+            });
+            shutdownHookAdded = true;
+        }
+    }
+
     /**
      * Configures the path for the log files
      * 
@@ -177,7 +307,7 @@ public class SqlLogger implements SqlConfigurable {
      * @param context
      * @throws Exception
      */
-    private String parseLogPath(String path, Context context) throws Exception {
+    static String parseLogPath(String path, Context context) throws Exception {
         if (context != null) {
             /*
              * special treatment: if path starts with "%m" or "%c", it is
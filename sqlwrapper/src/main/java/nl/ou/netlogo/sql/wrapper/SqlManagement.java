@@ -0,0 +1,282 @@
+/*
+ * Copyright 2010, 2011 Open University of The Netherlands
+ * Contributors: Jan Blom, Rene Quakkelaar, Mark Rotteveel
+ *
+ * This file is part of NetLogo SQL Wrapper extension.
+ * 
+ * NetLogo SQL Wrapper extension is free software: you can redistribute it
+ * and/or modify it under the terms of the GNU Lesser General Public License 
+ * as published by the Free Software Foundation, either version 3 of the 
+ * License, or (at your option) any later version.
+ * 
+ * NetLogo SQL Wrapper is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with NetLogo SQL Wrapper extension.  If not, 
+ * see <http://www.gnu.org/licenses/>.
+ */
+package nl.ou.netlogo.sql.wrapper;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.management.InstanceNotFoundException;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Registers MBeans for the connection pools, the connections of agents and
+ * the statement statistics of a {@link SqlConnectionManager}, so they can be
+ * monitored with JMX tools (eg JConsole or VisualVM).
+ * <p>
+ * The MBeans are registered in the domain {@value #DOMAIN}, with the key
+ * <code>instance</code> identifying the connection manager, so several models
+ * in one JVM do not clash. Failures to register are logged, and do not
+ * prevent the extension from loading.
+ * </p>
+ * 
+ * @author NetLogo project-team
+ */
+public class SqlManagement {
+
+    private static final Logger LOG = SqlLogger.getLogger();
+
+    /**
+     * Domain of the object names of the MBeans.
+     */
+    public static final String DOMAIN = "nl.ou.netlogo.sql";
+
+    private final SqlConnectionManager connectionManager;
+    private final MBeanServer server;
+    private final String instance;
+    private final List<ObjectName> registered = new CopyOnWriteArrayList<ObjectName>();
+
+    /**
+     * Creates a SqlManagement for the platform MBean server.
+     * 
+     * @param connectionManager
+     *            Connection manager to expose
+     */
+    public SqlManagement(SqlConnectionManager connectionManager) {
+        this(connectionManager, ManagementFactory.getPlatformMBeanServer());
+    }
+
+    /**
+     * Creates a SqlManagement.
+     * 
+     * @param connectionManager
+     *            Connection manager to expose
+     * @param server
+     *            MBean server to register the MBeans with
+     */
+    public SqlManagement(SqlConnectionManager connectionManager, MBeanServer server) {
+        this.connectionManager = connectionManager;
+        this.server = server;
+        this.instance = Integer.toHexString(System.identityHashCode(connectionManager));
+    }
+
+    /**
+     * Registers the MBeans, including one for each pool configured so far.
+     * Pools configured later are registered when they are created.
+     */
+    public void register() {
+        register(objectName("ConnectionRegistry", null), new ConnectionRegistry());
+        register(objectName("StatementStatistics", null), new Statements());
+        for (NamedPool pool : connectionManager.getPools()) {
+            registerPool(pool);
+        }
+        connectionManager.setManagement(this);
+    }
+
+    /**
+     * Registers the MBean of a pool.
+     * 
+     * @param pool
+     *            Default or named pool
+     */
+    public void registerPool(NamedPool pool) {
+        register(objectName("ConnectionPool", pool.getName()), new Pool(pool));
+    }
+
+    /**
+     * Unregisters all MBeans registered by this SqlManagement.
+     */
+    public void unregister() {
+        connectionManager.setManagement(null);
+        for (ObjectName name : registered) {
+            try {
+                server.unregisterMBean(name);
+            } catch (InstanceNotFoundException e) {
+                // already unregistered
+            } catch (JMException e) {
+                LOG.log(Level.WARNING, "Unable to unregister MBean " + name, e);
+            }
+        }
+        registered.clear();
+    }
+
+    /**
+     * @return Object names of the registered MBeans
+     */
+    public List<ObjectName> getObjectNames() {
+        return new ArrayList<ObjectName>(registered);
+    }
+
+    private ObjectName objectName(String type, String poolName) {
+        try {
+            return new ObjectName(DOMAIN + ":type=" + type + ",instance=" + instance
+                    + (poolName != null ? ",name=" + ObjectName.quote(poolName) : ""));
+        } catch (JMException e) {
+            throw new IllegalArgumentException("Invalid MBean name for " + type + " " + poolName, e);
+        }
+    }
+
+    private void register(ObjectName name, Object mbean) {
+        try {
+            if (server.isRegistered(name)) {
+                server.unregisterMBean(name);
+            }
+            server.registerMBean(mbean, name);
+            registered.add(name);
+            LOG.log(Level.FINE, "Registered MBean {0}", name);
+        } catch (JMException e) {
+            LOG.log(Level.WARNING, "Unable to register MBean " + name, e);
+        }
+    }
+
+    private static double value(Map<String, Object> stats, String key) {
+        Object value = stats.get(key);
+        return value instanceof Number ? ((Number) value).doubleValue() : 0;
+    }
+
+    private class ConnectionRegistry implements ConnectionRegistryMXBean {
+
+        public int getConnectionCount() {
+            return connectionManager.getConnectionCount();
+        }
+
+        public int getOpenResultSets() {
+            return connectionManager.getOpenResultSetCount();
+        }
+
+        public int closeIdleConnections(long idleSeconds) {
+            return connectionManager.closeIdleConnections(idleSeconds * 1000);
+        }
+    }
+
+    private class Statements implements StatementStatisticsMXBean {
+
+        private StatementStatistics statistics() {
+            return connectionManager.getStatementStatistics();
+        }
+
+        public boolean isEnabled() {
+            return statistics().isEnabled();
+        }
+
+        public int getStatementCount() {
+            return statistics().getEntries().size();
+        }
+
+        public long getExecutions() {
+            long executions = 0;
+            for (StatementStatistics.Entry entry : statistics().getEntries()) {
+                executions += entry.getExecutions();
+            }
+            return executions;
+        }
+
+        public long getErrors() {
+            long errors = 0;
+            for (StatementStatistics.Entry entry : statistics().getEntries()) {
+                errors += entry.getErrors();
+            }
+            return errors;
+        }
+
+        public List<StatementStatistics.Entry> getStatements() {
+            return statistics().getEntries();
+        }
+
+        public void resetStatistics() {
+            statistics().reset();
+        }
+    }
+
+    private static class Pool implements ConnectionPoolMXBean {
+
+        private final NamedPool pool;
+
+        Pool(NamedPool pool) {
+            this.pool = pool;
+        }
+
+        private Map<String, Object> stats() {
+            return pool.getStatisticsMap();
+        }
+
+        public String getName() {
+            return pool.getName();
+        }
+
+        public boolean isEnabled() {
+            return pool.isEnabled();
+        }
+
+        public int getActive() {
+            return (int) value(stats(), "active");
+        }
+
+        public int getIdle() {
+            return (int) value(stats(), "idle");
+        }
+
+        public int getWaiting() {
+            return (int) value(stats(), "waiting");
+        }
+
+        public long getCheckouts() {
+            return (long) value(stats(), "checkouts");
+        }
+
+        public long getCheckoutTimeouts() {
+            return (long) value(stats(), "checkout-timeouts");
+        }
+
+        public long getCheckoutFailures() {
+            return (long) value(stats(), "checkout-failures");
+        }
+
+        public long getValidationFailures() {
+            return (long) value(stats(), "validation-failures");
+        }
+
+        public double getCheckoutMeanMillis() {
+            return value(stats(), "checkout-mean-ms");
+        }
+
+        public double getCheckoutP99Millis() {
+            return value(stats(), "checkout-p99-ms");
+        }
+
+        public int getRetiredPools() {
+            return (int) value(stats(), "retired-pools");
+        }
+
+        public void resetStatistics() {
+            ConnectionPool connectionPool = pool.getConnectionPool();
+            if (connectionPool != null) {
+                connectionPool.getStatistics().reset();
+            }
+        }
+    }
+}
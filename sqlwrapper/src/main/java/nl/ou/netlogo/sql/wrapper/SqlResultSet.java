@@ -42,7 +42,17 @@ public class SqlResultSet {
     private ResultSetMetaData metaData;
     private boolean endOfResultSet = true;
     private boolean fetching = false;
+    private int rowsFetched;
     private final AutodisconnectCoordinator autodisconnectCoordinator;
+    private final StatementStatistics.Entry stats;
+    private TraceRecorder traceRecorder;
+    private String sql;
+    private Agent agent;
+    /**
+     * <code>true</code> while fetchResultSet() fetches the rows, which is
+     * traced as a whole
+     */
+    private boolean fetchingAll;
 
     /**
      * Sets up the result set in a SQL like format.
@@ -54,8 +64,25 @@ public class SqlResultSet {
      */
     protected SqlResultSet(ResultSet resultSet, AutodisconnectCoordinator autodisconnectCoordinator)
             throws ExtensionException {
+        this(resultSet, autodisconnectCoordinator, null);
+    }
+
+    /**
+     * Sets up the result set in a SQL like format, recording the rows fetched
+     * in the statement statistics.
+     * 
+     * @param resultSet
+     * @param autodisconnectCoordinator
+     *            AutodisconnectCoordinator
+     * @param stats
+     *            Statistics of the statement (null to not record statistics)
+     * @throws ExtensionException
+     */
+    protected SqlResultSet(ResultSet resultSet, AutodisconnectCoordinator autodisconnectCoordinator,
+            StatementStatistics.Entry stats) throws ExtensionException {
         this.resultSet = resultSet;
         this.autodisconnectCoordinator = autodisconnectCoordinator;
+        this.stats = stats;
 
         try {
             if (resultSet.next()) {
@@ -71,6 +98,30 @@ public class SqlResultSet {
 
     }
 
+    /**
+     * Constructor for subclasses that do not wrap a single JDBC result set.
+     */
+    protected SqlResultSet() {
+        this.autodisconnectCoordinator = null;
+        this.stats = null;
+    }
+
+    /**
+     * Sets the recorder to trace the fetching of rows with.
+     * 
+     * @param traceRecorder
+     *            Trace recorder
+     * @param sql
+     *            SQL text of the statement
+     * @param agent
+     *            Agent fetching the rows (can be null)
+     */
+    protected void setTraceRecorder(TraceRecorder traceRecorder, String sql, Agent agent) {
+        this.traceRecorder = traceRecorder;
+        this.sql = sql;
+        this.agent = agent;
+    }
+
     /**
      * Method to check if a resultset is available.
      * 
@@ -117,6 +168,7 @@ public class SqlResultSet {
         if (isEndOfResultSet()) {
             return new LogoListBuilder().toLogoList();
         }
+        long start = System.nanoTime();
 
         try {
             // the metadata is used to do the convert datatypes from SQL to NetLogo
@@ -154,10 +206,17 @@ public class SqlResultSet {
                 }
             }
 
+            rowsFetched++;
+            if (stats != null) {
+                stats.recordRowFetched();
+            }
             if (!resultSet.next()) {
                 endOfResultSet = true;
                 autodisconnectCoordinator.endOfResultSet();
             }
+            if (traceRecorder != null && !fetchingAll) {
+                traceRecorder.record(TraceRecorder.FETCH, start, agent, sql, 1);
+            }
 
             return cols.toLogoList();
         } catch (SQLException e) {
@@ -165,6 +224,13 @@ public class SqlResultSet {
         }
     }
 
+    /**
+     * @return Number of rows fetched so far
+     */
+    public int getRowsFetched() {
+        return rowsFetched;
+    }
+
     /**
      * @return list of rows
      * @throws ExtensionException
@@ -178,9 +244,20 @@ public class SqlResultSet {
         }
 
         LogoList cols;
-        while (isRowAvailable()) {
-            cols = fetchRow();
-            rows.add(cols);
+        long start = System.nanoTime();
+        int count = 0;
+        fetchingAll = true;
+        try {
+            while (isRowAvailable()) {
+                cols = fetchRow();
+                rows.add(cols);
+                count++;
+            }
+        } finally {
+            fetchingAll = false;
+            if (traceRecorder != null) {
+                traceRecorder.record(TraceRecorder.FETCH, start, agent, sql, count);
+            }
         }
         return rows.toLogoList();
     }
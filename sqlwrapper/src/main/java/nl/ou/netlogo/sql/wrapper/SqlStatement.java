@@ -45,6 +45,19 @@ public class SqlStatement {
     private SqlResultSet resultSet;
     private int rowCount = -1;
     private final AutodisconnectCoordinator autodisconnectCoordinator;
+    private final StatementStatistics.Entry stats;
+    private SlowQueryLog slowQueryLog;
+    private TraceRecorder traceRecorder;
+    private ReplayLog replayLog;
+    private String sql;
+    private LogoList replayParameters;
+    private Agent agent;
+    private DatabaseInfo dbInfo;
+    /**
+     * Slow execution to write to the slow query log when the statement is
+     * closed (when the number of rows is known)
+     */
+    private SlowQueryLog.SlowQuery slowQuery;
 
     /**
      * Constructor for SqlStatement with support for parameters (parameterized
@@ -60,9 +73,82 @@ public class SqlStatement {
      */
     protected SqlStatement(PreparedStatement statement, LogoList parameters,
             AutodisconnectCoordinator autodisconnectCoordinator) {
+        this(statement, parameters, autodisconnectCoordinator, null);
+    }
+
+    /**
+     * Constructor for SqlStatement that records its executions in the
+     * statement statistics.
+     * 
+     * @param statement
+     *            PreparedStatement object
+     * @param parameters
+     *            Parameters as a NetLogo list (or null or empty list if no
+     *            parameters are needed)
+     * @param autodisconnectCoordinator
+     *            AutodisconnectCoordinator
+     * @param stats
+     *            Statistics of the statement (null to not record statistics)
+     */
+    protected SqlStatement(PreparedStatement statement, LogoList parameters,
+            AutodisconnectCoordinator autodisconnectCoordinator, StatementStatistics.Entry stats) {
         this.statement = statement;
         this.parameters = parameters;
         this.autodisconnectCoordinator = autodisconnectCoordinator;
+        this.stats = stats;
+    }
+
+    /**
+     * Sets the log to write the execution of this statement to if it takes
+     * longer than the threshold of the log.
+     * 
+     * @param slowQueryLog
+     *            Slow query log
+     * @param sql
+     *            SQL text of the statement
+     * @param agent
+     *            Agent executing the statement (can be null)
+     * @param dbInfo
+     *            Database the statement is executed on
+     */
+    protected void setSlowQueryLog(SlowQueryLog slowQueryLog, String sql, Agent agent, DatabaseInfo dbInfo) {
+        this.slowQueryLog = slowQueryLog;
+        this.sql = sql;
+        this.agent = agent;
+        this.dbInfo = dbInfo;
+    }
+
+    /**
+     * Sets the recorder to trace the execution of this statement and the
+     * fetching of its results with.
+     * 
+     * @param traceRecorder
+     *            Trace recorder
+     * @param sql
+     *            SQL text of the statement
+     * @param agent
+     *            Agent executing the statement (can be null)
+     */
+    protected void setTraceRecorder(TraceRecorder traceRecorder, String sql, Agent agent) {
+        this.traceRecorder = traceRecorder;
+        this.sql = sql;
+        this.agent = agent;
+    }
+
+    /**
+     * Sets the log to record the result of this statement in.
+     * 
+     * @param replayLog
+     *            Replay log in record mode
+     * @param sql
+     *            SQL text of the statement
+     * @param parameters
+     *            Parameters of the statement, as replayed (null if none)
+     */
+    protected void setReplayLog(ReplayLog replayLog, String sql, LogoList parameters) {
+        this.replayLog = replayLog;
+        this.sql = sql;
+        this.replayParameters = parameters;
     }
 
     /**
@@ -75,19 +161,29 @@ public class SqlStatement {
      * @see #getRowCount
      */
     public boolean executeDirect() throws ExtensionException {
-        LOG.log(Level.FINE, "SqlStatement.executeDirect('{0}')", new Object[] { statement });
+        LOG.log(Level.FINE, "SqlStatement.executeDirect(''{0}'')", new Object[] { statement });
+        long start = System.nanoTime();
         try {
             if (statement.execute()) {
                 // expect a result set
-                resultSet = new SqlResultSet(statement.getResultSet(), autodisconnectCoordinator);
+                resultSet = new SqlResultSet(statement.getResultSet(), autodisconnectCoordinator, stats);
+                if (replayLog != null) {
+                    resultSet = replayLog.record(sql, replayParameters, resultSet);
+                }
+                recordExecution(start, false);
                 return true;
             } else {
                 // expect an update count
                 rowCount = statement.getUpdateCount();
+                if (replayLog != null) {
+                    replayLog.record(sql, replayParameters, rowCount);
+                }
+                recordExecution(start, false);
                 autodisconnectCoordinator.noResultSet();
                 return false;
             }
         } catch (Exception e) {
+            recordExecution(start, true);
             close();
             if (e instanceof ExtensionException) {
                 throw (ExtensionException) e;
@@ -102,11 +198,17 @@ public class SqlStatement {
      * @throws ExtensionException
      */
     public void executeQuery() throws ExtensionException {
-        LOG.log(Level.FINE, "SqlStatement.executeQuery('{0}', '{1}')", new Object[] { statement, parameters });
+        LOG.log(Level.FINE, "SqlStatement.executeQuery(''{0}'', ''{1}'')", new Object[] { statement, parameters });
+        long start = System.nanoTime();
         try {
             prepareStatement();
-            resultSet = new SqlResultSet(statement.executeQuery(), autodisconnectCoordinator);
+            resultSet = new SqlResultSet(statement.executeQuery(), autodisconnectCoordinator, stats);
+            if (replayLog != null) {
+                resultSet = replayLog.record(sql, replayParameters, resultSet);
+            }
+            recordExecution(start, false);
         } catch (Exception e) {
+            recordExecution(start, true);
             close();
             if (e instanceof ExtensionException) {
                 throw (ExtensionException) e;
@@ -122,12 +224,18 @@ public class SqlStatement {
      * @throws ExtensionException
      */
     public void executeUpdate() throws ExtensionException {
-        LOG.log(Level.FINE, "SqlStatement.executeUpdate('{0}', '{1}')", new Object[] { statement, parameters });
+        LOG.log(Level.FINE, "SqlStatement.executeUpdate(''{0}'', ''{1}'')", new Object[] { statement, parameters });
+        long start = System.nanoTime();
         try {
             prepareStatement();
             rowCount = statement.executeUpdate();
+            if (replayLog != null) {
+                replayLog.record(sql, replayParameters, rowCount);
+            }
+            recordExecution(start, false);
             autodisconnectCoordinator.noResultSet();
         } catch (Exception e) {
+            recordExecution(start, true);
             close();
             if (e instanceof ExtensionException) {
                 throw (ExtensionException) e;
@@ -136,6 +244,35 @@ public class SqlStatement {
         }
     }
 
+    /**
+     * Records an execution in the statement statistics, with the rows updated
+     * by a successful execution, remembers a slow execution for the slow
+     * query log and traces the execution.
+     * 
+     * @param start
+     *            Start of the execution (System.nanoTime())
+     * @param failed
+     *            <code>true</code> if the execution failed
+     */
+    private void recordExecution(long start, boolean failed) {
+        long nanos = System.nanoTime() - start;
+        if (stats != null) {
+            stats.recordExecution(nanos, failed);
+            if (!failed) {
+                stats.recordRowsUpdated(rowCount);
+            }
+        }
+        if (slowQueryLog != null && slowQueryLog.isSlow(nanos)) {
+            slowQuery = new SlowQueryLog.SlowQuery(sql, parameters, agent, nanos, dbInfo);
+        }
+        if (traceRecorder != null) {
+            traceRecorder.record(TraceRecorder.EXECUTE, start, agent, sql, failed ? -1 : rowCount);
+            if (resultSet != null) {
+                resultSet.setTraceRecorder(traceRecorder, sql, agent);
+            }
+        }
+    }
+
     /**
      * Prepares the statement by setting the parameters.
      * 
@@ -191,6 +328,10 @@ public class SqlStatement {
      */
     public void close() {
         LOG.log(Level.FINE, "SqlStatement.close()");
+        if (slowQuery != null) {
+            slowQueryLog.record(slowQuery, resultSet != null ? resultSet.getRowsFetched() : rowCount);
+            slowQuery = null;
+        }
         try {
             if (resultSet != null) {
                 resultSet.close();
@@ -0,0 +1,421 @@
+/*
+ * Copyright 2010, 2011 Open University of The Netherlands
+ * Contributors: Jan Blom, Rene Quakkelaar, Mark Rotteveel
+ *
+ * This file is part of NetLogo SQL Wrapper extension.
+ * 
+ * NetLogo SQL Wrapper extension is free software: you can redistribute it
+ * and/or modify it under the terms of the GNU Lesser General Public License 
+ * as published by the Free Software Foundation, either version 3 of the 
+ * License, or (at your option) any later version.
+ * 
+ * NetLogo SQL Wrapper is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with NetLogo SQL Wrapper extension.  If not, 
+ * see <http://www.gnu.org/licenses/>.
+ */
+package nl.ou.netlogo.sql.wrapper;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.nlogo.api.Context;
+import org.nlogo.api.ExtensionException;
+
+/**
+ * Latency statistics of the SQL statements executed by a model, per
+ * normalized SQL text (literals replaced by <code>?</code>, whitespace
+ * collapsed).
+ * <p>
+ * Statistics are recorded with striped counters and a
+ * {@link LatencyHistogram}, so recording does not take locks. At most
+ * {@link #MAX_STATEMENTS} distinct statements are tracked; the executions of
+ * further statements are added up under {@link #OTHER_STATEMENTS}.
+ * </p>
+ * 
+ * @author NetLogo project-team
+ */
+public class StatementStatistics implements SqlConfigurable {
+
+    private static final Logger LOG = SqlLogger.getLogger();
+
+    /**
+     * Maximum number of distinct statements tracked.
+     */
+    public static final int MAX_STATEMENTS = 500;
+    /**
+     * Name under which statements beyond the maximum are tracked.
+     */
+    public static final String OTHER_STATEMENTS = "(other statements)";
+
+    private static final String[] CSV_COLUMNS = { "written-at", "sql", "executions", "errors", "total-ms",
+            "mean-ms", "p50-ms", "p99-ms", "max-ms", "rows-fetched", "rows-updated" };
+
+    /**
+     * Entries by SQL text as executed, and by normalized SQL text
+     */
+    private final ConcurrentMap<String, Entry> bySql = new ConcurrentHashMap<String, Entry>();
+    private final ConcurrentMap<String, Entry> byNormalizedSql = new ConcurrentHashMap<String, Entry>();
+    private volatile boolean enabled = true;
+    private volatile String csvPath;
+
+    /**
+     * Returns the statistics entry for a statement, creating it if needed.
+     * 
+     * @param sql
+     *            SQL text of the statement
+     * @return Entry, or null if statistics are disabled
+     */
+    public Entry forSql(String sql) {
+        if (!enabled) {
+            return null;
+        }
+        Entry entry = bySql.get(sql);
+        if (entry == null) {
+            String normalizedSql = normalize(sql);
+            entry = byNormalizedSql.get(normalizedSql);
+            if (entry == null) {
+                if (byNormalizedSql.size() >= MAX_STATEMENTS) {
+                    normalizedSql = OTHER_STATEMENTS;
+                }
+                Entry newEntry = new Entry(normalizedSql);
+                entry = byNormalizedSql.putIfAbsent(normalizedSql, newEntry);
+                if (entry == null) {
+                    entry = newEntry;
+                }
+            }
+            if (bySql.size() < MAX_STATEMENTS * 4) {
+                bySql.put(sql, entry);
+            }
+        }
+        return entry;
+    }
+
+    /**
+     * @return <code>true</code> if statistics are recorded
+     */
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * @return Statistics of all statements, the statements with the highest
+     *         total time first
+     */
+    public List<Entry> getEntries() {
+        List<Entry> entries = new ArrayList<Entry>(byNormalizedSql.values());
+        Collections.sort(entries, new Comparator<Entry>() {
+            public int compare(Entry e1, Entry e2) {
+                return Double.compare(e2.getTotalMillis(), e1.getTotalMillis());
+            }
+        });
+        return entries;
+    }
+
+    /**
+     * Drops the statistics of all statements.
+     */
+    public void reset() {
+        bySql.clear();
+        byNormalizedSql.clear();
+    }
+
+    /**
+     * Writes the statistics to the configured CSV file, if any. Rows are
+     * appended, so the statistics of several runs can be collected in one
+     * file.
+     * 
+     * @throws ExtensionException
+     *             If the file cannot be written
+     */
+    public void writeCsv() throws ExtensionException {
+        String path = csvPath;
+        if (path == null || byNormalizedSql.isEmpty()) {
+            return;
+        }
+        try {
+            writeCsv(new File(path));
+        } catch (IOException e) {
+            throw new ExtensionException("Unable to write statement statistics to " + path + ": " + e);
+        }
+    }
+
+    /**
+     * Appends the statistics to a CSV file, writing a header if the file is
+     * new.
+     * 
+     * @param file
+     *            CSV file
+     * @throws IOException
+     */
+    public void writeCsv(File file) throws IOException {
+        boolean newFile = !file.exists() || file.length() == 0;
+        PrintWriter out = new PrintWriter(new FileWriter(file, true));
+        try {
+            if (newFile) {
+                for (int idx = 0; idx < CSV_COLUMNS.length; idx++) {
+                    out.print(idx == 0 ? "" : ",");
+                    out.print(CSV_COLUMNS[idx]);
+                }
+                out.println();
+            }
+            String writtenAt = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss", Locale.ENGLISH).format(new Date());
+            for (Entry entry : getEntries()) {
+                out.print(writtenAt);
+                for (Object value : entry.toMap().values()) {
+                    out.print(',');
+                    out.print(value instanceof String ? quote((String) value) : value);
+                }
+                out.println();
+            }
+        } finally {
+            out.close();
+        }
+        if (out.checkError()) {
+            throw new IOException("Error writing " + file);
+        }
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see {@link
+     * nl.ou.netlogo.sql.wrapper.SqlConfigurable#configure(nl.ou.netlogo
+     * .sql.wrapper.SqlSetting, org.nlogo.api.Context)}
+     */
+    public void configure(SqlSetting settings, Context context) throws Exception {
+        if (!settings.getName().equals(SqlConfiguration.STATISTICS) || !settings.isValid()) {
+            return;
+        }
+        enabled = SqlSetting.toggleValue(settings.getString(SqlConfiguration.STATISTICS_OPT_ENABLED));
+        String path = settings.getString(SqlConfiguration.STATISTICS_OPT_CSVPATH);
+        csvPath = path.length() == 0 ? null : SqlLogger.parseLogPath(path, context);
+        LOG.log(Level.FINE, "Configured statement statistics: enabled {0}, csv-path {1}", new Object[] {
+                Boolean.valueOf(enabled), csvPath });
+    }
+
+    /**
+     * Normalizes the text of an SQL statement, so statements that only differ
+     * in literal values or whitespace share their statistics.
+     * 
+     * @param sql
+     *            SQL text
+     * @return SQL text with string and numeric literals replaced by
+     *         <code>?</code> and whitespace collapsed to single spaces
+     */
+    public static String normalize(String sql) {
+        StringBuilder normalized = new StringBuilder(sql.length());
+        int idx = 0;
+        int length = sql.length();
+        while (idx < length) {
+            char c = sql.charAt(idx);
+            if (c == '\'') {
+                // string literal, '' is an escaped quote
+                idx++;
+                while (idx < length) {
+                    if (sql.charAt(idx) == '\'') {
+                        if (idx + 1 < length && sql.charAt(idx + 1) == '\'') {
+                            idx++;
+                        } else {
+                            break;
+                        }
+                    }
+                    idx++;
+                }
+                idx++;
+                normalized.append('?');
+            } else if (Character.isDigit(c) && !isIdentifierEnd(normalized)) {
+                while (idx < length && (Character.isDigit(sql.charAt(idx)) || sql.charAt(idx) == '.')) {
+                    idx++;
+                }
+                normalized.append('?');
+            } else if (Character.isWhitespace(c)) {
+                while (idx < length && Character.isWhitespace(sql.charAt(idx))) {
+                    idx++;
+                }
+                if (normalized.length() > 0 && idx < length) {
+                    normalized.append(' ');
+                }
+            } else {
+                normalized.append(c);
+                idx++;
+            }
+        }
+        return normalized.toString();
+    }
+
+    private static boolean isIdentifierEnd(StringBuilder normalized) {
+        if (normalized.length() == 0) {
+            return false;
+        }
+        char last = normalized.charAt(normalized.length() - 1);
+        return Character.isLetterOrDigit(last) || last == '_';
+    }
+
+    private static String quote(String value) {
+        return '"' + value.replace("\"", "\"\"") + '"';
+    }
+
+    /**
+     * Statistics of one (normalized) statement.
+     */
+    public static class Entry {
+
+        private final String sql;
+        private final StripedCounter executions = new StripedCounter();
+        private final StripedCounter errors = new StripedCounter();
+        private final StripedCounter rowsFetched = new StripedCounter();
+        private final StripedCounter rowsUpdated = new StripedCounter();
+        private final LatencyHistogram latency = new LatencyHistogram();
+
+        Entry(String sql) {
+            this.sql = sql;
+        }
+
+        /**
+         * @return Normalized SQL text
+         */
+        public String getSql() {
+            return sql;
+        }
+
+        /**
+         * Records an execution of the statement.
+         * 
+         * @param nanos
+         *            Duration of the execution in nanoseconds
+         * @param failed
+         *            <code>true</code> if the execution failed
+         */
+        public void recordExecution(long nanos, boolean failed) {
+            executions.increment();
+            latency.recordNanos(nanos);
+            if (failed) {
+                errors.increment();
+            }
+        }
+
+        /**
+         * Records a row fetched from the result of the statement.
+         */
+        public void recordRowFetched() {
+            rowsFetched.increment();
+        }
+
+        /**
+         * Records the rows updated by the statement.
+         * 
+         * @param rows
+         *            Number of rows (negative values are ignored)
+         */
+        public void recordRowsUpdated(int rows) {
+            if (rows > 0) {
+                rowsUpdated.add(rows);
+            }
+        }
+
+        /**
+         * @return Number of executions
+         */
+        public long getExecutions() {
+            return executions.sum();
+        }
+
+        /**
+         * @return Number of failed executions
+         */
+        public long getErrors() {
+            return errors.sum();
+        }
+
+        /**
+         * @return Total time spent executing the statement in milliseconds
+         */
+        public double getTotalMillis() {
+            return latency.getMeanMillis() * latency.getCount();
+        }
+
+        /**
+         * @return Mean duration of an execution in milliseconds
+         */
+        public double getMeanMillis() {
+            return latency.getMeanMillis();
+        }
+
+        /**
+         * @return Median duration of an execution in milliseconds
+         */
+        public double getP50Millis() {
+            return latency.getPercentileMillis(50);
+        }
+
+        /**
+         * @return 99th percentile of the duration of an execution in
+         *         milliseconds
+         */
+        public double getP99Millis() {
+            return latency.getPercentileMillis(99);
+        }
+
+        /**
+         * @return Longest duration of an execution in milliseconds
+         */
+        public double getMaxMillis() {
+            return latency.getMaxMillis();
+        }
+
+        /**
+         * @return Number of rows fetched from the results of the statement
+         */
+        public long getRowsFetched() {
+            return rowsFetched.sum();
+        }
+
+        /**
+         * @return Number of rows updated by the statement
+         */
+        public long getRowsUpdated() {
+            return rowsUpdated.sum();
+        }
+
+        /**
+         * Builds a snapshot of the statistics.
+         * 
+         * @return Map of statistic name to value (String or Double), in
+         *         reporting order
+         */
+        public Map<String, Object> toMap() {
+            Map<String, Object> stats = new LinkedHashMap<String, Object>();
+            stats.put("sql", sql);
+            stats.put("executions", Double.valueOf(getExecutions()));
+            stats.put("errors", Double.valueOf(getErrors()));
+            stats.put("total-ms", Double.valueOf(getTotalMillis()));
+            stats.put("mean-ms", Double.valueOf(getMeanMillis()));
+            stats.put("p50-ms", Double.valueOf(getP50Millis()));
+            stats.put("p99-ms", Double.valueOf(getP99Millis()));
+            stats.put("max-ms", Double.valueOf(getMaxMillis()));
+            stats.put("rows-fetched", Double.valueOf(getRowsFetched()));
+            stats.put("rows-updated", Double.valueOf(getRowsUpdated()));
+            return stats;
+        }
+    }
+}
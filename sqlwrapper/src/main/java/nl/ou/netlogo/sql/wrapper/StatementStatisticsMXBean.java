@@ -0,0 +1,63 @@
+/*
+ * Copyright 2010, 2011 Open University of The Netherlands
+ * Contributors: Jan Blom, Rene Quakkelaar, Mark Rotteveel
+ *
+ * This file is part of NetLogo SQL Wrapper extension.
+ * 
+ * NetLogo SQL Wrapper extension is free software: you can redistribute it
+ * and/or modify it under the terms of the GNU Lesser General Public License 
+ * as published by the Free Software Foundation, either version 3 of the 
+ * License, or (at your option) any later version.
+ * 
+ * NetLogo SQL Wrapper is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with NetLogo SQL Wrapper extension.  If not, 
+ * see <http://www.gnu.org/licenses/>.
+ */
+package nl.ou.netlogo.sql.wrapper;
+
+import java.util.List;
+
+/**
+ * Management interface of the statement statistics, registered by
+ * {@link SqlManagement}.
+ * 
+ * @author NetLogo project-team
+ */
+public interface StatementStatisticsMXBean {
+
+    /**
+     * @return <code>true</code> if statistics are recorded
+     */
+    boolean isEnabled();
+
+    /**
+     * @return Number of distinct (normalized) statements
+     */
+    int getStatementCount();
+
+    /**
+     * @return Number of executions of all statements
+     */
+    long getExecutions();
+
+    /**
+     * @return Number of failed executions of all statements
+     */
+    long getErrors();
+
+    /**
+     * @return Statistics per statement, the statements with the highest total
+     *         time first
+     */
+    List<StatementStatistics.Entry> getStatements();
+
+    /**
+     * Drops the statistics of all statements.
+     */
+    void resetStatistics();
+}
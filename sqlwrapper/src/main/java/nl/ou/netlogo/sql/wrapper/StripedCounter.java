@@ -0,0 +1,86 @@
+/*
+ * Copyright 2010, 2011 Open University of The Netherlands
+ * Contributors: Jan Blom, Rene Quakkelaar, Mark Rotteveel
+ *
+ * This file is part of NetLogo SQL Wrapper extension.
+ * 
+ * NetLogo SQL Wrapper extension is free software: you can redistribute it
+ * and/or modify it under the terms of the GNU Lesser General Public License 
+ * as published by the Free Software Foundation, either version 3 of the 
+ * License, or (at your option) any later version.
+ * 
+ * NetLogo SQL Wrapper is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with NetLogo SQL Wrapper extension.  If not, 
+ * see <http://www.gnu.org/licenses/>.
+ */
+package nl.ou.netlogo.sql.wrapper;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free counter that is updated by many threads with little contention.
+ * <p>
+ * The count is spread over a number of cells, each on its own cache line; a
+ * thread updates the cell chosen by its id, and the cells are added up when
+ * the count is read.
+ * </p>
+ * 
+ * @author NetLogo project-team
+ */
+public class StripedCounter {
+
+    private static final int STRIPES = 16;
+    /**
+     * Distance between two cells, so every cell is on its own cache line
+     */
+    private static final int PADDING = 8;
+
+    private final AtomicLongArray cells = new AtomicLongArray(STRIPES * PADDING);
+
+    /**
+     * Adds one to the count.
+     */
+    public void increment() {
+        add(1);
+    }
+
+    /**
+     * Adds a value to the count.
+     * 
+     * @param value
+     *            Value to add
+     */
+    public void add(long value) {
+        cells.addAndGet(cellIndex(), value);
+    }
+
+    /**
+     * @return Current count (not atomic with regard to concurrent updates)
+     */
+    public long sum() {
+        long sum = 0;
+        for (int stripe = 0; stripe < STRIPES; stripe++) {
+            sum += cells.get(stripe * PADDING);
+        }
+        return sum;
+    }
+
+    /**
+     * Sets the count to 0.
+     */
+    public void reset() {
+        for (int stripe = 0; stripe < STRIPES; stripe++) {
+            cells.set(stripe * PADDING, 0);
+        }
+    }
+
+    private static int cellIndex() {
+        long id = Thread.currentThread().getId();
+        return (int) ((id ^ (id >>> 4)) & (STRIPES - 1)) * PADDING;
+    }
+}
@@ -0,0 +1,367 @@
+/*
+ * Copyright 2010, 2011 Open University of The Netherlands
+ * Contributors: Jan Blom, Rene Quakkelaar, Mark Rotteveel
+ *
+ * This file is part of NetLogo SQL Wrapper extension.
+ * 
+ * NetLogo SQL Wrapper extension is free software: you can redistribute it
+ * and/or modify it under the terms of the GNU Lesser General Public License 
+ * as published by the Free Software Foundation, either version 3 of the 
+ * License, or (at your option) any later version.
+ * 
+ * NetLogo SQL Wrapper is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with NetLogo SQL Wrapper extension.  If not, 
+ * see <http://www.gnu.org/licenses/>.
+ */
+package nl.ou.netlogo.sql.wrapper;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.nlogo.api.Agent;
+import org.nlogo.api.Context;
+import org.nlogo.api.ExtensionException;
+
+/**
+ * Records the database activity of a model as a timeline, in the Chrome
+ * trace event format (a JSON file that can be opened in trace viewers such as
+ * <code>chrome://tracing</code> or Perfetto).
+ * <p>
+ * Every pool checkout, prepare, execute, fetch, commit and rollback is
+ * recorded as a span on the thread that performed it, with the agent, the
+ * tick and the SQL text. A marker is added when the tick changes, so time
+ * spent in the database can be related to the ticks of the model.
+ * </p>
+ * <p>
+ * Spans are written by a background thread. When more than
+ * {@link #QUEUE_SIZE} spans wait to be written, further spans are dropped;
+ * their number is written at the end of the trace.
+ * </p>
+ * 
+ * @author NetLogo project-team
+ */
+public class TraceRecorder {
+
+    private static final Logger LOG = SqlLogger.getLogger();
+
+    /**
+     * Maximum number of spans waiting to be written.
+     */
+    public static final int QUEUE_SIZE = 10000;
+
+    public static final String CHECKOUT = "checkout";
+    public static final String PREPARE = "prepare";
+    public static final String EXECUTE = "execute";
+    public static final String FETCH = "fetch";
+    public static final String COMMIT = "commit";
+    public static final String ROLLBACK = "rollback";
+
+    private volatile Trace trace;
+
+    /**
+     * @return <code>true</code> if a trace is being recorded
+     */
+    public boolean isActive() {
+        return trace != null;
+    }
+
+    /**
+     * Starts recording a trace, ending the trace currently recorded (if any).
+     * 
+     * @param path
+     *            Path of the trace file; can start with %m (model folder) or
+     *            %c (current folder), other relative paths are relative to the
+     *            current folder of the model
+     * @param context
+     *            Context of the command (null to use the path as is)
+     * @throws ExtensionException
+     *             If the trace file cannot be created
+     */
+    public synchronized void start(String path, Context context) throws ExtensionException {
+        stop();
+        File file;
+        try {
+            if (context != null && !path.startsWith("%m") && !path.startsWith("%c")) {
+                file = new File(context.attachCurrentDirectory(path));
+            } else {
+                file = new File(SqlLogger.parseLogPath(path, context));
+            }
+        } catch (Exception e) {
+            throw new ExtensionException("Invalid trace file " + path + ": " + e.getMessage());
+        }
+        try {
+            trace = new Trace(file);
+        } catch (IOException e) {
+            throw new ExtensionException("Unable to create trace file " + file + ": " + e.getMessage());
+        }
+        LOG.log(Level.INFO, "Started trace {0}", file);
+    }
+
+    /**
+     * Stops recording, and waits until the trace file is complete.
+     * 
+     * @throws ExtensionException
+     *             If the trace file could not be written
+     */
+    public synchronized void stop() throws ExtensionException {
+        Trace currentTrace = trace;
+        if (currentTrace == null) {
+            return;
+        }
+        trace = null;
+        IOException failure = currentTrace.close();
+        if (failure != null) {
+            throw new ExtensionException("Unable to write trace file " + currentTrace.file + ": "
+                    + failure.getMessage());
+        }
+        LOG.log(Level.INFO, "Stopped trace {0}", currentTrace.file);
+    }
+
+    /**
+     * Records a span that ends now, if a trace is being recorded.
+     * 
+     * @param name
+     *            Kind of span (eg {@link #EXECUTE})
+     * @param startNanos
+     *            Start of the span ({@link System#nanoTime()})
+     * @param agent
+     *            Agent (can be null)
+     * @param sql
+     *            SQL text (can be null)
+     */
+    public void record(String name, long startNanos, Agent agent, String sql) {
+        record(name, startNanos, agent, sql, -1);
+    }
+
+    /**
+     * Records a span that ends now, if a trace is being recorded.
+     * 
+     * @param name
+     *            Kind of span (eg {@link #FETCH})
+     * @param startNanos
+     *            Start of the span ({@link System#nanoTime()})
+     * @param agent
+     *            Agent (can be null)
+     * @param sql
+     *            SQL text (can be null)
+     * @param rows
+     *            Number of rows fetched or updated (-1 if not applicable)
+     */
+    public void record(String name, long startNanos, Agent agent, String sql, long rows) {
+        Trace currentTrace = trace;
+        if (currentTrace != null) {
+            currentTrace.add(new Span(name, startNanos, System.nanoTime(), agent, sql, rows));
+        }
+    }
+
+    static String escape(String value) {
+        StringBuilder escaped = new StringBuilder(value.length() + 2);
+        escaped.append('"');
+        for (int idx = 0; idx < value.length(); idx++) {
+            char c = value.charAt(idx);
+            if (c == '"' || c == '\\') {
+                escaped.append('\\').append(c);
+            } else if (c < 0x20) {
+                escaped.append(String.format("\\u%04x", Integer.valueOf(c)));
+            } else {
+                escaped.append(c);
+            }
+        }
+        return escaped.append('"').toString();
+    }
+
+    private static String micros(long nanos) {
+        return String.format(Locale.ENGLISH, "%.3f", nanos / 1000.0);
+    }
+
+    /**
+     * A span, captured on the thread that performed it.
+     */
+    private static class Span {
+        final String name;
+        final long startNanos;
+        final long endNanos;
+        final long threadId;
+        final String threadName;
+        final String agent;
+        final double tick;
+        final String sql;
+        final long rows;
+
+        Span(String name, long startNanos, long endNanos, Agent agent, String sql, long rows) {
+            this.name = name;
+            this.startNanos = startNanos;
+            this.endNanos = endNanos;
+            Thread thread = Thread.currentThread();
+            this.threadId = thread.getId();
+            this.threadName = thread.getName();
+            this.agent = agent == null ? null : agent.toString();
+            this.tick = SlowQueryLog.SlowQuery.getTicks(agent);
+            this.sql = sql;
+            this.rows = rows;
+        }
+    }
+
+    /**
+     * A trace being recorded, with its file and writer thread.
+     */
+    private static class Trace {
+        /**
+         * Marks the end of the trace in the queue
+         */
+        private static final Span END = new Span("end", 0, 0, null, null, -1);
+
+        final File file;
+        private final long originNanos = System.nanoTime();
+        private final BlockingQueue<Span> queue = new ArrayBlockingQueue<Span>(QUEUE_SIZE);
+        private final AtomicLong dropped = new AtomicLong();
+        private final Writer out;
+        private final Thread writer;
+        private final Set<Long> namedThreads = new HashSet<Long>();
+        private double lastTick = -1;
+        private boolean first = true;
+        private IOException failure;
+
+        Trace(File file) throws IOException {
+            this.file = file;
+            this.out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), "UTF-8"));
+            out.write("{\"traceEvents\":[");
+            writer = new Thread("sqlwrapper-trace-writer") {
+                public void run() {
+                    writeSpans();
+                }
+            };
+            writer.setDaemon(true);
+            writer.start();
+        }
+
+        void add(Span span) {
+            if (!queue.offer(span)) {
+                dropped.incrementAndGet();
+            }
+        }
+
+        /**
+         * Writes the queued spans and completes the file.
+         * 
+         * @return Failure writing the file, or null
+         */
+        IOException close() {
+            boolean interrupted = false;
+            while (true) {
+                try {
+                    queue.put(END);
+                    writer.join();
+                    break;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+            return failure;
+        }
+
+        private void writeSpans() {
+            try {
+                try {
+                    while (true) {
+                        Span span = queue.take();
+                        if (span == END) {
+                            break;
+                        }
+                        write(span);
+                    }
+                    out.write("],\"displayTimeUnit\":\"ms\",\"otherData\":{\"dropped-spans\":\"" + dropped.get()
+                            + "\"}}");
+                } finally {
+                    out.close();
+                }
+            } catch (IOException e) {
+                failure = e;
+                LOG.log(Level.WARNING, "Unable to write trace file " + file, e);
+                // keep taking spans, so recording threads are not blocked
+                drain();
+            } catch (InterruptedException e) {
+                // daemon thread, only interrupted when the JVM ends
+            }
+        }
+
+        private void drain() {
+            try {
+                while (queue.take() != END) {
+                    // discard
+                }
+            } catch (InterruptedException e) {
+                // ignore
+            }
+        }
+
+        private void write(Span span) throws IOException {
+            String ts = micros(span.startNanos - originNanos);
+            if (namedThreads.add(Long.valueOf(span.threadId))) {
+                event("{\"name\":\"thread_name\",\"ph\":\"M\",\"pid\":1,\"tid\":" + span.threadId
+                        + ",\"args\":{\"name\":" + escape(span.threadName) + "}}");
+            }
+            if (span.tick >= 0 && span.tick != lastTick) {
+                lastTick = span.tick;
+                event("{\"name\":" + escape("tick " + formatTick(span.tick)) + ",\"cat\":\"tick\",\"ph\":\"i\","
+                        + "\"s\":\"g\",\"ts\":" + ts + ",\"pid\":1,\"tid\":" + span.threadId + "}");
+            }
+            StringBuilder event = new StringBuilder(128);
+            event.append("{\"name\":").append(escape(span.name)).append(",\"cat\":\"sql\",\"ph\":\"X\",\"ts\":")
+                    .append(ts).append(",\"dur\":").append(micros(span.endNanos - span.startNanos))
+                    .append(",\"pid\":1,\"tid\":").append(span.threadId).append(",\"args\":{");
+            boolean firstArg = true;
+            if (span.agent != null) {
+                event.append("\"agent\":").append(escape(span.agent));
+                firstArg = false;
+            }
+            if (span.tick >= 0) {
+                event.append(firstArg ? "" : ",").append("\"tick\":").append(formatTick(span.tick));
+                firstArg = false;
+            }
+            if (span.sql != null) {
+                event.append(firstArg ? "" : ",").append("\"sql\":").append(escape(span.sql));
+                firstArg = false;
+            }
+            if (span.rows >= 0) {
+                event.append(firstArg ? "" : ",").append("\"rows\":").append(span.rows);
+            }
+            event.append("}}");
+            event(event.toString());
+        }
+
+        private void event(String json) throws IOException {
+            if (!first) {
+                out.write(",\n");
+            } else {
+                out.write('\n');
+                first = false;
+            }
+            out.write(json);
+        }
+
+        private static String formatTick(double tick) {
+            return tick == Math.rint(tick) ? Long.toString((long) tick) : Double.toString(tick);
+        }
+    }
+}
@@ -0,0 +1,158 @@
+/*
+ * Copyright 2010, 2011 Open University of The Netherlands
+ * Contributors: Jan Blom, Rene Quakkelaar, Mark Rotteveel
+ *
+ * This file is part of NetLogo SQL Wrapper extension.
+ * 
+ * NetLogo SQL Wrapper extension is free software: you can redistribute it
+ * and/or modify it under the terms of the GNU Lesser General Public License 
+ * as published by the Free Software Foundation, either version 3 of the 
+ * License, or (at your option) any later version.
+ * 
+ * NetLogo SQL Wrapper is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with NetLogo SQL Wrapper extension.  If not, 
+ * see <http://www.gnu.org/licenses/>.
+ */
+package nl.ou.netlogo.sql.testsupport;
+
+import java.lang.reflect.Method;
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.sql.Statement;
+import java.sql.Types;
+
+/**
+ * Connection of the {@link FakeDriver}.
+ *
+ * @author NetLogo project-team
+ */
+class FakeConnection extends FakeHandler {
+
+	private final FakeDatabase database;
+	private final String url;
+	private final String user;
+	private boolean autoCommit = true;
+	private boolean readOnly;
+	private int transactionIsolation = Connection.TRANSACTION_READ_COMMITTED;
+	private String catalog;
+
+	private FakeConnection(FakeDatabase database, String url, String user) {
+		this.database = database;
+		this.url = url;
+		this.user = user;
+		this.catalog = database.getName();
+	}
+
+	static Connection create(FakeDatabase database, String url, String user) {
+		return proxy(Connection.class, new FakeConnection(database, url, user));
+	}
+
+	FakeDatabase getDatabase() {
+		return database;
+	}
+
+	@Override
+	protected Object handle(Object proxy, Method method, Object[] args) throws Exception {
+		String name = method.getName();
+		if (name.equals("createStatement")) {
+			return FakeStatement.create(Statement.class, database, (Connection) proxy, null);
+		} else if (name.equals("prepareStatement")) {
+			return FakeStatement.create(PreparedStatement.class, database, (Connection) proxy, (String) args[0]);
+		} else if (name.equals("prepareCall")) {
+			throw new SQLFeatureNotSupportedException("Fake driver does not support stored procedures");
+		} else if (name.equals("nativeSQL")) {
+			return args[0];
+		} else if (name.equals("getAutoCommit")) {
+			return Boolean.valueOf(autoCommit);
+		} else if (name.equals("setAutoCommit")) {
+			autoCommit = ((Boolean) args[0]).booleanValue();
+		} else if (name.equals("commit")) {
+			database.committed();
+		} else if (name.equals("rollback")) {
+			database.rolledBack();
+		} else if (name.equals("isReadOnly")) {
+			return Boolean.valueOf(readOnly);
+		} else if (name.equals("setReadOnly")) {
+			readOnly = ((Boolean) args[0]).booleanValue();
+		} else if (name.equals("getTransactionIsolation")) {
+			return Integer.valueOf(transactionIsolation);
+		} else if (name.equals("setTransactionIsolation")) {
+			transactionIsolation = ((Integer) args[0]).intValue();
+		} else if (name.equals("getCatalog")) {
+			return catalog;
+		} else if (name.equals("setCatalog")) {
+			catalog = (String) args[0];
+		} else if (name.equals("isValid")) {
+			return Boolean.valueOf(!database.isUnavailable());
+		} else if (name.equals("getMetaData")) {
+			return proxy(DatabaseMetaData.class, new MetaData((Connection) proxy));
+		} else {
+			return defaultValue(method);
+		}
+		return null;
+	}
+
+	@Override
+	protected void closed() {
+		database.connectionClosed();
+	}
+
+	/**
+	 * Metadata of the connection: the database is the only catalog, without
+	 * schemas or tables.
+	 */
+	private class MetaData extends FakeHandler {
+
+		private final Connection connection;
+
+		MetaData(Connection connection) {
+			this.connection = connection;
+		}
+
+		@Override
+		protected Object handle(Object proxy, Method method, Object[] args) throws Exception {
+			String name = method.getName();
+			if (name.equals("getConnection")) {
+				return connection;
+			} else if (name.equals("getURL")) {
+				return url;
+			} else if (name.equals("getUserName")) {
+				return user;
+			} else if (name.equals("getDatabaseProductName") || name.equals("getDriverName")) {
+				return "Fake";
+			} else if (name.equals("getDatabaseProductVersion") || name.equals("getDriverVersion")) {
+				return "1.0";
+			} else if (name.equals("getDatabaseMajorVersion") || name.equals("getDriverMajorVersion")
+					|| name.equals("getJDBCMajorVersion")) {
+				return Integer.valueOf(1);
+			} else if (name.equals("getIdentifierQuoteString")) {
+				return "\"";
+			} else if (name.equals("supportsTransactions")) {
+				return Boolean.TRUE;
+			} else if (name.equals("getCatalogs")) {
+				return FakeResultSet.create(null, new String[] { "TABLE_CAT" }, new int[] { Types.VARCHAR },
+						new Object[][] { { database.getName() } });
+			} else if (name.equals("getSchemas")) {
+				return FakeResultSet.create(null, new String[] { "TABLE_SCHEM", "TABLE_CATALOG" }, new int[] {
+						Types.VARCHAR, Types.VARCHAR }, new Object[0][]);
+			} else if (name.equals("getTables")) {
+				return FakeResultSet.create(null, new String[] { "TABLE_CAT", "TABLE_SCHEM", "TABLE_NAME",
+						"TABLE_TYPE" }, new int[] { Types.VARCHAR, Types.VARCHAR, Types.VARCHAR, Types.VARCHAR },
+						new Object[0][]);
+			} else if (name.equals("getColumns")) {
+				return FakeResultSet.create(null, new String[] { "TABLE_CAT", "TABLE_SCHEM", "TABLE_NAME",
+						"COLUMN_NAME" }, new int[] { Types.VARCHAR, Types.VARCHAR, Types.VARCHAR, Types.VARCHAR },
+						new Object[0][]);
+			}
+			return defaultValue(method);
+		}
+	}
+}
@@ -0,0 +1,334 @@
+/*
+ * Copyright 2010, 2011 Open University of The Netherlands
+ * Contributors: Jan Blom, Rene Quakkelaar, Mark Rotteveel
+ *
+ * This file is part of NetLogo SQL Wrapper extension.
+ * 
+ * NetLogo SQL Wrapper extension is free software: you can redistribute it
+ * and/or modify it under the terms of the GNU Lesser General Public License 
+ * as published by the Free Software Foundation, either version 3 of the 
+ * License, or (at your option) any later version.
+ * 
+ * NetLogo SQL Wrapper is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with NetLogo SQL Wrapper extension.  If not, 
+ * see <http://www.gnu.org/licenses/>.
+ */
+package nl.ou.netlogo.sql.testsupport;
+
+import java.sql.SQLException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Database simulated by the {@link FakeDriver}: the latencies, results and
+ * failures of its connections, and counters to check the behavior of the
+ * connection layer.
+ * <p>
+ * A database is created with the options of the url of its first
+ * connection; later the options can be changed with the setters, eg to let
+ * the database fail in the middle of a test. Failures are injected
+ * deterministically: every n-th connect or statement fails.
+ * </p>
+ *
+ * @author NetLogo project-team
+ */
+public class FakeDatabase {
+
+	private static final ConcurrentMap<String, FakeDatabase> databases = new ConcurrentHashMap<String, FakeDatabase>();
+
+	private final String name;
+	private volatile long connectLatency;
+	private volatile long statementLatency;
+	private volatile int rows = 1;
+	private volatile int columns = 2;
+	private volatile int updateCount = 1;
+	private volatile int failConnectEvery;
+	private volatile int failStatementEvery;
+	private volatile boolean unavailable;
+
+	private final AtomicLong connects = new AtomicLong();
+	private final AtomicInteger openConnections = new AtomicInteger();
+	private final AtomicLong statements = new AtomicLong();
+	private final AtomicLong commits = new AtomicLong();
+	private final AtomicLong rollbacks = new AtomicLong();
+
+	FakeDatabase(String name) {
+		this.name = name;
+	}
+
+	/**
+	 * Returns the database with the given name, created with the default
+	 * options if it does not exist yet.
+	 *
+	 * @param name
+	 *            Name of the database (the part of the url after
+	 *            <code>jdbc:fake:</code>, up to the options)
+	 * @return Database
+	 */
+	public static FakeDatabase get(String name) {
+		FakeDatabase database = databases.get(name);
+		if (database == null) {
+			FakeDatabase created = new FakeDatabase(name);
+			database = databases.putIfAbsent(name, created);
+			if (database == null) {
+				database = created;
+			}
+		}
+		return database;
+	}
+
+	/**
+	 * Returns the database of a url, created with the options of the url if
+	 * it does not exist yet.
+	 *
+	 * @param url
+	 *            Url of the form
+	 *            <code>jdbc:fake:name[;option=value]...</code>
+	 * @return Database
+	 * @throws SQLException
+	 *             For an unknown or invalid option
+	 */
+	static FakeDatabase forUrl(String url) throws SQLException {
+		String[] parts = url.substring(FakeDriver.URL_PREFIX.length()).split(";");
+		FakeDatabase database = databases.get(parts[0]);
+		if (database == null) {
+			FakeDatabase created = new FakeDatabase(parts[0]);
+			for (int idx = 1; idx < parts.length; idx++) {
+				created.setOption(parts[idx]);
+			}
+			database = databases.putIfAbsent(parts[0], created);
+			if (database == null) {
+				database = created;
+			}
+		}
+		return database;
+	}
+
+	/**
+	 * Removes all databases, so the next connection creates a database with
+	 * the options of its url and new counters.
+	 */
+	public static void clear() {
+		databases.clear();
+	}
+
+	private void setOption(String option) throws SQLException {
+		int separator = option.indexOf('=');
+		if (separator < 0) {
+			throw new SQLException("Option without value in fake url: " + option);
+		}
+		String key = option.substring(0, separator).trim();
+		int value;
+		try {
+			value = Integer.parseInt(option.substring(separator + 1).trim());
+		} catch (NumberFormatException e) {
+			throw new SQLException("Invalid value of option " + key + " in fake url: " + option);
+		}
+		if (key.equals("connect-latency")) {
+			connectLatency = value;
+		} else if (key.equals("statement-latency")) {
+			statementLatency = value;
+		} else if (key.equals("rows")) {
+			rows = value;
+		} else if (key.equals("columns")) {
+			columns = value;
+		} else if (key.equals("update-count")) {
+			updateCount = value;
+		} else if (key.equals("fail-connect")) {
+			failConnectEvery = value;
+		} else if (key.equals("fail-statement")) {
+			failStatementEvery = value;
+		} else {
+			throw new SQLException("Unknown option in fake url: " + key);
+		}
+	}
+
+	/**
+	 * Called for every connect: waits for the connect latency and fails if
+	 * the database is unavailable or this is the n-th connect.
+	 *
+	 * @throws SQLException
+	 *             Injected failure
+	 */
+	void connect() throws SQLException {
+		long count = connects.incrementAndGet();
+		sleep(connectLatency);
+		if (unavailable || (failConnectEvery > 0 && count % failConnectEvery == 0)) {
+			throw new SQLException("Fake database " + name + ": connection refused", "08001");
+		}
+		openConnections.incrementAndGet();
+	}
+
+	void connectionClosed() {
+		openConnections.decrementAndGet();
+	}
+
+	/**
+	 * Called for every execution of a statement: waits for the statement
+	 * latency and fails if the database is unavailable or this is the n-th
+	 * statement.
+	 *
+	 * @throws SQLException
+	 *             Injected failure
+	 */
+	void execute() throws SQLException {
+		long count = statements.incrementAndGet();
+		sleep(statementLatency);
+		if (unavailable || (failStatementEvery > 0 && count % failStatementEvery == 0)) {
+			throw new SQLException("Fake database " + name + ": communication link failure", "08S01");
+		}
+	}
+
+	void committed() {
+		commits.incrementAndGet();
+	}
+
+	void rolledBack() {
+		rollbacks.incrementAndGet();
+	}
+
+	private static void sleep(long millis) throws SQLException {
+		if (millis <= 0) {
+			return;
+		}
+		try {
+			TimeUnit.MILLISECONDS.sleep(millis);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new SQLException("Interrupted");
+		}
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public long getConnectLatency() {
+		return connectLatency;
+	}
+
+	/**
+	 * @param connectLatency
+	 *            Time a connect takes in milliseconds
+	 */
+	public void setConnectLatency(long connectLatency) {
+		this.connectLatency = connectLatency;
+	}
+
+	public long getStatementLatency() {
+		return statementLatency;
+	}
+
+	/**
+	 * @param statementLatency
+	 *            Time the execution of a statement takes in milliseconds
+	 */
+	public void setStatementLatency(long statementLatency) {
+		this.statementLatency = statementLatency;
+	}
+
+	public int getRows() {
+		return rows;
+	}
+
+	/**
+	 * @param rows
+	 *            Number of rows of the result of a query
+	 */
+	public void setRows(int rows) {
+		this.rows = rows;
+	}
+
+	public int getColumns() {
+		return columns;
+	}
+
+	/**
+	 * @param columns
+	 *            Number of columns of the result of a query: an INTEGER
+	 *            column with the row number, followed by VARCHAR and DOUBLE
+	 *            columns
+	 */
+	public void setColumns(int columns) {
+		this.columns = columns;
+	}
+
+	public int getUpdateCount() {
+		return updateCount;
+	}
+
+	/**
+	 * @param updateCount
+	 *            Number of rows changed by an update
+	 */
+	public void setUpdateCount(int updateCount) {
+		this.updateCount = updateCount;
+	}
+
+	/**
+	 * @param failConnectEvery
+	 *            Let every n-th connect fail (0 for never)
+	 */
+	public void setFailConnectEvery(int failConnectEvery) {
+		this.failConnectEvery = failConnectEvery;
+	}
+
+	/**
+	 * @param failStatementEvery
+	 *            Let every n-th execution of a statement fail (0 for never)
+	 */
+	public void setFailStatementEvery(int failStatementEvery) {
+		this.failStatementEvery = failStatementEvery;
+	}
+
+	public boolean isUnavailable() {
+		return unavailable;
+	}
+
+	/**
+	 * @param unavailable
+	 *            <code>true</code> to let all connects and statements fail,
+	 *            as if the database server is down
+	 */
+	public void setUnavailable(boolean unavailable) {
+		this.unavailable = unavailable;
+	}
+
+	/**
+	 * @return Number of connects, including failed connects
+	 */
+	public long getConnects() {
+		return connects.get();
+	}
+
+	/**
+	 * @return Number of connections that are not closed
+	 */
+	public int getOpenConnections() {
+		return openConnections.get();
+	}
+
+	/**
+	 * @return Number of executions of statements, including failed
+	 *         executions
+	 */
+	public long getStatements() {
+		return statements.get();
+	}
+
+	public long getCommits() {
+		return commits.get();
+	}
+
+	public long getRollbacks() {
+		return rollbacks.get();
+	}
+}
@@ -0,0 +1,102 @@
+/*
+ * Copyright 2010, 2011 Open University of The Netherlands
+ * Contributors: Jan Blom, Rene Quakkelaar, Mark Rotteveel
+ *
+ * This file is part of NetLogo SQL Wrapper extension.
+ * 
+ * NetLogo SQL Wrapper extension is free software: you can redistribute it
+ * and/or modify it under the terms of the GNU Lesser General Public License 
+ * as published by the Free Software Foundation, either version 3 of the 
+ * License, or (at your option) any later version.
+ * 
+ * NetLogo SQL Wrapper is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with NetLogo SQL Wrapper extension.  If not, 
+ * see <http://www.gnu.org/licenses/>.
+ */
+package nl.ou.netlogo.sql.testsupport;
+
+import java.sql.Connection;
+import java.sql.Driver;
+import java.sql.DriverManager;
+import java.sql.DriverPropertyInfo;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.util.Properties;
+import java.util.logging.Logger;
+
+/**
+ * JDBC driver for tests and benchmarks of the connection layer without a
+ * database server, with configurable latencies, results and failures.
+ * <p>
+ * Use it with the generic brand, with driver
+ * <code>nl.ou.netlogo.sql.testsupport.FakeDriver</code> and a jdbc-url of the
+ * form <code>jdbc:fake:name[;option=value]...</code>. The options are
+ * </p>
+ * <ul>
+ * <li><code>connect-latency</code>: time a connect takes in ms (default 0)</li>
+ * <li><code>statement-latency</code>: time the execution of a statement takes
+ * in ms (default 0)</li>
+ * <li><code>rows</code>, <code>columns</code>: size of the result of a query
+ * (default 1 row of 2 columns)</li>
+ * <li><code>update-count</code>: number of rows changed by an update (default
+ * 1)</li>
+ * <li><code>fail-connect</code>, <code>fail-statement</code>: let every n-th
+ * connect or statement fail (default 0, never)</li>
+ * </ul>
+ * <p>
+ * The options and counters of a database are available through
+ * {@link FakeDatabase#get(String)}.
+ * </p>
+ *
+ * @author NetLogo project-team
+ */
+public class FakeDriver implements Driver {
+
+	public static final String URL_PREFIX = "jdbc:fake:";
+
+	static {
+		try {
+			DriverManager.registerDriver(new FakeDriver());
+		} catch (SQLException e) {
+			throw new ExceptionInInitializerError(e);
+		}
+	}
+
+	public Connection connect(String url, Properties info) throws SQLException {
+		if (!acceptsURL(url)) {
+			return null;
+		}
+		FakeDatabase database = FakeDatabase.forUrl(url);
+		database.connect();
+		return FakeConnection.create(database, url, info.getProperty("user"));
+	}
+
+	public boolean acceptsURL(String url) {
+		return url != null && url.startsWith(URL_PREFIX);
+	}
+
+	public DriverPropertyInfo[] getPropertyInfo(String url, Properties info) {
+		return new DriverPropertyInfo[0];
+	}
+
+	public int getMajorVersion() {
+		return 1;
+	}
+
+	public int getMinorVersion() {
+		return 0;
+	}
+
+	public boolean jdbcCompliant() {
+		return false;
+	}
+
+	public Logger getParentLogger() throws SQLFeatureNotSupportedException {
+		throw new SQLFeatureNotSupportedException();
+	}
+}
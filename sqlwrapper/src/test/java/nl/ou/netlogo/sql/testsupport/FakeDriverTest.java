@@ -0,0 +1,163 @@
+/*
+ * Copyright 2010, 2011 Open University of The Netherlands
+ * Contributors: Jan Blom, Rene Quakkelaar, Mark Rotteveel
+ *
+ * This file is part of NetLogo SQL Wrapper extension.
+ * 
+ * NetLogo SQL Wrapper extension is free software: you can redistribute it
+ * and/or modify it under the terms of the GNU Lesser General Public License 
+ * as published by the Free Software Foundation, either version 3 of the 
+ * License, or (at your option) any later version.
+ * 
+ * NetLogo SQL Wrapper is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with NetLogo SQL Wrapper extension.  If not, 
+ * see <http://www.gnu.org/licenses/>.
+ */
+package nl.ou.netlogo.sql.testsupport;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class FakeDriverTest {
+
+	@Before
+	public void setUp() throws Exception {
+		Class.forName(FakeDriver.class.getName());
+		FakeDatabase.clear();
+	}
+
+	/**
+	 * Test if a query produces the number of rows and columns of the url.
+	 * <p>
+	 * Expected: rows with the row number, a VARCHAR and a DOUBLE column
+	 * </p>
+	 * 
+	 * @throws Exception (should not occur)
+	 */
+	@Test
+	public void testQuery_generatedRows() throws Exception {
+		Connection conn = DriverManager.getConnection("jdbc:fake:rows;rows=3;columns=3", "sa", "");
+		PreparedStatement stmt = conn.prepareStatement("SELECT * FROM anything WHERE id = ? AND name = '?'");
+		assertEquals(1, stmt.getParameterMetaData().getParameterCount());
+		ResultSet rs = stmt.executeQuery();
+		assertEquals(3, rs.getMetaData().getColumnCount());
+		assertEquals(Types.VARCHAR, rs.getMetaData().getColumnType(2));
+		assertEquals(Types.DOUBLE, rs.getMetaData().getColumnType(3));
+		int rows = 0;
+		while (rs.next()) {
+			rows++;
+			assertEquals(rows, rs.getInt("ID"));
+			assertEquals("row " + rows + " column 2", rs.getString(2));
+			assertEquals(rows + 0.3, rs.getDouble(3), 0.0001);
+		}
+		assertEquals(3, rows);
+		conn.close();
+		
+		FakeDatabase database = FakeDatabase.get("rows");
+		assertEquals(1, database.getStatements());
+		assertEquals(0, database.getOpenConnections());
+	}
+
+	/**
+	 * Test if an update reports the update count of the url.
+	 * <p>
+	 * Expected: no result set, update count 5
+	 * </p>
+	 * 
+	 * @throws Exception (should not occur)
+	 */
+	@Test
+	public void testExecute_update() throws Exception {
+		Connection conn = DriverManager.getConnection("jdbc:fake:update;update-count=5", "sa", "");
+		Statement stmt = conn.createStatement();
+		assertFalse(stmt.execute("UPDATE anything SET x = 1"));
+		assertEquals(5, stmt.getUpdateCount());
+		conn.close();
+	}
+
+	/**
+	 * Test if the latencies of the url are applied.
+	 * <p>
+	 * Expected: connect and statement take at least the configured time
+	 * </p>
+	 * 
+	 * @throws Exception (should not occur)
+	 */
+	@Test
+	public void testLatency() throws Exception {
+		long start = System.nanoTime();
+		Connection conn = DriverManager.getConnection("jdbc:fake:latency;connect-latency=50;statement-latency=30", "sa", "");
+		long connected = System.nanoTime();
+		conn.createStatement().executeQuery("SELECT 1");
+		long executed = System.nanoTime();
+		conn.close();
+		
+		assertTrue("Connect too fast", connected - start >= 50000000L);
+		assertTrue("Statement too fast", executed - connected >= 30000000L);
+	}
+
+	/**
+	 * Test if every n-th statement fails.
+	 * <p>
+	 * Expected: the 2nd and 4th statement fail with a communication failure
+	 * </p>
+	 * 
+	 * @throws Exception (should not occur)
+	 */
+	@Test
+	public void testFailStatement() throws Exception {
+		Connection conn = DriverManager.getConnection("jdbc:fake:failing;fail-statement=2", "sa", "");
+		Statement stmt = conn.createStatement();
+		int failures = 0;
+		for (int i = 1; i <= 4; i++) {
+			try {
+				stmt.executeQuery("SELECT 1");
+				assertTrue("Statement " + i + " should fail", i % 2 == 1);
+			} catch (SQLException e) {
+				assertEquals("08S01", e.getSQLState());
+				failures++;
+			}
+		}
+		assertEquals(2, failures);
+		conn.close();
+	}
+
+	/**
+	 * Test if an unavailable database refuses connections.
+	 * <p>
+	 * Expected: SQLException, connection attempt counted
+	 * </p>
+	 * 
+	 * @throws Exception (should not occur)
+	 */
+	@Test
+	public void testConnect_unavailable() throws Exception {
+		FakeDatabase.get("down").setUnavailable(true);
+		try {
+			DriverManager.getConnection("jdbc:fake:down", "sa", "");
+			fail("Expected connection to be refused");
+		} catch (SQLException e) {
+			assertEquals("08001", e.getSQLState());
+		}
+		assertEquals(1, FakeDatabase.get("down").getConnects());
+		assertEquals(0, FakeDatabase.get("down").getOpenConnections());
+	}
+}
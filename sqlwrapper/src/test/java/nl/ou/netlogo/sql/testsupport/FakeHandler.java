@@ -0,0 +1,115 @@
+/*
+ * Copyright 2010, 2011 Open University of The Netherlands
+ * Contributors: Jan Blom, Rene Quakkelaar, Mark Rotteveel
+ *
+ * This file is part of NetLogo SQL Wrapper extension.
+ * 
+ * NetLogo SQL Wrapper extension is free software: you can redistribute it
+ * and/or modify it under the terms of the GNU Lesser General Public License 
+ * as published by the Free Software Foundation, either version 3 of the 
+ * License, or (at your option) any later version.
+ * 
+ * NetLogo SQL Wrapper is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with NetLogo SQL Wrapper extension.  If not, 
+ * see <http://www.gnu.org/licenses/>.
+ */
+package nl.ou.netlogo.sql.testsupport;
+
+import java.lang.reflect.Array;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.SQLException;
+
+/**
+ * Base of the invocation handlers of the JDBC objects of the
+ * {@link FakeDriver}.
+ * <p>
+ * The JDBC interfaces are implemented as dynamic proxies, so only the
+ * methods used by the extension and the connection pool need an
+ * implementation, independent of the JDBC version of the JVM. Other methods
+ * do nothing and return 0, <code>false</code> or null.
+ * </p>
+ *
+ * @author NetLogo project-team
+ */
+abstract class FakeHandler implements InvocationHandler {
+
+	private volatile boolean closed;
+
+	static <T> T proxy(Class<T> type, FakeHandler handler) {
+		return type.cast(Proxy.newProxyInstance(FakeHandler.class.getClassLoader(), new Class<?>[] { type }, handler));
+	}
+
+	public final Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+		String name = method.getName();
+		if (name.equals("equals")) {
+			return Boolean.valueOf(proxy == args[0]);
+		} else if (name.equals("hashCode")) {
+			return Integer.valueOf(System.identityHashCode(proxy));
+		} else if (name.equals("toString")) {
+			return getClass().getSimpleName() + "@" + Integer.toHexString(System.identityHashCode(proxy));
+		} else if (name.equals("isClosed")) {
+			return Boolean.valueOf(closed);
+		} else if (name.equals("close")) {
+			if (!closed) {
+				closed = true;
+				closed();
+			}
+			return null;
+		} else if (name.equals("isWrapperFor")) {
+			return Boolean.FALSE;
+		} else if (name.equals("unwrap")) {
+			throw new SQLException("Not a wrapper");
+		}
+		if (closed) {
+			if (name.equals("isValid")) {
+				return Boolean.FALSE;
+			}
+			throw new SQLException(getClass().getSimpleName() + " is closed, called " + name);
+		}
+		return handle(proxy, method, args == null ? new Object[0] : args);
+	}
+
+	/**
+	 * Handles a call of a method of an open JDBC object.
+	 *
+	 * @param proxy
+	 *            JDBC object
+	 * @param method
+	 *            Method called
+	 * @param args
+	 *            Arguments (empty if none)
+	 * @return Result of the method
+	 * @throws Exception
+	 *             Exception thrown by the method
+	 */
+	protected abstract Object handle(Object proxy, Method method, Object[] args) throws Exception;
+
+	/**
+	 * Called once when the JDBC object is closed.
+	 *
+	 * @throws SQLException
+	 *             For failure to close
+	 */
+	protected void closed() throws SQLException {
+		// nothing to release
+	}
+
+	/**
+	 * @return Result of a method without an implementation: 0,
+	 *         <code>false</code> or null
+	 */
+	protected static Object defaultValue(Method method) {
+		Class<?> type = method.getReturnType();
+		if (type.isPrimitive() && type != void.class) {
+			return Array.get(Array.newInstance(type, 1), 0);
+		}
+		return null;
+	}
+}
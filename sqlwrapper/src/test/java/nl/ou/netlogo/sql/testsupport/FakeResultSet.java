@@ -0,0 +1,235 @@
+/*
+ * Copyright 2010, 2011 Open University of The Netherlands
+ * Contributors: Jan Blom, Rene Quakkelaar, Mark Rotteveel
+ *
+ * This file is part of NetLogo SQL Wrapper extension.
+ * 
+ * NetLogo SQL Wrapper extension is free software: you can redistribute it
+ * and/or modify it under the terms of the GNU Lesser General Public License 
+ * as published by the Free Software Foundation, either version 3 of the 
+ * License, or (at your option) any later version.
+ * 
+ * NetLogo SQL Wrapper is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with NetLogo SQL Wrapper extension.  If not, 
+ * see <http://www.gnu.org/licenses/>.
+ */
+package nl.ou.netlogo.sql.testsupport;
+
+import java.lang.reflect.Method;
+import java.math.BigDecimal;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+
+/**
+ * Result set of the {@link FakeDriver}, with given rows or with generated
+ * rows of the size configured for the database.
+ * <p>
+ * Generated rows have an INTEGER column <code>ID</code> with the row number
+ * (starting at 1), followed by VARCHAR and DOUBLE columns <code>COL2</code>,
+ * <code>COL3</code>, ... The values are generated while fetching, so large
+ * results take no memory.
+ * </p>
+ *
+ * @author NetLogo project-team
+ */
+class FakeResultSet extends FakeHandler {
+
+	private final Statement statement;
+	private final String[] labels;
+	private final int[] types;
+	/**
+	 * Given rows, null for generated rows
+	 */
+	private final Object[][] data;
+	private final int rowCount;
+	private int row;
+	private boolean wasNull;
+
+	private FakeResultSet(Statement statement, String[] labels, int[] types, Object[][] data, int rowCount) {
+		this.statement = statement;
+		this.labels = labels;
+		this.types = types;
+		this.data = data;
+		this.rowCount = rowCount;
+	}
+
+	/**
+	 * Creates a result set with generated rows.
+	 */
+	static ResultSet create(Statement statement, FakeDatabase database) {
+		int columns = database.getColumns();
+		return proxy(ResultSet.class, new FakeResultSet(statement, generatedLabels(columns), generatedTypes(columns),
+				null, database.getRows()));
+	}
+
+	/**
+	 * Creates a result set with the given rows.
+	 */
+	static ResultSet create(Statement statement, String[] labels, int[] types, Object[][] data) {
+		return proxy(ResultSet.class, new FakeResultSet(statement, labels, types, data, data.length));
+	}
+
+	/**
+	 * Creates the metadata of the generated rows of a query.
+	 */
+	static ResultSetMetaData createMetaData(FakeDatabase database) {
+		int columns = database.getColumns();
+		return proxy(ResultSetMetaData.class, new MetaData(generatedLabels(columns), generatedTypes(columns)));
+	}
+
+	private static String[] generatedLabels(int columns) {
+		String[] labels = new String[columns];
+		for (int col = 0; col < columns; col++) {
+			labels[col] = col == 0 ? "ID" : "COL" + (col + 1);
+		}
+		return labels;
+	}
+
+	private static int[] generatedTypes(int columns) {
+		int[] types = new int[columns];
+		for (int col = 0; col < columns; col++) {
+			types[col] = col == 0 ? Types.INTEGER : (col % 2 == 1 ? Types.VARCHAR : Types.DOUBLE);
+		}
+		return types;
+	}
+
+	@Override
+	protected Object handle(Object proxy, Method method, Object[] args) throws Exception {
+		String name = method.getName();
+		if (name.equals("next")) {
+			if (row <= rowCount) {
+				row++;
+			}
+			return Boolean.valueOf(row <= rowCount);
+		} else if (name.equals("getMetaData")) {
+			return proxy(ResultSetMetaData.class, new MetaData(labels, types));
+		} else if (name.equals("getStatement")) {
+			return statement;
+		} else if (name.equals("getRow")) {
+			return Integer.valueOf(row <= rowCount ? row : 0);
+		} else if (name.equals("getType")) {
+			return Integer.valueOf(ResultSet.TYPE_FORWARD_ONLY);
+		} else if (name.equals("getConcurrency")) {
+			return Integer.valueOf(ResultSet.CONCUR_READ_ONLY);
+		} else if (name.equals("wasNull")) {
+			return Boolean.valueOf(wasNull);
+		} else if (name.equals("findColumn")) {
+			return Integer.valueOf(findColumn((String) args[0]));
+		} else if (name.startsWith("get") && args.length == 1) {
+			int column = args[0] instanceof String ? findColumn((String) args[0]) : ((Integer) args[0]).intValue();
+			return convert(value(column), method.getReturnType());
+		}
+		return defaultValue(method);
+	}
+
+	private int findColumn(String label) throws SQLException {
+		for (int idx = 0; idx < labels.length; idx++) {
+			if (labels[idx].equalsIgnoreCase(label)) {
+				return idx + 1;
+			}
+		}
+		throw new SQLException("Unknown column " + label);
+	}
+
+	private Object value(int column) throws SQLException {
+		if (row < 1 || row > rowCount) {
+			throw new SQLException("No current row");
+		}
+		if (column < 1 || column > labels.length) {
+			throw new SQLException("Invalid column index " + column);
+		}
+		Object value;
+		if (data != null) {
+			value = data[row - 1][column - 1];
+		} else if (types[column - 1] == Types.INTEGER) {
+			value = Integer.valueOf(row);
+		} else if (types[column - 1] == Types.VARCHAR) {
+			value = "row " + row + " column " + column;
+		} else {
+			value = Double.valueOf(row + column / 10.0);
+		}
+		wasNull = value == null;
+		return value;
+	}
+
+	private static Object convert(Object value, Class<?> type) throws SQLException {
+		if (type == Object.class) {
+			return value;
+		} else if (type == String.class) {
+			return value == null ? null : value.toString();
+		} else if (type == boolean.class) {
+			return Boolean.valueOf(value instanceof Boolean ? ((Boolean) value).booleanValue() : value != null
+					&& toNumber(value).doubleValue() != 0);
+		}
+		Number number = value == null ? Integer.valueOf(0) : toNumber(value);
+		if (type == int.class) {
+			return Integer.valueOf(number.intValue());
+		} else if (type == long.class) {
+			return Long.valueOf(number.longValue());
+		} else if (type == double.class) {
+			return Double.valueOf(number.doubleValue());
+		} else if (type == float.class) {
+			return Float.valueOf(number.floatValue());
+		} else if (type == short.class) {
+			return Short.valueOf(number.shortValue());
+		} else if (type == byte.class) {
+			return Byte.valueOf(number.byteValue());
+		} else if (type == BigDecimal.class) {
+			return value == null ? null : new BigDecimal(value.toString());
+		}
+		throw new SQLException("Fake driver does not support conversion to " + type.getName());
+	}
+
+	private static Number toNumber(Object value) throws SQLException {
+		if (value instanceof Number) {
+			return (Number) value;
+		}
+		try {
+			return Double.valueOf(value.toString());
+		} catch (NumberFormatException e) {
+			throw new SQLException("Not a number: " + value, "22018");
+		}
+	}
+
+	private static class MetaData extends FakeHandler {
+
+		private final String[] labels;
+		private final int[] types;
+
+		MetaData(String[] labels, int[] types) {
+			this.labels = labels;
+			this.types = types;
+		}
+
+		@Override
+		protected Object handle(Object proxy, Method method, Object[] args) throws Exception {
+			String name = method.getName();
+			if (name.equals("getColumnCount")) {
+				return Integer.valueOf(labels.length);
+			}
+			int column = ((Integer) args[0]).intValue() - 1;
+			if (name.equals("getColumnLabel") || name.equals("getColumnName")) {
+				return labels[column];
+			} else if (name.equals("getColumnType")) {
+				return Integer.valueOf(types[column]);
+			} else if (name.equals("getColumnTypeName")) {
+				return types[column] == Types.INTEGER ? "INTEGER" : (types[column] == Types.VARCHAR ? "VARCHAR"
+						: "DOUBLE");
+			} else if (name.equals("getColumnClassName")) {
+				return types[column] == Types.INTEGER ? Integer.class.getName()
+						: (types[column] == Types.VARCHAR ? String.class.getName() : Double.class.getName());
+			} else if (name.equals("isNullable")) {
+				return Integer.valueOf(ResultSetMetaData.columnNullableUnknown);
+			}
+			return defaultValue(method);
+		}
+	}
+}
@@ -0,0 +1,188 @@
+/*
+ * Copyright 2010, 2011 Open University of The Netherlands
+ * Contributors: Jan Blom, Rene Quakkelaar, Mark Rotteveel
+ *
+ * This file is part of NetLogo SQL Wrapper extension.
+ * 
+ * NetLogo SQL Wrapper extension is free software: you can redistribute it
+ * and/or modify it under the terms of the GNU Lesser General Public License 
+ * as published by the Free Software Foundation, either version 3 of the 
+ * License, or (at your option) any later version.
+ * 
+ * NetLogo SQL Wrapper is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with NetLogo SQL Wrapper extension.  If not, 
+ * see <http://www.gnu.org/licenses/>.
+ */
+package nl.ou.netlogo.sql.testsupport;
+
+import java.lang.reflect.Method;
+import java.sql.Connection;
+import java.sql.ParameterMetaData;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.util.Arrays;
+
+/**
+ * Statement and prepared statement of the {@link FakeDriver}.
+ * <p>
+ * Statements starting with SELECT, WITH, VALUES or SHOW are queries and
+ * produce a result set of the configured size; other statements change the
+ * configured number of rows.
+ * </p>
+ *
+ * @author NetLogo project-team
+ */
+class FakeStatement extends FakeHandler {
+
+	private static final String[] QUERY_PREFIXES = { "select", "with", "values", "show" };
+
+	private final FakeDatabase database;
+	private final Connection connection;
+	/**
+	 * SQL of a prepared statement, null for a statement
+	 */
+	private final String preparedSql;
+	private ResultSet resultSet;
+	private int updateCount = -1;
+	private int batchSize;
+
+	private FakeStatement(FakeDatabase database, Connection connection, String preparedSql) {
+		this.database = database;
+		this.connection = connection;
+		this.preparedSql = preparedSql;
+	}
+
+	static <T> T create(Class<T> type, FakeDatabase database, Connection connection, String preparedSql) {
+		return proxy(type, new FakeStatement(database, connection, preparedSql));
+	}
+
+	@Override
+	protected Object handle(Object proxy, Method method, Object[] args) throws Exception {
+		String name = method.getName();
+		// Statement has the SQL as first argument, PreparedStatement has no arguments
+		String sql = args.length > 0 && args[0] instanceof String ? (String) args[0] : preparedSql;
+		if (name.equals("execute")) {
+			execute(proxy, sql, isQuery(sql));
+			return Boolean.valueOf(resultSet != null);
+		} else if (name.equals("executeQuery")) {
+			execute(proxy, sql, true);
+			return resultSet;
+		} else if (name.equals("executeUpdate")) {
+			execute(proxy, sql, false);
+			return Integer.valueOf(updateCount);
+		} else if (name.equals("addBatch")) {
+			batchSize++;
+		} else if (name.equals("clearBatch")) {
+			batchSize = 0;
+		} else if (name.equals("executeBatch")) {
+			database.execute();
+			int[] counts = new int[batchSize];
+			Arrays.fill(counts, database.getUpdateCount());
+			batchSize = 0;
+			return counts;
+		} else if (name.equals("getResultSet")) {
+			return resultSet;
+		} else if (name.equals("getUpdateCount")) {
+			return Integer.valueOf(updateCount);
+		} else if (name.equals("getMoreResults")) {
+			closeResultSet();
+			updateCount = -1;
+			return Boolean.FALSE;
+		} else if (name.equals("getConnection")) {
+			return connection;
+		} else if (name.equals("getMetaData")) {
+			return isQuery(preparedSql) ? FakeResultSet.createMetaData(database) : null;
+		} else if (name.equals("getParameterMetaData")) {
+			return proxy(ParameterMetaData.class, new ParameterMetaDataHandler(countParameters(preparedSql)));
+		} else if (name.equals("getGeneratedKeys")) {
+			return FakeResultSet.create((Statement) proxy, new String[] { "ID" },
+					new int[] { Types.INTEGER }, new Object[0][]);
+		}
+		return defaultValue(method);
+	}
+
+	private void execute(Object proxy, String sql, boolean query) throws SQLException {
+		if (sql == null) {
+			throw new SQLException("No SQL to execute");
+		}
+		closeResultSet();
+		updateCount = -1;
+		database.execute();
+		if (query) {
+			resultSet = FakeResultSet.create((Statement) proxy, database);
+		} else {
+			updateCount = database.getUpdateCount();
+		}
+	}
+
+	private void closeResultSet() throws SQLException {
+		if (resultSet != null) {
+			resultSet.close();
+			resultSet = null;
+		}
+	}
+
+	@Override
+	protected void closed() throws SQLException {
+		closeResultSet();
+	}
+
+	private static boolean isQuery(String sql) {
+		if (sql == null) {
+			return false;
+		}
+		String trimmed = sql.trim();
+		for (String prefix : QUERY_PREFIXES) {
+			if (trimmed.regionMatches(true, 0, prefix, 0, prefix.length())) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Counts the parameter markers outside string literals.
+	 */
+	static int countParameters(String sql) {
+		int count = 0;
+		boolean inLiteral = false;
+		for (int idx = 0; sql != null && idx < sql.length(); idx++) {
+			char c = sql.charAt(idx);
+			if (c == '\'') {
+				inLiteral = !inLiteral;
+			} else if (c == '?' && !inLiteral) {
+				count++;
+			}
+		}
+		return count;
+	}
+
+	private static class ParameterMetaDataHandler extends FakeHandler {
+
+		private final int count;
+
+		ParameterMetaDataHandler(int count) {
+			this.count = count;
+		}
+
+		@Override
+		protected Object handle(Object proxy, Method method, Object[] args) throws Exception {
+			String name = method.getName();
+			if (name.equals("getParameterCount")) {
+				return Integer.valueOf(count);
+			} else if (name.equals("getParameterType")) {
+				return Integer.valueOf(Types.VARCHAR);
+			} else if (name.equals("isNullable")) {
+				return Integer.valueOf(ParameterMetaData.parameterNullableUnknown);
+			}
+			return defaultValue(method);
+		}
+	}
+}
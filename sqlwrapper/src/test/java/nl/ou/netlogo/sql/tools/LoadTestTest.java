@@ -0,0 +1,101 @@
+/*
+ * Copyright 2010, 2011 Open University of The Netherlands
+ * Contributors: Jan Blom, Rene Quakkelaar, Mark Rotteveel
+ *
+ * This file is part of NetLogo SQL Wrapper extension.
+ * 
+ * NetLogo SQL Wrapper extension is free software: you can redistribute it
+ * and/or modify it under the terms of the GNU Lesser General Public License 
+ * as published by the Free Software Foundation, either version 3 of the 
+ * License, or (at your option) any later version.
+ * 
+ * NetLogo SQL Wrapper is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with NetLogo SQL Wrapper extension.  If not, 
+ * see <http://www.gnu.org/licenses/>.
+ */
+package nl.ou.netlogo.sql.tools;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class LoadTestTest {
+
+	/**
+	 * Test for {@link LoadTest#createModel(String)} with pooled connections.
+	 * <p>
+	 * Expected: the model configures the default connection with the requested
+	 * autodisconnect, and executes the requested statements on its table
+	 * </p>
+	 * 
+	 * @throws Exception (should not occur)
+	 */
+	@Test
+	public void testCreateModel_pooled() throws Exception {
+		LoadTest loadTest = new LoadTest();
+		loadTest.parseArguments(new String[] { "-turtles", "25", "-queries", "3", "-updates", "0", "-autodisconnect",
+				"off", "-pool", "[[\"max-connections\" 5]]" });
+		String model = loadTest.createModel("loadtest_1");
+		assertTrue(model.startsWith("extensions [sql]"));
+		assertTrue(model.contains("sql:configure \"connectionpool\" [[\"max-connections\" 5]]"));
+		assertTrue(model.contains("[[\"autodisconnect\" \"off\"]]"));
+		assertTrue(model.contains("crt 25\n"));
+		assertTrue(model.contains("repeat 3 ["));
+		assertTrue(model.contains("SELECT val FROM loadtest_1 WHERE id = ? AND tick = ?"));
+		assertFalse(model.contains("INSERT INTO"));
+		assertFalse(model.contains("sql:connect"));
+	}
+
+	/**
+	 * Test for {@link LoadTest#createModel(String)} with explicit connections.
+	 * <p>
+	 * Expected: every turtle connects, and disconnects at teardown
+	 * </p>
+	 * 
+	 * @throws Exception (should not occur)
+	 */
+	@Test
+	public void testCreateModel_explicit() throws Exception {
+		LoadTest loadTest = new LoadTest();
+		loadTest.parseArguments(new String[] { "-connection", "explicit", "-updates", "2" });
+		String model = loadTest.createModel("loadtest_1");
+		assertTrue(model.contains(" [ sql:connect [[\"brand\" \"embedded\"]"));
+		assertTrue(model.contains("INSERT INTO loadtest_1 (id, tick, val) VALUES (?, ?, ?)"));
+		assertTrue(model.contains("ask turtles [ sql:disconnect ]"));
+		assertFalse(model.contains("defaultconnection"));
+	}
+
+	/**
+	 * Test for {@link LoadTest#parseArguments(String[])} with an invalid
+	 * number.
+	 * <p>
+	 * Expected: IllegalArgumentException
+	 * </p>
+	 * 
+	 * @throws Exception (should not occur)
+	 */
+	@Test(expected = IllegalArgumentException.class)
+	public void testParseArguments_invalidCount() throws Exception {
+		new LoadTest().parseArguments(new String[] { "-workspaces", "0" });
+	}
+
+	/**
+	 * Test for {@link LoadTest#parseArguments(String[])} with an unknown
+	 * option.
+	 * <p>
+	 * Expected: IllegalArgumentException
+	 * </p>
+	 * 
+	 * @throws Exception (should not occur)
+	 */
+	@Test(expected = IllegalArgumentException.class)
+	public void testParseArguments_unknownOption() throws Exception {
+		new LoadTest().parseArguments(new String[] { "-threads", "4" });
+	}
+}
@@ -0,0 +1,167 @@
+/*
+ * Copyright 2010, 2011 Open University of The Netherlands
+ * Contributors: Jan Blom, Rene Quakkelaar, Mark Rotteveel
+ *
+ * This file is part of NetLogo SQL Wrapper extension.
+ * 
+ * NetLogo SQL Wrapper extension is free software: you can redistribute it
+ * and/or modify it under the terms of the GNU Lesser General Public License 
+ * as published by the Free Software Foundation, either version 3 of the 
+ * License, or (at your option) any later version.
+ * 
+ * NetLogo SQL Wrapper is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with NetLogo SQL Wrapper extension.  If not, 
+ * see <http://www.gnu.org/licenses/>.
+ */
+package nl.ou.netlogo.sql.wrapper;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+
+import org.junit.Test;
+
+/**
+ * Tests for {@link AsyncLogHandler}.
+ */
+public class AsyncLogHandlerTest {
+	
+	/**
+	 * Test if queued records are written in order by the time flush returns.
+	 * 
+	 * @throws Exception (should not occur)
+	 */
+	@Test
+	public void testFlush_writesRecordsInOrder() throws Exception {
+		CapturingHandler target = new CapturingHandler(null);
+		AsyncLogHandler handler = new AsyncLogHandler(new Handler[] { target }, 4, AsyncLogHandler.Overflow.BLOCK);
+		
+		for (int i = 0; i < 20; i++) {
+			handler.publish(new LogRecord(Level.INFO, "message " + i));
+		}
+		handler.flush();
+		
+		assertEquals("Number of records written", 20, target.getMessages().size());
+		for (int i = 0; i < 20; i++) {
+			assertEquals("Record " + i, "message " + i, target.getMessages().get(i));
+		}
+		handler.close();
+	}
+	
+	/**
+	 * Test if records are dropped when the buffer is full with the drop policy, and the drop is reported.
+	 * 
+	 * @throws Exception (should not occur)
+	 */
+	@Test
+	public void testPublish_drop_bufferFull() throws Exception {
+		CountDownLatch release = new CountDownLatch(1);
+		CapturingHandler target = new CapturingHandler(release);
+		AsyncLogHandler handler = new AsyncLogHandler(new Handler[] { target }, 2, AsyncLogHandler.Overflow.DROP);
+		
+		// the first record blocks the writer, two fill the buffer
+		handler.publish(new LogRecord(Level.INFO, "first"));
+		target.awaitWriting();
+		for (int i = 0; i < 5; i++) {
+			handler.publish(new LogRecord(Level.INFO, "message " + i));
+		}
+		assertEquals("Dropped records", 3, handler.getDropped());
+		
+		release.countDown();
+		handler.flush();
+		List<String> messages = target.getMessages();
+		assertEquals("Records written", 4, messages.size());
+		assertEquals("first", messages.get(0));
+		assertTrue("Expected drop report, got " + messages.get(1), messages.get(1).contains("dropped 3"));
+		assertEquals("message 0", messages.get(2));
+		assertEquals("message 1", messages.get(3));
+		handler.close();
+	}
+	
+	/**
+	 * Test if a record is not dropped when the buffer is full with the block policy.
+	 * 
+	 * @throws Exception (should not occur)
+	 */
+	@Test
+	public void testPublish_block_waitsForRoom() throws Exception {
+		CountDownLatch release = new CountDownLatch(1);
+		CapturingHandler target = new CapturingHandler(release);
+		final AsyncLogHandler handler = new AsyncLogHandler(new Handler[] { target }, 1, AsyncLogHandler.Overflow.BLOCK);
+		
+		handler.publish(new LogRecord(Level.INFO, "first"));
+		target.awaitWriting();
+		handler.publish(new LogRecord(Level.INFO, "second"));
+		Thread publisher = new Thread() {
+			public void run() {
+				handler.publish(new LogRecord(Level.INFO, "third"));
+			}
+		};
+		publisher.start();
+		publisher.join(200);
+		assertTrue("Expected publisher to wait for room", publisher.isAlive());
+		
+		release.countDown();
+		publisher.join(5000);
+		handler.close();
+		assertEquals("Dropped records", 0, handler.getDropped());
+		assertEquals("Records written", 3, target.getMessages().size());
+		assertTrue("Expected target closed", target.closed);
+	}
+	
+	/**
+	 * Handler that records the messages, optionally waiting for a latch before writing the first one.
+	 */
+	private static class CapturingHandler extends Handler {
+		private final List<String> messages = new ArrayList<String>();
+		private final CountDownLatch release;
+		private final CountDownLatch writing = new CountDownLatch(1);
+		private volatile boolean closed;
+		
+		CapturingHandler(CountDownLatch release) {
+			this.release = release;
+		}
+		
+		public void publish(LogRecord record) {
+			writing.countDown();
+			if (release != null) {
+				try {
+					release.await();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+			synchronized (messages) {
+				messages.add(record.getMessage());
+			}
+		}
+		
+		void awaitWriting() throws InterruptedException {
+			writing.await();
+		}
+		
+		List<String> getMessages() {
+			synchronized (messages) {
+				return new ArrayList<String>(messages);
+			}
+		}
+		
+		public void flush() {
+		}
+		
+		public void close() {
+			closed = true;
+		}
+	}
+}
@@ -0,0 +1,145 @@
+/*
+ * Copyright 2010, 2011 Open University of The Netherlands
+ * Contributors: Jan Blom, Rene Quakkelaar, Mark Rotteveel
+ *
+ * This file is part of NetLogo SQL Wrapper extension.
+ * 
+ * NetLogo SQL Wrapper extension is free software: you can redistribute it
+ * and/or modify it under the terms of the GNU Lesser General Public License 
+ * as published by the Free Software Foundation, either version 3 of the 
+ * License, or (at your option) any later version.
+ * 
+ * NetLogo SQL Wrapper is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with NetLogo SQL Wrapper extension.  If not, 
+ * see <http://www.gnu.org/licenses/>.
+ */
+package nl.ou.netlogo.sql.wrapper;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.sql.SQLException;
+
+import org.junit.Test;
+
+public class CircuitBreakerTest {
+	
+	private static final SQLException FAILURE = new SQLException("Connection refused");
+	
+	/**
+	 * Test for {@link CircuitBreaker#recordFailure(SQLException)} with less failures than the threshold.
+	 * <p>
+	 * Expected: breaker stays closed
+	 * </p>
+	 * 
+	 * @throws Exception (should not occur)
+	 */
+	@Test
+	public void testRecordFailure_belowThreshold() throws Exception {
+		CircuitBreaker breaker = new CircuitBreaker("test", 3, 60000);
+		breaker.recordFailure(FAILURE);
+		breaker.recordFailure(FAILURE);
+		assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+		breaker.beforeAttempt();
+	}
+	
+	/**
+	 * Test for {@link CircuitBreaker#beforeAttempt()} after reaching the failure threshold.
+	 * <p>
+	 * Expected: breaker open, attempt fails immediately
+	 * </p>
+	 */
+	@Test
+	public void testBeforeAttempt_open() {
+		CircuitBreaker breaker = new CircuitBreaker("test", 2, 60000);
+		breaker.recordFailure(FAILURE);
+		breaker.recordFailure(FAILURE);
+		assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+		try {
+			breaker.beforeAttempt();
+			fail("Expected SQLException");
+		} catch (SQLException e) {
+			assertEquals("08001", e.getSQLState());
+		}
+	}
+	
+	/**
+	 * Test for {@link CircuitBreaker#recordSuccess()} between failures.
+	 * <p>
+	 * Expected: consecutive failure count is reset
+	 * </p>
+	 */
+	@Test
+	public void testRecordSuccess_resetsFailures() {
+		CircuitBreaker breaker = new CircuitBreaker("test", 2, 60000);
+		breaker.recordFailure(FAILURE);
+		breaker.recordSuccess();
+		breaker.recordFailure(FAILURE);
+		assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+	}
+	
+	/**
+	 * Test for {@link CircuitBreaker#beforeAttempt()} after the cool-down period.
+	 * <p>
+	 * Expected: a single probe is allowed, a successful probe closes the breaker
+	 * </p>
+	 * 
+	 * @throws Exception (should not occur)
+	 */
+	@Test
+	public void testBeforeAttempt_halfOpen() throws Exception {
+		CircuitBreaker breaker = new CircuitBreaker("test", 1, 0);
+		breaker.recordFailure(FAILURE);
+		breaker.beforeAttempt();
+		assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+		try {
+			breaker.beforeAttempt();
+			fail("Expected SQLException for second attempt during probe");
+		} catch (SQLException e) {
+			// expected
+		}
+		breaker.recordSuccess();
+		assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+	}
+	
+	/**
+	 * Test for {@link CircuitBreaker#recordFailure(SQLException)} for a failed probe.
+	 * <p>
+	 * Expected: breaker reopens
+	 * </p>
+	 * 
+	 * @throws Exception (should not occur)
+	 */
+	@Test
+	public void testRecordFailure_failedProbe() throws Exception {
+		CircuitBreaker breaker = new CircuitBreaker("test", 1, 0);
+		breaker.recordFailure(FAILURE);
+		breaker.beforeAttempt();
+		breaker.recordFailure(FAILURE);
+		assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+	}
+	
+	/**
+	 * Test for {@link CircuitBreaker#configure(int, long)} with a threshold of 0.
+	 * <p>
+	 * Expected: breaker disabled (closed, never opens)
+	 * </p>
+	 * 
+	 * @throws Exception (should not occur)
+	 */
+	@Test
+	public void testConfigure_disabled() throws Exception {
+		CircuitBreaker breaker = new CircuitBreaker("test", 1, 60000);
+		breaker.recordFailure(FAILURE);
+		breaker.configure(0, 60000);
+		assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+		breaker.recordFailure(FAILURE);
+		breaker.recordFailure(FAILURE);
+		breaker.beforeAttempt();
+	}
+}
@@ -0,0 +1,123 @@
+/*
+ * Copyright 2010, 2011 Open University of The Netherlands
+ * Contributors: Jan Blom, Rene Quakkelaar, Mark Rotteveel
+ *
+ * This file is part of NetLogo SQL Wrapper extension.
+ * 
+ * NetLogo SQL Wrapper extension is free software: you can redistribute it
+ * and/or modify it under the terms of the GNU Lesser General Public License 
+ * as published by the Free Software Foundation, either version 3 of the 
+ * License, or (at your option) any later version.
+ * 
+ * NetLogo SQL Wrapper is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with NetLogo SQL Wrapper extension.  If not, 
+ * see <http://www.gnu.org/licenses/>.
+ */
+package nl.ou.netlogo.sql.wrapper;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import org.junit.Test;
+import org.nlogo.api.ExtensionException;
+
+public class ConnectionPoolSettingsTest {
+	
+	/**
+	 * Test for {@link ConnectionPoolSettings#validate()} with the default settings.
+	 * <p>
+	 * Expected: no exception
+	 * </p>
+	 * 
+	 * @throws Exception (should not occur)
+	 */
+	@Test
+	public void testValidate_defaults() throws Exception {
+		new ConnectionPoolSettings(1, 0, 20, 5, 1).validate();
+	}
+	
+	/**
+	 * Test for {@link ConnectionPoolSettings#validate()} with less than the minimum amount of connections.
+	 * <p>
+	 * Expected: ExtensionException
+	 * </p>
+	 * 
+	 * @throws Exception (expected ExtensionException)
+	 */
+	@Test(expected = ExtensionException.class)
+	public void testValidate_lessThanFive() throws Exception {
+		new ConnectionPoolSettings(1, 0, 4, 5, 1).validate();
+	}
+	
+	/**
+	 * Test for {@link ConnectionPoolSettings#validate()} of a pool for explicit connections with less than the minimum
+	 * amount of connections of the connectionpool aspect.
+	 * <p>
+	 * Expected: no exception, the minimum does not apply to explicit connections
+	 * </p>
+	 * 
+	 * @throws Exception (should not occur)
+	 */
+	@Test
+	public void testValidate_explicitLessThanFive() throws Exception {
+		ConnectionPoolSettings.forExplicitConnections(1).validate();
+	}
+	
+	/**
+	 * Test for {@link ConnectionPoolSettings#validate()} of a pool for explicit connections without connections.
+	 * <p>
+	 * Expected: ExtensionException
+	 * </p>
+	 * 
+	 * @throws Exception (expected ExtensionException)
+	 */
+	@Test(expected = ExtensionException.class)
+	public void testValidate_explicitZero() throws Exception {
+		ConnectionPoolSettings.forExplicitConnections(0).validate();
+	}
+	
+	/**
+	 * Test for {@link ConnectionPoolSettings#validate()} with min-connections higher than max-connections.
+	 * <p>
+	 * Expected: ExtensionException
+	 * </p>
+	 * 
+	 * @throws Exception (expected ExtensionException)
+	 */
+	@Test(expected = ExtensionException.class)
+	public void testValidate_minHigherThanMax() throws Exception {
+		new ConnectionPoolSettings(1, 11, 10, 5, 1).validate();
+	}
+	
+	/**
+	 * Test for {@link ConnectionPoolSettings#getMinConnectionsPerPartition()} with min-connections not divisible by partitions.
+	 * <p>
+	 * Expected: rounded up
+	 * </p>
+	 */
+	@Test
+	public void testMinConnectionsPerPartition_roundedUp() {
+		assertEquals(2, new ConnectionPoolSettings(2, 3, 20, 5, 1).getMinConnectionsPerPartition());
+	}
+	
+	/**
+	 * Test for {@link ConnectionPoolSettings#equals(Object)} and {@link ConnectionPoolSettings#hashCode()}.
+	 * <p>
+	 * Expected: settings with equal values are equal, different idle timeout not equal
+	 * </p>
+	 */
+	@Test
+	public void testEquals() {
+		ConnectionPoolSettings settings1 = new ConnectionPoolSettings(1, 2, 20, 5, 1);
+		ConnectionPoolSettings settings2 = new ConnectionPoolSettings(1, 2, 20, 5, 1);
+		
+		assertEquals(settings1, settings2);
+		assertEquals(settings1.hashCode(), settings2.hashCode());
+		assertFalse(settings1.equals(new ConnectionPoolSettings(1, 2, 20, 6, 1)));
+	}
+}
@@ -0,0 +1,165 @@
+/*
+ * Copyright 2010, 2011 Open University of The Netherlands
+ * Contributors: Jan Blom, Rene Quakkelaar, Mark Rotteveel
+ *
+ * This file is part of NetLogo SQL Wrapper extension.
+ * 
+ * NetLogo SQL Wrapper extension is free software: you can redistribute it
+ * and/or modify it under the terms of the GNU Lesser General Public License 
+ * as published by the Free Software Foundation, either version 3 of the 
+ * License, or (at your option) any later version.
+ * 
+ * NetLogo SQL Wrapper is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with NetLogo SQL Wrapper extension.  If not, 
+ * see <http://www.gnu.org/licenses/>.
+ */
+package nl.ou.netlogo.sql.wrapper;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+
+import org.jmock.Mockery;
+import org.jmock.integration.junit4.JUnit4Mockery;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.nlogo.api.Agent;
+
+/**
+ * Tests for {@link EmbeddedDatabase} and the embedded brand of {@link DatabaseSupport}.
+ */
+public class EmbeddedDatabaseTest {
+	
+	private Mockery context = new JUnit4Mockery();
+	private SqlConnectionManager connectionManager;
+	private SqlSetting settings;
+	
+	@Before
+	public void setUp() throws Exception {
+		connectionManager = new SqlConnectionManager();
+		settings = new SqlConfiguration().getConfiguration(SqlConfiguration.EXPLICITCONNECTION);
+		settings.put(SqlConfiguration.DEFAULTCONNECTION_OPT_BRAND, "embedded");
+		settings.put(SqlConfiguration.DEFAULTCONNECTION_OPT_MODE, "memory");
+		settings.put(SqlConfiguration.DEFAULTCONNECTION_OPT_DATABASE, "embedded");
+		settings.put(SqlConfiguration.DEFAULTCONNECTION_OPT_USER, "sa");
+		settings.put(SqlConfiguration.DEFAULTCONNECTION_OPT_PASSWORD, "");
+		settings.put(SqlConfiguration.EXPLICITCONNECTION_OPT_POOLED, "off");
+	}
+	
+	@After
+	public void tearDown() {
+		connectionManager.closeAll();
+		connectionManager.releaseConnectionPool();
+	}
+	
+	/**
+	 * Test for {@link EmbeddedDatabase#buildJdbcUrl(String, String, String)} for both modes.
+	 * <p>
+	 * Expected: in-memory database kept while NetLogo runs, file database at the absolute path
+	 * </p>
+	 */
+	@Test
+	public void testBuildJdbcUrl() {
+		assertEquals("jdbc:h2:mem:model;DB_CLOSE_DELAY=-1", EmbeddedDatabase.buildJdbcUrl("memory", "ignored", "model"));
+		assertEquals("jdbc:h2:file:" + new File("data", "model").getAbsolutePath(),
+				EmbeddedDatabase.buildJdbcUrl("FILE", "data", "model"));
+	}
+	
+	/**
+	 * Test for {@link EmbeddedDatabase#buildJdbcUrl(String, String, String)} with an unknown mode.
+	 * <p>
+	 * Expected: IllegalArgumentException
+	 * </p>
+	 */
+	@Test(expected = IllegalArgumentException.class)
+	public void testBuildJdbcUrl_unknownMode() {
+		EmbeddedDatabase.buildJdbcUrl("disk", "data", "model");
+	}
+	
+	/**
+	 * Test for {@link EmbeddedDatabase#resolvePath(SqlSetting, org.nlogo.api.Context)} without a context.
+	 * <p>
+	 * Expected: %m removed in a copy of the settings, settings of other brands unchanged
+	 * </p>
+	 * 
+	 * @throws Exception (should not occur)
+	 */
+	@Test
+	public void testResolvePath_noContext() throws Exception {
+		settings.put(SqlConfiguration.DEFAULTCONNECTION_OPT_PATH, "%m/data");
+		
+		SqlSetting resolved = EmbeddedDatabase.resolvePath(settings, null);
+		assertEquals("/data", resolved.getString(SqlConfiguration.DEFAULTCONNECTION_OPT_PATH));
+		assertEquals("%m/data", settings.getString(SqlConfiguration.DEFAULTCONNECTION_OPT_PATH));
+		
+		settings.put(SqlConfiguration.DEFAULTCONNECTION_OPT_BRAND, "MySql");
+		assertSame(settings, EmbeddedDatabase.resolvePath(settings, null));
+	}
+	
+	/**
+	 * Test for sql:use-database, sql:current-database and sql:find-database on an in-memory embedded database.
+	 * <p>
+	 * Expected: databases are the schemas of the embedded database
+	 * </p>
+	 * 
+	 * @throws Exception (should not occur)
+	 */
+	@Test
+	public void testDatabases_memory() throws Exception {
+		Agent agent = context.mock(Agent.class);
+		SqlConnection connection = connectionManager.createConnection(agent, settings);
+		assertTrue(connection.getDatabaseInfo() instanceof EmbeddedDatabase);
+		connection.createStatement("CREATE SCHEMA IF NOT EXISTS results").executeDirect();
+		
+		assertEquals("PUBLIC", connection.currentDatabase());
+		assertTrue("Expected schema results", connection.findDatabase("results"));
+		assertFalse("Unexpected schema missing", connection.findDatabase("missing"));
+		connection.useDatabase("results");
+		assertEquals("RESULTS", connection.currentDatabase());
+	}
+	
+	/**
+	 * Test if the data of an embedded database in file mode is kept after closing the connection.
+	 * <p>
+	 * Expected: table created through the first connection exists for the second connection
+	 * </p>
+	 * 
+	 * @throws Exception (should not occur)
+	 */
+	@Test
+	public void testFileMode_keepsData() throws Exception {
+		File dir = new File(System.getProperty("java.io.tmpdir"), "sqlwrapper-embedded-" + System.nanoTime());
+		settings.put(SqlConfiguration.DEFAULTCONNECTION_OPT_MODE, "file");
+		settings.put(SqlConfiguration.DEFAULTCONNECTION_OPT_PATH, dir.getPath());
+		Agent agent = context.mock(Agent.class);
+		try {
+			SqlConnection first = connectionManager.createConnection(agent, settings);
+			first.createStatement("CREATE TABLE kept (id INTEGER)").executeDirect();
+			first.close();
+			
+			SqlConnection second = connectionManager.createConnection(agent, settings);
+			SqlStatement statement = second.createStatement("SELECT COUNT(*) FROM kept");
+			statement.executeQuery();
+			assertEquals(0.0, statement.getResultSet().fetchRow().get(0));
+			second.close();
+			assertTrue("Expected database file in " + dir, dir.list().length > 0);
+		} finally {
+			File[] files = dir.listFiles();
+			if (files != null) {
+				for (File file : files) {
+					file.delete();
+				}
+			}
+			dir.delete();
+		}
+	}
+}
@@ -0,0 +1,101 @@
+/*
+ * Copyright 2010, 2011 Open University of The Netherlands
+ * Contributors: Jan Blom, Rene Quakkelaar, Mark Rotteveel
+ *
+ * This file is part of NetLogo SQL Wrapper extension.
+ * 
+ * NetLogo SQL Wrapper extension is free software: you can redistribute it
+ * and/or modify it under the terms of the GNU Lesser General Public License 
+ * as published by the Free Software Foundation, either version 3 of the 
+ * License, or (at your option) any later version.
+ * 
+ * NetLogo SQL Wrapper is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with NetLogo SQL Wrapper extension.  If not, 
+ * see <http://www.gnu.org/licenses/>.
+ */
+package nl.ou.netlogo.sql.wrapper;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class LatencyHistogramTest {
+	
+	/**
+	 * Test for {@link LatencyHistogram#getPercentileMillis(double)} without recorded values.
+	 * <p>
+	 * Expected: 0 for percentile, mean and max
+	 * </p>
+	 */
+	@Test
+	public void testPercentile_empty() {
+		LatencyHistogram histogram = new LatencyHistogram();
+		
+		assertEquals(0.0, histogram.getPercentileMillis(50), 0.0);
+		assertEquals(0.0, histogram.getMeanMillis(), 0.0);
+		assertEquals(0.0, histogram.getMaxMillis(), 0.0);
+	}
+	
+	/**
+	 * Test for {@link LatencyHistogram#getPercentileMillis(double)} with values 1 to 100 milliseconds.
+	 * <p>
+	 * Expected: percentiles within the relative precision of the histogram
+	 * </p>
+	 */
+	@Test
+	public void testPercentile_uniform() {
+		LatencyHistogram histogram = new LatencyHistogram();
+		for (int millis = 1; millis <= 100; millis++) {
+			histogram.recordNanos(millis * 1000000L);
+		}
+		
+		assertEquals(100, histogram.getCount());
+		assertEquals(50.5, histogram.getMeanMillis(), 0.001);
+		assertEquals(100.0, histogram.getMaxMillis(), 0.0);
+		assertEquals(50.0, histogram.getPercentileMillis(50), 50.0 / 16);
+		assertEquals(95.0, histogram.getPercentileMillis(95), 95.0 / 16);
+		assertEquals(99.0, histogram.getPercentileMillis(99), 99.0 / 16);
+		assertTrue("Percentile should not exceed max", histogram.getPercentileMillis(100) <= 100.0);
+	}
+	
+	/**
+	 * Test for {@link LatencyHistogram#reset()}.
+	 * <p>
+	 * Expected: all recorded values cleared
+	 * </p>
+	 */
+	@Test
+	public void testReset() {
+		LatencyHistogram histogram = new LatencyHistogram();
+		histogram.recordNanos(5000000L);
+		
+		histogram.reset();
+		
+		assertEquals(0, histogram.getCount());
+		assertEquals(0.0, histogram.getPercentileMillis(99), 0.0);
+	}
+	
+	/**
+	 * Test for {@link LatencyHistogram#bucketIndex(long)} and {@link LatencyHistogram#bucketMidpoint(int)}.
+	 * <p>
+	 * Expected: bucket indexes increase monotonically and the midpoint of the bucket of a value is within 1/16 of the value
+	 * </p>
+	 */
+	@Test
+	public void testBuckets() {
+		int previousIndex = -1;
+		for (long value = 0; value < Long.MAX_VALUE / 3; value = value * 3 / 2 + 1) {
+			int index = LatencyHistogram.bucketIndex(value);
+			assertTrue("Bucket index should not decrease", index >= previousIndex);
+			long midpoint = LatencyHistogram.bucketMidpoint(index);
+			assertTrue("Midpoint " + midpoint + " too far from " + value, Math.abs(midpoint - value) <= value / 16 + 1);
+			previousIndex = index;
+		}
+	}
+}
@@ -0,0 +1,176 @@
+/*
+ * Copyright 2010, 2011 Open University of The Netherlands
+ * Contributors: Jan Blom, Rene Quakkelaar, Mark Rotteveel
+ *
+ * This file is part of NetLogo SQL Wrapper extension.
+ * 
+ * NetLogo SQL Wrapper extension is free software: you can redistribute it
+ * and/or modify it under the terms of the GNU Lesser General Public License 
+ * as published by the Free Software Foundation, either version 3 of the 
+ * License, or (at your option) any later version.
+ * 
+ * NetLogo SQL Wrapper is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with NetLogo SQL Wrapper extension.  If not, 
+ * see <http://www.gnu.org/licenses/>.
+ */
+package nl.ou.netlogo.sql.wrapper;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.Statement;
+import java.util.Arrays;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests for {@link MetadataCache}, with an in-memory H2 database.
+ */
+public class MetadataCacheTest {
+	
+	private Connection connection;
+	private MetadataCache cache;
+	
+	@Before
+	public void setUp() throws Exception {
+		Class.forName("org.h2.Driver");
+		connection = DriverManager.getConnection("jdbc:h2:mem:metadata", "sa", "");
+		execute("CREATE SCHEMA results");
+		execute("CREATE TABLE results.run_data (tick INT, who INT, energy DOUBLE)");
+		cache = new MetadataCache();
+	}
+	
+	@After
+	public void tearDown() throws Exception {
+		connection.close();
+	}
+	
+	private void execute(String sql) throws Exception {
+		Statement stmt = connection.createStatement();
+		try {
+			stmt.execute(sql);
+		} finally {
+			stmt.close();
+		}
+	}
+	
+	/**
+	 * Test if databases are found as catalog or schema, case-insensitively.
+	 * 
+	 * @throws Exception (should not occur)
+	 */
+	@Test
+	public void testHasDatabase() throws Exception {
+		assertTrue("Expected catalog to be found", cache.hasDatabase(connection, "metadata"));
+		assertTrue("Expected schema to be found", cache.hasDatabase(connection, "Results"));
+		assertFalse("Expected unknown database not to be found", cache.hasDatabase(connection, "missing"));
+	}
+	
+	/**
+	 * Test if cached databases are used until the cache is cleared.
+	 * 
+	 * @throws Exception (should not occur)
+	 */
+	@Test
+	public void testHasDatabase_cachedUntilClear() throws Exception {
+		assertFalse(cache.hasDatabase(connection, "later"));
+		execute("CREATE SCHEMA later");
+		
+		assertFalse("Expected cached result", cache.hasDatabase(connection, "later"));
+		cache.clear();
+		assertTrue("Expected schema to be found after clear", cache.hasDatabase(connection, "later"));
+	}
+	
+	/**
+	 * Test if nothing is cached with a time-to-live of 0.
+	 * 
+	 * @throws Exception (should not occur)
+	 */
+	@Test
+	public void testHasDatabase_noTimeToLive() throws Exception {
+		cache.setTimeToLive(0);
+		assertFalse(cache.hasDatabase(connection, "uncached"));
+		execute("CREATE SCHEMA uncached");
+		
+		assertTrue("Expected schema to be found without caching", cache.hasDatabase(connection, "uncached"));
+	}
+	
+	/**
+	 * Test lookup of tables and their columns.
+	 * 
+	 * @throws Exception (should not occur)
+	 */
+	@Test
+	public void testTablesAndColumns() throws Exception {
+		assertTrue("Expected table to be found", cache.hasTable(connection, "results", "run_data"));
+		assertFalse("Expected unknown table not to be found", cache.hasTable(connection, "results", "missing"));
+		assertEquals(Arrays.asList("TICK", "WHO", "ENERGY"), cache.getColumns(connection, "results", "run_data"));
+		assertTrue("Expected no columns for unknown table", cache.getColumns(connection, "results", "missing")
+				.isEmpty());
+	}
+	
+	/**
+	 * Test detection of statements that change metadata.
+	 */
+	@Test
+	public void testIsDdl() {
+		assertTrue(MetadataCache.isDdl("CREATE TABLE t (x INT)"));
+		assertTrue(MetadataCache.isDdl("  drop schema results"));
+		assertTrue(MetadataCache.isDdl("Alter table t add y int"));
+		assertFalse(MetadataCache.isDdl("SELECT * FROM created"));
+		assertFalse(MetadataCache.isDdl("INSERT INTO t VALUES (1)"));
+	}
+	
+	/**
+	 * Test if sql:find-database does not disturb the open resultset of the connection.
+	 * 
+	 * @throws Exception (should not occur)
+	 */
+	@Test
+	public void testFindDatabase_keepsResultSet() throws Exception {
+		execute("INSERT INTO results.run_data VALUES (1, 0, 5.0)");
+		execute("INSERT INTO results.run_data VALUES (1, 1, 7.0)");
+		DatabaseMySql dbInfo = new DatabaseMySql("jdbc:h2:mem:metadata", "org.h2.Driver", "sa", "", false);
+		SqlConnection sqlCon = new SqlConnection(connection, dbInfo);
+		sqlCon.createStatement("SELECT who FROM results.run_data ORDER BY who").executeQuery();
+		assertEquals(Double.valueOf(0), sqlCon.getResultSet().fetchRow().first());
+		
+		assertTrue("Expected schema to be found", sqlCon.findDatabase("results"));
+		
+		assertEquals(Double.valueOf(1), sqlCon.getResultSet().fetchRow().first());
+	}
+
+	/**
+	 * Test if sql:find-database autodisconnects when no resultset is open, and keeps the connection while a resultset
+	 * is being fetched.
+	 * 
+	 * @throws Exception (should not occur)
+	 */
+	@Test
+	public void testFindDatabase_autodisconnect() throws Exception {
+		execute("INSERT INTO results.run_data VALUES (1, 0, 5.0)");
+		execute("INSERT INTO results.run_data VALUES (1, 1, 7.0)");
+		DatabaseMySql dbInfo = new DatabaseMySql("jdbc:h2:mem:metadata", "org.h2.Driver", "sa", "", true);
+		SqlConnection sqlCon = new SqlConnection(DriverManager.getConnection("jdbc:h2:mem:metadata", "sa", ""), dbInfo);
+		sqlCon.createStatement("SELECT who FROM results.run_data ORDER BY who").executeQuery();
+		sqlCon.getResultSet().fetchRow();
+		
+		assertTrue("Expected schema to be found", sqlCon.findDatabase("results"));
+		assertTrue("Expected connection kept for the open resultset", sqlCon.isConnected());
+		sqlCon.close();
+		
+		sqlCon = new SqlConnection(DriverManager.getConnection("jdbc:h2:mem:metadata", "sa", ""), dbInfo);
+		assertTrue("Expected schema to be found", sqlCon.findDatabase("results"));
+		assertFalse("Expected autodisconnect after sql:find-database", sqlCon.isConnected());
+	}
+}
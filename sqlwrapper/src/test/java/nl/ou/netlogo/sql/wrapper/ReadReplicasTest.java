@@ -0,0 +1,81 @@
+/*
+ * Copyright 2010, 2011 Open University of The Netherlands
+ * Contributors: Jan Blom, Rene Quakkelaar, Mark Rotteveel
+ *
+ * This file is part of NetLogo SQL Wrapper extension.
+ * 
+ * NetLogo SQL Wrapper extension is free software: you can redistribute it
+ * and/or modify it under the terms of the GNU Lesser General Public License 
+ * as published by the Free Software Foundation, either version 3 of the 
+ * License, or (at your option) any later version.
+ * 
+ * NetLogo SQL Wrapper is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with NetLogo SQL Wrapper extension.  If not, 
+ * see <http://www.gnu.org/licenses/>.
+ */
+package nl.ou.netlogo.sql.wrapper;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Test;
+import org.nlogo.api.ExtensionException;
+
+public class ReadReplicasTest {
+	
+	/**
+	 * Test for {@link ReadReplicas.Routing#forName(String)} with the configuration names.
+	 * <p>
+	 * Expected: names map to the routing, ignoring case
+	 * </p>
+	 * 
+	 * @throws Exception (should not occur)
+	 */
+	@Test
+	public void testRoutingForName() throws Exception {
+		assertEquals(ReadReplicas.Routing.ROUND_ROBIN, ReadReplicas.Routing.forName("round-robin"));
+		assertEquals(ReadReplicas.Routing.LEAST_LOADED, ReadReplicas.Routing.forName("Least-Loaded"));
+	}
+	
+	/**
+	 * Test for {@link ReadReplicas.Routing#forName(String)} with an unknown name.
+	 * <p>
+	 * Expected: ExtensionException
+	 * </p>
+	 * 
+	 * @throws Exception (ExtensionException expected)
+	 */
+	@Test(expected = ExtensionException.class)
+	public void testRoutingForName_unknown() throws Exception {
+		ReadReplicas.Routing.forName("random");
+	}
+	
+	/**
+	 * Test for {@link ReadReplicas#choose()} without replicas.
+	 * <p>
+	 * Expected: no replica chosen, statistics report no replicas and no reads
+	 * </p>
+	 * 
+	 * @throws Exception (should not occur)
+	 */
+	@Test
+	public void testChoose_noReplicas() throws Exception {
+		ReadReplicas replicas = new ReadReplicas(Collections.<DatabaseInfo> emptyList(), null, false);
+		replicas.configure(ReadReplicas.Routing.LEAST_LOADED, 0, 0);
+		assertNull(replicas.choose());
+		
+		Map<String, Object> stats = new HashMap<String, Object>();
+		replicas.addStatistics(stats);
+		assertEquals(Double.valueOf(0), stats.get("replicas"));
+		assertEquals(Double.valueOf(0), stats.get("replica-reads"));
+	}
+}
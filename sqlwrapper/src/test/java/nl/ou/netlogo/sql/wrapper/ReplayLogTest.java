@@ -0,0 +1,229 @@
+/*
+ * Copyright 2010, 2011 Open University of The Netherlands
+ * Contributors: Jan Blom, Rene Quakkelaar, Mark Rotteveel
+ *
+ * This file is part of NetLogo SQL Wrapper extension.
+ * 
+ * NetLogo SQL Wrapper extension is free software: you can redistribute it
+ * and/or modify it under the terms of the GNU Lesser General Public License 
+ * as published by the Free Software Foundation, either version 3 of the 
+ * License, or (at your option) any later version.
+ * 
+ * NetLogo SQL Wrapper is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with NetLogo SQL Wrapper extension.  If not, 
+ * see <http://www.gnu.org/licenses/>.
+ */
+package nl.ou.netlogo.sql.wrapper;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.sql.DriverManager;
+
+import nl.ou.netlogo.sql.testsupport.FakeDatabase;
+import nl.ou.netlogo.sql.testsupport.FakeDriver;
+
+import org.jmock.Mockery;
+import org.jmock.integration.junit4.JUnit4Mockery;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.nlogo.api.Agent;
+import org.nlogo.api.ExtensionException;
+import org.nlogo.api.LogoList;
+import org.nlogo.api.LogoListBuilder;
+
+/**
+ * Tests for {@link ReplayLog}, recording the results of the {@link FakeDriver}.
+ */
+public class ReplayLogTest {
+	
+	private static final String URL = "jdbc:fake:replay";
+	private static final String QUERY = "SELECT * FROM agents WHERE id = ?";
+	
+	private Mockery context = new JUnit4Mockery();
+	private File replayFile;
+	private ReplayLog replayLog;
+	private FakeDatabase database;
+	
+	@Before
+	public void setUp() throws Exception {
+		Class.forName(FakeDriver.class.getName());
+		FakeDatabase.clear();
+		database = FakeDatabase.get("replay");
+		database.setRows(2);
+		database.setColumns(3);
+		database.setUpdateCount(4);
+		replayFile = File.createTempFile("replay", ".dat");
+		replayFile.delete();
+		replayLog = new ReplayLog();
+	}
+	
+	@After
+	public void tearDown() throws Exception {
+		replayLog.close();
+		replayFile.delete();
+	}
+	
+	/**
+	 * Test if recorded rows and row counts are replayed without the database.
+	 * <p>
+	 * Expected: same rows and row count, no statements executed while replaying
+	 * </p>
+	 * 
+	 * @throws Exception (should not occur)
+	 */
+	@Test
+	public void testRecordAndReplay() throws Exception {
+		configure(ReplayLog.MODE_RECORD);
+		SqlConnection recording = connect();
+		LogoList recorded = query(recording, 7.0);
+		assertEquals(2, recorded.size());
+		SqlStatement update = recording.createStatement("UPDATE agents SET name = 'x'");
+		assertTrue("Expected update count", !update.executeDirect());
+		assertEquals(4, update.getRowCount());
+		recording.close();
+		
+		configure(ReplayLog.MODE_REPLAY);
+		assertEquals(2, replayLog.getRecordedCount());
+		database.setUnavailable(true);
+		long statements = database.getStatements();
+		SqlConnection replaying = new ReplayConnection(replayLog, null);
+		replaying.setReplayLog(replayLog);
+		assertEquals(recorded, query(replaying, 7.0));
+		update = replaying.createStatement("UPDATE agents SET name = 'x'");
+		assertTrue("Expected update count", !update.executeDirect());
+		assertEquals(4, update.getRowCount());
+		assertEquals("Statements executed while replaying", statements, database.getStatements());
+	}
+	
+	/**
+	 * Test if repeated executions of a statement are replayed in the order of
+	 * recording.
+	 * <p>
+	 * Expected: the first execution replays 2 rows, the second 3 rows
+	 * </p>
+	 * 
+	 * @throws Exception (should not occur)
+	 */
+	@Test
+	public void testReplay_sequence() throws Exception {
+		configure(ReplayLog.MODE_RECORD);
+		SqlConnection recording = connect();
+		query(recording, 1.0);
+		database.setRows(3);
+		query(recording, 1.0);
+		recording.close();
+		
+		configure(ReplayLog.MODE_REPLAY);
+		SqlConnection replaying = new ReplayConnection(replayLog, null);
+		replaying.setReplayLog(replayLog);
+		assertEquals(2, query(replaying, 1.0).size());
+		assertEquals(3, query(replaying, 1.0).size());
+	}
+	
+	/**
+	 * Test if replaying a statement with other parameters than recorded fails.
+	 * <p>
+	 * Expected: ExtensionException
+	 * </p>
+	 * 
+	 * @throws Exception (should not occur)
+	 */
+	@Test
+	public void testReplay_notRecorded() throws Exception {
+		configure(ReplayLog.MODE_RECORD);
+		SqlConnection recording = connect();
+		query(recording, 1.0);
+		recording.close();
+		
+		configure(ReplayLog.MODE_REPLAY);
+		SqlConnection replaying = new ReplayConnection(replayLog, null);
+		replaying.setReplayLog(replayLog);
+		try {
+			query(replaying, 2.0);
+			fail("Expected no recorded result");
+		} catch (ExtensionException e) {
+			assertTrue(e.getMessage(), e.getMessage().contains("No recorded result"));
+		}
+	}
+	
+	/**
+	 * Test if replay mode without a replay file fails.
+	 * <p>
+	 * Expected: ExtensionException, replay mode stays off
+	 * </p>
+	 * 
+	 * @throws Exception (should not occur)
+	 */
+	@Test
+	public void testConfigure_replayWithoutFile() throws Exception {
+		try {
+			configure(ReplayLog.MODE_REPLAY);
+			fail("Expected missing replay file");
+		} catch (ExtensionException e) {
+			// expected
+		}
+		assertTrue("Expected replay mode off", !replayLog.isReplaying());
+	}
+	
+	/**
+	 * Test if the connection manager hands out connections without a physical
+	 * connection in replay mode.
+	 * <p>
+	 * Expected: ReplayConnection, no connection to the database
+	 * </p>
+	 * 
+	 * @throws Exception (should not occur)
+	 */
+	@Test
+	public void testGetConnection_replaying() throws Exception {
+		configure(ReplayLog.MODE_RECORD);
+		replayLog.close();
+		
+		SqlConnectionManager connectionManager = new SqlConnectionManager();
+		connectionManager.getReplayLog().configure(replaySettings(ReplayLog.MODE_REPLAY), null);
+		try {
+			SqlConnection connection = connectionManager.getRoutedConnection(context.mock(Agent.class), true);
+			assertTrue("Expected ReplayConnection", connection instanceof ReplayConnection);
+			assertTrue("Expected connected", connection.isConnected());
+			assertEquals("Physical connections", 0, database.getConnects());
+		} finally {
+			connectionManager.closeAll();
+			connectionManager.getReplayLog().close();
+		}
+	}
+	
+	private void configure(String mode) throws Exception {
+		replayLog.configure(replaySettings(mode), null);
+	}
+	
+	private SqlSetting replaySettings(String mode) throws Exception {
+		SqlSetting settings = new SqlConfiguration().getConfiguration(SqlConfiguration.REPLAY);
+		settings.put(SqlConfiguration.REPLAY_OPT_MODE, mode);
+		settings.put(SqlConfiguration.REPLAY_OPT_PATH, replayFile.getAbsolutePath());
+		return settings;
+	}
+	
+	private SqlConnection connect() throws Exception {
+		SqlConnection connection = new SqlConnection(DriverManager.getConnection(URL, "sa", ""), new GenericDatabase(
+				"generic", URL, FakeDriver.class.getName(), "sa", "", false));
+		connection.setReplayLog(replayLog);
+		return connection;
+	}
+	
+	private static LogoList query(SqlConnection connection, double id) throws Exception {
+		LogoListBuilder parameters = new LogoListBuilder();
+		parameters.add(Double.valueOf(id));
+		SqlStatement statement = connection.createStatement(QUERY, parameters.toLogoList());
+		statement.executeQuery();
+		return statement.getResultSet().fetchResultSet();
+	}
+}
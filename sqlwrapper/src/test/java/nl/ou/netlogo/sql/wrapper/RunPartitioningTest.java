@@ -0,0 +1,279 @@
+/*
+ * Copyright 2010, 2011 Open University of The Netherlands
+ * Contributors: Jan Blom, Rene Quakkelaar, Mark Rotteveel
+ *
+ * This file is part of NetLogo SQL Wrapper extension.
+ * 
+ * NetLogo SQL Wrapper extension is free software: you can redistribute it
+ * and/or modify it under the terms of the GNU Lesser General Public License 
+ * as published by the Free Software Foundation, either version 3 of the 
+ * License, or (at your option) any later version.
+ * 
+ * NetLogo SQL Wrapper is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with NetLogo SQL Wrapper extension.  If not, 
+ * see <http://www.gnu.org/licenses/>.
+ */
+package nl.ou.netlogo.sql.wrapper;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.sql.SQLException;
+
+import org.jmock.Mockery;
+import org.jmock.integration.junit4.JUnit4Mockery;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.nlogo.api.Agent;
+import org.nlogo.api.ExtensionException;
+import org.nlogo.api.LogoList;
+import org.nlogo.api.LogoListBuilder;
+
+/**
+ * Tests for {@link RunPartitioning}, on an in-memory embedded database.
+ */
+public class RunPartitioningTest {
+	
+	private Mockery context = new JUnit4Mockery();
+	private SqlConnectionManager connectionManager;
+	private SqlConnection connection;
+	private RunPartitioning runPartitioning;
+	
+	@Before
+	public void setUp() throws Exception {
+		connectionManager = new SqlConnectionManager();
+		SqlSetting settings = new SqlConfiguration().getConfiguration(SqlConfiguration.EXPLICITCONNECTION);
+		settings.put(SqlConfiguration.DEFAULTCONNECTION_OPT_BRAND, "embedded");
+		settings.put(SqlConfiguration.DEFAULTCONNECTION_OPT_MODE, "memory");
+		settings.put(SqlConfiguration.DEFAULTCONNECTION_OPT_DATABASE, "runs" + System.nanoTime());
+		settings.put(SqlConfiguration.DEFAULTCONNECTION_OPT_USER, "sa");
+		settings.put(SqlConfiguration.DEFAULTCONNECTION_OPT_PASSWORD, "");
+		settings.put(SqlConfiguration.EXPLICITCONNECTION_OPT_POOLED, "off");
+		connection = connectionManager.createConnection(context.mock(Agent.class), settings);
+		runPartitioning = connectionManager.getRunPartitioning();
+		connection.setRunPartitioning(runPartitioning);
+		execute("CREATE TABLE results (tick INTEGER, val VARCHAR(20), run INTEGER)");
+	}
+	
+	@After
+	public void tearDown() {
+		connectionManager.closeAll();
+		connectionManager.releaseConnectionPool();
+	}
+	
+	private void configure(String mode, int runId) throws Exception {
+		SqlSetting settings = new SqlConfiguration().getConfiguration(SqlConfiguration.RUNPARTITION);
+		settings.put(SqlConfiguration.RUNPARTITION_OPT_MODE, mode);
+		settings.put(SqlConfiguration.RUNPARTITION_OPT_RUNID, String.valueOf(runId));
+		settings.put(SqlConfiguration.RUNPARTITION_OPT_TABLES, "results, events");
+		runPartitioning.configure(settings, null);
+	}
+	
+	private void execute(String sql) throws Exception {
+		connection.createStatement(sql).executeDirect();
+	}
+	
+	private double queryNumber(String sql) throws Exception {
+		SqlStatement statement = connection.createStatement(sql);
+		statement.executeQuery();
+		LogoList rows = statement.getResultSet().fetchResultSet();
+		return ((Number) ((LogoList) rows.get(0)).get(0)).doubleValue();
+	}
+	
+	private boolean tableExists(String table) throws Exception {
+		return connection.getConnection().getMetaData().getTables(null, null, table, null).next();
+	}
+	
+	private static LogoList list(Object... values) {
+		LogoListBuilder builder = new LogoListBuilder();
+		for (Object value : values) {
+			builder.add(value);
+		}
+		return builder.toLogoList();
+	}
+	
+	/**
+	 * Test if column mode adds the run id to every row of an insert of a configured table.
+	 * <p>
+	 * Expected: all rows written with the configured run id
+	 * </p>
+	 * 
+	 * @throws Exception (should not occur)
+	 */
+	@Test
+	public void testColumnMode_tagsInsert() throws Exception {
+		configure(RunPartitioning.MODE_COLUMN, 7);
+		
+		connection.createStatement("INSERT INTO results (tick, val) VALUES (?, ?), (?, 'a (b)')",
+				list(Double.valueOf(1), "x", Double.valueOf(2))).executeUpdate();
+		execute("insert into Results(tick, val) values (3, 'c')");
+		
+		assertEquals(3, queryNumber("SELECT COUNT(*) FROM results WHERE run = 7"), 0);
+		assertEquals(3, queryNumber("SELECT SUM(tick) FROM results WHERE run = 7 AND val IN ('x', 'a (b)')"), 0);
+	}
+	
+	/**
+	 * Test if column mode leaves inserts with the run id column and other tables unchanged.
+	 * <p>
+	 * Expected: run id of the model kept, rows of other tables not tagged
+	 * </p>
+	 * 
+	 * @throws Exception (should not occur)
+	 */
+	@Test
+	public void testColumnMode_unchanged() throws Exception {
+		configure(RunPartitioning.MODE_COLUMN, 7);
+		execute("CREATE TABLE other (tick INTEGER)");
+		
+		execute("INSERT INTO results (tick, run) VALUES (1, 3)");
+		execute("INSERT INTO other (tick) VALUES (1)");
+		
+		assertEquals(1, queryNumber("SELECT COUNT(*) FROM results WHERE run = 3"), 0);
+		assertEquals(1, queryNumber("SELECT COUNT(*) FROM other"), 0);
+	}
+	
+	/**
+	 * Test if column mode rejects an insert of a configured table without a column list.
+	 * <p>
+	 * Expected: SQLException
+	 * </p>
+	 * 
+	 * @throws Exception (should not occur)
+	 */
+	@Test(expected = SQLException.class)
+	public void testColumnMode_insertSelect() throws Exception {
+		configure(RunPartitioning.MODE_COLUMN, 7);
+		
+		connection.createStatement("INSERT INTO results SELECT * FROM results");
+	}
+	
+	/**
+	 * Test if column mode deletes the rows of a run when the run is cleared.
+	 * <p>
+	 * Expected: rows of the run deleted, rows of other runs kept
+	 * </p>
+	 * 
+	 * @throws Exception (should not occur)
+	 */
+	@Test
+	public void testColumnMode_clearRun() throws Exception {
+		execute("CREATE TABLE events (tick INTEGER, run INTEGER)");
+		configure(RunPartitioning.MODE_COLUMN, 1);
+		execute("INSERT INTO results (tick) VALUES (1)");
+		configure(RunPartitioning.MODE_COLUMN, 2);
+		execute("INSERT INTO results (tick) VALUES (1)");
+		
+		runPartitioning.clearRun(connection, 1);
+		
+		assertEquals(0, queryNumber("SELECT COUNT(*) FROM results WHERE run = 1"), 0);
+		assertEquals(1, queryNumber("SELECT COUNT(*) FROM results WHERE run = 2"), 0);
+	}
+	
+	/**
+	 * Test if table mode writes and reads the table of the run, created from the configured table.
+	 * <p>
+	 * Expected: rows in the table of the run only, table dropped when the run is cleared
+	 * </p>
+	 * 
+	 * @throws Exception (should not occur)
+	 */
+	@Test
+	public void testTableMode() throws Exception {
+		execute("CREATE TABLE events (tick INTEGER)");
+		configure(RunPartitioning.MODE_TABLE, 5);
+		
+		execute("INSERT INTO results (tick, val) VALUES (1, 'results')");
+		execute("INSERT INTO results (tick, val) VALUES (2, 'results')");
+		assertEquals(2, queryNumber("SELECT COUNT(*) FROM results WHERE val = 'results'"), 0);
+		
+		configure(RunPartitioning.MODE_OFF, 0);
+		assertEquals(0, queryNumber("SELECT COUNT(*) FROM results"), 0);
+		assertEquals(2, queryNumber("SELECT COUNT(*) FROM results_run5"), 0);
+		assertTrue(tableExists("RESULTS_RUN5"));
+		
+		configure(RunPartitioning.MODE_TABLE, 6);
+		runPartitioning.clearRun(connection, 5);
+		assertFalse(tableExists("RESULTS_RUN5"));
+	}
+	
+	/**
+	 * Test if table mode only rewrites names in table positions, not columns, aliases or function arguments with the
+	 * name of a configured table.
+	 * <p>
+	 * Expected: tables after FROM, in the FROM list and as qualifier rewritten, other names unchanged
+	 * </p>
+	 * 
+	 * @throws Exception (should not occur)
+	 */
+	@Test
+	public void testTableMode_columnAndAliasNamedAsTable() throws Exception {
+		execute("CREATE TABLE events (tick INTEGER, results INTEGER)");
+		configure(RunPartitioning.MODE_TABLE, 5);
+		
+		assertEquals("SELECT results FROM events_run5 WHERE results > 0",
+				runPartitioning.rewrite(connection, "SELECT results FROM events WHERE results > 0", null).getSql());
+		assertEquals("SELECT COUNT(*) AS results FROM results_run5 r, events_run5 WHERE r.tick = events_run5.tick",
+				runPartitioning.rewrite(connection,
+						"SELECT COUNT(*) AS results FROM results r, events WHERE r.tick = events.tick", null).getSql());
+		assertEquals("SELECT MAX(results) FROM events_run5 results",
+				runPartitioning.rewrite(connection, "SELECT MAX(results) FROM events results", null).getSql());
+		assertEquals("UPDATE events_run5 SET results = (SELECT COUNT(*) FROM results_run5)",
+				runPartitioning.rewrite(connection, "UPDATE events SET results = (SELECT COUNT(*) FROM results)", null)
+						.getSql());
+		
+		execute("INSERT INTO events (tick, results) VALUES (1, 3)");
+		assertEquals(3, queryNumber("SELECT results FROM events"), 0);
+	}
+	
+	/**
+	 * Test if partition mode is rejected for a database without partitions by list.
+	 * <p>
+	 * Expected: SQLException for an insert, ExtensionException for clearing a run
+	 * </p>
+	 * 
+	 * @throws Exception (should not occur)
+	 */
+	@Test
+	public void testPartitionMode_notSupported() throws Exception {
+		configure(RunPartitioning.MODE_PARTITION, 1);
+		
+		try {
+			connection.createStatement("INSERT INTO results (tick) VALUES (1)");
+			fail("Expected partitions not to be supported");
+		} catch (SQLException e) {
+			// expected
+		}
+		try {
+			runPartitioning.clearRun(connection, 1);
+			fail("Expected partitions not to be supported");
+		} catch (ExtensionException e) {
+			// expected
+		}
+	}
+	
+	/**
+	 * Test for the SQL of the run partitions of PostgreSQL and MySQL.
+	 * <p>
+	 * Expected: partition of the list partitioned table for the run id
+	 * </p>
+	 * 
+	 * @throws Exception (should not occur)
+	 */
+	@Test
+	public void testPartitionSql() throws Exception {
+		assertEquals("CREATE TABLE IF NOT EXISTS results_run3 PARTITION OF results FOR VALUES IN (3)",
+				DatabaseSupport.POSTGRESQL.getCreateRunPartitionSql("results", "results_run3", 3));
+		assertEquals("ALTER TABLE results ADD PARTITION (PARTITION results_run3 VALUES IN (3))",
+				DatabaseSupport.MYSQL.getCreateRunPartitionSql("results", "results_run3", 3));
+		assertEquals("ALTER TABLE results DROP PARTITION results_run3",
+				DatabaseSupport.MYSQL.getDropRunPartitionSql("results", "results_run3"));
+	}
+}
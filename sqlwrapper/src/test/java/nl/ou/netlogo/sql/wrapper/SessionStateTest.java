@@ -0,0 +1,180 @@
+/*
+ * Copyright 2010, 2011 Open University of The Netherlands
+ * Contributors: Jan Blom, Rene Quakkelaar, Mark Rotteveel
+ *
+ * This file is part of NetLogo SQL Wrapper extension.
+ * 
+ * NetLogo SQL Wrapper extension is free software: you can redistribute it
+ * and/or modify it under the terms of the GNU Lesser General Public License 
+ * as published by the Free Software Foundation, either version 3 of the 
+ * License, or (at your option) any later version.
+ * 
+ * NetLogo SQL Wrapper is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with NetLogo SQL Wrapper extension.  If not, 
+ * see <http://www.gnu.org/licenses/>.
+ */
+package nl.ou.netlogo.sql.wrapper;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.sql.Connection;
+
+import org.jmock.Expectations;
+import org.jmock.Mockery;
+import org.jmock.Sequence;
+import org.jmock.integration.junit4.JUnit4Mockery;
+import org.junit.Test;
+
+/**
+ * Tests for {@link SessionState}.
+ */
+public class SessionStateTest {
+	
+	private Mockery context = new JUnit4Mockery();
+	
+	/**
+	 * Test if a known autocommit state is answered without asking the driver, and setting the same state issues no call.
+	 * 
+	 * @throws Exception (should not occur)
+	 */
+	@Test
+	public void testAutoCommit_known_noDriverCalls() throws Exception {
+		final Connection connection = context.mock(Connection.class);
+		SessionState session = new SessionState(Boolean.TRUE);
+		
+		context.checking(new Expectations() {{
+			never(connection);
+		}});
+		
+		assertTrue("Expected autocommit", session.getAutoCommit(connection));
+		session.setAutoCommit(connection, true);
+		assertFalse("Expected clean session state", session.isDirty());
+		context.assertIsSatisfied();
+	}
+	
+	/**
+	 * Test if reset of an unchanged session issues no calls.
+	 * 
+	 * @throws Exception (should not occur)
+	 */
+	@Test
+	public void testReset_clean_noDriverCalls() throws Exception {
+		final Connection connection = context.mock(Connection.class);
+		SessionState session = new SessionState(Boolean.TRUE);
+		
+		context.checking(new Expectations() {{
+			oneOf(connection).getCatalog(); will(returnValue("initial"));
+			never(connection).setCatalog(with(any(String.class)));
+			never(connection).setAutoCommit(with(any(Boolean.class)));
+		}});
+		
+		assertEquals("initial", session.getCatalog(connection));
+		assertEquals("initial", session.getCatalog(connection));
+		session.reset(connection);
+		context.assertIsSatisfied();
+	}
+	
+	/**
+	 * Test if reset restores autocommit and the initial catalog after they were changed.
+	 * 
+	 * @throws Exception (should not occur)
+	 */
+	@Test
+	public void testReset_dirty_restoresState() throws Exception {
+		final Connection connection = context.mock(Connection.class);
+		final Sequence seq = context.sequence("reset_sequence");
+		SessionState session = new SessionState(Boolean.TRUE);
+		
+		context.checking(new Expectations() {{
+			oneOf(connection).setAutoCommit(false); inSequence(seq);
+			oneOf(connection).getCatalog(); will(returnValue("initial")); inSequence(seq);
+			oneOf(connection).getCatalog(); will(returnValue("other")); inSequence(seq);
+			oneOf(connection).setAutoCommit(true); inSequence(seq);
+			oneOf(connection).setCatalog("initial"); inSequence(seq);
+		}});
+		
+		session.setAutoCommit(connection, false);
+		session.beforeCatalogChange(connection);
+		session.catalogChanged();
+		assertEquals("other", session.getCatalog(connection));
+		assertTrue("Expected dirty session state", session.isDirty());
+		session.reset(connection);
+		
+		assertFalse("Expected clean session state after reset", session.isDirty());
+		assertTrue("Expected autocommit after reset", session.getAutoCommit(connection));
+		assertEquals("initial", session.getCatalog(connection));
+		context.assertIsSatisfied();
+	}
+	
+	/**
+	 * Test if changing the isolation level back to the initial level leaves the session clean.
+	 * 
+	 * @throws Exception (should not occur)
+	 */
+	@Test
+	public void testTransactionIsolation_restoredByAgent_clean() throws Exception {
+		final Connection connection = context.mock(Connection.class);
+		SessionState session = new SessionState(Boolean.TRUE);
+		
+		context.checking(new Expectations() {{
+			oneOf(connection).getTransactionIsolation(); will(returnValue(Connection.TRANSACTION_READ_COMMITTED));
+			oneOf(connection).setTransactionIsolation(Connection.TRANSACTION_SERIALIZABLE);
+			oneOf(connection).setTransactionIsolation(Connection.TRANSACTION_READ_COMMITTED);
+		}});
+		
+		session.setTransactionIsolation(connection, Connection.TRANSACTION_SERIALIZABLE);
+		assertTrue("Expected dirty session state", session.isDirty());
+		session.setTransactionIsolation(connection, Connection.TRANSACTION_READ_COMMITTED);
+		
+		assertFalse("Expected clean session state", session.isDirty());
+		context.assertIsSatisfied();
+	}
+
+	/**
+	 * Test if autocommit changed by a raw SET statement is read back from the driver and reset.
+	 * 
+	 * @throws Exception (should not occur)
+	 */
+	@Test
+	public void testBeforeStatement_setAutoCommit_readBackAndReset() throws Exception {
+		final Connection connection = context.mock(Connection.class);
+		final Sequence seq = context.sequence("reset_sequence");
+		SessionState session = new SessionState(Boolean.TRUE);
+		
+		context.checking(new Expectations() {{
+			oneOf(connection).getAutoCommit(); will(returnValue(false)); inSequence(seq);
+			oneOf(connection).setAutoCommit(true); inSequence(seq);
+		}});
+		
+		session.beforeStatement(connection, "SET autocommit = 0");
+		assertFalse("Expected autocommit read back from the driver", session.getAutoCommit(connection));
+		assertTrue("Expected dirty session state", session.isDirty());
+		session.reset(connection);
+		
+		assertFalse("Expected clean session state after reset", session.isDirty());
+		assertTrue("Expected autocommit after reset", session.getAutoCommit(connection));
+		context.assertIsSatisfied();
+	}
+	
+	/**
+	 * Test which session state is changed by statements executed directly.
+	 */
+	@Test
+	public void testChangedBy() {
+		assertEquals(SessionState.AUTOCOMMIT, SessionState.changedBy("  set AUTOCOMMIT = 0"));
+		assertEquals(SessionState.AUTOCOMMIT, SessionState.changedBy("START TRANSACTION"));
+		assertEquals(SessionState.CATALOG, SessionState.changedBy("use otherdb"));
+		assertEquals(SessionState.ISOLATION | SessionState.READ_ONLY,
+				SessionState.changedBy("SET TRANSACTION ISOLATION LEVEL SERIALIZABLE"));
+		assertEquals(0, SessionState.changedBy("SET @count = 1"));
+		assertEquals(0, SessionState.changedBy("SELECT * FROM settings"));
+		assertEquals(0, SessionState.changedBy("UPDATE t SET a = 1"));
+	}
+}
@@ -0,0 +1,190 @@
+/*
+ * Copyright 2010, 2011 Open University of The Netherlands
+ * Contributors: Jan Blom, Rene Quakkelaar, Mark Rotteveel
+ *
+ * This file is part of NetLogo SQL Wrapper extension.
+ * 
+ * NetLogo SQL Wrapper extension is free software: you can redistribute it
+ * and/or modify it under the terms of the GNU Lesser General Public License 
+ * as published by the Free Software Foundation, either version 3 of the 
+ * License, or (at your option) any later version.
+ * 
+ * NetLogo SQL Wrapper is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with NetLogo SQL Wrapper extension.  If not, 
+ * see <http://www.gnu.org/licenses/>.
+ */
+package nl.ou.netlogo.sql.wrapper;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.jmock.Expectations;
+import org.jmock.Mockery;
+import org.jmock.integration.junit4.JUnit4Mockery;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.nlogo.api.LogoList;
+
+/**
+ * Tests for {@link ShardedConnection} with in-memory H2 databases standing in
+ * for the shards.
+ */
+public class ShardedConnectionTest {
+	
+	private static final int SHARDS = 3;
+	
+	private Mockery context = new JUnit4Mockery();
+	private List<Connection> connections = new ArrayList<Connection>();
+	private ShardedConnection shardedConnection;
+	
+	@Before
+	public void setUp() throws Exception {
+		final DatabaseInfo dbInfo = context.mock(DatabaseInfo.class);
+		context.checking(new Expectations() {{
+			allowing(dbInfo).useAutoDisconnect(); will(returnValue(false));
+			allowing(dbInfo).getMetadataCache(); will(returnValue(new MetadataCache()));
+		}});
+		Class.forName("org.h2.Driver");
+		List<SqlConnection> shardConnections = new ArrayList<SqlConnection>();
+		for (int idx = 0; idx < SHARDS; idx++) {
+			Connection connection = DriverManager.getConnection("jdbc:h2:mem:shard" + idx);
+			connections.add(connection);
+			shardConnections.add(new SqlConnection(connection, dbInfo));
+		}
+		shardedConnection = new ShardedConnection(shardConnections, dbInfo);
+		shardedConnection.createStatement("CREATE TABLE agents (who INT, shard INT)").executeUpdate();
+	}
+	
+	@After
+	public void tearDown() throws Exception {
+		for (Connection connection : connections) {
+			Statement stmt = connection.createStatement();
+			stmt.execute("DROP TABLE agents");
+			stmt.close();
+		}
+		shardedConnection.close();
+	}
+	
+	/**
+	 * Test if an update is executed on every shard.
+	 * <p>
+	 * Expected: row count is the sum of the row counts of the shards
+	 * </p>
+	 * 
+	 * @throws Exception (should not occur)
+	 */
+	@Test
+	public void testExecuteUpdate_allShards() throws Exception {
+		for (int idx = 0; idx < SHARDS; idx++) {
+			Statement stmt = connections.get(idx).createStatement();
+			stmt.executeUpdate("INSERT INTO agents (who, shard) VALUES (" + idx + ", " + idx + ")");
+			stmt.close();
+		}
+		
+		shardedConnection.createStatement("UPDATE agents SET shard = -1").executeUpdate();
+		
+		assertEquals(Double.valueOf(SHARDS), shardedConnection.getRowCount());
+	}
+	
+	/**
+	 * Test if an insert of the observer is rejected, instead of adding the row to every shard.
+	 * <p>
+	 * Expected: SQLException, no rows added
+	 * </p>
+	 * 
+	 * @throws Exception (should not occur)
+	 */
+	@Test
+	public void testCreateStatement_insert_rejected() throws Exception {
+		try {
+			shardedConnection.createStatement(" insert INTO agents (who, shard) VALUES (0, 0)");
+			fail("Expected insert to be rejected");
+		} catch (SQLException e) {
+			// expected
+		}
+		
+		for (Connection connection : connections) {
+			Statement stmt = connection.createStatement();
+			ResultSet rs = stmt.executeQuery("SELECT COUNT(*) FROM agents");
+			rs.next();
+			assertEquals(0, rs.getInt(1));
+			stmt.close();
+		}
+		assertFalse(ShardedConnection.addsRows("UPDATE agents SET who = 1"));
+		assertFalse(ShardedConnection.addsRows("SELECT inserted FROM agents"));
+	}
+	
+	/**
+	 * Test if the rows of a query on all shards are gathered in one result set.
+	 * <p>
+	 * Expected: rows of all shards, in shard order
+	 * </p>
+	 * 
+	 * @throws Exception (should not occur)
+	 */
+	@Test
+	public void testExecuteQuery_gathersRows() throws Exception {
+		for (int idx = 0; idx < SHARDS; idx++) {
+			Statement stmt = connections.get(idx).createStatement();
+			for (int who = idx; who < 7; who += SHARDS) {
+				stmt.executeUpdate("INSERT INTO agents (who, shard) VALUES (" + who + ", " + idx + ")");
+			}
+			stmt.close();
+		}
+		
+		shardedConnection.createStatement("SELECT who, shard FROM agents ORDER BY who").executeQuery();
+		SqlResultSet resultSet = shardedConnection.getResultSet();
+		assertTrue(resultSet.isRowAvailable());
+		LogoList first = resultSet.fetchRow();
+		assertEquals(Double.valueOf(0), first.get(0));
+		assertEquals(Double.valueOf(0), first.get(1));
+		LogoList rows = resultSet.fetchResultSet();
+		
+		assertEquals("fetch-resultset after fetch-row returns nothing", 0, rows.size());
+		int count = 1;
+		while (resultSet.isRowAvailable()) {
+			resultSet.fetchRow();
+			count++;
+		}
+		assertEquals(7, count);
+		assertFalse(resultSet.isRowAvailable());
+		assertEquals(0, resultSet.fetchRow().size());
+	}
+	
+	/**
+	 * Test if a query without rows on some shards skips those shards.
+	 * <p>
+	 * Expected: only the rows of the other shards
+	 * </p>
+	 * 
+	 * @throws Exception (should not occur)
+	 */
+	@Test
+	public void testFetchResultSet_emptyShards() throws Exception {
+		Statement stmt = connections.get(SHARDS - 1).createStatement();
+		stmt.executeUpdate("INSERT INTO agents (who, shard) VALUES (5, 2)");
+		stmt.close();
+		
+		shardedConnection.createStatement("SELECT who FROM agents").executeQuery();
+		LogoList rows = shardedConnection.getResultSet().fetchResultSet();
+		
+		assertEquals(1, rows.size());
+		assertEquals(Double.valueOf(5), ((LogoList) rows.get(0)).get(0));
+	}
+}
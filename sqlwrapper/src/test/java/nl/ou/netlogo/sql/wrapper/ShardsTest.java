@@ -0,0 +1,72 @@
+/*
+ * Copyright 2010, 2011 Open University of The Netherlands
+ * Contributors: Jan Blom, Rene Quakkelaar, Mark Rotteveel
+ *
+ * This file is part of NetLogo SQL Wrapper extension.
+ * 
+ * NetLogo SQL Wrapper extension is free software: you can redistribute it
+ * and/or modify it under the terms of the GNU Lesser General Public License 
+ * as published by the Free Software Foundation, either version 3 of the 
+ * License, or (at your option) any later version.
+ * 
+ * NetLogo SQL Wrapper is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with NetLogo SQL Wrapper extension.  If not, 
+ * see <http://www.gnu.org/licenses/>.
+ */
+package nl.ou.netlogo.sql.wrapper;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class ShardsTest {
+	
+	/**
+	 * Test if {@link Shards#shardOf(Object, int)} assigns a number and the equal who number to the same shard.
+	 * <p>
+	 * Expected: NetLogo number (Double) and who number (Long) are in the same shard
+	 * </p>
+	 */
+	@Test
+	public void testShardOf_numberMatchesWho() {
+		for (long who = 0; who < 100; who++) {
+			assertEquals(Shards.shardOf(Long.valueOf(who), 4), Shards.shardOf(Double.valueOf(who), 4));
+		}
+	}
+	
+	/**
+	 * Test if {@link Shards#shardOf(Object, int)} is stable for string keys.
+	 * <p>
+	 * Expected: same shard for equal keys
+	 * </p>
+	 */
+	@Test
+	public void testShardOf_stringKey() {
+		int shard = Shards.shardOf("household-12", 5);
+		assertEquals(shard, Shards.shardOf(new String("household-12"), 5));
+		assertTrue(shard >= 0 && shard < 5);
+	}
+	
+	/**
+	 * Test if {@link Shards#shardOf(Object, int)} spreads consecutive who numbers over the shards.
+	 * <p>
+	 * Expected: every shard receives at least 20% of 1000 agents over 3 shards
+	 * </p>
+	 */
+	@Test
+	public void testShardOf_spread() {
+		int[] counts = new int[3];
+		for (long who = 0; who < 1000; who++) {
+			counts[Shards.shardOf(Long.valueOf(who), 3)]++;
+		}
+		for (int count : counts) {
+			assertTrue("Unbalanced shards: " + count, count > 200);
+		}
+	}
+}
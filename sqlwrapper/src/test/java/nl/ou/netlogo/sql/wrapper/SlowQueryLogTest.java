@@ -0,0 +1,177 @@
+/*
+ * Copyright 2010, 2011 Open University of The Netherlands
+ * Contributors: Jan Blom, Rene Quakkelaar, Mark Rotteveel
+ *
+ * This file is part of NetLogo SQL Wrapper extension.
+ * 
+ * NetLogo SQL Wrapper extension is free software: you can redistribute it
+ * and/or modify it under the terms of the GNU Lesser General Public License 
+ * as published by the Free Software Foundation, either version 3 of the 
+ * License, or (at your option) any later version.
+ * 
+ * NetLogo SQL Wrapper is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with NetLogo SQL Wrapper extension.  If not, 
+ * see <http://www.gnu.org/licenses/>.
+ */
+package nl.ou.netlogo.sql.wrapper;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.nlogo.api.LogoListBuilder;
+
+/**
+ * Tests for {@link SlowQueryLog}.
+ */
+public class SlowQueryLogTest {
+	
+	private Connection connection;
+	private File logFile;
+	private SlowQueryLog slowQueryLog;
+	
+	@Before
+	public void setUp() throws Exception {
+		connection = DriverManager.getConnection("jdbc:h2:mem:slowquery", "sa", "");
+		connection.createStatement().execute("CREATE TABLE agents (id INT PRIMARY KEY, name VARCHAR(20))");
+		logFile = File.createTempFile("slowquery", ".log");
+		logFile.delete();
+		slowQueryLog = new SlowQueryLog();
+	}
+	
+	@After
+	public void tearDown() throws Exception {
+		slowQueryLog.close();
+		connection.close();
+		logFile.delete();
+	}
+	
+	/**
+	 * Test if nothing is slow when no threshold is configured.
+	 * 
+	 * @throws Exception (should not occur)
+	 */
+	@Test
+	public void testIsSlow_notConfigured() throws Exception {
+		assertFalse("Expected log disabled", slowQueryLog.isEnabled());
+		assertFalse("Expected not slow", slowQueryLog.isSlow(Long.MAX_VALUE));
+	}
+	
+	/**
+	 * Test if executions are slow from the threshold.
+	 * 
+	 * @throws Exception (should not occur)
+	 */
+	@Test
+	public void testIsSlow_threshold() throws Exception {
+		configure("10", "off");
+		
+		assertFalse("Expected not slow below threshold", slowQueryLog.isSlow(9999999));
+		assertTrue("Expected slow at threshold", slowQueryLog.isSlow(10000000));
+	}
+	
+	/**
+	 * Test if a slow statement is written with its duration, rows, SQL and parameters.
+	 * 
+	 * @throws Exception (should not occur)
+	 */
+	@Test
+	public void testRecord_writesEntry() throws Exception {
+		configure("10", "off");
+		LogoListBuilder parameters = new LogoListBuilder();
+		parameters.add(Double.valueOf(3));
+		
+		slowQueryLog.record(new SlowQueryLog.SlowQuery("SELECT name\n  FROM agents WHERE id = ?", parameters
+				.toLogoList(), null, 25000000, null), 1);
+		slowQueryLog.close();
+		
+		List<String> lines = readLines(logFile);
+		assertEquals("Unexpected number of lines: " + lines, 1, lines.size());
+		String line = lines.get(0);
+		assertTrue("Expected duration, got " + line, line.contains(" duration-ms=25.000 "));
+		assertTrue("Expected rows, got " + line, line.contains(" rows=1 "));
+		assertTrue("Expected agent, got " + line, line.contains(" agent=unknown "));
+		assertTrue("Expected SQL on one line, got " + line, line.contains(" sql=SELECT name FROM agents WHERE id = ? "));
+		assertTrue("Expected parameters, got " + line, line.contains(" parameters="));
+	}
+	
+	/**
+	 * Test if the execution plan is written after the entry when explain is enabled.
+	 * 
+	 * @throws Exception (should not occur)
+	 */
+	@Test
+	public void testRecord_explain() throws Exception {
+		configure("10", "on");
+		// H2 supports the EXPLAIN statement of MySQL
+		DatabaseInfo dbInfo = new GenericDatabase(DatabaseSupport.MYSQL.name(), "jdbc:h2:mem:slowquery",
+				"org.h2.Driver", "sa", "", false);
+		LogoListBuilder parameters = new LogoListBuilder();
+		parameters.add(Double.valueOf(3));
+		
+		slowQueryLog.record(new SlowQueryLog.SlowQuery("SELECT name FROM agents WHERE id = ?", parameters
+				.toLogoList(), null, 25000000, dbInfo), 0);
+		slowQueryLog.close();
+		
+		List<String> lines = readLines(logFile);
+		assertTrue("Expected execution plan, got " + lines, lines.size() >= 2);
+		assertTrue("Expected execution plan, got " + lines.get(1), lines.get(1).startsWith("  EXPLAIN: "));
+		assertTrue("Expected plan of the table, got " + lines.get(1), lines.get(1).toUpperCase().contains("AGENTS"));
+	}
+	
+	/**
+	 * Test if no execution plan is written for statements that are not explained, eg DDL.
+	 * 
+	 * @throws Exception (should not occur)
+	 */
+	@Test
+	public void testRecord_explain_notExplainable() throws Exception {
+		configure("10", "on");
+		DatabaseInfo dbInfo = new GenericDatabase(DatabaseSupport.MYSQL.name(), "jdbc:h2:mem:slowquery",
+				"org.h2.Driver", "sa", "", false);
+		
+		slowQueryLog.record(new SlowQueryLog.SlowQuery("CREATE TABLE other (id INT)", null, null, 25000000,
+				dbInfo), -1);
+		slowQueryLog.close();
+		
+		assertEquals("Expected entry only", 1, readLines(logFile).size());
+	}
+	
+	private void configure(String threshold, String explain) throws Exception {
+		SqlSetting settings = new SqlConfiguration().getConfiguration(SqlConfiguration.SLOWQUERY);
+		settings.put(SqlConfiguration.SLOWQUERY_OPT_THRESHOLD, threshold);
+		settings.put(SqlConfiguration.SLOWQUERY_OPT_PATH, logFile.getPath());
+		settings.put(SqlConfiguration.SLOWQUERY_OPT_EXPLAIN, explain);
+		slowQueryLog.configure(settings, null);
+	}
+	
+	private static List<String> readLines(File file) throws Exception {
+		List<String> lines = new ArrayList<String>();
+		BufferedReader reader = new BufferedReader(new FileReader(file));
+		try {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				lines.add(line);
+			}
+		} finally {
+			reader.close();
+		}
+		return lines;
+	}
+}
@@ -21,12 +21,17 @@
 package nl.ou.netlogo.sql.wrapper;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 import org.junit.Test;
+import org.nlogo.api.Context;
 import org.nlogo.api.ExtensionException;
 import org.nlogo.api.LogoList;
 import org.nlogo.api.LogoListBuilder;
@@ -151,6 +156,47 @@ public class SqlConfigurationTest {
 		SqlConfiguration.parseSettingList("name", list.toLogoList());
 	}
 	
+	/**
+	 * Test for {@link SqlConfiguration#isNamedPool(String)}.
+	 * <p>
+	 * Expected: only "pool:" followed by a name is a named pool
+	 * </p>
+	 */
+	@Test
+	public void testIsNamedPool() {
+		assertTrue(SqlConfiguration.isNamedPool("pool:results"));
+		assertFalse(SqlConfiguration.isNamedPool("pool:"));
+		assertFalse(SqlConfiguration.isNamedPool(SqlConfiguration.CONNECTIONPOOL));
+	}
+	
+	/**
+	 * Test for {@link SqlConfiguration#setConfiguration(String, Map, org.nlogo.api.Context)} for a named pool that was not configured before.
+	 * <p>
+	 * Expected: aspect becomes available with the options of defaultconnection and connectionpool, configurable registered for named pools is called
+	 * </p>
+	 * 
+	 * @throws Exception (should not occur)
+	 */
+	@Test
+	public void testSetConfiguration_namedPool() throws Exception {
+		SqlConfiguration configuration = new SqlConfiguration();
+		final List<String> configured = new ArrayList<String>();
+		configuration.addConfigurable(SqlConfiguration.NAMEDPOOL_PREFIX, new SqlConfigurable() {
+			public void configure(SqlSetting settings, Context context) throws Exception {
+				configured.add(settings.getName() + "/" + settings.getString(SqlConfiguration.DEFAULTCONNECTION_OPT_HOST)
+						+ "/" + settings.getString(SqlConfiguration.CONNECTIONPOOL_OPT_MAXCONNECTIONS));
+			}
+		});
+		assertTrue("Registering for named pools should not configure", configured.isEmpty());
+		
+		Map<String, String> settings = new HashMap<String, String>();
+		settings.put(SqlConfiguration.DEFAULTCONNECTION_OPT_HOST, "results-host");
+		configuration.setConfiguration("pool:results", settings, null);
+		
+		assertTrue("Expected named pool to be available", configuration.keySet().contains("pool:results"));
+		assertEquals(Collections.singletonList("pool:results/results-host/20"), configured);
+	}
+	
 	// TODO Consider case of an invalid settings list (eg list containing other objects than LogoList)
 	
 	// TODO Test other aspects of SqlConfiguration
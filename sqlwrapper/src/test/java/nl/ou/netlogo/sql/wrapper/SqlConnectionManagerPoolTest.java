@@ -0,0 +1,210 @@
+/*
+ * Copyright 2010, 2011 Open University of The Netherlands
+ * Contributors: Jan Blom, Rene Quakkelaar, Mark Rotteveel
+ *
+ * This file is part of NetLogo SQL Wrapper extension.
+ * 
+ * NetLogo SQL Wrapper extension is free software: you can redistribute it
+ * and/or modify it under the terms of the GNU Lesser General Public License 
+ * as published by the Free Software Foundation, either version 3 of the 
+ * License, or (at your option) any later version.
+ * 
+ * NetLogo SQL Wrapper is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with NetLogo SQL Wrapper extension.  If not, 
+ * see <http://www.gnu.org/licenses/>.
+ */
+package nl.ou.netlogo.sql.wrapper;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.sql.Connection;
+import java.util.ArrayList;
+import java.util.List;
+
+import nl.ou.netlogo.sql.testsupport.FakeDatabase;
+import nl.ou.netlogo.sql.testsupport.FakeDriver;
+
+import org.jmock.Mockery;
+import org.jmock.integration.junit4.JUnit4Mockery;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.nlogo.api.Agent;
+import org.nlogo.api.ExtensionException;
+
+import com.jolbox.bonecp.ConnectionHandle;
+
+/**
+ * Tests for pooled connections of {@link SqlConnectionManager}, with the
+ * {@link FakeDriver}.
+ */
+public class SqlConnectionManagerPoolTest {
+	
+	private Mockery context = new JUnit4Mockery();
+	private SqlConnectionManager connectionManager;
+	
+	@Before
+	public void setUp() throws Exception {
+		FakeDatabase.clear();
+		configure("pool", 1);
+	}
+	
+	private void configure(String database, int timeout) throws Exception {
+		connectionManager = new SqlConnectionManager();
+		SqlConfiguration configuration = new SqlConfiguration();
+		SqlSetting poolSettings = configuration.getConfiguration(SqlConfiguration.CONNECTIONPOOL);
+		poolSettings.put(SqlConfiguration.CONNECTIONPOOL_OPT_MAXCONNECTIONS, "5");
+		poolSettings.put(SqlConfiguration.CONNECTIONPOOL_OPT_TIMEOUT, String.valueOf(timeout));
+		connectionManager.configure(poolSettings, null);
+		SqlSetting settings = configuration.getConfiguration(SqlConfiguration.DEFAULTCONNECTION);
+		settings.put(SqlConfiguration.DEFAULTCONNECTION_OPT_BRAND, "generic");
+		settings.put(SqlConfiguration.DEFAULTCONNECTION_OPT_JDBC_URL, "jdbc:fake:" + database + ";connect-latency=20");
+		settings.put(SqlConfiguration.DEFAULTCONNECTION_OPT_DRIVER_CLASSNAME, FakeDriver.class.getName());
+		settings.put(SqlConfiguration.DEFAULTCONNECTION_OPT_USER, "sa");
+		settings.put(SqlConfiguration.DEFAULTCONNECTION_OPT_PASSWORD, "sa");
+		settings.put(SqlConfiguration.DEFAULTCONNECTION_OPT_AUTODISCONNECT, "off");
+		connectionManager.configure(settings, null);
+	}
+	
+	@After
+	public void tearDown() {
+		connectionManager.closeAll();
+		connectionManager.releaseConnectionPool();
+	}
+	
+	/**
+	 * Test if connections returned to the pool are reused by other agents.
+	 * <p>
+	 * Expected: no more physical connections than the pool size
+	 * </p>
+	 * 
+	 * @throws Exception (should not occur)
+	 */
+	@Test
+	public void testGetConnection_reusesReturnedConnection() throws Exception {
+		for (int i = 0; i < 20; i++) {
+			SqlConnection connection = connectionManager.getConnection(context.mock(Agent.class, "agent" + i), true);
+			assertNotNull(connection);
+			connection.close();
+		}
+		
+		assertTrue("Physical connections", FakeDatabase.get("pool").getConnects() <= 5);
+	}
+	
+	/**
+	 * Test if the checkout of a connection from an exhausted pool times out.
+	 * <p>
+	 * Expected: ExtensionException after the timeout of 1 second
+	 * </p>
+	 * 
+	 * @throws Exception (should not occur)
+	 */
+	@Test
+	public void testGetConnection_poolExhausted_timeout() throws Exception {
+		for (int i = 0; i < 5; i++) {
+			assertNotNull(connectionManager.getConnection(context.mock(Agent.class, "agent" + i), true));
+		}
+		
+		long start = System.currentTimeMillis();
+		try {
+			connectionManager.getConnection(context.mock(Agent.class, "waiting"), true);
+			fail("Expected checkout to time out");
+		} catch (ExtensionException e) {
+			long elapsed = System.currentTimeMillis() - start;
+			assertTrue("Timed out after " + elapsed + " ms", elapsed >= 900 && elapsed < 3000);
+		}
+	}
+
+	/**
+	 * Test if the checkout from a pool for a database that is down fails with the failure of the database.
+	 * <p>
+	 * Expected: ExtensionException with the connect failure, long before the timeout of 10 seconds
+	 * </p>
+	 * 
+	 * @throws Exception (should not occur)
+	 */
+	@Test
+	public void testGetConnection_databaseDown_fails() throws Exception {
+		tearDown();
+		FakeDatabase.get("down").setUnavailable(true);
+		configure("down", 10);
+		
+		long start = System.currentTimeMillis();
+		try {
+			connectionManager.getConnection(context.mock(Agent.class), true);
+			fail("Expected checkout to fail");
+		} catch (ExtensionException e) {
+			long elapsed = System.currentTimeMillis() - start;
+			assertTrue("Failed after " + elapsed + " ms", elapsed < 5000);
+			assertTrue(e.getMessage(), e.getMessage().contains("connection refused"));
+		}
+	}
+
+	/**
+	 * Test if a checkout that timed out leaves no lease and no connection behind.
+	 * <p>
+	 * Expected: after returning all connections no leases, and all connections can be checked out again
+	 * </p>
+	 * 
+	 * @throws Exception (should not occur)
+	 */
+	@Test
+	public void testGetConnection_timeout_releasesLease() throws Exception {
+		List<SqlConnection> connections = new ArrayList<SqlConnection>();
+		for (int i = 0; i < 5; i++) {
+			connections.add(connectionManager.getConnection(context.mock(Agent.class, "agent" + i), true));
+		}
+		try {
+			connectionManager.getConnection(context.mock(Agent.class, "waiting"), true);
+			fail("Expected checkout to time out");
+		} catch (ExtensionException e) {
+			// expected
+		}
+		for (SqlConnection connection : connections) {
+			connection.close();
+		}
+		ConnectionPool pool = connectionManager.getPools().get(0).getConnectionPool();
+		long deadline = System.currentTimeMillis() + 2000;
+		while (pool.getLeased() > 0 && System.currentTimeMillis() < deadline) {
+			Thread.sleep(10);
+		}
+		
+		assertEquals("Leases", 0, pool.getLeased());
+		for (int i = 0; i < 5; i++) {
+			assertNotNull(connectionManager.getConnection(context.mock(Agent.class, "again" + i), true));
+		}
+	}
+
+	/**
+	 * Test if a discarded connection is destroyed by the pool instead of being reused.
+	 * <p>
+	 * Expected: the physical connection is closed and counted as destroyed, the next checkout gets a new connection
+	 * </p>
+	 * 
+	 * @throws Exception (should not occur)
+	 */
+	@Test
+	public void testDiscard_destroysConnection() throws Exception {
+		ConnectionPool pool = connectionManager.getPools().get(0).getConnectionPool();
+		SqlConnection connection = connectionManager.getConnection(context.mock(Agent.class, "agent"), true);
+		ConnectionHandle handle = (ConnectionHandle) connection.getConnection();
+		Connection internal = handle.getInternalConnection();
+		double destroyed = ((Double) pool.getStatisticsMap().get("connections-destroyed")).doubleValue();
+		
+		pool.discard(handle);
+		
+		assertTrue("Expected physical connection closed", internal.isClosed());
+		assertEquals(destroyed + 1, ((Double) pool.getStatisticsMap().get("connections-destroyed")).doubleValue(), 0);
+		SqlConnection other = connectionManager.getConnection(context.mock(Agent.class, "other"), true);
+		assertNotSame(internal, ((ConnectionHandle) other.getConnection()).getInternalConnection());
+	}
+}
@@ -0,0 +1,114 @@
+/*
+ * Copyright 2010, 2011 Open University of The Netherlands
+ * Contributors: Jan Blom, Rene Quakkelaar, Mark Rotteveel
+ *
+ * This file is part of NetLogo SQL Wrapper extension.
+ * 
+ * NetLogo SQL Wrapper extension is free software: you can redistribute it
+ * and/or modify it under the terms of the GNU Lesser General Public License 
+ * as published by the Free Software Foundation, either version 3 of the 
+ * License, or (at your option) any later version.
+ * 
+ * NetLogo SQL Wrapper is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with NetLogo SQL Wrapper extension.  If not, 
+ * see <http://www.gnu.org/licenses/>.
+ */
+package nl.ou.netlogo.sql.wrapper;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.sql.Connection;
+
+import org.jmock.Mockery;
+import org.jmock.integration.junit4.JUnit4Mockery;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.nlogo.api.Agent;
+
+import com.jolbox.bonecp.BoneCP;
+import com.jolbox.bonecp.ConnectionHandle;
+
+/**
+ * Tests for explicit connections of {@link SqlConnectionManager}, with an
+ * in-memory H2 database.
+ */
+public class SqlConnectionManagerTest {
+	
+	private Mockery context = new JUnit4Mockery();
+	private SqlConnectionManager connectionManager;
+	private SqlSetting settings;
+	
+	@Before
+	public void setUp() throws Exception {
+		connectionManager = new SqlConnectionManager();
+		settings = new SqlConfiguration().getConfiguration(SqlConfiguration.EXPLICITCONNECTION);
+		settings.put(SqlConfiguration.DEFAULTCONNECTION_OPT_BRAND, "generic");
+		settings.put(SqlConfiguration.DEFAULTCONNECTION_OPT_JDBC_URL, "jdbc:h2:mem:explicit;DB_CLOSE_DELAY=-1");
+		settings.put(SqlConfiguration.DEFAULTCONNECTION_OPT_DRIVER_CLASSNAME, "org.h2.Driver");
+		settings.put(SqlConfiguration.DEFAULTCONNECTION_OPT_USER, "sa");
+		settings.put(SqlConfiguration.DEFAULTCONNECTION_OPT_PASSWORD, "sa");
+	}
+	
+	@After
+	public void tearDown() {
+		connectionManager.closeAll();
+		connectionManager.releaseConnectionPool();
+	}
+	
+	/**
+	 * Test if explicit connections returned by sql:disconnect are reused by the next sql:connect.
+	 * <p>
+	 * Expected: all connections from the same pool, which creates few physical connections
+	 * </p>
+	 * 
+	 * @throws Exception (should not occur)
+	 */
+	@Test
+	public void testCreateConnection_pooled_reusesConnections() throws Exception {
+		Agent agent = context.mock(Agent.class);
+		
+		SqlConnection first = connectionManager.createConnection(agent, settings);
+		assertFalse("Explicit connection should not be managed by the connection pool", first.isPooled());
+		BoneCP pool = ((ConnectionHandle) first.getConnection()).getPool();
+		first.close();
+		for (int i = 0; i < 10; i++) {
+			SqlConnection next = connectionManager.createConnection(agent, settings);
+			assertSame(pool, ((ConnectionHandle) next.getConnection()).getPool());
+			next.close();
+		}
+		
+		assertEquals("Leased connections", 0, pool.getTotalLeased());
+		assertTrue("Expected physical connections to be reused", pool.getTotalCreatedConnections() < 10);
+	}
+	
+	/**
+	 * Test if explicit connections without pooling open a new physical connection.
+	 * <p>
+	 * Expected: different physical connections
+	 * </p>
+	 * 
+	 * @throws Exception (should not occur)
+	 */
+	@Test
+	public void testCreateConnection_notPooled() throws Exception {
+		settings.put(SqlConfiguration.EXPLICITCONNECTION_OPT_POOLED, "off");
+		Agent agent = context.mock(Agent.class);
+		
+		SqlConnection first = connectionManager.createConnection(agent, settings);
+		Connection physical = first.getConnection();
+		first.close();
+		SqlConnection second = connectionManager.createConnection(agent, settings);
+		
+		assertNotSame(physical, second.getConnection());
+	}
+}
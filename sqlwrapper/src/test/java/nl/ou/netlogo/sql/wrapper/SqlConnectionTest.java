@@ -270,7 +270,7 @@ public class SqlConnectionTest {
 	}
 	
 	/**
-	 * Test if {@link SqlConnection#isConnected()} returns true when the physical connection is not closed.
+	 * Test if {@link SqlConnection#isConnected()} returns true for an open physical connection, without asking the driver.
 	 */
 	@Test
 	public void testIsConnected_connectionOpen() throws Exception {
@@ -279,7 +279,7 @@ public class SqlConnectionTest {
 		final SqlConnection sqlCon = new SqlConnection(connection, null);
 		
 		context.checking(new Expectations() {{
-			oneOf(connection).isClosed(); will(returnValue(false));
+			never(connection).isClosed();
 		}});
 		
 		assertTrue("Expected isConnected() to return true when physical connection is open", sqlCon.isConnected());
@@ -287,36 +287,46 @@ public class SqlConnectionTest {
 	}
 	
 	/**
-	 * Test if {@link SqlConnection#isConnected()} returns false when the physical connection is closed.
+	 * Test if {@link SqlConnection#isConnected()} returns false after the physical connection was closed.
 	 */
 	@Test
 	public void testIsConnected_connectionClosed() throws Exception {
+		final DatabaseInfo dbInfo = context.mock(DatabaseInfo.class);
 		final Connection connection = context.mock(Connection.class);
 		
-		final SqlConnection sqlCon = new SqlConnection(connection, null);
+		final SqlConnection sqlCon = new SqlConnection(connection, dbInfo);
 		
 		context.checking(new Expectations() {{
-			oneOf(connection).isClosed(); will(returnValue(true));
+			oneOf(connection).close();
+			never(connection).isClosed();
 		}});
 		
+		sqlCon.autoDisconnect();
+		
 		assertFalse("Expected isConnected() to return false when physical connection is closed", sqlCon.isConnected());
 		context.assertIsSatisfied();
 	}
 	
 	/**
-	 * Test if {@link SqlConnection#isConnected()} returns false when the physical connection throws an exception for isClosed().
+	 * Test if {@link SqlConnection#autoCommitEnabled()} asks the driver only once.
+	 * 
+	 * @throws Exception (should not occur)
 	 */
 	@Test
-	public void testIsConnected_connectionException() throws Exception {
+	public void testAutoCommitEnabled_readOnce() throws Exception {
 		final Connection connection = context.mock(Connection.class);
 		
 		final SqlConnection sqlCon = new SqlConnection(connection, null);
 		
 		context.checking(new Expectations() {{
-			oneOf(connection).isClosed(); will(throwException(new SQLException()));
+			oneOf(connection).getAutoCommit(); will(returnValue(true));
+			oneOf(connection).setAutoCommit(false);
 		}});
 		
-		assertFalse("Expected isConnected() to return false when physical connection throws SQLException", sqlCon.isConnected());
+		assertTrue("Expected autocommit", sqlCon.autoCommitEnabled());
+		assertTrue("Expected autocommit", sqlCon.autoCommitEnabled());
+		sqlCon.autoCommitOff();
+		assertFalse("Expected no autocommit after autoCommitOff()", sqlCon.autoCommitEnabled());
 		context.assertIsSatisfied();
 	}
 	
@@ -0,0 +1,160 @@
+/*
+ * Copyright 2010, 2011 Open University of The Netherlands
+ * Contributors: Jan Blom, Rene Quakkelaar, Mark Rotteveel
+ *
+ * This file is part of NetLogo SQL Wrapper extension.
+ * 
+ * NetLogo SQL Wrapper extension is free software: you can redistribute it
+ * and/or modify it under the terms of the GNU Lesser General Public License 
+ * as published by the Free Software Foundation, either version 3 of the 
+ * License, or (at your option) any later version.
+ * 
+ * NetLogo SQL Wrapper is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with NetLogo SQL Wrapper extension.  If not, 
+ * see <http://www.gnu.org/licenses/>.
+ */
+package nl.ou.netlogo.sql.wrapper;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import nl.ou.netlogo.sql.testsupport.FakeDatabase;
+import nl.ou.netlogo.sql.testsupport.FakeDriver;
+
+import org.jmock.Mockery;
+import org.jmock.integration.junit4.JUnit4Mockery;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.nlogo.api.Agent;
+import org.nlogo.api.ExtensionException;
+
+/**
+ * Tests for the isolation of the sql environments of workspaces, as created
+ * for parallel BehaviorSpace runs, with the {@link FakeDriver}.
+ */
+public class SqlEnvironmentIsolationTest {
+	
+	private Mockery context = new JUnit4Mockery();
+	private SqlEnvironment sqlenv1;
+	private SqlEnvironment sqlenv2;
+	
+	@Before
+	public void setUp() throws Exception {
+		FakeDatabase.clear();
+		sqlenv1 = SqlExtension.createSqlEnvironment();
+		sqlenv2 = SqlExtension.createSqlEnvironment();
+		configure(sqlenv1);
+		configure(sqlenv2);
+	}
+	
+	@After
+	public void tearDown() {
+		release(sqlenv1);
+		release(sqlenv2);
+	}
+	
+	private static void configure(SqlEnvironment sqlenv) throws ExtensionException {
+		Map<String, String> poolSettings = new HashMap<String, String>();
+		poolSettings.put(SqlConfiguration.CONNECTIONPOOL_OPT_MAXCONNECTIONS, "5");
+		poolSettings.put(SqlConfiguration.CONNECTIONPOOL_OPT_TIMEOUT, "1");
+		sqlenv.getConfiguration().setConfiguration(SqlConfiguration.CONNECTIONPOOL, poolSettings, null);
+		Map<String, String> settings = new HashMap<String, String>();
+		settings.put(SqlConfiguration.DEFAULTCONNECTION_OPT_BRAND, "generic");
+		settings.put(SqlConfiguration.DEFAULTCONNECTION_OPT_JDBC_URL, "jdbc:fake:runs");
+		settings.put(SqlConfiguration.DEFAULTCONNECTION_OPT_DRIVER_CLASSNAME, FakeDriver.class.getName());
+		settings.put(SqlConfiguration.DEFAULTCONNECTION_OPT_USER, "sa");
+		settings.put(SqlConfiguration.DEFAULTCONNECTION_OPT_PASSWORD, "sa");
+		settings.put(SqlConfiguration.DEFAULTCONNECTION_OPT_AUTODISCONNECT, "off");
+		sqlenv.getConfiguration().setConfiguration(SqlConfiguration.DEFAULTCONNECTION, settings, null);
+	}
+	
+	private static void release(SqlEnvironment sqlenv) {
+		sqlenv.getConnectionManager().closeAll();
+		sqlenv.getConnectionManager().releaseConnectionPool();
+	}
+	
+	/**
+	 * Test if every environment has its own configuration and connection
+	 * manager.
+	 * <p>
+	 * Expected: configuring one environment does not change the other
+	 * </p>
+	 * 
+	 * @throws Exception (should not occur)
+	 */
+	@Test
+	public void testConfiguration_isolated() throws Exception {
+		assertNotSame(sqlenv1.getConfiguration(), sqlenv2.getConfiguration());
+		assertNotSame(sqlenv1.getConnectionManager(), sqlenv2.getConnectionManager());
+		
+		Map<String, String> settings = new HashMap<String, String>();
+		settings.put(SqlConfiguration.DEFAULTCONNECTION_OPT_JDBC_URL, "jdbc:fake:other");
+		sqlenv1.getConfiguration().setConfiguration(SqlConfiguration.DEFAULTCONNECTION, settings, null);
+		
+		assertEquals("jdbc:fake:other", sqlenv1.getConfiguration().getConfiguration(
+				SqlConfiguration.DEFAULTCONNECTION).getString(SqlConfiguration.DEFAULTCONNECTION_OPT_JDBC_URL));
+		assertEquals("jdbc:fake:runs", sqlenv2.getConfiguration().getConfiguration(
+				SqlConfiguration.DEFAULTCONNECTION).getString(SqlConfiguration.DEFAULTCONNECTION_OPT_JDBC_URL));
+	}
+	
+	/**
+	 * Test if environments with identical pool settings share the physical
+	 * connection pool.
+	 * <p>
+	 * Expected: when the agents of one environment hold all connections, the
+	 * checkout of the other environment times out
+	 * </p>
+	 * 
+	 * @throws Exception (should not occur)
+	 */
+	@Test
+	public void testConnectionPool_shared() throws Exception {
+		for (int i = 0; i < 5; i++) {
+			assertNotNull(sqlenv1.getConnectionManager().getConnection(context.mock(Agent.class, "agent" + i), true));
+		}
+		
+		try {
+			sqlenv2.getConnectionManager().getConnection(context.mock(Agent.class, "other"), true);
+			fail("Expected checkout from the shared pool to time out");
+		} catch (ExtensionException e) {
+			// expected
+		}
+		assertTrue("Physical connections", FakeDatabase.get("runs").getConnects() <= 5);
+	}
+	
+	/**
+	 * Test if closing the connections of one environment, as done when its
+	 * workspace unloads the extension, leaves the other environment usable.
+	 * <p>
+	 * Expected: the other environment still executes statements
+	 * </p>
+	 * 
+	 * @throws Exception (should not occur)
+	 */
+	@Test
+	public void testRelease_otherEnvironmentUsable() throws Exception {
+		Agent agent1 = context.mock(Agent.class, "agent1");
+		Agent agent2 = context.mock(Agent.class, "agent2");
+		assertNotNull(sqlenv1.getConnectionManager().getConnection(agent1, true));
+		SqlConnection connection = sqlenv2.getConnectionManager().getConnection(agent2, true);
+		
+		release(sqlenv1);
+		
+		assertTrue(connection.isConnected());
+		SqlStatement statement = connection.createStatement("select 1");
+		statement.executeQuery();
+		assertTrue(statement.getResultSet().isRowAvailable());
+	}
+}
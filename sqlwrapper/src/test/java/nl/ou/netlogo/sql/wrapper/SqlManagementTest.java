@@ -0,0 +1,150 @@
+/*
+ * Copyright 2010, 2011 Open University of The Netherlands
+ * Contributors: Jan Blom, Rene Quakkelaar, Mark Rotteveel
+ *
+ * This file is part of NetLogo SQL Wrapper extension.
+ * 
+ * NetLogo SQL Wrapper extension is free software: you can redistribute it
+ * and/or modify it under the terms of the GNU Lesser General Public License 
+ * as published by the Free Software Foundation, either version 3 of the 
+ * License, or (at your option) any later version.
+ * 
+ * NetLogo SQL Wrapper is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with NetLogo SQL Wrapper extension.  If not, 
+ * see <http://www.gnu.org/licenses/>.
+ */
+package nl.ou.netlogo.sql.wrapper;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import javax.management.MBeanServer;
+import javax.management.MBeanServerFactory;
+import javax.management.ObjectName;
+
+import org.jmock.Mockery;
+import org.jmock.integration.junit4.JUnit4Mockery;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.nlogo.api.Agent;
+
+/**
+ * Tests for {@link SqlManagement}, with an in-memory H2 database.
+ */
+public class SqlManagementTest {
+	
+	private Mockery context = new JUnit4Mockery();
+	private MBeanServer server;
+	private SqlConnectionManager connectionManager;
+	private SqlManagement management;
+	private SqlSetting settings;
+	
+	@Before
+	public void setUp() throws Exception {
+		server = MBeanServerFactory.newMBeanServer();
+		connectionManager = new SqlConnectionManager();
+		management = new SqlManagement(connectionManager, server);
+		settings = new SqlConfiguration().getConfiguration(SqlConfiguration.EXPLICITCONNECTION);
+		settings.put(SqlConfiguration.DEFAULTCONNECTION_OPT_BRAND, "generic");
+		settings.put(SqlConfiguration.DEFAULTCONNECTION_OPT_JDBC_URL, "jdbc:h2:mem:management;DB_CLOSE_DELAY=-1");
+		settings.put(SqlConfiguration.DEFAULTCONNECTION_OPT_DRIVER_CLASSNAME, "org.h2.Driver");
+		settings.put(SqlConfiguration.DEFAULTCONNECTION_OPT_USER, "sa");
+		settings.put(SqlConfiguration.DEFAULTCONNECTION_OPT_PASSWORD, "sa");
+	}
+	
+	@After
+	public void tearDown() {
+		management.unregister();
+		connectionManager.closeAll();
+		connectionManager.releaseConnectionPool();
+	}
+	
+	/**
+	 * Test if the MBeans of the registry, the statistics and the default pool are registered.
+	 * 
+	 * @throws Exception (should not occur)
+	 */
+	@Test
+	public void testRegister() throws Exception {
+		management.register();
+		
+		assertEquals("Registered MBeans", 3, management.getObjectNames().size());
+		assertEquals("Registered MBeans", 3, server.queryNames(new ObjectName(SqlManagement.DOMAIN + ":*"), null)
+				.size());
+		ObjectName pool = server.queryNames(new ObjectName(SqlManagement.DOMAIN + ":type=ConnectionPool,*"), null)
+				.iterator().next();
+		assertEquals(SqlConfiguration.DEFAULTCONNECTION, server.getAttribute(pool, "Name"));
+		assertEquals(Boolean.FALSE, server.getAttribute(pool, "Enabled"));
+		assertEquals(Integer.valueOf(0), server.getAttribute(pool, "Waiting"));
+	}
+	
+	/**
+	 * Test if all MBeans are unregistered.
+	 * 
+	 * @throws Exception (should not occur)
+	 */
+	@Test
+	public void testUnregister() throws Exception {
+		management.register();
+		
+		management.unregister();
+		
+		assertTrue("Expected no MBeans", server.queryNames(new ObjectName(SqlManagement.DOMAIN + ":*"), null)
+				.isEmpty());
+	}
+	
+	/**
+	 * Test if the registry reports the connections of agents, and closes idle connections.
+	 * 
+	 * @throws Exception (should not occur)
+	 */
+	@Test
+	public void testConnectionRegistry_closeIdleConnections() throws Exception {
+		management.register();
+		ObjectName registry = server.queryNames(
+				new ObjectName(SqlManagement.DOMAIN + ":type=ConnectionRegistry,*"), null).iterator().next();
+		Agent agent = context.mock(Agent.class);
+		SqlConnection connection = connectionManager.createConnection(agent, settings);
+		assertEquals(Integer.valueOf(1), server.getAttribute(registry, "ConnectionCount"));
+		
+		Object closed = server.invoke(registry, "closeIdleConnections", new Object[] { Long.valueOf(3600) },
+				new String[] { long.class.getName() });
+		assertEquals("Connection used recently", Integer.valueOf(0), closed);
+		closed = server.invoke(registry, "closeIdleConnections", new Object[] { Long.valueOf(0) },
+				new String[] { long.class.getName() });
+		
+		assertEquals("Closed connections", Integer.valueOf(1), closed);
+		assertFalse("Expected connection closed", connection.isConnected());
+		assertEquals(Integer.valueOf(0), server.getAttribute(registry, "ConnectionCount"));
+	}
+	
+	/**
+	 * Test if the statement statistics report executions per statement, and can be reset.
+	 * 
+	 * @throws Exception (should not occur)
+	 */
+	@Test
+	public void testStatementStatistics() throws Exception {
+		management.register();
+		ObjectName statements = server.queryNames(
+				new ObjectName(SqlManagement.DOMAIN + ":type=StatementStatistics,*"), null).iterator().next();
+		connectionManager.getStatementStatistics().forSql("SELECT 1").recordExecution(2000000, false);
+		connectionManager.getStatementStatistics().forSql("SELECT 2").recordExecution(2000000, true);
+		
+		assertEquals(Integer.valueOf(1), server.getAttribute(statements, "StatementCount"));
+		assertEquals(Long.valueOf(2), server.getAttribute(statements, "Executions"));
+		assertEquals(Long.valueOf(1), server.getAttribute(statements, "Errors"));
+		assertEquals(1, ((Object[]) server.getAttribute(statements, "Statements")).length);
+		
+		server.invoke(statements, "resetStatistics", new Object[0], new String[0]);
+		
+		assertEquals(Integer.valueOf(0), server.getAttribute(statements, "StatementCount"));
+	}
+}
@@ -0,0 +1,167 @@
+/*
+ * Copyright 2010, 2011 Open University of The Netherlands
+ * Contributors: Jan Blom, Rene Quakkelaar, Mark Rotteveel
+ *
+ * This file is part of NetLogo SQL Wrapper extension.
+ * 
+ * NetLogo SQL Wrapper extension is free software: you can redistribute it
+ * and/or modify it under the terms of the GNU Lesser General Public License 
+ * as published by the Free Software Foundation, either version 3 of the 
+ * License, or (at your option) any later version.
+ * 
+ * NetLogo SQL Wrapper is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with NetLogo SQL Wrapper extension.  If not, 
+ * see <http://www.gnu.org/licenses/>.
+ */
+package nl.ou.netlogo.sql.wrapper;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+/**
+ * Tests for {@link StatementStatistics}.
+ */
+public class StatementStatisticsTest {
+	
+	/**
+	 * Test if literals are replaced and whitespace is collapsed by normalize.
+	 */
+	@Test
+	public void testNormalize() {
+		assertEquals("SELECT * FROM t1 WHERE a = ? AND b = ?",
+				StatementStatistics.normalize("  SELECT *\n FROM t1   WHERE a = 12.5 AND b = 'it''s'  "));
+		assertEquals("INSERT INTO x (c_2) VALUES (?, ?)",
+				StatementStatistics.normalize("INSERT INTO x (c_2) VALUES (3, 'a')"));
+	}
+	
+	/**
+	 * Test if statements that only differ in literals share their entry.
+	 */
+	@Test
+	public void testForSql_sharedEntry() {
+		StatementStatistics stats = new StatementStatistics();
+		
+		StatementStatistics.Entry entry = stats.forSql("SELECT 1");
+		
+		assertSame("Expected shared entry", entry, stats.forSql("SELECT  2"));
+		assertEquals("Unexpected number of entries", 1, stats.getEntries().size());
+	}
+	
+	/**
+	 * Test if executions, errors and rows are recorded.
+	 */
+	@Test
+	public void testRecord() {
+		StatementStatistics.Entry entry = new StatementStatistics().forSql("UPDATE t SET a = 1");
+		
+		entry.recordExecution(2000000, false);
+		entry.recordExecution(4000000, true);
+		entry.recordRowsUpdated(3);
+		entry.recordRowsUpdated(-1);
+		entry.recordRowFetched();
+		
+		assertEquals(2.0, entry.toMap().get("executions"));
+		assertEquals(1.0, entry.toMap().get("errors"));
+		assertEquals(3.0, entry.toMap().get("rows-updated"));
+		assertEquals(1.0, entry.toMap().get("rows-fetched"));
+		assertEquals(6.0, entry.getTotalMillis(), 0.001);
+	}
+	
+	/**
+	 * Test if the statements beyond the maximum are added up in one entry.
+	 */
+	@Test
+	public void testForSql_maximumStatements() {
+		StatementStatistics stats = new StatementStatistics();
+		for (int idx = 0; idx < StatementStatistics.MAX_STATEMENTS; idx++) {
+			stats.forSql("SELECT * FROM t" + idx);
+		}
+		
+		StatementStatistics.Entry entry = stats.forSql("SELECT * FROM other");
+		
+		assertEquals(StatementStatistics.OTHER_STATEMENTS, entry.getSql());
+		assertSame(entry, stats.forSql("SELECT * FROM another"));
+	}
+	
+	/**
+	 * Test if reset drops all statements.
+	 */
+	@Test
+	public void testReset() {
+		StatementStatistics stats = new StatementStatistics();
+		stats.forSql("SELECT 1").recordExecution(1000, false);
+		
+		stats.reset();
+		
+		assertTrue("Expected no entries", stats.getEntries().isEmpty());
+	}
+	
+	/**
+	 * Test if the CSV file gets a header once and a row per statement on every write.
+	 * 
+	 * @throws Exception (should not occur)
+	 */
+	@Test
+	public void testWriteCsv_appends() throws Exception {
+		StatementStatistics stats = new StatementStatistics();
+		stats.forSql("SELECT \"a\" FROM t").recordExecution(1000, false);
+		File file = File.createTempFile("stats", ".csv");
+		file.delete();
+		try {
+			stats.writeCsv(file);
+			stats.writeCsv(file);
+			
+			List<String> lines = readLines(file);
+			assertEquals("Unexpected number of lines", 3, lines.size());
+			assertTrue("Expected header, got " + lines.get(0), lines.get(0).startsWith("written-at,sql,executions"));
+			assertTrue("Expected quoted SQL, got " + lines.get(1), lines.get(1).contains(",\"SELECT \"\"a\"\" FROM t\",1.0,"));
+		} finally {
+			file.delete();
+		}
+	}
+	
+	/**
+	 * Test if no entry is handed out when statistics are disabled.
+	 * 
+	 * @throws Exception (should not occur)
+	 */
+	@Test
+	public void testConfigure_disabled() throws Exception {
+		StatementStatistics stats = new StatementStatistics();
+		SqlSetting settings = new SqlConfiguration().getConfiguration(SqlConfiguration.STATISTICS);
+		settings.put(SqlConfiguration.STATISTICS_OPT_ENABLED, "off");
+		
+		stats.configure(settings, null);
+		
+		assertNull("Expected no entry", stats.forSql("SELECT 1"));
+	}
+	
+	private static List<String> readLines(File file) throws Exception {
+		List<String> lines = new ArrayList<String>();
+		BufferedReader reader = new BufferedReader(new FileReader(file));
+		try {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				lines.add(line);
+			}
+		} finally {
+			reader.close();
+		}
+		return lines;
+	}
+}
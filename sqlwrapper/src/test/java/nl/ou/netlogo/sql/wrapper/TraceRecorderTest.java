@@ -0,0 +1,148 @@
+/*
+ * Copyright 2010, 2011 Open University of The Netherlands
+ * Contributors: Jan Blom, Rene Quakkelaar, Mark Rotteveel
+ *
+ * This file is part of NetLogo SQL Wrapper extension.
+ * 
+ * NetLogo SQL Wrapper extension is free software: you can redistribute it
+ * and/or modify it under the terms of the GNU Lesser General Public License 
+ * as published by the Free Software Foundation, either version 3 of the 
+ * License, or (at your option) any later version.
+ * 
+ * NetLogo SQL Wrapper is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with NetLogo SQL Wrapper extension.  If not, 
+ * see <http://www.gnu.org/licenses/>.
+ */
+package nl.ou.netlogo.sql.wrapper;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.sql.Connection;
+import java.sql.DriverManager;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests for {@link TraceRecorder}.
+ */
+public class TraceRecorderTest {
+	
+	private File traceFile;
+	private TraceRecorder traceRecorder;
+	
+	@Before
+	public void setUp() throws Exception {
+		traceFile = File.createTempFile("trace", ".json");
+		traceRecorder = new TraceRecorder();
+	}
+	
+	@After
+	public void tearDown() throws Exception {
+		traceRecorder.stop();
+		traceFile.delete();
+	}
+	
+	/**
+	 * Test if nothing is recorded before the trace is started.
+	 */
+	@Test
+	public void testRecord_notStarted() {
+		assertFalse("Expected no trace", traceRecorder.isActive());
+		
+		traceRecorder.record(TraceRecorder.EXECUTE, System.nanoTime(), null, "SELECT 1");
+	}
+	
+	/**
+	 * Test if a trace without spans is a complete trace file.
+	 * 
+	 * @throws Exception (should not occur)
+	 */
+	@Test
+	public void testStartStop_empty() throws Exception {
+		traceRecorder.start(traceFile.getPath(), null);
+		assertTrue("Expected trace", traceRecorder.isActive());
+		
+		traceRecorder.stop();
+		
+		assertFalse("Expected no trace", traceRecorder.isActive());
+		String trace = read(traceFile);
+		assertTrue("Unexpected trace " + trace, trace.startsWith("{\"traceEvents\":["));
+		assertTrue("Unexpected trace " + trace, trace.endsWith("\"dropped-spans\":\"0\"}}"));
+	}
+	
+	/**
+	 * Test if spans are written as complete events, with their SQL text escaped.
+	 * 
+	 * @throws Exception (should not occur)
+	 */
+	@Test
+	public void testRecord_writesSpans() throws Exception {
+		traceRecorder.start(traceFile.getPath(), null);
+		
+		traceRecorder.record(TraceRecorder.EXECUTE, System.nanoTime(), null, "SELECT \"name\"\nFROM agents", 3);
+		traceRecorder.stop();
+		
+		String trace = read(traceFile);
+		assertTrue("Expected thread name, got " + trace, trace.contains("\"name\":\"thread_name\",\"ph\":\"M\""));
+		assertTrue("Expected span, got " + trace, trace.contains("{\"name\":\"execute\",\"cat\":\"sql\",\"ph\":\"X\""));
+		assertTrue("Expected escaped SQL, got " + trace, trace
+				.contains("\"sql\":\"SELECT \\\"name\\\"\\u000aFROM agents\",\"rows\":3}}"));
+	}
+	
+	/**
+	 * Test if prepare, execute and fetch of a statement on a connection are traced.
+	 * 
+	 * @throws Exception (should not occur)
+	 */
+	@Test
+	public void testConnection_tracesStatement() throws Exception {
+		Connection connection = DriverManager.getConnection("jdbc:h2:mem:trace", "sa", "");
+		try {
+			connection.createStatement().execute("CREATE TABLE agents (id INT PRIMARY KEY)");
+			connection.createStatement().execute("INSERT INTO agents VALUES (1), (2)");
+			SqlConnection sqlConnection = new SqlConnection(connection, new GenericDatabase("generic",
+					"jdbc:h2:mem:trace", "org.h2.Driver", "sa", "", false));
+			sqlConnection.setTraceRecorder(traceRecorder);
+			traceRecorder.start(traceFile.getPath(), null);
+			
+			SqlStatement statement = sqlConnection.createStatement("SELECT id FROM agents");
+			statement.executeQuery();
+			assertEquals(2, statement.getResultSet().fetchResultSet().size());
+			traceRecorder.stop();
+		} finally {
+			connection.close();
+		}
+		
+		String trace = read(traceFile);
+		assertTrue("Expected prepare, got " + trace, trace.contains("\"name\":\"prepare\""));
+		assertTrue("Expected execute, got " + trace, trace.contains("\"name\":\"execute\""));
+		assertTrue("Expected fetch of all rows, got " + trace, trace
+				.contains("\"sql\":\"SELECT id FROM agents\",\"rows\":2}}"));
+	}
+	
+	private static String read(File file) throws Exception {
+		StringBuilder content = new StringBuilder();
+		BufferedReader reader = new BufferedReader(new FileReader(file));
+		try {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				content.append(content.length() == 0 ? "" : "\n").append(line);
+			}
+		} finally {
+			reader.close();
+		}
+		return content.toString();
+	}
+}